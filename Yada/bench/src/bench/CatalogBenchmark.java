@@ -0,0 +1,93 @@
+package bench;
+
+import app.FoodDiaryApp;
+import database.FoodCatalog;
+import model.CompositeFood;
+import model.Food;
+import org.openjdk.jmh.annotations.*;
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Catalog hot paths, by catalog size.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CatalogBenchmark {
+
+    @Benchmark
+    public FoodCatalog loadBasicFoods(CatalogState catalog) {
+        FoodCatalog db = catalog.newCatalog(catalog.basicFile, 'B');
+        db.load();
+        return db;
+    }
+
+    // Composite loading looks its components up in the shared catalog.
+    @Benchmark
+    public FoodCatalog loadCompositeFoods(CatalogState catalog) {
+        FoodCatalog db = catalog.newCatalog(catalog.compositeFile, 'C');
+        db.load();
+        return db;
+    }
+
+    @Benchmark
+    public void saveBasicFoods(CatalogState catalog, SaveTarget target) {
+        target.basic.save();
+    }
+
+    @Benchmark
+    public void saveCompositeFoods(CatalogState catalog, SaveTarget target) {
+        target.composite.save();
+    }
+
+    @Benchmark
+    public List<Food> searchAnyKeyword(CatalogState catalog) {
+        return FoodDiaryApp.searchFoodsByKeywords(new String[] {"snack", "dinner"}, false);
+    }
+
+    @Benchmark
+    public List<Food> searchAllKeywords(CatalogState catalog) {
+        return FoodDiaryApp.searchFoodsByKeywords(new String[] {"snack", "dinner"}, true);
+    }
+
+    // The last basic food's name, and one that is not in the catalog.
+    @Benchmark
+    public Food getFoodByName(CatalogState catalog) {
+        return FoodDiaryApp.getFoodByName(catalog.generator.foodName(catalog.generator.getBasicCount() - 1));
+    }
+
+    @Benchmark
+    public Food getFoodByMissingName(CatalogState catalog) {
+        return FoodDiaryApp.getFoodByName("No such food");
+    }
+
+    @Benchmark
+    public double finalizeCalories(CatalogState catalog, SaveTarget target) {
+        target.dish.finalizeCalories();
+        return target.dish.getCalories();
+    }
+
+    // Databases loaded from the catalog files that save to a scratch copy, and the most deeply
+    // nested composite food.
+    @State(Scope.Benchmark)
+    public static class SaveTarget {
+        FoodCatalog basic;
+        FoodCatalog composite;
+        CompositeFood dish;
+
+        @Setup(Level.Trial)
+        public void setUp(CatalogState catalog) throws java.io.IOException {
+            File basicCopy = new File(catalog.dir, "simpleFoods-copy.txt");
+            File compositeCopy = new File(catalog.dir, "complexFoods-copy.txt");
+            java.nio.file.Files.copy(catalog.basicFile.toPath(), basicCopy.toPath());
+            java.nio.file.Files.copy(catalog.compositeFile.toPath(), compositeCopy.toPath());
+            basic = catalog.newCatalog(basicCopy, 'B');
+            basic.load();
+            composite = catalog.newCatalog(compositeCopy, 'C');
+            composite.load();
+            dish = (CompositeFood) FoodDiaryApp.getFoodById(catalog.generator.foodId(catalog.foods - 1));
+        }
+    }
+}
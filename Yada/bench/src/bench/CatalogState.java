@@ -0,0 +1,47 @@
+package bench;
+
+import app.DataGenerator;
+import app.FoodDiaryApp;
+import database.FoodCatalog;
+import database.FoodDatabase;
+import database.OffHeapFoodDatabase;
+import org.openjdk.jmh.annotations.*;
+import output.Messages;
+import output.NoOpListener;
+import java.io.File;
+import java.io.IOException;
+
+// A generated catalog of the given size, loaded as the application's shared catalog, on or off the heap.
+@State(Scope.Benchmark)
+public class CatalogState {
+    @Param({"1000", "10000", "100000"})
+    public int foods;
+
+    @Param({"heap", "off-heap"})
+    public String backend;
+
+    DataGenerator generator;
+    File dir;
+    File basicFile;
+    File compositeFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Messages.setListener(new NoOpListener());
+        generator = SyntheticData.generator(foods, 0);
+        dir = SyntheticData.tempDir("yada-bench-catalog");
+        basicFile = new File(dir, "simpleFoods.txt");
+        compositeFile = new File(dir, "complexFoods.txt");
+        generator.writeFoods(basicFile, compositeFile);
+        FoodDiaryApp.loadCatalog(basicFile.getPath(), compositeFile.getPath(), 1, backend.equals("off-heap"));
+    }
+
+    FoodCatalog newCatalog(File file, char type) {
+        return backend.equals("off-heap") ? new OffHeapFoodDatabase(file.getPath(), type) : new FoodDatabase(file.getPath(), type);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        SyntheticData.deleteTree(dir);
+    }
+}
@@ -0,0 +1,43 @@
+package bench;
+
+import app.DataGenerator;
+import app.UserDiary;
+import database.DailyLogManager;
+import org.openjdk.jmh.annotations.*;
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDate;
+
+// A diary with the given number of days of history (and a profile for each day) over the
+// catalog of a CatalogState.
+@State(Scope.Benchmark)
+public class HistoryState {
+    @Param({"30", "365", "3650"})
+    public int days;
+
+    File dir;
+    File logFile;
+    LocalDate lastDay;
+    DailyLogManager logManager;
+    UserDiary diary;
+
+    @Setup(Level.Trial)
+    public void setUp(CatalogState catalog) throws IOException {
+        DataGenerator generator = SyntheticData.generator(catalog.foods, days);
+        dir = SyntheticData.tempDir("yada-bench-history");
+        logFile = new File(dir, "dailylogs.txt");
+        generator.writeLogs(logFile);
+        generator.writeProfiles(new File(dir, "profile.txt"));
+        lastDay = generator.getEnd();
+        logManager = new DailyLogManager(logFile.getPath());
+        logManager.load();
+        diary = new UserDiary("bench", dir.getPath());
+        diary.load();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        diary.close();
+        SyntheticData.deleteTree(dir);
+    }
+}
@@ -0,0 +1,41 @@
+package bench;
+
+import database.DailyLogManager;
+import org.openjdk.jmh.annotations.*;
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+// Daily log hot paths, by catalog size and history length.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LogBenchmark {
+
+    @Benchmark
+    public DailyLogManager loadLogs(CatalogState catalog, HistoryState history) {
+        DailyLogManager logManager = new DailyLogManager(history.logFile.getPath());
+        logManager.load();
+        return logManager;
+    }
+
+    // Rewrites the log file it was loaded from, with the same contents.
+    @Benchmark
+    public void saveLogs(CatalogState catalog, HistoryState history) {
+        history.logManager.save();
+    }
+
+    // Consumed and target calories for each of the last 30 days, as the summary views compute them.
+    @Benchmark
+    public double calorieSummary(CatalogState catalog, HistoryState history) {
+        double total = 0;
+        for (int i = 0; i < 30; i++) {
+            LocalDate date = history.lastDay.minusDays(i);
+            double consumed = history.diary.totalCaloriesConsumed(date);
+            Double target = history.diary.targetCalories(date);
+            total += target == null ? consumed : consumed - target;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,37 @@
+package bench;
+
+import app.DataGenerator;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+// Generated data for the benchmarks, from a fixed seed so every run measures the same data.
+final class SyntheticData {
+    static final long SEED = 42;
+    static final int ENTRIES_PER_DAY = 8;
+
+    private SyntheticData() {
+    }
+
+    static DataGenerator generator(int foods, int days) {
+        DataGenerator generator = new DataGenerator();
+        generator.setSeed(SEED);
+        generator.setFoods(foods);
+        generator.setDays(days);
+        generator.setEntriesPerDay(ENTRIES_PER_DAY);
+        return generator;
+    }
+
+    static File tempDir(String prefix) throws IOException {
+        return Files.createTempDirectory(prefix).toFile();
+    }
+
+    static void deleteTree(File dir) {
+        File[] children = dir.listFiles();
+        if (children != null) {
+            for (File child : children)
+                deleteTree(child);
+        }
+        dir.delete();
+    }
+}
@@ -0,0 +1,214 @@
+package app;
+
+import check.RunChecks;
+import command.AddLogEntryCommand;
+import command.DeleteLogEntryCommand;
+import command.UpdateLogEntryCommand;
+import database.AutoSaveService;
+import database.FoodCatalog;
+import database.FoodDatabase;
+import log.LogEntry;
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Replication (in package app, as ReplicationLeader and ReplicationFollower are): a standby
+// connected while the diary is being changed ends up with the same logs, archived days included,
+// and keeps them once promoted; a standby whose day no longer matches the primary's gets a
+// fresh snapshot instead of applying the change.
+public final class ReplicationCheck {
+    private ReplicationCheck() {
+    }
+
+    public static void register(Map<String, RunChecks.Body> checks) {
+        checks.put("replication.promote", ReplicationCheck::promote);
+        checks.put("replication.mismatch", ReplicationCheck::mismatch);
+    }
+
+    private static void promote() throws Exception {
+        File dir = Files.createTempDirectory("yada-check-replication").toFile();
+        ReplicationLeader leader = null;
+        ReplicationFollower follower = null;
+        try {
+            File basic = new File(dir, "simpleFoods.txt");
+            File composite = new File(dir, "complexFoods.txt");
+            Files.write(basic.toPath(), "B;B1;Apple;fruit;95.0;\nB;B2;Banana;fruit;105.0;\n".getBytes(StandardCharsets.UTF_8));
+            Files.write(composite.toPath(), new byte[0]);
+            FoodDiaryApp.loadCatalog(basic.getPath(), composite.getPath());
+            // The leader's own view of the same catalog, for its snapshot.
+            FoodCatalog basicFoods = new FoodDatabase(basic.getPath(), 'B');
+            FoodCatalog compositeFoods = new FoodDatabase(composite.getPath(), 'C');
+            basicFoods.load();
+            compositeFoods.load();
+
+            LocalDate today = LocalDate.now();
+            UserDiary primary = open(dir + "/primary");
+            UserDiary standby = open(dir + "/standby");
+            // Something archived and something hot before the standby connects.
+            primary.executeLogCommand(new AddLogEntryCommand(primary.getLogManager(), today.minusYears(1), new LogEntry("B2", 3)));
+            primary.executeLogCommand(new AddLogEntryCommand(primary.getLogManager(), today, new LogEntry("B1", 1)));
+            require(primary.archiveOldMonths(today) == 1, "nothing was archived");
+
+            int port;
+            try (ServerSocket probe = new ServerSocket(0)) {
+                port = probe.getLocalPort();
+            }
+            follower = new ReplicationFollower(standby, port);
+            follower.start();
+            leader = new ReplicationLeader(primary, List.of(basicFoods, compositeFoods), port);
+
+            // Changes keep coming while the leader connects and ships its snapshot.
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            Thread writer = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 300; i++) {
+                        LocalDate date = today.minusDays(i % 20);
+                        primary.executeLogCommand(new AddLogEntryCommand(primary.getLogManager(), date, new LogEntry(i % 2 == 0 ? "B1" : "B2", 1)));
+                        if (i % 10 == 0)
+                            Thread.sleep(1);
+                    }
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            });
+            writer.start();
+            leader.start();
+            writer.join();
+            if (failure.get() != null)
+                throw new AssertionError("Writer failed", failure.get());
+            ReplicationLeader shipping = leader;
+            ReplicationFollower following = follower;
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (!(shipping.isConnected() && following.isSynced() && shipping.getLagRecords() == 0)) {
+                require(System.currentTimeMillis() < deadline, "the standby did not catch up: " + following.describe());
+                Thread.sleep(10);
+            }
+
+            // Promote: stop following and keep what was applied.
+            follower.close();
+            String expected = logs(primary);
+            String promoted = logs(standby);
+            require(expected.equals(promoted), "standby logs differ from the primary's:\n  " + expected + "\n  " + promoted);
+            require(standby.getAutoSave().shutdown(), "the promoted standby could not save");
+            standby.close();
+            UserDiary reopened = open(dir + "/standby");
+            String reloaded = logs(reopened);
+            require(expected.equals(reloaded), "promoted standby's logs after a restart differ:\n  " + expected + "\n  " + reloaded);
+            reopened.getAutoSave().shutdown();
+            reopened.close();
+            primary.getAutoSave().shutdown();
+            primary.close();
+        } finally {
+            if (leader != null)
+                leader.close();
+            if (follower != null)
+                follower.close();
+            deleteTree(dir);
+        }
+    }
+
+    private static void mismatch() throws Exception {
+        File dir = Files.createTempDirectory("yada-check-replication").toFile();
+        ReplicationLeader leader = null;
+        ReplicationFollower follower = null;
+        try {
+            File basic = new File(dir, "simpleFoods.txt");
+            File composite = new File(dir, "complexFoods.txt");
+            Files.write(basic.toPath(), "B;B1;Apple;fruit;95.0;\nB;B2;Banana;fruit;105.0;\n".getBytes(StandardCharsets.UTF_8));
+            Files.write(composite.toPath(), new byte[0]);
+            FoodDiaryApp.loadCatalog(basic.getPath(), composite.getPath());
+            FoodCatalog basicFoods = new FoodDatabase(basic.getPath(), 'B');
+            FoodCatalog compositeFoods = new FoodDatabase(composite.getPath(), 'C');
+            basicFoods.load();
+            compositeFoods.load();
+
+            LocalDate today = LocalDate.now();
+            UserDiary primary = open(dir + "/primary");
+            UserDiary standby = open(dir + "/standby");
+            primary.executeLogCommand(new AddLogEntryCommand(primary.getLogManager(), today, new LogEntry("B1", 1)));
+            int port;
+            try (ServerSocket probe = new ServerSocket(0)) {
+                port = probe.getLocalPort();
+            }
+            follower = new ReplicationFollower(standby, port);
+            follower.start();
+            leader = new ReplicationLeader(primary, List.of(basicFoods, compositeFoods), port);
+            leader.start();
+            awaitSame(leader, follower, primary, standby);
+
+            // The standby loses the entry behind replication's back; the primary then changes it.
+            standby.executeLogCommand(new DeleteLogEntryCommand(standby.getLogManager(), today, 0));
+            primary.executeLogCommand(new UpdateLogEntryCommand(primary.getLogManager(), today, 0, 4));
+            awaitSame(leader, follower, primary, standby);
+
+            follower.close();
+            require(standby.getAutoSave().shutdown(), "the standby could not save");
+            standby.close();
+            UserDiary reopened = open(dir + "/standby");
+            String expected = logs(primary);
+            String reloaded = logs(reopened);
+            require(expected.equals(reloaded), "resynced standby's logs after a restart differ:\n  " + expected + "\n  " + reloaded);
+            reopened.getAutoSave().shutdown();
+            reopened.close();
+            primary.getAutoSave().shutdown();
+            primary.close();
+        } finally {
+            if (leader != null)
+                leader.close();
+            if (follower != null)
+                follower.close();
+            deleteTree(dir);
+        }
+    }
+
+    // Waits until the standby is caught up and holds the primary's logs.
+    private static void awaitSame(ReplicationLeader leader, ReplicationFollower follower, UserDiary primary, UserDiary standby)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!(leader.isConnected() && follower.isSynced() && leader.getLagRecords() == 0
+                && logs(primary).equals(logs(standby)))) {
+            require(System.currentTimeMillis() < deadline, "the standby did not catch up: " + follower.describe()
+                + "\n  " + logs(primary) + "\n  " + logs(standby));
+            Thread.sleep(10);
+        }
+    }
+
+    private static UserDiary open(String dataDir) {
+        new File(dataDir).mkdirs();
+        UserDiary diary = new UserDiary("", dataDir);
+        diary.load();
+        diary.attachAutoSave(new AutoSaveService(diary.getLock(), dataDir + "/checkpoint.manifest", 20, diary::checkpointLogCommands));
+        return diary;
+    }
+
+    // Every day's entries, archived days included.
+    private static String logs(UserDiary diary) {
+        StringBuilder text = new StringBuilder();
+        diary.getLogManager().readLogs(LocalDate.MIN, LocalDate.MAX).forEach((date, entries) -> {
+            text.append(date).append('=');
+            for (LogEntry entry : entries)
+                text.append(entry.getFoodId()).append('x').append(entry.getServings()).append(' ');
+        });
+        return text.toString();
+    }
+
+    private static void require(boolean condition, String message) {
+        if (!condition)
+            throw new AssertionError(message);
+    }
+
+    private static void deleteTree(File dir) throws IOException {
+        File[] children = dir.listFiles();
+        if (children != null) {
+            for (File child : children)
+                deleteTree(child);
+        }
+        dir.delete();
+    }
+}
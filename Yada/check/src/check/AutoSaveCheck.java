@@ -0,0 +1,134 @@
+package check;
+
+import database.AutoSaveService;
+import database.PersistentStore;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static check.Check.*;
+
+// AutoSaveService: debouncing, completions only after the disk has the checkpoint, retry of a
+// failed write, and finishing an interrupted multi-file swap.
+final class AutoSaveCheck {
+    private AutoSaveCheck() {
+    }
+
+    static void register(Map<String, RunChecks.Body> checks) {
+        checks.put("autosave.debounce", AutoSaveCheck::debounce);
+        checks.put("autosave.retry", AutoSaveCheck::retry);
+        checks.put("autosave.recover", AutoSaveCheck::recover);
+    }
+
+    // A store whose content is set by the check; counts how often it is rendered.
+    private static class TextStore implements PersistentStore {
+        final String filePath;
+        final AtomicInteger renders = new AtomicInteger();
+        volatile String text;
+
+        TextStore(File file, String text) {
+            this.filePath = file.getPath();
+            this.text = text;
+        }
+
+        @Override
+        public String getFilePath() {
+            return filePath;
+        }
+
+        @Override
+        public void writeTo(BufferedWriter writer) throws IOException {
+            renders.incrementAndGet();
+            writer.write(text);
+        }
+    }
+
+    // A burst of changes is rendered and written once, after the stores have been quiet.
+    private static void debounce() throws Exception {
+        File dir = tempDir("yada-check-autosave");
+        try {
+            Object lock = new Object();
+            AtomicInteger completions = new AtomicInteger();
+            AutoSaveService autoSave = new AutoSaveService(lock, dir + "/checkpoint.manifest", 200,
+                () -> completions::incrementAndGet);
+            TextStore store = new TextStore(new File(dir, "a.txt"), "");
+            autoSave.register(store);
+            for (int i = 1; i <= 20; i++) {
+                store.text = "edit " + i;
+                autoSave.markDirty(store);
+                sleep(5);
+            }
+            await(() -> new File(dir, "a.txt").exists(), 5000, "the debounced checkpoint");
+            await(() -> completions.get() == 1, 1000, "the checkpoint's completion");
+            equal("edit 20", read(new File(dir, "a.txt")), "saved content");
+            equal(1, store.renders.get(), "renders for a burst of 20 changes");
+            check(!autoSave.isDirty(), "store still dirty after its checkpoint");
+            check(autoSave.shutdown(), "shutdown reported unsaved changes");
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    // A checkpoint that cannot be written leaves the stores dirty, does not run its completion
+    // and is retried on its own; flush() reports the failure.
+    private static void retry() throws Exception {
+        File dir = tempDir("yada-check-autosave");
+        try {
+            File sub = new File(dir, "sub");
+            Object lock = new Object();
+            AtomicInteger completions = new AtomicInteger();
+            AutoSaveService autoSave = new AutoSaveService(lock, dir + "/checkpoint.manifest", 50,
+                () -> completions::incrementAndGet);
+            TextStore a = new TextStore(new File(dir, "a.txt"), "a1");
+            // Its directory does not exist yet, so its temp file cannot be written.
+            TextStore b = new TextStore(new File(sub, "b.txt"), "b1");
+            autoSave.register(a);
+            autoSave.register(b);
+            autoSave.markDirty(a);
+            autoSave.markDirty(b);
+            check(!autoSave.flush(), "flush reported success for a failed write");
+            equal(0, completions.get(), "completions run for a failed checkpoint");
+            check(autoSave.isDirty(), "stores of a failed checkpoint are no longer dirty");
+            check(!new File(dir, "a.txt").exists(), "part of a failed checkpoint was swapped in");
+            sub.mkdirs();
+            await(() -> new File(sub, "b.txt").exists(), AutoSaveService.RETRY_MILLIS + 3000, "the retried checkpoint");
+            await(() -> completions.get() > 0, 1000, "the retried checkpoint's completion");
+            equal("a1", read(new File(dir, "a.txt")), "a after the retry");
+            equal("b1", read(new File(sub, "b.txt")), "b after the retry");
+            check(!new File(dir, "checkpoint.manifest").exists(), "manifest left behind");
+            check(autoSave.shutdown(), "shutdown reported unsaved changes after the retry");
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    // A crash after the manifest was committed is finished by recover(); one before it is not.
+    private static void recover() throws Exception {
+        File dir = tempDir("yada-check-autosave");
+        try {
+            File a = new File(dir, "a.txt");
+            File b = new File(dir, "b.txt");
+            File manifest = new File(dir, "checkpoint.manifest");
+            write(a, "a1");
+            write(b, "b1");
+            // Stopped part way through the renames: a is swapped in, b is not.
+            write(a, "a2");
+            write(new File(dir, "b.txt.tmp"), "b2");
+            write(manifest, a.getPath() + "\n" + b.getPath() + "\n");
+            check(AutoSaveService.recover(manifest.getPath()), "recover failed");
+            equal("a2", read(a), "a after recovery");
+            equal("b2", read(b), "b after recovery");
+            check(!manifest.exists(), "manifest left behind");
+            // Stopped before the manifest was committed: the old files stay.
+            write(new File(dir, "a.txt.tmp"), "a3");
+            write(new File(dir, "checkpoint.manifest.tmp"), a.getPath() + "\n");
+            check(AutoSaveService.recover(manifest.getPath()), "recover failed");
+            equal("a2", read(a), "a after an uncommitted checkpoint");
+            check(!new File(dir, "checkpoint.manifest.tmp").exists(), "uncommitted manifest left behind");
+        } finally {
+            deleteTree(dir);
+        }
+    }
+}
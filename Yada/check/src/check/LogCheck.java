@@ -0,0 +1,252 @@
+package check;
+
+import app.UserDiary;
+import command.AddLogEntryCommand;
+import command.BatchLogCommand;
+import database.AutoSaveService;
+import database.DailyLogManager;
+import log.DailyLog;
+import log.LogEntry;
+import log.LogOp;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import static check.Check.*;
+
+// DailyLogManager and its journal: changes are recovered from the journal after a restart.
+final class LogCheck {
+    private LogCheck() {
+    }
+
+    static void register(Map<String, RunChecks.Body> checks) {
+        checks.put("log.batch", LogCheck::batch);
+        checks.put("log.torn-tail", LogCheck::tornTail);
+        checks.put("log.retention", LogCheck::retention);
+        checks.put("log.archive", LogCheck::archive);
+        checks.put("log.edited-file", LogCheck::editedFile);
+    }
+
+    // A batch is journaled as it is applied and as it is undone, so a restarted diary sees both.
+    private static void batch() throws Exception {
+        File dir = tempDir("yada-check-log");
+        try {
+            TenantCheck.loadFoods(dir);
+            String userDir = dir + "/ann";
+            LocalDate today = LocalDate.now();
+            UserDiary diary = open(userDir);
+            diary.executeLogCommand(new AddLogEntryCommand(diary.getLogManager(), today, new LogEntry("B1", 1)));
+            diary.executeLogCommand(new AddLogEntryCommand(diary.getLogManager(), today, new LogEntry("B2", 1)));
+            BatchLogCommand batch = new BatchLogCommand(diary.getLogManager(), today)
+                .updateEntry(0, 3)
+                .removeEntry(1)
+                .addEntry(new LogEntry("B2", 2))
+                .addEntry(new LogEntry("B1", 1));
+            diary.executeLogCommand(batch);
+            equal("[B1 x4.0, B2 x2.0]", entries(diary, today), "entries after the batch");
+            diary.close();
+            equal("[B1 x4.0, B2 x2.0]", recovered(userDir, today), "entries recovered after the batch");
+
+            check(diary.undoMostRecentCommand(), "nothing to undo");
+            equal("[B1 x1.0, B2 x1.0]", entries(diary, today), "entries after undoing the batch");
+            diary.close();
+            equal("[B1 x1.0, B2 x1.0]", recovered(userDir, today), "entries recovered after the undo");
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    // A crash in the middle of an append leaves part of an event at the end of the segment: it is
+    // ignored on recovery and cut off, so the events appended after recovery can be read back.
+    private static void tornTail() throws Exception {
+        File dir = tempDir("yada-check-log");
+        try {
+            LocalDate day = LocalDate.of(2026, 1, 5);
+            DailyLogManager logs = journaled(dir, 1000, 2);
+            insert(logs, day, "B1", 1);
+            insert(logs, day, "B2", 2);
+            insert(logs, day, "B1", 3);
+            logs.getJournal().close();
+            try (DataOutputStream out = new DataOutputStream(new FileOutputStream(new File(dir, "journal/events-0.log"), true))) {
+                out.writeInt(64);
+                out.write(new byte[10]);
+            }
+
+            logs = journaled(dir, 1000, 2);
+            equal("[B1 x1.0, B2 x2.0, B1 x3.0]", entries(logs, day), "entries recovered before the torn event");
+            insert(logs, day, "B2", 4);
+            logs.getJournal().close();
+            logs = journaled(dir, 1000, 2);
+            equal("[B1 x1.0, B2 x2.0, B1 x3.0, B2 x4.0]", entries(logs, day), "entries recovered after appending past the repair");
+            logs.getJournal().close();
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    // Only the newest snapshots, and the event segments from the oldest of them on, stay on disk,
+    // and they still recover the logs.
+    private static void retention() throws Exception {
+        File dir = tempDir("yada-check-log");
+        try {
+            LocalDate day = LocalDate.of(2026, 1, 5);
+            DailyLogManager logs = journaled(dir, 1000, 2);
+            insert(logs, day, "B1", 1);
+            // A snapshot after every third event, taken in the foreground so the seqs are known.
+            for (int i = 2; i <= 15; i++) {
+                double servings = i;
+                logs.withLog(day, log -> {
+                    log.getEntries().get(0).setServings(servings);
+                    log.markModified();
+                    logs.record(day, Collections.singletonList(LogOp.setServings(0, "B1", servings)));
+                    return null;
+                });
+                if (i % 3 == 0)
+                    logs.getJournal().start();
+            }
+            // No event follows snapshot 15, so its segment has not been created yet.
+            equal("[events-12.log, snapshot-12.txt, snapshot-15.txt]", journalFiles(dir), "journal files");
+            logs.getJournal().close();
+            DailyLogManager recovered = journaled(dir, 1000, 2);
+            equal("[B1 x15.0]", entries(recovered, day), "entries recovered from the kept files");
+            recovered.getJournal().close();
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    // Archiving writes the segment first and leaves the log file to the autosave: a load in
+    // between drops the days the file still has, and the next checkpoint writes it without them.
+    private static void archive() throws Exception {
+        File dir = tempDir("yada-check-log");
+        try {
+            TenantCheck.loadFoods(dir);
+            String userDir = dir + "/ann";
+            LocalDate winter = LocalDate.of(2026, 1, 5);
+            LocalDate summer = LocalDate.of(2026, 6, 10);
+            UserDiary diary = open(userDir);
+            AutoSaveService autoSave = new AutoSaveService(diary.getLock(), userDir + "/checkpoint.manifest", 60_000, diary::checkpointLogCommands);
+            diary.attachAutoSave(autoSave);
+            diary.executeLogCommand(new AddLogEntryCommand(diary.getLogManager(), winter, new LogEntry("B1", 1)));
+            diary.executeLogCommand(new AddLogEntryCommand(diary.getLogManager(), summer, new LogEntry("B2", 2)));
+            check(autoSave.flush(), "flush failed");
+            File logFile = new File(userDir, "dailylogs.txt");
+
+            equal(1, diary.archiveOldMonths(LocalDate.of(2026, 6, 15)), "months archived");
+            check(new File(userDir, "archive/2026-01.log.gz").exists(), "no segment for January");
+            equal("[]", entries(diary, winter), "January entries left in the store");
+            check(read(logFile).contains("05-01-2026"), "the log file was written before the checkpoint");
+
+            // As if the process stopped here: the file still has January, the archive wins.
+            deleteTree(new File(userDir, "journal"));
+            UserDiary restarted = open(userDir);
+            equal("[]", entries(restarted, winter), "January entries loaded from the log file");
+            equal("[B1 x1.0]", archived(restarted, winter), "January entries in the archive");
+            restarted.close();
+
+            check(autoSave.flush(), "flush failed");
+            check(!read(logFile).contains("05-01-2026"), "January still in the log file after the checkpoint");
+            equal("[B2 x2.0]", entries(diary, summer), "June entries");
+
+            // Changing an archived day brings its month back.
+            diary.executeLogCommand(new AddLogEntryCommand(diary.getLogManager(), winter, new LogEntry("B2", 1)));
+            equal("[B1 x1.0, B2 x1.0]", entries(diary, winter), "January entries after the change");
+            check(!new File(userDir, "archive/2026-01.log.gz").exists(), "January segment left after the change");
+            check(autoSave.shutdown(), "shutdown failed");
+            diary.close();
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    // The journal goes with the log file as last saved: an edit made to the file while the app
+    // was stopped wins over the journal, which starts again from the file.
+    private static void editedFile() throws Exception {
+        File dir = tempDir("yada-check-log");
+        try {
+            TenantCheck.loadFoods(dir);
+            String userDir = dir + "/ann";
+            LocalDate today = LocalDate.now();
+            UserDiary diary = open(userDir);
+            AutoSaveService autoSave = new AutoSaveService(diary.getLock(), userDir + "/checkpoint.manifest", 60_000, diary::checkpointLogCommands);
+            diary.attachAutoSave(autoSave);
+            diary.executeLogCommand(new AddLogEntryCommand(diary.getLogManager(), today, new LogEntry("B1", 2)));
+            check(autoSave.shutdown(), "shutdown failed");
+            diary.close();
+            equal("[B1 x2.0]", recovered(userDir, today), "entries recovered from the journal");
+
+            File logFile = new File(userDir, "dailylogs.txt");
+            write(logFile, read(logFile).replace("Servings: 2.0", "Servings: 5.0"));
+            equal("[B1 x5.0]", recovered(userDir, today), "entries after editing the log file");
+            // The journal now starts from the edited file.
+            equal("[B1 x5.0]", recovered(userDir, today), "entries after loading again");
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    // The day's entries as the archive holds them.
+    private static String archived(UserDiary diary, LocalDate date) {
+        List<String> entries = new ArrayList<>();
+        List<LogEntry> day = diary.getLogManager().getArchive().read(date, date).get(date);
+        for (LogEntry entry : day == null ? Collections.<LogEntry>emptyList() : day)
+            entries.add(entry.getFoodId() + " x" + entry.getServings());
+        return entries.toString();
+    }
+
+    private static DailyLogManager journaled(File dir, int snapshotEvery, int keepSnapshots) {
+        DailyLogManager logs = new DailyLogManager(dir + "/dailylogs.txt");
+        logs.enableJournal(dir + "/journal", snapshotEvery, keepSnapshots);
+        logs.load();
+        return logs;
+    }
+
+    private static void insert(DailyLogManager logs, LocalDate date, String foodId, double servings) {
+        logs.withLog(date, log -> {
+            log.addEntry(new LogEntry(foodId, servings));
+            logs.record(date, Collections.singletonList(LogOp.insert(-1, foodId, servings)));
+            return null;
+        });
+    }
+
+    private static String journalFiles(File dir) {
+        String[] names = new File(dir, "journal").list();
+        return new TreeSet<>(names == null ? Collections.emptyList() : Arrays.asList(names)).toString();
+    }
+
+    static UserDiary open(String userDir) {
+        new File(userDir).mkdirs();
+        UserDiary diary = new UserDiary("ann", userDir);
+        diary.load();
+        return diary;
+    }
+
+    // The day's entries as a diary loaded afresh from userDir sees them.
+    static String recovered(String userDir, LocalDate date) {
+        UserDiary diary = open(userDir);
+        try {
+            return entries(diary, date);
+        } finally {
+            diary.close();
+        }
+    }
+
+    static String entries(UserDiary diary, LocalDate date) {
+        return entries(diary.getLogManager(), date);
+    }
+
+    static String entries(DailyLogManager logs, LocalDate date) {
+        List<String> entries = new ArrayList<>();
+        DailyLog log = logs.getAllLogs().get(date);
+        for (LogEntry entry : log == null ? Collections.<LogEntry>emptyList() : log.snapshotEntries())
+            entries.add(entry.getFoodId() + " x" + entry.getServings());
+        return entries.toString();
+    }
+}
@@ -0,0 +1,62 @@
+package check;
+
+import app.ReplicationCheck;
+import output.CollectingListener;
+import output.Messages;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Runs the checks: focused, self-contained runs of the concurrency and persistence paths
+// (autosave, tenant eviction, the log journal, the file watcher, replication) against
+// temporary directories. Arguments select checks by name; exits with 1 if any failed.
+public final class RunChecks {
+    public interface Body {
+        void run() throws Exception;
+    }
+
+    private RunChecks() {
+    }
+
+    public static void main(String[] args) {
+        Map<String, Body> checks = new LinkedHashMap<>();
+        AutoSaveCheck.register(checks);
+        TenantCheck.register(checks);
+        LogCheck.register(checks);
+        WatcherCheck.register(checks);
+        ReplicationCheck.register(checks);
+        // Messages are kept and only shown for a failed check.
+        CollectingListener messages = new CollectingListener(200);
+        Messages.setListener(messages);
+        int run = 0;
+        int failed = 0;
+        for (Map.Entry<String, Body> check : checks.entrySet()) {
+            if (!selected(check.getKey(), args))
+                continue;
+            run++;
+            messages.clear();
+            long start = System.nanoTime();
+            try {
+                check.getValue().run();
+                System.out.printf("PASS %s (%d ms)%n", check.getKey(), (System.nanoTime() - start) / 1_000_000);
+            } catch (Throwable e) {
+                failed++;
+                System.out.println("FAIL " + check.getKey() + ": " + e);
+                e.printStackTrace(System.out);
+                for (CollectingListener.Message message : messages.getMessages())
+                    System.out.println("  " + message);
+            }
+        }
+        System.out.println(run + " check(s), " + failed + " failed.");
+        System.exit(failed == 0 ? 0 : 1);
+    }
+
+    private static boolean selected(String name, String[] args) {
+        if (args.length == 0)
+            return true;
+        for (String arg : args) {
+            if (name.contains(arg))
+                return true;
+        }
+        return false;
+    }
+}
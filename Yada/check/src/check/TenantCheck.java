@@ -0,0 +1,174 @@
+package check;
+
+import app.FoodDiaryApp;
+import app.TenantManager;
+import app.UserDiary;
+import command.AddLogEntryCommand;
+import database.DailyLogManager;
+import log.DailyLog;
+import log.LogEntry;
+import java.io.File;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static check.Check.*;
+
+// TenantManager: a diary in use is not closed when it is evicted, and no change is lost or
+// written by two diaries of the same user while the cache keeps evicting.
+final class TenantCheck {
+    private static final String[] USERS = {"ann", "bob", "cat"};
+
+    private TenantCheck() {
+    }
+
+    static void register(Map<String, RunChecks.Body> checks) {
+        checks.put("tenant.pinned", TenantCheck::pinned);
+        checks.put("tenant.churn", TenantCheck::churn);
+        checks.put("tenant.resident", TenantCheck::resident);
+    }
+
+    static void loadFoods(File dir) throws Exception {
+        File basic = new File(dir, "simpleFoods.txt");
+        File composite = new File(dir, "complexFoods.txt");
+        write(basic, "B;B1;Apple;fruit;95.0;\nB;B2;Banana;fruit;105.0;\n");
+        write(composite, "");
+        FoodDiaryApp.loadCatalog(basic.getPath(), composite.getPath());
+    }
+
+    // An evicted diary that a request still holds stays open and is handed to the next request
+    // for the user; what the holder changed is on disk once it has been released.
+    private static void pinned() throws Exception {
+        File dir = tempDir("yada-check-tenant");
+        try {
+            loadFoods(dir);
+            TenantManager tenants = new TenantManager(dir + "/users", 1, Long.MAX_VALUE, 60_000, 20);
+            LocalDate today = LocalDate.now();
+            UserDiary ann = tenants.acquire("ann");
+            // Only one diary fits, so this evicts ann's while it is held.
+            UserDiary bob = tenants.acquire("bob");
+            tenants.release(bob);
+            add(ann, today, 2);
+            check(tenants.acquire("ann") == ann, "a held diary was loaded again instead of taken back");
+            tenants.release(ann);
+            tenants.release(ann);
+            // Evict it again, now unheld, and let it close.
+            tenants.release(tenants.acquire("bob"));
+            await(() -> servings(new DailyLogManager(dir + "/users/ann/dailylogs.txt"), today) == 2, 5000, "ann's change on disk");
+            UserDiary reloaded = tenants.acquire("ann");
+            check(reloaded != ann, "a closed diary was handed out again");
+            equal(2.0, servings(reloaded.getLogManager(), today), "servings after reloading");
+            tenants.release(reloaded);
+            check(tenants.shutdown(), "shutdown reported unsaved changes");
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    // Many threads change three users' diaries through a cache that holds one; every change
+    // must be in both the log file and the journal afterwards.
+    private static void churn() throws Exception {
+        File dir = tempDir("yada-check-tenant");
+        try {
+            loadFoods(dir);
+            TenantManager tenants = new TenantManager(dir + "/users", 1, Long.MAX_VALUE, 60_000, 5);
+            LocalDate today = LocalDate.now();
+            AtomicIntegerArray expected = new AtomicIntegerArray(USERS.length);
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                Thread thread = new Thread(() -> {
+                    try {
+                        ThreadLocalRandom random = ThreadLocalRandom.current();
+                        for (int i = 0; i < 150; i++) {
+                            int user = random.nextInt(USERS.length);
+                            UserDiary diary = tenants.acquire(USERS[user]);
+                            try {
+                                add(diary, today, 1);
+                                expected.incrementAndGet(user);
+                                if (random.nextInt(4) == 0)
+                                    sleep(1);
+                            } finally {
+                                tenants.release(diary);
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                });
+                threads.add(thread);
+                thread.start();
+            }
+            for (Thread thread : threads)
+                thread.join();
+            if (failure.get() != null)
+                throw new AssertionError("Request failed", failure.get());
+            check(tenants.shutdown(), "shutdown reported unsaved changes");
+            for (int user = 0; user < USERS.length; user++) {
+                String userDir = dir + "/users/" + USERS[user];
+                // The log file on its own, then the journal (which a diary recovers from).
+                equal((double) expected.get(user), servings(loadFile(userDir + "/dailylogs.txt"), today), USERS[user] + "'s servings in the log file");
+                UserDiary diary = new UserDiary(USERS[user], userDir);
+                diary.load();
+                equal((double) expected.get(user), servings(diary.getLogManager(), today), USERS[user] + "'s servings in the journal");
+            }
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    // A diary its owner opened (the CLI's --user diary) is the one requests for that user get,
+    // however busy the cache is, and is not closed by the manager.
+    private static void resident() throws Exception {
+        File dir = tempDir("yada-check-tenant");
+        try {
+            loadFoods(dir);
+            TenantManager tenants = new TenantManager(dir + "/users", 1, Long.MAX_VALUE, 60_000, 20);
+            LocalDate today = LocalDate.now();
+            UserDiary ann = new UserDiary("ann", tenants.getUserDir("ann"));
+            new File(ann.getDataDir()).mkdirs();
+            ann.load();
+            tenants.addResident(ann);
+            for (String user : USERS) {
+                UserDiary diary = tenants.acquire(user);
+                add(diary, today, 1);
+                tenants.release(diary);
+            }
+            check(tenants.acquire("ann") == ann, "a second diary was loaded for a resident user");
+            tenants.release(ann);
+            check(tenants.shutdown(), "shutdown reported unsaved changes");
+            equal(1.0, servings(ann.getLogManager(), today), "servings in the resident diary");
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    private static void add(UserDiary diary, LocalDate date, double servings) {
+        diary.executeLogCommand(new AddLogEntryCommand(diary.getLogManager(), date, new LogEntry("B1", servings)));
+    }
+
+    private static DailyLogManager loadFile(String path) {
+        DailyLogManager logs = new DailyLogManager(path);
+        logs.load();
+        return logs;
+    }
+
+    // Servings of B1 on the date, loading the manager first if it is not loaded yet.
+    private static double servings(DailyLogManager logs, LocalDate date) {
+        if (logs.getAllLogs().isEmpty())
+            logs.load();
+        DailyLog log = logs.getAllLogs().get(date);
+        if (log == null)
+            return 0;
+        double total = 0;
+        for (LogEntry entry : log.snapshotEntries()) {
+            if (entry.getFoodId().equals("B1"))
+                total += entry.getServings();
+        }
+        return total;
+    }
+}
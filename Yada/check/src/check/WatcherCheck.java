@@ -0,0 +1,95 @@
+package check;
+
+import database.AutoSaveService;
+import database.FileWatcher;
+import database.PersistentStore;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static check.Check.*;
+
+// FileWatcher: the autosave's own writes are not reported as changes, and edits by anyone
+// else are, even when they leave the file's size and modification time as they were.
+final class WatcherCheck {
+    private static final String DAY1 = "Date: 01-01-2026\n1) FoodID: B1, Name: Apple, Servings: 1.0\n";
+    private static final String DAY2 = "Date: 02-01-2026\n1) FoodID: B2, Name: Banana, Servings: 2.0\n";
+
+    private WatcherCheck() {
+    }
+
+    static void register(Map<String, RunChecks.Body> checks) {
+        checks.put("watch.own-write", WatcherCheck::ownWrite);
+    }
+
+    // A log file whose content the check sets; the autosave writes it like any data file.
+    private static class Store implements PersistentStore {
+        final String path;
+        volatile String content;
+
+        Store(String path) {
+            this.path = path;
+        }
+
+        public String getFilePath() {
+            return path;
+        }
+
+        public void writeTo(BufferedWriter writer) throws IOException {
+            writer.write(content);
+        }
+    }
+
+    private static void ownWrite() throws Exception {
+        File dir = tempDir("yada-check-watch");
+        FileWatcher watcher = new FileWatcher(50);
+        Object lock = new Object();
+        AutoSaveService autoSave = new AutoSaveService(lock, dir + "/checkpoint.manifest", 10, () -> null);
+        try {
+            File file = new File(dir, "dailylogs.txt");
+            write(file, DAY1);
+            List<Map<String, String>> reported = Collections.synchronizedList(new ArrayList<>());
+            watcher.watch(file.getPath(), FileWatcher.Format.DAYS, reported::add);
+            watcher.start();
+            Store store = new Store(file.getPath());
+            autoSave.register(store);
+
+            // Our own change to a day.
+            store.content = DAY1.replace("1.0", "4.0");
+            save(autoSave, store, lock);
+            sleep(300);
+            equal("[]", reported.toString(), "changes reported after an own write");
+
+            // Another program changes the day, keeping the size and modification time.
+            long modified = file.lastModified();
+            write(file, DAY1.replace("1.0", "5.0"));
+            check(file.setLastModified(modified), "could not set the modification time");
+            await(() -> reported.size() == 1, 5000, "the edit to be reported");
+            equal("{01-01-2026=1) FoodID: B1, Name: Apple, Servings: 5.0}", reported.get(0).toString(), "reported edit");
+
+            // Another program adds a day right after an own write: only its day is reported.
+            store.content = DAY1.replace("1.0", "6.0");
+            save(autoSave, store, lock);
+            write(file, DAY1.replace("1.0", "6.0") + DAY2);
+            await(() -> reported.size() == 2, 5000, "the added day to be reported");
+            sleep(300);
+            equal(2, reported.size(), "reports after the added day");
+            equal("{02-01-2026=1) FoodID: B2, Name: Banana, Servings: 2.0}", reported.get(1).toString(), "reported day");
+        } finally {
+            autoSave.shutdown();
+            watcher.close();
+            deleteTree(dir);
+        }
+    }
+
+    private static void save(AutoSaveService autoSave, Store store, Object lock) {
+        synchronized (lock) {
+            autoSave.markDirty(store);
+        }
+        check(autoSave.flush(), "flush failed");
+    }
+}
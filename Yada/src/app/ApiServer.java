@@ -0,0 +1,667 @@
+package app;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import command.*;
+import database.FoodQuery;
+import database.LogArchive;
+import log.DailyLog;
+import log.LogEntry;
+import log.VersionConflictException;
+import model.Food;
+import java.io.*;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// HTTP/JSON front end for the food diary (server mode).
+// Endpoints:
+//   GET    /foods/search?q=fruit+snack[&all=true]    keyword search over committed foods
+//   GET    /logs?date=YYYY-MM-DD                      entries and version of one day
+//   POST   /logs    date, foodId, servings[, version] add (or merge into) a log entry
+//   PUT    /logs    date, index, servings[, version]  update an entry (0 servings deletes it)
+//   DELETE /logs?date=YYYY-MM-DD&index=N[&version=V]  delete an entry
+//   POST   /logs/batch  date[, add, update, remove, version]
+//                       many changes to one day as a single undo step, e.g.
+//                       add=B1:1.5|B2:2  update=0:3|2:1  remove=1|4
+//   POST   /undo                                      undo the most recent log command
+//   GET    /summary?date=YYYY-MM-DD                   calories consumed vs. target
+// Parameters may be given in the query string, as a form body or as a flat JSON object.
+// Entry indices are 0-based, as in the command classes.
+// Log changes that carry the day's version (as returned by GET /logs) are applied only if the
+// day has not changed since; otherwise the server answers 409 with the current version.
+// Diary requests act on the user named by the X-User header (or a "user" parameter);
+// without one they use the default diary in ./data.
+public class ApiServer {
+    // The tenant diary the request being handled on this thread acquired (see resolveDiary);
+    // released once it has been answered.
+    private final ThreadLocal<UserDiary> acquired = new ThreadLocal<>();
+    private static final Pattern JSON_FIELD = Pattern.compile("\"(\\w+)\"\\s*:\\s*(?:\"((?:[^\"\\\\]|\\\\.)*)\"|([^,}\\s]+))");
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final TenantManager tenants;
+    private final UserDiary defaultDiary;
+
+    public ApiServer(int port, TenantManager tenants, UserDiary defaultDiary) throws IOException {
+        this.tenants = tenants;
+        this.defaultDiary = defaultDiary;
+        server = HttpServer.create(new InetSocketAddress(port), 4096);
+        server.createContext("/foods/search", releasing(this::handleSearch));
+        server.createContext("/foods/query", releasing(this::handleQuery));
+        server.createContext("/foods/quick", releasing(this::handleQuickPick));
+        server.createContext("/logs", releasing(this::handleLogs));
+        server.createContext("/logs/batch", releasing(this::handleBatch));
+        server.createContext("/logs/history", releasing(this::handleHistory));
+        server.createContext("/undo", releasing(this::handleUndo));
+        server.createContext("/summary", releasing(this::handleSummary));
+        server.createContext("/plan", releasing(this::handlePlan));
+        executor = newRequestExecutor();
+        server.setExecutor(executor);
+    }
+
+    public void start() {
+        server.start();
+        System.out.println("YADA API server listening on port " + server.getAddress().getPort());
+    }
+
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    // One virtual thread per request where the runtime supports it (JDK 21+);
+    // on older runtimes fall back to a cached pool of platform threads.
+    static ExecutorService newRequestExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    private void handleSearch(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("GET")) {
+            sendError(exchange, 405, "Method not allowed");
+            return;
+        }
+        Map<String, String> params = readParams(exchange);
+        String query = params.getOrDefault("q", "").trim();
+        if (query.isEmpty()) {
+            sendError(exchange, 400, "Missing parameter: q");
+            return;
+        }
+        List<Food> foods;
+        if (params.containsKey("limit")) {
+            // Ranked for the requesting user, best first.
+            UserDiary diary = resolveDiary(exchange, params);
+            if (diary == null)
+                return;
+            int limit;
+            try {
+                limit = Integer.parseInt(params.get("limit").trim());
+            } catch (NumberFormatException e) {
+                sendError(exchange, 400, "Invalid number: " + params.get("limit"));
+                return;
+            }
+            foods = FoodDiaryApp.rankedSearch(query, limit, diary);
+        } else {
+            boolean matchAll = Boolean.parseBoolean(params.get("all"));
+            foods = FoodDiaryApp.searchFoodsByKeywords(query.split("\\s+"), matchAll);
+        }
+        StringBuilder json = new StringBuilder("[");
+        for (Food food : foods) {
+            if (json.length() > 1)
+                json.append(',');
+            appendFood(json, food);
+        }
+        json.append(']');
+        sendJson(exchange, 200, json.toString());
+    }
+
+    // The user's recently and most often logged foods: {"recent":[...],"frequent":[...]}.
+    private void handleQuickPick(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("GET")) {
+            sendError(exchange, 405, "Method not allowed");
+            return;
+        }
+        Map<String, String> params = readParams(exchange);
+        UserDiary diary = resolveDiary(exchange, params);
+        if (diary == null)
+            return;
+        int limit;
+        try {
+            limit = Integer.parseInt(params.getOrDefault("limit", "5").trim());
+        } catch (NumberFormatException e) {
+            sendError(exchange, 400, "Invalid number: " + params.get("limit"));
+            return;
+        }
+        List<Food> recent = FoodDiaryApp.quickPickFoods(diary.getFoodUsage().getRecent(limit), null);
+        List<Food> frequent = FoodDiaryApp.quickPickFoods(diary.getFoodUsage().getFrequent(limit), null);
+        StringBuilder json = new StringBuilder("{\"recent\":[");
+        for (int i = 0; i < recent.size(); i++) {
+            if (i > 0)
+                json.append(',');
+            appendFood(json, recent.get(i));
+        }
+        json.append("],\"frequent\":[");
+        for (int i = 0; i < frequent.size(); i++) {
+            if (i > 0)
+                json.append(',');
+            appendFood(json, frequent.get(i));
+        }
+        json.append("]}");
+        sendJson(exchange, 200, json.toString());
+    }
+
+    // Parameters as for parseFoodQuery.
+    private void handleQuery(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("GET")) {
+            sendError(exchange, 405, "Method not allowed");
+            return;
+        }
+        Map<String, String> params = readParams(exchange);
+        FoodQuery query;
+        try {
+            query = parseFoodQuery(params);
+        } catch (IllegalArgumentException e) {
+            sendError(exchange, 400, e.getMessage());
+            return;
+        }
+        StringBuilder json = new StringBuilder("[");
+        for (Food food : FoodDiaryApp.queryFoods(query)) {
+            if (json.length() > 1)
+                json.append(',');
+            appendFood(json, food);
+        }
+        json.append(']');
+        sendJson(exchange, 200, json.toString());
+    }
+
+    // date, tolerance (default MealPlanner.DEFAULT_TOLERANCE), maxFoods, plus the /foods/query
+    // parameters to restrict the foods used.
+    private void handlePlan(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("GET")) {
+            sendError(exchange, 405, "Method not allowed");
+            return;
+        }
+        Map<String, String> params = readParams(exchange);
+        UserDiary diary = resolveDiary(exchange, params);
+        if (diary == null)
+            return;
+        LocalDate date = parseDate(params.get("date"));
+        if (date == null) {
+            sendError(exchange, 400, "Missing or invalid parameter: date");
+            return;
+        }
+        FoodQuery query;
+        MealPlanner planner;
+        try {
+            query = parseFoodQuery(params);
+            planner = FoodDiaryApp.newMealPlanner(diary, date,
+                    parseBound(params.get("tolerance"), MealPlanner.DEFAULT_TOLERANCE));
+            if (planner != null && params.containsKey("maxFoods"))
+                planner.setMaxFoods((int) parseBound(params.get("maxFoods"), MealPlanner.DEFAULT_MAX_FOODS));
+        } catch (IllegalArgumentException e) {
+            sendError(exchange, 400, e.getMessage());
+            return;
+        }
+        if (planner == null) {
+            sendError(exchange, 404, "No profile for " + date);
+            return;
+        }
+        List<MealPlanner.Plan> plans = planner.plan(FoodDiaryApp.queryFoods(query));
+        StringBuilder json = new StringBuilder("{\"date\":\"").append(date).append('"');
+        json.append(",\"budget\":").append(planner.getBudget());
+        json.append(",\"plans\":[");
+        for (int i = 0; i < plans.size(); i++) {
+            if (i > 0)
+                json.append(',');
+            json.append("{\"calories\":").append(plans.get(i).getCalories()).append(",\"items\":[");
+            List<MealPlanner.Item> items = plans.get(i).getItems();
+            for (int j = 0; j < items.size(); j++) {
+                if (j > 0)
+                    json.append(',');
+                json.append("{\"servings\":").append(items.get(j).getServings()).append(",\"food\":");
+                appendFood(json, items.get(j).getFood());
+                json.append('}');
+            }
+            json.append("]}");
+        }
+        json.append("]}");
+        sendJson(exchange, 200, json.toString());
+    }
+
+    // keywords=snack|fruit, minCalories, maxCalories, nutrients=protein:5:|fiber::3 (name:min:max, either end optional)
+    private static FoodQuery parseFoodQuery(Map<String, String> params) {
+        FoodQuery query = new FoodQuery();
+        for (String keyword : splitList(params.get("keywords")))
+            query.keyword(keyword);
+        query.calories(parseBound(params.get("minCalories"), Double.NEGATIVE_INFINITY),
+                parseBound(params.get("maxCalories"), Double.POSITIVE_INFINITY));
+        for (String item : splitList(params.get("nutrients"))) {
+            String[] parts = item.split(":", -1);
+            if (parts.length != 3 || parts[0].isBlank())
+                throw new IllegalArgumentException("Invalid nutrient range: " + item);
+            query.nutrient(parts[0], parseBound(parts[1], Double.NEGATIVE_INFINITY),
+                    parseBound(parts[2], Double.POSITIVE_INFINITY));
+        }
+        return query;
+    }
+
+    // An optional range bound; missing or empty means unbounded.
+    private static double parseBound(String value, double unbounded) {
+        if (value == null || value.isBlank())
+            return unbounded;
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number: " + value);
+        }
+    }
+
+    private void handleLogs(HttpExchange exchange) throws IOException {
+        Map<String, String> params = readParams(exchange);
+        UserDiary diary = resolveDiary(exchange, params);
+        if (diary == null)
+            return;
+        LocalDate date = parseDate(params.get("date"));
+        if (date == null) {
+            sendError(exchange, 400, "Missing or invalid parameter: date");
+            return;
+        }
+        try {
+            switch (exchange.getRequestMethod()) {
+                case "GET":
+                    sendJson(exchange, 200, logJson(diary, date));
+                    break;
+                case "POST": {
+                    Food food = FoodDiaryApp.getCommittedFoodById(params.getOrDefault("foodId", ""));
+                    if (food == null) {
+                        sendError(exchange, 404, "Food not found in database (must be saved)");
+                        return;
+                    }
+                    double servings = parseServings(params.getOrDefault("servings", "1"), false);
+                    LogEntry entry = new LogEntry(food.getId(), servings);
+                    diary.executeLogCommand(new AddLogEntryCommand(diary.getLogManager(), date, entry), expectedVersion(params));
+                    sendJson(exchange, 201, logJson(diary, date));
+                    break;
+                }
+                case "PUT": {
+                    int index = Integer.parseInt(params.getOrDefault("index", "-1"));
+                    double servings = parseServings(params.getOrDefault("servings", ""), true);
+                    diary.executeLogCommand(new UpdateLogEntryCommand(diary.getLogManager(), date, index, servings), expectedVersion(params));
+                    sendJson(exchange, 200, logJson(diary, date));
+                    break;
+                }
+                case "DELETE": {
+                    int index = Integer.parseInt(params.getOrDefault("index", "-1"));
+                    diary.executeLogCommand(new DeleteLogEntryCommand(diary.getLogManager(), date, index), expectedVersion(params));
+                    sendJson(exchange, 200, logJson(diary, date));
+                    break;
+                }
+                default:
+                    sendError(exchange, 405, "Method not allowed");
+            }
+        } catch (NumberFormatException e) {
+            sendError(exchange, 400, "Invalid number: " + e.getMessage());
+        } catch (VersionConflictException e) {
+            sendJson(exchange, 409, "{\"error\":" + quote(e.getMessage()) + ",\"version\":" + e.getCurrentVersion() + "}");
+        } catch (IndexOutOfBoundsException e) {
+            sendError(exchange, 404, e.getMessage());
+        }
+    }
+
+    // Audit view: a day's entries as they were at a past time ("at" is an ISO date-time in the
+    // server's time zone, or epoch milliseconds), rebuilt from the log journal.
+    private void handleHistory(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("GET")) {
+            sendError(exchange, 405, "Method not allowed");
+            return;
+        }
+        Map<String, String> params = readParams(exchange);
+        UserDiary diary = resolveDiary(exchange, params);
+        if (diary == null)
+            return;
+        LocalDate date = parseDate(params.get("date"));
+        if (date == null) {
+            sendError(exchange, 400, "Missing or invalid parameter: date");
+            return;
+        }
+        long at = parseTime(params.get("at"));
+        if (at < 0) {
+            sendError(exchange, 400, "Missing or invalid parameter: at");
+            return;
+        }
+        StringBuilder json = new StringBuilder("{\"date\":\"").append(date).append("\",\"at\":").append(at).append(",\"entries\":[");
+        int index = 0;
+        for (LogEntry entry : diary.getEntriesAt(date, at)) {
+            if (index > 0)
+                json.append(',');
+            json.append("{\"index\":").append(index)
+                .append(",\"foodId\":").append(quote(entry.getFoodId()))
+                .append(",\"servings\":").append(entry.getServings())
+                .append('}');
+            index++;
+        }
+        sendJson(exchange, 200, json.append("]}").toString());
+    }
+
+    private void handleBatch(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("POST")) {
+            sendError(exchange, 405, "Method not allowed");
+            return;
+        }
+        Map<String, String> params = readParams(exchange);
+        UserDiary diary = resolveDiary(exchange, params);
+        if (diary == null)
+            return;
+        LocalDate date = parseDate(params.get("date"));
+        if (date == null) {
+            sendError(exchange, 400, "Missing or invalid parameter: date");
+            return;
+        }
+        try {
+            BatchLogCommand batch = new BatchLogCommand(diary.getLogManager(), date);
+            for (String item : splitList(params.get("add"))) {
+                String[] parts = item.split(":");
+                Food food = FoodDiaryApp.getCommittedFoodById(parts[0].trim());
+                if (food == null) {
+                    sendError(exchange, 404, "Food not found in database (must be saved): " + parts[0].trim());
+                    return;
+                }
+                batch.addEntry(new LogEntry(food.getId(), parts.length > 1 ? parseServings(parts[1], false) : 1));
+            }
+            for (String item : splitList(params.get("update"))) {
+                String[] parts = item.split(":");
+                if (parts.length != 2) {
+                    sendError(exchange, 400, "Invalid update (expected index:servings): " + item);
+                    return;
+                }
+                batch.updateEntry(Integer.parseInt(parts[0].trim()), parseServings(parts[1], true));
+            }
+            for (String item : splitList(params.get("remove"))) {
+                batch.removeEntry(Integer.parseInt(item.trim()));
+            }
+            if (batch.size() == 0) {
+                sendError(exchange, 400, "Empty batch");
+                return;
+            }
+            diary.executeLogCommand(batch, expectedVersion(params));
+            sendJson(exchange, 200, logJson(diary, date));
+        } catch (NumberFormatException e) {
+            sendError(exchange, 400, "Invalid number: " + e.getMessage());
+        } catch (VersionConflictException e) {
+            sendJson(exchange, 409, "{\"error\":" + quote(e.getMessage()) + ",\"version\":" + e.getCurrentVersion() + "}");
+        } catch (IndexOutOfBoundsException e) {
+            sendError(exchange, 404, e.getMessage());
+        }
+    }
+
+    // Servings a log entry may have: a finite number above 0, or 0 where it deletes (updates).
+    // ScriptRunner applies the same rule.
+    private static double parseServings(String value, boolean zeroDeletes) {
+        double servings = Double.parseDouble(value.trim());
+        if (!Double.isFinite(servings) || servings < 0 || (servings == 0 && !zeroDeletes))
+            throw new NumberFormatException("servings must be a finite number " + (zeroDeletes ? "of at least 0" : "above 0") + ": " + value);
+        return servings;
+    }
+
+    // Items of a '|'-separated list parameter; empty if the parameter is absent.
+    private static List<String> splitList(String value) {
+        List<String> items = new ArrayList<>();
+        if (value != null) {
+            for (String item : value.split("\\|")) {
+                if (!item.isBlank())
+                    items.add(item);
+            }
+        }
+        return items;
+    }
+
+    // Version the client based its change on, or -1 for an unconditional change.
+    private static long expectedVersion(Map<String, String> params) {
+        String version = params.get("version");
+        return version == null || version.isEmpty() ? -1 : Long.parseLong(version);
+    }
+
+    private void handleUndo(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("POST")) {
+            sendError(exchange, 405, "Method not allowed");
+            return;
+        }
+        UserDiary diary = resolveDiary(exchange, readParams(exchange));
+        if (diary == null)
+            return;
+        if (diary.undoMostRecentCommand()) {
+            sendJson(exchange, 200, "{\"undone\":true}");
+        } else {
+            sendError(exchange, 409, "No commands to undo");
+        }
+    }
+
+    private void handleSummary(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("GET")) {
+            sendError(exchange, 405, "Method not allowed");
+            return;
+        }
+        Map<String, String> params = readParams(exchange);
+        UserDiary diary = resolveDiary(exchange, params);
+        if (diary == null)
+            return;
+        LocalDate date = parseDate(params.get("date"));
+        if (date == null) {
+            sendError(exchange, 400, "Missing or invalid parameter: date");
+            return;
+        }
+        double consumed = diary.totalCaloriesConsumed(date);
+        Double target = diary.targetCalories(date);
+        StringBuilder json = new StringBuilder("{\"date\":\"").append(date).append('"');
+        json.append(",\"consumed\":").append(consumed);
+        if (target != null) {
+            json.append(",\"target\":").append(target);
+            json.append(",\"difference\":").append(consumed - target);
+        } else {
+            json.append(",\"target\":null");
+        }
+        json.append('}');
+        sendJson(exchange, 200, json.toString());
+    }
+
+    // Sends a 400 and returns null if the request names an invalid user.
+    private UserDiary resolveDiary(HttpExchange exchange, Map<String, String> params) throws IOException {
+        String userId = exchange.getRequestHeaders().getFirst("X-User");
+        if (userId == null) {
+            userId = params.get("user");
+        }
+        if (userId == null || userId.isEmpty()) {
+            return defaultDiary;
+        }
+        if (!TenantManager.isValidUserId(userId)) {
+            sendError(exchange, 400, "Invalid user name: " + userId);
+            return null;
+        }
+        UserDiary diary = tenants.acquire(userId);
+        acquired.set(diary);
+        return diary;
+    }
+
+    // Releases the user's diary that resolveDiary acquired for the request once it has been answered.
+    private HttpHandler releasing(HttpHandler handler) {
+        return exchange -> {
+            try {
+                handler.handle(exchange);
+            } finally {
+                UserDiary diary = acquired.get();
+                if (diary != null) {
+                    acquired.remove();
+                    tenants.release(diary);
+                }
+            }
+        };
+    }
+
+    private static String logJson(UserDiary diary, LocalDate date) {
+        StringBuilder json = new StringBuilder("{\"date\":\"").append(date).append('"');
+        DailyLog log = diary.getLogManager().getAllLogs().get(date);
+        if (log == null) {
+            // Not in the store; an archived day is read from its segment, at version 0.
+            LogArchive archive = diary.getLogManager().getArchive();
+            List<LogEntry> archived = archive == null || !archive.contains(YearMonth.from(date))
+                ? Collections.emptyList() : archive.read(date, date).getOrDefault(date, Collections.emptyList());
+            json.append(",\"version\":0,\"entries\":[");
+            appendEntries(json, archived);
+            return json.append("]}").toString();
+        }
+        synchronized (log) {
+            json.append(",\"version\":").append(log.getVersion()).append(",\"entries\":[");
+            appendEntries(json, log.getEntries());
+        }
+        return json.append("]}").toString();
+    }
+
+    private static void appendEntries(StringBuilder json, List<LogEntry> entries) {
+        int index = 0;
+        for (LogEntry entry : entries) {
+            if (index > 0)
+                json.append(',');
+            Food food = FoodDiaryApp.getFoodById(entry.getFoodId());
+            json.append("{\"index\":").append(index)
+                .append(",\"foodId\":").append(quote(entry.getFoodId()))
+                .append(",\"name\":").append(food != null ? quote(food.getName()) : "null")
+                .append(",\"servings\":").append(entry.getServings())
+                .append('}');
+            index++;
+        }
+    }
+
+    private static void appendFood(StringBuilder json, Food food) {
+        json.append("{\"id\":").append(quote(food.getId()))
+            .append(",\"name\":").append(quote(food.getName()))
+            .append(",\"keywords\":[");
+        List<String> keywords = food.getKeywords();
+        for (int i = 0; i < keywords.size(); i++) {
+            if (i > 0)
+                json.append(',');
+            json.append(quote(keywords.get(i)));
+        }
+        json.append("],\"calories\":").append(food.getCalories())
+            .append(",\"extraInfo\":").append(food.getExtraInfo() != null ? quote(food.getExtraInfo()) : "null")
+            .append('}');
+    }
+
+    private static LocalDate parseDate(String value) {
+        if (value == null)
+            return null;
+        try {
+            return LocalDate.parse(value.trim());
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    // Epoch milliseconds, or an ISO date-time in the server's time zone; -1 if invalid.
+    private static long parseTime(String value) {
+        if (value == null)
+            return -1;
+        value = value.trim();
+        try {
+            if (value.matches("\\d+"))
+                return Long.parseLong(value);
+            return LocalDateTime.parse(value).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeParseException | NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // Collects query-string parameters plus form or flat JSON body fields.
+    private static Map<String, String> readParams(HttpExchange exchange) throws IOException {
+        Map<String, String> params = new HashMap<>();
+        parseForm(exchange.getRequestURI().getRawQuery(), params);
+        String body;
+        try (InputStream in = exchange.getRequestBody()) {
+            body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        if (!body.isBlank()) {
+            String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+            if (body.trim().startsWith("{") || (contentType != null && contentType.contains("json"))) {
+                Matcher m = JSON_FIELD.matcher(body);
+                while (m.find()) {
+                    String value = m.group(2) != null ? m.group(2).replace("\\\"", "\"").replace("\\\\", "\\") : m.group(3);
+                    params.put(m.group(1), value);
+                }
+            } else {
+                parseForm(body, params);
+            }
+        }
+        return params;
+    }
+
+    private static void parseForm(String encoded, Map<String, String> params) {
+        if (encoded == null || encoded.isEmpty())
+            return;
+        for (String pair : encoded.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            params.put(URLDecoder.decode(key, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+    }
+
+    static String quote(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        sendJson(exchange, status, "{\"error\":" + quote(message) + "}");
+    }
+
+    private static void sendJson(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
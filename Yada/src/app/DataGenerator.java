@@ -0,0 +1,386 @@
+package app;
+
+import java.io.*;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.Random;
+
+// Writes a synthetic data directory (simpleFoods.txt, complexFoods.txt, dailylogs.txt and
+// profile.txt, in the formats the app loads) for scale testing. The output depends only on the
+// seed and the sizes, and each file has its own random stream, so e.g. a longer history does not
+// change the catalog.
+//
+// Everything is streamed to disk as it is generated. The only state kept per food is its
+// calorie value (composite totals need their components'); names and log entries are derived
+// from the seed and the food's number instead of being stored.
+//
+// Composites are spread over `depth` levels: each one above the first level has a composite from
+// the level below among its components, so the deepest ones nest `depth` composites down. Components
+// always come earlier in the file, which is the order the loader resolves them in. Keywords and
+// logged foods follow Zipf-like distributions: a few keywords and favourite foods are very
+// common, most are rare.
+//
+// Usage: DataGenerator [--out <dir>] [--seed <n>] [--foods <n>] [--composites <fraction>]
+//                      [--depth <n>] [--days <n>] [--entries <per day>] [--start <yyyy-mm-dd>]
+public class DataGenerator {
+    public static final long DEFAULT_SEED = 42;
+    public static final int DEFAULT_FOODS = 100_000;
+    public static final double DEFAULT_COMPOSITE_FRACTION = 0.2;
+    public static final int DEFAULT_DEPTH = 6;
+    public static final int DEFAULT_DAYS = 3650;
+    public static final int DEFAULT_ENTRIES_PER_DAY = 8;
+    public static final LocalDate DEFAULT_START = LocalDate.of(2015, 1, 1);
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final DateTimeFormatter LOG_DATE = DateTimeFormatter.ofPattern("dd-MM-yyyy");
+
+    private static final String[] KEYWORDS = {
+        "snack", "breakfast", "lunch", "dinner", "fruit", "vegetable", "protein", "dairy", "grain",
+        "meat", "sweet", "drink", "bread", "salad", "soup", "fish", "nuts", "spicy", "green",
+        "baked", "fried", "raw", "frozen", "organic", "vegan", "gluten-free", "low-fat", "dessert",
+        "sauce", "cheese", "rice", "pasta", "bean", "egg", "chicken", "beef", "pork", "citrus",
+        "berry", "root", "leafy", "seed", "oil", "spice", "herb", "juice", "coffee", "tea",
+        "fermented", "smoked", "pickled", "canned", "dried", "whole-grain", "seafood", "tropical"
+    };
+    private static final String[] ADJECTIVES = {
+        "Fresh", "Roasted", "Grilled", "Steamed", "Baked", "Raw", "Smoked", "Spiced", "Sweet",
+        "Salted", "Crispy", "Creamy", "Dried", "Frozen", "Pickled", "Toasted", "Wild", "Organic"
+    };
+    private static final String[] INGREDIENTS = {
+        "Apple", "Banana", "Oat", "Rice", "Chicken", "Beef", "Salmon", "Tuna", "Egg", "Milk",
+        "Yogurt", "Cheese", "Bread", "Potato", "Carrot", "Spinach", "Broccoli", "Tomato", "Lentil",
+        "Chickpea", "Almond", "Walnut", "Peanut", "Tofu", "Quinoa", "Pasta", "Corn", "Pepper",
+        "Mushroom", "Onion", "Berry", "Mango", "Orange", "Pear", "Bean", "Pork", "Turkey", "Shrimp"
+    };
+    private static final String[] DISHES = {
+        "Salad", "Soup", "Stew", "Bowl", "Wrap", "Sandwich", "Curry", "Casserole", "Stir Fry",
+        "Pie", "Smoothie", "Platter", "Omelette", "Pasta Bake", "Burrito", "Risotto", "Tart"
+    };
+    // Name, unit, chance a food lists it, and typical amount per 100 kcal.
+    private static final String[] NUTRIENTS = {"protein", "fat", "carbs", "fiber", "sugar", "sodium", "calcium", "iron", "vitaminC"};
+    private static final String[] NUTRIENT_UNITS = {"g", "g", "g", "g", "g", "mg", "mg", "mg", "mg"};
+    private static final double[] NUTRIENT_CHANCE = {0.7, 0.6, 0.6, 0.4, 0.35, 0.3, 0.2, 0.15, 0.15};
+    private static final double[] NUTRIENT_PER_100_KCAL = {5, 4, 12, 2, 5, 120, 40, 1.2, 8};
+    private static final String[] ACTIVITY_LEVELS = {"sedentary", "lightly active", "moderately active", "very active", "extra active"};
+
+    // Salts for the per-file random streams.
+    private static final long FOODS_SALT = 0x0F00DL;
+    private static final long LOGS_SALT = 0x1065L;
+    private static final long PROFILE_SALT = 0x9F11EL;
+    private static final long NAME_SALT = 0x4A3EL;
+
+    private long seed = DEFAULT_SEED;
+    private int foods = DEFAULT_FOODS;
+    private double compositeFraction = DEFAULT_COMPOSITE_FRACTION;
+    private int depth = DEFAULT_DEPTH;
+    private int days = DEFAULT_DAYS;
+    private int entriesPerDay = DEFAULT_ENTRIES_PER_DAY;
+    private LocalDate start = DEFAULT_START;
+
+    public static void main(String[] args) {
+        DataGenerator generator = new DataGenerator();
+        String out = "data/generated";
+        try {
+            for (int i = 0; i + 1 < args.length; i += 2) {
+                String value = args[i + 1];
+                switch (args[i]) {
+                    case "--out": out = value; break;
+                    case "--seed": generator.setSeed(Long.parseLong(value)); break;
+                    case "--foods": generator.setFoods(Integer.parseInt(value)); break;
+                    case "--composites": generator.setCompositeFraction(Double.parseDouble(value)); break;
+                    case "--depth": generator.setDepth(Integer.parseInt(value)); break;
+                    case "--days": generator.setDays(Integer.parseInt(value)); break;
+                    case "--entries": generator.setEntriesPerDay(Integer.parseInt(value)); break;
+                    case "--start": generator.setStart(LocalDate.parse(value)); break;
+                    default:
+                        System.out.println("Unknown option: " + args[i]);
+                        return;
+                }
+            }
+        } catch (IllegalArgumentException | java.time.format.DateTimeParseException e) {
+            System.out.println("Invalid option value: " + e.getMessage());
+            return;
+        }
+        long begin = System.nanoTime();
+        try {
+            long entries = generator.writeAll(new File(out));
+            long millis = (System.nanoTime() - begin) / 1_000_000;
+            System.out.println("Wrote " + generator.getFoods() + " foods (" + generator.getCompositeCount() + " composite), "
+                    + entries + " log entries over " + generator.getDays() + " days to " + out + " in " + millis + " ms");
+        } catch (IOException e) {
+            System.out.println("Error writing generated data to " + out + ": " + e.getMessage());
+        }
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public void setFoods(int foods) {
+        if (foods < 1)
+            throw new IllegalArgumentException("At least one food is needed: " + foods);
+        this.foods = foods;
+    }
+
+    public void setCompositeFraction(double compositeFraction) {
+        if (compositeFraction < 0 || compositeFraction >= 1)
+            throw new IllegalArgumentException("Composite fraction must be in [0, 1): " + compositeFraction);
+        this.compositeFraction = compositeFraction;
+    }
+
+    public void setDepth(int depth) {
+        if (depth < 1)
+            throw new IllegalArgumentException("Composite depth must be at least 1: " + depth);
+        this.depth = depth;
+    }
+
+    public void setDays(int days) {
+        if (days < 0)
+            throw new IllegalArgumentException("Days must not be negative: " + days);
+        this.days = days;
+    }
+
+    public void setEntriesPerDay(int entriesPerDay) {
+        if (entriesPerDay < 0)
+            throw new IllegalArgumentException("Entries per day must not be negative: " + entriesPerDay);
+        this.entriesPerDay = entriesPerDay;
+    }
+
+    public void setStart(LocalDate start) {
+        this.start = start;
+    }
+
+    public int getFoods() {
+        return foods;
+    }
+
+    public int getDays() {
+        return days;
+    }
+
+    public LocalDate getEnd() {
+        return start.plusDays(Math.max(0, days - 1));
+    }
+
+    public int getCompositeCount() {
+        return (int) Math.min(foods - 1L, Math.round(foods * compositeFraction));
+    }
+
+    public int getBasicCount() {
+        return foods - getCompositeCount();
+    }
+
+    // Basic foods are B1..B<basic count>, composites C1..C<composite count>, in level order.
+    public String foodId(int index) {
+        int basic = getBasicCount();
+        return index < basic ? "B" + (index + 1) : "C" + (index - basic + 1);
+    }
+
+    // Writes all four files into dir; returns the number of log entries written.
+    public long writeAll(File dir) throws IOException {
+        dir.mkdirs();
+        writeFoods(new File(dir, "simpleFoods.txt"), new File(dir, "complexFoods.txt"));
+        long entries = writeLogs(new File(dir, "dailylogs.txt"));
+        writeProfiles(new File(dir, "profile.txt"));
+        return entries;
+    }
+
+    public void writeFoods(File basicFile, File compositeFile) throws IOException {
+        Random random = new Random(seed ^ FOODS_SALT);
+        int basic = getBasicCount();
+        int composites = getCompositeCount();
+        double[] calories = new double[foods];
+        try (BufferedWriter out = new BufferedWriter(new FileWriter(basicFile), BUFFER_SIZE)) {
+            out.write("# Basic Foods Database");
+            out.newLine();
+            out.write("TYPE;ID;Name;Keywords;Calories;ExtraInfo");
+            out.newLine();
+            for (int i = 0; i < basic; i++) {
+                // Log-normal around 150 kcal a serving.
+                double kcal = Math.round(Math.min(1500, Math.max(1, 150 * Math.exp(0.8 * random.nextGaussian()))));
+                calories[i] = kcal;
+                out.write("B;" + foodId(i) + ";" + foodName(i) + ";" + keywords(random) + ";" + kcal + ";" + extraInfo(random, kcal));
+                out.newLine();
+            }
+        }
+        try (BufferedWriter out = new BufferedWriter(new FileWriter(compositeFile), BUFFER_SIZE)) {
+            out.write("# Composite Foods Database");
+            out.newLine();
+            out.write("TYPE;ID;Name;Keywords;Calories;Components;ExtraInfo");
+            out.newLine();
+            StringBuilder components = new StringBuilder();
+            for (int c = 0; c < composites; c++) {
+                int level = levelOf(c);
+                int levelStart = levelStart(level);
+                int count = 2 + random.nextInt(4);
+                components.setLength(0);
+                double kcal = 0;
+                for (int k = 0; k < count; k++) {
+                    int component;
+                    double servings;
+                    if (k == 0 && level > 0) {
+                        // The composite one level down that makes this one deeper.
+                        int below = levelStart(level - 1);
+                        component = basic + below + random.nextInt(levelStart - below);
+                        servings = 0.5;
+                    } else if (levelStart > 0 && random.nextInt(5) == 0) {
+                        component = basic + random.nextInt(levelStart);
+                        servings = 0.5;
+                    } else {
+                        component = random.nextInt(basic);
+                        servings = 0.5 * (1 + random.nextInt(4));
+                    }
+                    if (k > 0)
+                        components.append('|');
+                    components.append(foodId(component)).append(':').append(servings);
+                    kcal += calories[component] * servings;
+                }
+                calories[basic + c] = kcal;
+                out.write("C;" + foodId(basic + c) + ";" + foodName(basic + c) + ";" + keywords(random) + ";" + kcal + ";"
+                        + components + ";" + extraInfo(random, kcal));
+                out.newLine();
+            }
+        }
+    }
+
+    // Entries for every day from the start date, skipping about one day in ten as a user would.
+    public long writeLogs(File file) throws IOException {
+        Random random = new Random(seed ^ LOGS_SALT);
+        int stride = coprimeStride(foods);
+        long written = 0;
+        try (BufferedWriter out = new BufferedWriter(new FileWriter(file), BUFFER_SIZE)) {
+            out.write("# Daily Log Database");
+            out.newLine();
+            LocalDate date = start;
+            for (int d = 0; d < days; d++, date = date.plusDays(1)) {
+                if (entriesPerDay == 0 || random.nextInt(10) == 0)
+                    continue;
+                int count = entriesPerDay / 2 + random.nextInt(entriesPerDay + 1);
+                if (count == 0)
+                    continue;
+                out.write("Date: " + date.format(LOG_DATE));
+                out.newLine();
+                for (int e = 1; e <= count; e++) {
+                    // Zipf over popularity rank, spread over the catalog so favourites are not all B1, B2...
+                    int index = (int) ((zipfRank(random, foods) * (long) stride) % foods);
+                    double servings = 0.5 * (1 + random.nextInt(6));
+                    out.write(e + ") FoodID: " + foodId(index) + ", Name: " + foodName(index) + ", Servings: " + servings);
+                    out.newLine();
+                }
+                out.newLine();
+                written += count;
+            }
+        }
+        return written;
+    }
+
+    public void writeProfiles(File file) throws IOException {
+        Random random = new Random(seed ^ PROFILE_SALT);
+        String gender = random.nextBoolean() ? "M" : "F";
+        double height = Math.round(gender.equals("M") ? 165 + random.nextInt(30) : 155 + random.nextInt(25));
+        int birthYear = start.getYear() - 20 - random.nextInt(40);
+        double weight = Math.round((height - 100) * (0.8 + 0.4 * random.nextDouble()) * 10) / 10.0;
+        int activity = random.nextInt(ACTIVITY_LEVELS.length);
+        try (BufferedWriter out = new BufferedWriter(new FileWriter(file), BUFFER_SIZE)) {
+            out.write("CALC_METHOD:" + (random.nextBoolean() ? "HARRIS_BENEDICT" : "MIFFLIN_ST_JEOR"));
+            out.newLine();
+            out.write("# Date;Gender;Height;Age;Weight;ActivityLevel");
+            out.newLine();
+            // Targets are computed from the profile of the exact day, so there is one for every day.
+            for (int d = 0; d < Math.max(1, days); d++) {
+                LocalDate date = start.plusDays(d);
+                weight = Math.round(Math.max(40, weight + 0.2 * random.nextGaussian()) * 10) / 10.0;
+                if (random.nextInt(180) == 0)
+                    activity = Math.max(0, Math.min(ACTIVITY_LEVELS.length - 1, activity + (random.nextBoolean() ? 1 : -1)));
+                out.write(date + ";" + gender + ";" + height + ";" + (date.getYear() - birthYear) + ";" + weight + ";" + ACTIVITY_LEVELS[activity]);
+                out.newLine();
+            }
+        }
+    }
+
+    // Names are a function of the seed and the food, so log entries can repeat them without a lookup.
+    public String foodName(int index) {
+        long h = mix(seed ^ NAME_SALT, index);
+        String adjective = ADJECTIVES[(int) Long.remainderUnsigned(h, ADJECTIVES.length)];
+        String ingredient = INGREDIENTS[(int) Long.remainderUnsigned(h >>> 16, INGREDIENTS.length)];
+        int basic = getBasicCount();
+        if (index < basic)
+            return adjective + " " + ingredient + " " + (index + 1);
+        String dish = DISHES[(int) Long.remainderUnsigned(h >>> 32, DISHES.length)];
+        return adjective + " " + ingredient + " " + dish + " " + (index - basic + 1);
+    }
+
+    // Composites are split evenly over the levels; level 0 holds the ones made of basic foods only.
+    private int levelOf(int composite) {
+        int levels = Math.min(depth, getCompositeCount());
+        return (int) ((long) composite * levels / getCompositeCount());
+    }
+
+    // The first composite (0-based, among composites) of a level.
+    private int levelStart(int level) {
+        int levels = Math.min(depth, getCompositeCount());
+        long composites = getCompositeCount();
+        return (int) ((level * composites + levels - 1) / levels);
+    }
+
+    // One to four keywords, drawn with Zipf weights so that common tags dominate.
+    private static String keywords(Random random) {
+        int count = 1 + Math.min(3, (int) Math.abs(random.nextGaussian() * 1.2));
+        StringBuilder keywords = new StringBuilder();
+        long used = 0;
+        for (int k = 0; k < count; k++) {
+            int keyword = (int) zipfRank(random, KEYWORDS.length);
+            if ((used & 1L << keyword) != 0)
+                continue;
+            used |= 1L << keyword;
+            if (keywords.length() > 0)
+                keywords.append('|');
+            keywords.append(KEYWORDS[keyword]);
+        }
+        return keywords.toString();
+    }
+
+    // Nutrients in the "name=amount:unit|..." form, roughly in proportion to the calories.
+    private static String extraInfo(Random random, double kcal) {
+        StringBuilder info = new StringBuilder();
+        for (int n = 0; n < NUTRIENTS.length; n++) {
+            if (random.nextDouble() >= NUTRIENT_CHANCE[n])
+                continue;
+            double amount = NUTRIENT_PER_100_KCAL[n] * kcal / 100 * Math.exp(0.6 * random.nextGaussian());
+            if (info.length() > 0)
+                info.append('|');
+            info.append(NUTRIENTS[n]).append('=').append(Math.round(amount * 10) / 10.0).append(':').append(NUTRIENT_UNITS[n]);
+        }
+        return info.toString();
+    }
+
+    // A rank in [0, n) with probability about proportional to 1/(rank + 1), by inverting the
+    // continuous distribution, so no table of n weights is needed.
+    private static long zipfRank(Random random, int n) {
+        long rank = (long) Math.exp(random.nextDouble() * Math.log(n + 1.0)) - 1;
+        return Math.min(n - 1, Math.max(0, rank));
+    }
+
+    // A step coprime to n, so that i * step mod n visits every food once.
+    private static int coprimeStride(int n) {
+        long step = 0x9E3779B1L % n;
+        while (step <= 1 && n > 2 || gcd(step, n) != 1)
+            step = (step + 1) % n;
+        return (int) step;
+    }
+
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    private static long mix(long seed, long value) {
+        long z = seed + value * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -4,6 +4,10 @@ import model.*;
 import database.*;
 import log.*;
 import command.*;
+import metrics.*;
+import output.ConsoleListener;
+import output.MessageListener;
+import output.Messages;
 import java.time.LocalDate;
 import java.time.format.DateTimeParseException;
 import java.util.*;
@@ -11,46 +15,485 @@ import java.io.*;
 // import util.IDGenerator;
 
 public class FoodDiaryApp {
-    private static FoodDatabase basicFoodDatabase;
-    private static FoodDatabase compositeFoodDatabase;
-    private static DailyLogManager dailyLogManager;
-    // Two separate stacks for log command undo functionality:
-    // unsavedLogCommands holds commands that have not yet been saved.
-    // savedLogCommands holds commands that have been saved and are available for undo.
-    private static Deque<LogCommand> unsavedLogCommands = new ArrayDeque<>();
-    private static Deque<LogCommand> savedLogCommands = new ArrayDeque<>();
+    private static FoodCatalog basicFoodDatabase;
+    private static FoodCatalog compositeFoodDatabase;
+    // The diary used by the CLI (and by API requests that do not name a user).
+    private static UserDiary diary;
+    private static TenantManager tenants;
     private static TreeSet<Integer> availableBasicIDs = new TreeSet<>();
     private static TreeSet<Integer> availableCompositeIDs = new TreeSet<>();
     private static int nextBasicID = 1;
     private static int nextCompositeID = 1;
-    // Global variables for profile data
-    private static Map<LocalDate, DailyProfile> profileMap = new HashMap<>();
-    // Calculation method loaded from file header; default is Harris-Benedict.
-    private static String calcMethodFromFile = "HARRIS_BENEDICT";
+    // Saves the catalog together with the CLI diary.
+    private static AutoSaveService autoSave;
+    // Quiet period after the last mutation before an autosave checkpoint is taken.
+    private static final long AUTOSAVE_DEBOUNCE_MILLIS = 2000;
+    // Picks up edits other programs make to the data files; see startWatcher.
+    private static FileWatcher watcher;
+    // Quiet period after the last change to a watched file before it is compared.
+    private static final long WATCH_DEBOUNCE_MILLIS = 200;
+    // Ships the CLI diary's and the catalog's changes to a standby process; see startReplication.
+    private static ReplicationLeader replication;
+    private static final int DEFAULT_SERVER_PORT = 8080;
+    // Foods shown per page by the food listing.
+    private static final int FOOD_PAGE_SIZE = 20;
+    // Matches shown by the food search.
+    private static final int SEARCH_RESULTS = 20;
+    // Foods shown in each quick-pick list (recent and frequent).
+    private static final int QUICK_PICK_SHOWN = 5;
+    private static volatile CachedSearchIndex searchIndex;
+    private static final LatencyHistogram KEYWORD_SEARCH_LATENCY = Metrics.latency("search.keywords");
+    private static final LatencyHistogram RANKED_SEARCH_LATENCY = Metrics.latency("search.ranked");
+    private static final LatencyHistogram QUERY_LATENCY = Metrics.latency("search.query");
+    private static final String DATA_DIR = "./data";
+    // Where the CLI diary's autosave commits checkpoints that span several files.
+    private static final String CHECKPOINT_MANIFEST = DATA_DIR + "/checkpoint.manifest";
+    // Bounds for the per-user diary cache in server mode.
+    private static final int MAX_CACHED_USERS = 10000;
+    private static final long MAX_CACHED_WEIGHT = 5_000_000;
+    private static final long USER_IDLE_MILLIS = 10 * 60 * 1000;
 
+    // Usage: FoodDiaryApp [--user <name>] [--shards <n> | --off-heap] [--no-watch]
+    //                    [--replicate <port> | --follow <port>] [--server [port] | --script <file>|- [--quiet]]
     public static void main(String[] args) {
-        String basicFoodFile = "./data/simpleFoods.txt";
-        String compositeFoodFile = "./data/complexFoods.txt";
-        String dailyLogFile = "./data/dailylogs.txt";
+        String userId = null;
+        boolean server = false;
+        int port = DEFAULT_SERVER_PORT;
+        String script = null;
+        boolean quiet = false;
+        int shards = 1;
+        boolean offHeap = false;
+        boolean watch = true;
+        int replicatePort = -1;
+        int followPort = -1;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--user") && i + 1 < args.length) {
+                userId = args[++i];
+            } else if (args[i].equals("--server")) {
+                server = true;
+                if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                    port = Integer.parseInt(args[++i]);
+                }
+            } else if (args[i].equals("--script") && i + 1 < args.length) {
+                script = args[++i];
+            } else if (args[i].equals("--quiet")) {
+                quiet = true;
+            } else if (args[i].equals("--shards") && i + 1 < args.length) {
+                shards = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--off-heap")) {
+                offHeap = true;
+            } else if (args[i].equals("--no-watch")) {
+                watch = false;
+            } else if (args[i].equals("--replicate") && i + 1 < args.length) {
+                replicatePort = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--follow") && i + 1 < args.length) {
+                followPort = Integer.parseInt(args[++i]);
+            }
+        }
+        if (replicatePort > 0 && followPort > 0) {
+            System.out.println("--replicate cannot be combined with --follow.");
+            return;
+        }
+        if (offHeap && shards > 1) {
+            System.out.println("--off-heap cannot be combined with --shards.");
+            return;
+        }
+        // Finishes a checkpoint that a crash interrupted before anything reads the files it swaps.
+        AutoSaveService.recover(CHECKPOINT_MANIFEST);
+        loadCatalog(DATA_DIR + "/simpleFoods.txt", DATA_DIR + "/complexFoods.txt", shards, offHeap);
+        tenants = new TenantManager(DATA_DIR + "/users", MAX_CACHED_USERS, MAX_CACHED_WEIGHT, USER_IDLE_MILLIS, AUTOSAVE_DEBOUNCE_MILLIS);
+        Metrics.register("Sizes", "app", new AppSizes());
+        if (userId != null && !TenantManager.isValidUserId(userId)) {
+            System.out.println("Invalid user name: " + userId);
+            return;
+        }
 
-        basicFoodDatabase = new FoodDatabase(basicFoodFile, 'B');
-        compositeFoodDatabase = new FoodDatabase(compositeFoodFile, 'C');
+        // Load unsaved logs into memory for modification purposes (writes are done to file only when saved)
+        diary = new UserDiary(userId == null ? "" : userId, userId == null ? DATA_DIR : tenants.getUserDir(userId));
+        new File(diary.getDataDir()).mkdirs();
+        diary.load();
+
+        // Stores are checkpointed in this order: foods first, since log saving only keeps committed foods.
+        autoSave = new AutoSaveService(diary.getLock(), CHECKPOINT_MANIFEST, AUTOSAVE_DEBOUNCE_MILLIS, diary::checkpointLogCommands);
+        for (PersistentStore store : basicFoodDatabase.getStores()) {
+            autoSave.register(store);
+        }
+        for (PersistentStore store : compositeFoodDatabase.getStores()) {
+            autoSave.register(store);
+        }
+        diary.attachAutoSave(autoSave);
+        // Requests for the same user in server mode get this diary rather than a second one on its files.
+        if (userId != null) {
+            tenants.addResident(diary);
+        }
+        // A standby only starts being the diary (watching its files, serving, replicating) once promoted.
+        if (followPort > 0 && !follow(followPort)) {
+            return;
+        }
+        diary.archiveOldMonths(LocalDate.now());
+        // A script runs to completion on the files as they were, so it does not watch them.
+        if (watch && script == null) {
+            startWatcher();
+        }
+        if (replicatePort > 0) {
+            startReplication(replicatePort);
+        }
+
+        if (server) {
+            runServer(port);
+            return;
+        }
+
+        if (script != null) {
+            runScript(script, quiet);
+        } else {
+            runCLI();
+        }
+
+        if (watcher != null) {
+            watcher.close();
+        }
+        if (replication != null) {
+            replication.close();
+        }
+        autoSave.requestCheckpoint();
+        boolean saved = autoSave.shutdown();
+        diary.close();
+        saved &= tenants.shutdown();
+        System.out.println(saved ? "Exiting Food Diary App. Changes have been saved."
+            : "Exiting Food Diary App. Some changes could not be saved; see the warnings above.");
+    }
+
+    // Loads the shared food catalog. Composite foods refer to basic ones, so basic foods load first.
+    public static void loadCatalog(String basicFoodFile, String compositeFoodFile) {
+        loadCatalog(basicFoodFile, compositeFoodFile, 1);
+    }
+
+    // With more than one shard, each type of food is spread over that many files (see ShardedFoodDatabase).
+    public static void loadCatalog(String basicFoodFile, String compositeFoodFile, int shards) {
+        loadCatalog(basicFoodFile, compositeFoodFile, shards, false);
+    }
+
+    // Off heap, foods are kept in native memory and only made into objects when used (see OffHeapFoodDatabase).
+    public static void loadCatalog(String basicFoodFile, String compositeFoodFile, int shards, boolean offHeap) {
+        if (offHeap) {
+            basicFoodDatabase = new OffHeapFoodDatabase(basicFoodFile, 'B');
+            compositeFoodDatabase = new OffHeapFoodDatabase(compositeFoodFile, 'C');
+        } else if (shards > 1) {
+            basicFoodDatabase = new ShardedFoodDatabase(basicFoodFile, 'B', shards);
+            compositeFoodDatabase = new ShardedFoodDatabase(compositeFoodFile, 'C', shards);
+        } else {
+            basicFoodDatabase = new FoodDatabase(basicFoodFile, 'B');
+            compositeFoodDatabase = new FoodDatabase(compositeFoodFile, 'C');
+        }
         basicFoodDatabase.load();
         compositeFoodDatabase.load();
         updateFoodIdCounters();
+    }
 
-        // Load unsaved logs into memory for modification purposes (writes are done to file only when saved)
-        dailyLogManager = new DailyLogManager(dailyLogFile);
-        dailyLogManager.load();
-        loadProfiles();
+    // Serves the JSON API until the process is terminated; pending changes are flushed on shutdown.
+    private static void runServer(int port) {
+        ApiServer server;
+        try {
+            server = new ApiServer(port, tenants, diary);
+        } catch (IOException e) {
+            System.err.println("Could not start API server on port " + port + ": " + e.getMessage());
+            autoSave.shutdown();
+            tenants.shutdown();
+            return;
+        }
+        // Requests' messages are not printed; warnings (e.g. failed saves) still are. The
+        // previous listener is back for the shutdown messages.
+        MessageListener previous = Messages.setListener(new ConsoleListener(true));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            Messages.setListener(previous);
+            if (watcher != null) {
+                watcher.close();
+            }
+            if (replication != null) {
+                replication.close();
+            }
+            autoSave.requestCheckpoint();
+            boolean saved = autoSave.shutdown();
+            saved &= tenants.shutdown();
+            System.out.println(saved ? "API server stopped. Changes have been saved."
+                : "API server stopped. Some changes could not be saved; see the warnings above.");
+        }));
+        server.start();
+    }
+
+    // Runs a command script ("-" reads stdin) instead of the interactive menus.
+    private static void runScript(String path, boolean quiet) {
+        ScriptRunner runner = new ScriptRunner(diary, autoSave::requestCheckpoint, quiet);
+        try (BufferedReader reader = path.equals("-")
+                ? new BufferedReader(new InputStreamReader(System.in), 1 << 16)
+                : new BufferedReader(new FileReader(path), 1 << 16)) {
+            runner.run(reader);
+        } catch (IOException e) {
+            System.err.println("Error reading script " + path + ": " + e.getMessage());
+        }
+    }
+
+    private static void executeLogCommand(LogCommand cmd) {
+        try {
+            diary.executeLogCommand(cmd);
+        } catch (IndexOutOfBoundsException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    // The catalog is checkpointed by the CLI diary's autosave service, under its lock.
+    private static void executeFoodCommand(Command cmd, FoodCatalog database, String foodId) {
+        synchronized (diary.getLock()) {
+            long start = System.nanoTime();
+            CommandEvent event = new CommandEvent();
+            event.begin();
+            cmd.execute();
+            Metrics.commandExecute(cmd.getClass()).recordSince(start);
+            event.emit(cmd.getClass(), "execute", null);
+            if (replication != null) {
+                Food food = database.getFood(foodId);
+                replication.foodsChanged(Collections.singletonMap(foodId, food == null ? null : FoodDatabase.formatFood(food)));
+            }
+        }
+        autoSave.markDirty(database.getStoreFor(foodId));
+    }
+
+    // Ships every change to the CLI diary and the catalog to the standby listening on the port
+    // (see ReplicationLeader), reconnecting whenever it is not there.
+    private static void startReplication(int port) {
+        replication = new ReplicationLeader(diary, List.of(basicFoodDatabase, compositeFoodDatabase), port);
+        Metrics.register("Replication", "leader", replication);
+        replication.start();
+    }
+
+    // Runs as a standby of the diary replicating to the port (see ReplicationFollower) until
+    // "promote" is entered, then returns true and the process carries on as the diary with the
+    // state it has applied. If it cannot listen, or is terminated while following, it saves
+    // what it applied and returns false.
+    private static boolean follow(int port) {
+        ReplicationFollower follower;
+        try {
+            follower = new ReplicationFollower(diary, port);
+        } catch (IOException e) {
+            System.err.println("Could not listen for replication on port " + port + ": " + e.getMessage());
+            shutdownDiary();
+            return false;
+        }
+        Metrics.register("Replication", "follower", follower);
+        Thread saveOnExit = new Thread(() -> {
+            follower.close();
+            shutdownDiary();
+        });
+        Runtime.getRuntime().addShutdownHook(saveOnExit);
+        follower.start();
+        System.out.println("Following on port " + port + ". Enter \"status\" for replication lag or \"promote\" to take over.");
+        String line;
+        // Read without buffering, so whatever follows "promote" is left for the menus.
+        while ((line = readStdinLine()) != null) {
+            line = line.trim();
+            if (line.equals("status")) {
+                System.out.println(follower.describe());
+            } else if (line.equals("promote")) {
+                follower.close();
+                Runtime.getRuntime().removeShutdownHook(saveOnExit);
+                if (!follower.isSynced())
+                    System.out.println("Warning: no complete snapshot was received; the state may be partial.");
+                System.out.println("Promoted. " + follower.describe());
+                return true;
+            } else if (!line.isEmpty()) {
+                System.out.println("Enter \"status\" or \"promote\".");
+            }
+        }
+        // No console: follow until the process is terminated; the shutdown hook saves.
+        while (true) {
+            try {
+                Thread.sleep(Long.MAX_VALUE);
+            } catch (InterruptedException e) {
+                return false;
+            }
+        }
+    }
 
-        runCLI();
+    private static void shutdownDiary() {
+        autoSave.requestCheckpoint();
+        autoSave.shutdown();
+        diary.close();
+        tenants.shutdown();
+    }
 
-        basicFoodDatabase.save();
-        compositeFoodDatabase.save();
-        dailyLogManager.save();
-        saveProfiles();
-        System.out.println("Exiting Food Diary App. Changes have been saved.");
+    private static String readStdinLine() {
+        StringBuilder line = new StringBuilder();
+        try {
+            int c;
+            while ((c = System.in.read()) != -1 && c != '\n') {
+                if (c != '\r')
+                    line.append((char) c);
+            }
+            if (c == -1 && line.length() == 0)
+                return null;
+        } catch (IOException e) {
+            return null;
+        }
+        return line.toString();
+    }
+
+    // Watches the catalog files and the CLI diary's profile and log files, applying what other
+    // programs change in them record by record instead of reloading them.
+    private static void startWatcher() {
+        try {
+            watcher = new FileWatcher(WATCH_DEBOUNCE_MILLIS);
+            for (FoodCatalog catalog : List.of(basicFoodDatabase, compositeFoodDatabase)) {
+                for (PersistentStore store : catalog.getStores()) {
+                    watcher.watch(store.getFilePath(), FileWatcher.Format.FOODS, FoodDiaryApp::reloadFoods);
+                }
+            }
+            watcher.watch(diary.getProfileFilePath(), FileWatcher.Format.PROFILES, diary::reloadProfiles);
+            watcher.watch(diary.getLogFilePath(), FileWatcher.Format.DAYS, diary.getLogManager()::reloadDays);
+            watcher.start();
+        } catch (IOException e) {
+            System.err.println("Not watching the data files for changes: " + e.getMessage());
+            watcher = null;
+        }
+    }
+
+    // Applies food records that another program changed in a catalog file (see FileWatcher), as
+    // ID -> line, or null for a removed food. Each changed food replaces the one in the catalog;
+    // then only the composites that contain a replaced or removed food, directly or through
+    // other composites, are rebuilt and their calories totalled again.
+    static void reloadFoods(Map<String, String> records) {
+        synchronized (diary.getLock()) {
+            Map<String, Food> loaded = new LinkedHashMap<>();
+            Map<CompositeFood, String> components = new LinkedHashMap<>();
+            List<String> removed = new ArrayList<>();
+            for (Map.Entry<String, String> record : records.entrySet()) {
+                String line = record.getValue();
+                if (line == null) {
+                    removed.add(record.getKey());
+                    continue;
+                }
+                Food food = FoodDatabase.parseFood(line, line.charAt(0), components);
+                if (food != null)
+                    loaded.put(food.getId(), food);
+            }
+            FoodDatabase.link(components, id -> {
+                Food food = loaded.get(id);
+                return food != null ? food : getCommittedFoodById(id);
+            });
+            updateCatalogs(loaded.values(), removed);
+            for (String id : loaded.keySet()) {
+                reserveId(id);
+            }
+            Set<String> changed = new HashSet<>(loaded.keySet());
+            changed.addAll(removed);
+            rebuildComposites(changed);
+            if (replication != null) {
+                replication.foodsChanged(records);
+            }
+        }
+    }
+
+    // Applies food records shipped by the replication leader, as reloadFoods does; unlike a file
+    // edit they are not in this process's files yet, so their stores are marked dirty.
+    static void applyReplicatedFoods(Map<String, String> records) {
+        reloadFoods(records);
+        Set<PersistentStore> stores = new HashSet<>();
+        for (String id : records.keySet()) {
+            stores.add(catalogFor(id).getStoreFor(id));
+        }
+        for (PersistentStore store : stores) {
+            autoSave.markDirty(store);
+        }
+    }
+
+    // Applies a bulk change to the catalog each food belongs in (see FoodCatalog.update).
+    private static void updateCatalogs(Collection<Food> added, Collection<String> removed) {
+        for (FoodCatalog catalog : List.of(basicFoodDatabase, compositeFoodDatabase)) {
+            List<Food> foods = new ArrayList<>();
+            List<String> ids = new ArrayList<>();
+            for (Food food : added) {
+                if (catalogFor(food.getId()) == catalog)
+                    foods.add(food);
+            }
+            for (String id : removed) {
+                if (catalogFor(id) == catalog)
+                    ids.add(id);
+            }
+            if (!foods.isEmpty() || !ids.isEmpty())
+                catalog.update(foods, ids);
+        }
+    }
+
+    // Rebuilds every composite that contains one of the changed foods, directly or through other
+    // composites, against the catalog's current foods, components before the composites using them.
+    private static void rebuildComposites(Set<String> changed) {
+        Map<String, List<CompositeFood>> usedBy = new HashMap<>();
+        for (Food food : compositeFoodDatabase.getAllFoods()) {
+            CompositeFood cf = (CompositeFood) food;
+            for (Food component : cf.getComponents().keySet()) {
+                usedBy.computeIfAbsent(component.getId(), id -> new ArrayList<>()).add(cf);
+            }
+        }
+        Map<String, CompositeFood> affected = new LinkedHashMap<>();
+        Deque<String> pending = new ArrayDeque<>(changed);
+        while (!pending.isEmpty()) {
+            for (CompositeFood cf : usedBy.getOrDefault(pending.poll(), Collections.emptyList())) {
+                if (affected.putIfAbsent(cf.getId(), cf) == null)
+                    pending.add(cf.getId());
+            }
+        }
+        Map<String, Food> rebuilt = new LinkedHashMap<>();
+        List<Food> copies = new ArrayList<>();
+        for (CompositeFood cf : affected.values()) {
+            rebuildComposite(cf, affected, rebuilt, copies);
+        }
+        if (!copies.isEmpty())
+            compositeFoodDatabase.update(copies, Collections.emptyList());
+    }
+
+    // Puts the rebuilt composite in rebuilt, where the composites using it find it. A composite
+    // that already holds every component as it now is (one reloaded along with its components)
+    // is kept as it is; the others are copied and the copies added to copies.
+    private static void rebuildComposite(CompositeFood cf, Map<String, CompositeFood> affected, Map<String, Food> rebuilt, List<Food> copies) {
+        // Also stops at a cycle, like loading does.
+        if (rebuilt.containsKey(cf.getId()))
+            return;
+        rebuilt.put(cf.getId(), cf);
+        CompositeFood copy = new CompositeFood(cf.getId(), cf.getName(), cf.getKeywords(), cf.getExtraInfo());
+        copy.setCommitted(cf.isCommitted());
+        boolean same = true;
+        for (Map.Entry<Food, Double> entry : cf.getComponents().entrySet()) {
+            String id = entry.getKey().getId();
+            CompositeFood component = affected.get(id);
+            if (component != null)
+                rebuildComposite(component, affected, rebuilt, copies);
+            // A removed component stays as it was, as when a composite's component is deleted.
+            Food current = affected.containsKey(id) ? rebuilt.get(id) : getFoodById(id);
+            Food used = current != null ? current : entry.getKey();
+            same &= used == entry.getKey();
+            copy.addComponent(used, entry.getValue());
+        }
+        if (same)
+            return;
+        copy.finalizeCalories();
+        rebuilt.put(cf.getId(), copy);
+        copies.add(copy);
+    }
+
+    // Keeps an ID that appeared in a catalog file from being handed out again.
+    private static synchronized void reserveId(String id) {
+        try {
+            int num = Integer.parseInt(id.substring(1));
+            if (id.startsWith("B")) {
+                availableBasicIDs.remove(num);
+                nextBasicID = Math.max(nextBasicID, num + 1);
+            } else if (id.startsWith("C")) {
+                availableCompositeIDs.remove(num);
+                nextCompositeID = Math.max(nextCompositeID, num + 1);
+            }
+        } catch (NumberFormatException e) {
+        }
     }
 
     private static void updateFoodIdCounters() {
@@ -74,37 +517,55 @@ public class FoodDiaryApp {
         }
     }
 
+    // IDs start with their type (B or C), so the database of that type is asked first.
     public static Food getCommittedFoodById(String id) {
-        Food f = basicFoodDatabase.getFood(id);
+        FoodCatalog first = catalogFor(id);
+        Food f = first.getFood(id);
         if (f != null && f.isCommitted())
             return f;
-        f = compositeFoodDatabase.getFood(id);
+        f = otherCatalog(first).getFood(id);
         if (f != null && f.isCommitted())
             return f;
         return null;
     }
 
     public static Food getFoodById(String id) {
-        Food f = basicFoodDatabase.getFood(id);
+        FoodCatalog first = catalogFor(id);
+        Food f = first.getFood(id);
         if (f == null) {
-            f = compositeFoodDatabase.getFood(id);
+            f = otherCatalog(first).getFood(id);
         }
         return f;
     }
 
     public static Food getFoodByName(String name) {
-        for (Food food : basicFoodDatabase.getAllFoods()) {
-            if (food.getName().equalsIgnoreCase(name))
-                return food;
+        Food f = basicFoodDatabase.getFoodByName(name);
+        if (f == null) {
+            f = compositeFoodDatabase.getFoodByName(name);
         }
-        for (Food food : compositeFoodDatabase.getAllFoods()) {
-            if (food.getName().equalsIgnoreCase(name))
-                return food;
+        return f;
+    }
+
+    // IDs of every food in both catalogs.
+    static List<String> getAllFoodIds() {
+        List<String> ids = new ArrayList<>();
+        for (FoodCatalog catalog : List.of(basicFoodDatabase, compositeFoodDatabase)) {
+            for (Food food : catalog.getAllFoods()) {
+                ids.add(food.getId());
+            }
         }
-        return null;
+        return ids;
     }
 
-    private static String generateBasicFoodId() {
+    private static FoodCatalog catalogFor(String id) {
+        return id.startsWith("C") ? compositeFoodDatabase : basicFoodDatabase;
+    }
+
+    private static FoodCatalog otherCatalog(FoodCatalog catalog) {
+        return catalog == basicFoodDatabase ? compositeFoodDatabase : basicFoodDatabase;
+    }
+
+    private static synchronized String generateBasicFoodId() {
         int idNum;
         if (!availableBasicIDs.isEmpty()) {
             idNum = availableBasicIDs.first();
@@ -115,7 +576,7 @@ public class FoodDiaryApp {
         return "B" + idNum;
     }
 
-    private static String generateCompositeFoodId() {
+    private static synchronized String generateCompositeFoodId() {
         int idNum;
         if (!availableCompositeIDs.isEmpty()) {
             idNum = availableCompositeIDs.first();
@@ -126,7 +587,7 @@ public class FoodDiaryApp {
         return "C" + idNum;
     }
 
-    public static void recycleId(String id) {
+    public static synchronized void recycleId(String id) {
         if (id.startsWith("B")) {
             try {
                 int num = Integer.parseInt(id.substring(1));
@@ -142,10 +603,20 @@ public class FoodDiaryApp {
         }
     }
 
+    // The saved logs from..to: the days in dailylogs.txt, and the diary's archived months, which are not in it.
+    private static SortedMap<LocalDate, List<LogEntry>> savedLogs(DailyLogManager savedLogManager, LocalDate from, LocalDate to) {
+        SortedMap<LocalDate, List<LogEntry>> days = savedLogManager.readLogs(from, to);
+        LogArchive archive = diary.getLogManager().getArchive();
+        if (archive != null) {
+            archive.read(from, to).forEach(days::putIfAbsent);
+        }
+        return days;
+    }
+
     // Modified CLI for viewing logs.
     // This version always reads the saved logs from the dailylogs.txt file so that only committed logs are shown.
     private static void viewLogsCLI(Scanner scanner) {
-        DailyLogManager savedLogManager = new DailyLogManager("./data/dailylogs.txt");
+        DailyLogManager savedLogManager = new DailyLogManager(diary.getLogFilePath());
         savedLogManager.load();
         System.out.println("View logs options:");
         System.out.println("1. View all logs");
@@ -155,13 +626,14 @@ public class FoodDiaryApp {
         if (option.equals("1")) {
             System.out.println("Daily logs (from saved file):");
             boolean found = false;
-            for (LocalDate d : savedLogManager.getAllLogs().keySet()) {
-                DailyLog dl = savedLogManager.getLog(d);
-                if (!dl.getEntries().isEmpty()) {
+            for (Map.Entry<LocalDate, List<LogEntry>> day : savedLogs(savedLogManager, LocalDate.MIN, LocalDate.MAX).entrySet()) {
+                LocalDate d = day.getKey();
+                List<LogEntry> entries = day.getValue();
+                if (!entries.isEmpty()) {
                     System.out.println("Date: " + d);
                     int count = 1;
                     //should modify endong |
-                for (LogEntry le : dl.getEntries()) {
+                for (LogEntry le : entries) {
                     Food f = getFoodById(le.getFoodId());
                     String info = "";
                     if (f != null && f.getExtraInfo() != null && !f.getExtraInfo().isEmpty()) {
@@ -189,13 +661,13 @@ public class FoodDiaryApp {
                 System.out.println("Invalid date format.");
                 return;
             }
-            DailyLog dl = savedLogManager.getAllLogs().get(date);
-            if (dl == null || dl.getEntries().isEmpty()) {
+            List<LogEntry> entries = savedLogs(savedLogManager, date, date).getOrDefault(date, Collections.emptyList());
+            if (entries.isEmpty()) {
                 System.out.println("No log entries for " + date);
             } else {
                 System.out.println("Log entries for " + date + ":");
                 int count = 0;
-                for (LogEntry le : dl.getEntries()) {
+                for (LogEntry le : entries) {
                     Food f = getFoodById(le.getFoodId());
                     String info = "";
                     if (f != null && f.getExtraInfo() != null && !f.getExtraInfo().isEmpty()) {
@@ -225,19 +697,19 @@ public class FoodDiaryApp {
             System.out.println("Invalid date format. Returning to main menu.");
             return;
         }
-        DailyLogManager savedLogManager = new DailyLogManager("./data/dailylogs.txt");
+        DailyLogManager savedLogManager = new DailyLogManager(diary.getLogFilePath());
         savedLogManager.load();
-        DailyLog log = savedLogManager.getLog(date);
+        List<LogEntry> entries = savedLogs(savedLogManager, date, date).getOrDefault(date, Collections.emptyList());
         
-        if (log.getEntries().isEmpty()) {
+        if (entries.isEmpty()) {
             System.out.println("No saved log entries for " + date);
             return;
         }
         
         System.out.println("Log entries for " + date + ":");
         List<Integer> validIndices = new ArrayList<>();
-        for (int i = 0; i < log.getEntries().size(); i++) {
-            if (getCommittedFoodById(log.getEntries().get(i).getFoodId()) != null) {
+        for (int i = 0; i < entries.size(); i++) {
+            if (getCommittedFoodById(entries.get(i).getFoodId()) != null) {
                 validIndices.add(i);
             }
         }
@@ -249,7 +721,7 @@ public class FoodDiaryApp {
         
         for (int j = 0; j < validIndices.size(); j++) {
             int origIdx = validIndices.get(j);
-            LogEntry le = log.getEntries().get(origIdx);
+            LogEntry le = entries.get(origIdx);
             Food f = getFoodById(le.getFoodId());
             String info = (f != null && f.getExtraInfo() != null && !f.getExtraInfo().isEmpty())
                         ? " | ExtraInfo: " + f.getExtraInfo()
@@ -276,11 +748,10 @@ public class FoodDiaryApp {
             System.out.print("Enter new number of servings (enter 0 to delete the entry): ");
             double newServings = Double.parseDouble(scanner.nextLine().trim());
             
-            // Note: Update on saved logs will be applied to the main dailyLogManager
-            LogCommand updateCmd = new UpdateLogEntryCommand(dailyLogManager, date, origIdx, newServings);
-            updateCmd.execute();
-            unsavedLogCommands.addLast(updateCmd);
-            System.out.println("Changes updated in memory. Use the 'Save Data' option from the main menu to commit these changes to dailylogs.txt.");
+            // Note: Update on saved logs will be applied to the in-memory diary logs
+            LogCommand updateCmd = new UpdateLogEntryCommand(diary.getLogManager(), date, origIdx, newServings);
+            executeLogCommand(updateCmd);
+            System.out.println("Changes updated in memory. They will be autosaved shortly, or use the 'Save Data' option to commit them to dailylogs.txt now.");
         }
     }
     
@@ -294,18 +765,18 @@ public class FoodDiaryApp {
             System.out.println("Invalid date format. Returning to main menu.");
             return;
         }
-        DailyLogManager savedLogManager = new DailyLogManager("./data/dailylogs.txt");
+        DailyLogManager savedLogManager = new DailyLogManager(diary.getLogFilePath());
         savedLogManager.load();
-        DailyLog log = savedLogManager.getLog(date);
-        if (log == null) {
+        List<LogEntry> entries = savedLogs(savedLogManager, date, date).getOrDefault(date, Collections.emptyList());
+        if (entries.isEmpty()) {
             System.out.println("No saved log entries for " + date);
             return;
         }
         
         List<Integer> validIndices = new ArrayList<>();
         // Loop through saved log entries only
-        for (int i = 0; i < log.getEntries().size(); i++) {
-            if (getCommittedFoodById(log.getEntries().get(i).getFoodId()) != null) {
+        for (int i = 0; i < entries.size(); i++) {
+            if (getCommittedFoodById(entries.get(i).getFoodId()) != null) {
                 validIndices.add(i);
             }
         }
@@ -319,7 +790,7 @@ public class FoodDiaryApp {
         // Example snippet in manageLogForDateCLI:
         for (int j = 0; j < validIndices.size(); j++) {
             int origIdx = validIndices.get(j);
-            LogEntry le = log.getEntries().get(origIdx);
+            LogEntry le = entries.get(origIdx);
             Food f = getFoodById(le.getFoodId());
             String info = (f != null && f.getExtraInfo() != null && !f.getExtraInfo().isEmpty())
                         ? " | ExtraInfo: " + f.getExtraInfo()
@@ -341,23 +812,20 @@ public class FoodDiaryApp {
                 return;
             }
             int originalIndex = validIndices.get(userIndex - 1);
-            // Note: For deletion we use the main dailyLogManager
-            LogCommand deleteCmd = new DeleteLogEntryCommand(dailyLogManager, date, originalIndex);
-            deleteCmd.execute();
-            unsavedLogCommands.addLast(deleteCmd);
+            // Note: For deletion we use the in-memory diary logs
+            LogCommand deleteCmd = new DeleteLogEntryCommand(diary.getLogManager(), date, originalIndex);
+            executeLogCommand(deleteCmd);
         } catch (NumberFormatException e) {
             System.out.println("Invalid index input. Returning to main menu.");
         }
     }
     
     private static void undoLastCommand() {
-        if (savedLogCommands.isEmpty()) {
+        if (!diary.undoLastSavedCommand()) {
             System.out.println("No saved commands to undo.");
-            return;
         }
-        LogCommand last = savedLogCommands.pop();
-        last.undo();
     }
+
     private static void runCLI() {
         Scanner scanner = new Scanner(System.in);
         boolean running = true;
@@ -380,7 +848,7 @@ public class FoodDiaryApp {
                         deleteLogEntryCLI(scanner);
                         break;
                     case 4:
-                        listFoodsCLI();
+                        listFoodsCLI(scanner);
                         break;
                     case 5:
                         viewLogsCLI(scanner);
@@ -389,17 +857,9 @@ public class FoodDiaryApp {
                         undoLastCommand();
                         break;
                     case 7:
-                        // Save data option: save all databases and logs,
-                        // then move unsaved log commands to the saved stack in FIFO order.
-                        basicFoodDatabase.save();
-                        compositeFoodDatabase.save();
-                        dailyLogManager.save();
-                        saveProfiles();
-                        while (!unsavedLogCommands.isEmpty()) {
-                            LogCommand cmd = unsavedLogCommands.pollFirst();
-                            cmd.markSaved();
-                            savedLogCommands.push(cmd);
-                        }
+                        // Save data option: snapshot all databases and logs now (the files are
+                        // written in the background); unsaved log commands become undoable.
+                        autoSave.requestCheckpoint();
                         System.out.println("Databases and logs saved.");
                         break;
                     case 8:
@@ -423,6 +883,9 @@ public class FoodDiaryApp {
                     case 14:
                         viewDailyProfileCLI(scanner);
                         break;
+                    case 15:
+                        suggestMealsCLI(scanner);
+                        break;
                     default:
                         System.out.println("Invalid option number. Please try again.");
                         break;
@@ -450,6 +913,7 @@ public class FoodDiaryApp {
         System.out.println("12. Change Calorie Calculation Method");
         System.out.println("13. View Calorie Summary for a Date");
         System.out.println("14. View Daily Profile");
+        System.out.println("15. Suggest Foods for Remaining Calories");
     }
 
     private static void printHelp() {
@@ -464,38 +928,82 @@ public class FoodDiaryApp {
         System.out.println(" - Updating/setting daily user profile, changing calorie calculation method, and viewing summaries.");
     }
 
-    private static void listFoodsCLI() {
-        System.out.println("Listing all committed foods:");
-        System.out.println("Basic Foods:");
-        for (Food food : basicFoodDatabase.getAllFoods()) {
-            if (food.isCommitted()) {
-                System.out.printf("ID: %s | Name: %s | Keywords: %s | Calories: %.2f",
+    // Pages through the catalog, basic and composite foods merged into one sorted listing.
+    // Each page, prompt included, is written to one buffered writer and flushed once.
+    private static void listFoodsCLI(Scanner scanner) {
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out), 1 << 13));
+        FoodOrder order = FoodOrder.ID;
+        int page = 0;
+        while (true) {
+            List<Food> basic = basicFoodDatabase.getSortedFoods(order);
+            List<Food> composite = compositeFoodDatabase.getSortedFoods(order);
+            int total = basic.size() + composite.size();
+            int pageCount = Math.max(1, (total + FOOD_PAGE_SIZE - 1) / FOOD_PAGE_SIZE);
+            page = Math.max(0, Math.min(page, pageCount - 1));
+            out.printf("Foods by %s, page %d of %d (%d foods):%n", order.getLabel(), page + 1, pageCount, total);
+            for (Food food : pageOf(basic, composite, order.comparator(), page * FOOD_PAGE_SIZE, FOOD_PAGE_SIZE)) {
+                out.printf("ID: %s | Name: %s | Keywords: %s | Calories: %.2f",
                     food.getId(),
                     food.getName(),
                     String.join(",", food.getKeywords()),
                     food.getCalories());
                 if (food.getExtraInfo() != null && !food.getExtraInfo().isEmpty()) {
-                    System.out.printf(" | ExtraInfo: %s", food.getExtraInfo());
+                    out.printf(" | ExtraInfo: %s", food.getExtraInfo());
                 }
-                System.out.println();
+                if (!food.isCommitted()) {
+                    out.print(" | (not saved yet)");
+                }
+                out.println();
+            }
+            out.print("n = next, p = previous, <number> = go to page, sort by i = ID / a = name / c = calories, Enter = done: ");
+            out.flush();
+            String input = scanner.nextLine().trim().toLowerCase();
+            if (input.isEmpty()) {
+                return;
+            }
+            switch (input) {
+                case "n": page++; break;
+                case "p": page--; break;
+                case "i": order = FoodOrder.ID; page = 0; break;
+                case "a": order = FoodOrder.NAME; page = 0; break;
+                case "c": order = FoodOrder.CALORIES; page = 0; break;
+                default:
+                    try {
+                        page = Integer.parseInt(input) - 1;
+                    } catch (NumberFormatException e) {
+                        out.println("Unknown choice: " + input);
+                    }
             }
         }
-        System.out.println("Composite Foods:");
-        for (Food food : compositeFoodDatabase.getAllFoods()) {
-            if (food.isCommitted()) {
-                System.out.printf("ID: %s | Name: %s | Keywords: %s | Calories: %.2f",
-                    food.getId(),
-                    food.getName(),
-                    String.join(",", food.getKeywords()),
-                    food.getCalories());
-                if (food.getExtraInfo() != null && !food.getExtraInfo().isEmpty()) {
-                    System.out.printf(" | ExtraInfo: %s", food.getExtraInfo());
-                }
-                System.out.println();
+    }
+
+    // Returns up to count foods starting at offset in the merged order of two sorted lists.
+    // The split point is found by binary search, so a page costs O(log n + count) however deep it is.
+    static List<Food> pageOf(List<Food> a, List<Food> b, Comparator<Food> cmp, int offset, int count) {
+        offset = Math.min(offset, a.size() + b.size());
+        // Find how many of the first offset foods come from a.
+        int lo = Math.max(0, offset - b.size());
+        int hi = Math.min(offset, a.size());
+        while (lo < hi) {
+            int i = (lo + hi) >>> 1;
+            if (cmp.compare(a.get(i), b.get(offset - i - 1)) < 0) {
+                lo = i + 1;
+            } else {
+                hi = i;
+            }
+        }
+        int i = lo;
+        int j = offset - lo;
+        List<Food> page = new ArrayList<>(count);
+        while (page.size() < count && (i < a.size() || j < b.size())) {
+            if (j >= b.size() || (i < a.size() && cmp.compare(a.get(i), b.get(j)) < 0)) {
+                page.add(a.get(i++));
+            } else {
+                page.add(b.get(j++));
             }
         }
+        return page;
     }
-    
 
     private static void addFoodCLI(Scanner scanner) {
         System.out.println("Select type of food to add:");
@@ -566,7 +1074,7 @@ public class FoodDiaryApp {
 
             BasicFood bf = new BasicFood(id, name, keywords, calories,extraInfo);
             Command addFoodCmd = new AddFoodCommand(basicFoodDatabase, bf);
-            addFoodCmd.execute();
+            executeFoodCommand(addFoodCmd, basicFoodDatabase, bf.getId());
         } else if (choice.equals("2")) {
             System.out.print("Enter food name: ");
             String name = scanner.nextLine().trim();
@@ -584,7 +1092,7 @@ public class FoodDiaryApp {
             CompositeFood cf = new CompositeFood(id, name, keywords, "");
         
             System.out.println("Available Foods for Components (committed items only):");
-            listFoodsCLI();
+            listFoodsCLI(scanner);
         
             System.out.println("Enter components for the composite food. Type the component food ID and servings. When finished, type 'done'.");
             while (true) {
@@ -652,7 +1160,7 @@ public class FoodDiaryApp {
             // Now set it on the composite and save
             cf.setExtraInfo(compositeExtraInfo);
             Command addFoodCmd = new AddFoodCommand(compositeFoodDatabase, cf);
-            addFoodCmd.execute();
+            executeFoodCommand(addFoodCmd, compositeFoodDatabase, cf.getId());
         } else {
             System.out.println("Invalid selection. Returning to main menu.");
         }
@@ -674,31 +1182,50 @@ public class FoodDiaryApp {
         }
         Food selectedFood = null;
         System.out.println("Select food entry method:");
-        System.out.println("1. Choose from full list");
-        System.out.println("2. Search by keywords");
+        System.out.println("1. Quick pick from recent and frequent foods");
+        System.out.println("2. Browse the food list");
+        System.out.println("3. Search by name or keywords");
         System.out.print("Enter option: ");
         String method = scanner.nextLine().trim();
         if (method.equals("1")) {
-            listFoodsCLI();
+            List<Food> recent = quickPickFoods(diary.getFoodUsage().getRecent(QUICK_PICK_SHOWN), null);
+            List<Food> frequent = quickPickFoods(diary.getFoodUsage().getFrequent(QUICK_PICK_SHOWN + recent.size()), recent);
+            if (recent.isEmpty() && frequent.isEmpty()) {
+                System.out.println("No foods logged yet. Use browse or search instead.");
+                return;
+            }
+            List<Food> picks = new ArrayList<>(recent);
+            picks.addAll(frequent.subList(0, Math.min(QUICK_PICK_SHOWN, frequent.size())));
+            for (int i = 0; i < picks.size(); i++) {
+                if (i == 0 && !recent.isEmpty())
+                    System.out.println("Recently logged:");
+                if (i == recent.size())
+                    System.out.println("Most often logged:");
+                Food f = picks.get(i);
+                System.out.printf("%d. %s (ID: %s, %.2f calories)%n", i + 1, f.getName(), f.getId(), f.getCalories());
+            }
+            System.out.print("Enter number or food ID: ");
+            String choice = scanner.nextLine().trim();
+            try {
+                int number = Integer.parseInt(choice);
+                selectedFood = number >= 1 && number <= picks.size() ? picks.get(number - 1) : null;
+            } catch (NumberFormatException e) {
+                selectedFood = getCommittedFoodById(choice);
+            }
+        } else if (method.equals("2")) {
+            listFoodsCLI(scanner);
             System.out.print("Enter food ID from the above list: ");
             String foodId = scanner.nextLine().trim();
             selectedFood = getCommittedFoodById(foodId);
-        } else if (method.equals("2")) {
-            listFoodsCLI();
-            System.out.print("Enter keywords (separated by space): ");
-            String keywordLine = scanner.nextLine().trim();
-            String[] searchKeywords = keywordLine.split("\\s+");
-            System.out.println("Match options:");
-            System.out.println("1. Match ANY keyword");
-            System.out.println("2. Match ALL keywords");
-            System.out.print("Enter option: ");
-            String matchOption = scanner.nextLine().trim();
-            List<Food> matchedFoods = searchFoodsByKeywords(searchKeywords, matchOption.equals("2"));
+        } else if (method.equals("3")) {
+            System.out.print("Enter search terms (name or keywords): ");
+            String text = scanner.nextLine().trim();
+            List<Food> matchedFoods = rankedSearch(text, SEARCH_RESULTS, diary);
             if (matchedFoods.isEmpty()) {
-                System.out.println("No foods matched the given keywords.");
+                System.out.println("No foods matched the given terms.");
                 return;
             } else {
-                System.out.println("Matched foods:");
+                System.out.println("Best matches:");
                 for (Food f : matchedFoods) {
                     System.out.println("ID: " + f.getId() + " | Name: " + f.getName() + " | Keywords: " + f.getKeywords() + " | Calories: " + f.getCalories() + " | ExtraInfo: " + f.getExtraInfo());
                 }
@@ -716,135 +1243,179 @@ public class FoodDiaryApp {
         }
         System.out.print("Enter number of servings: ");
         double servings = Double.parseDouble(scanner.nextLine().trim());
-        
-        // Check if an entry for the same food already exists on the given date.
-        DailyLog log = dailyLogManager.getLog(date);
-        int duplicateIndex = -1;
-        for (int i = 0; i < log.getEntries().size(); i++) {
-            if (log.getEntries().get(i).getFoodId().equals(selectedFood.getId())) {
-                duplicateIndex = i;
-                break;
+
+        // If the food is already logged on the date, the command adds to that entry's servings.
+        LogEntry entry = new LogEntry(selectedFood.getId(), servings);
+        LogCommand addLogCmd = new AddLogEntryCommand(diary.getLogManager(), date, entry);
+        executeLogCommand(addLogCmd);
+    }
+
+    // The committed foods among the IDs, in order, leaving out those in exclude (may be null).
+    static List<Food> quickPickFoods(List<String> ids, List<Food> exclude) {
+        List<Food> foods = new ArrayList<>();
+        for (String id : ids) {
+            Food f = getCommittedFoodById(id);
+            if (f != null && (exclude == null || !exclude.contains(f)))
+                foods.add(f);
+        }
+        return foods;
+    }
+
+    // Committed foods ranked by relevance to the text, boosted by how often the diary's user
+    // logs them (see FoodSearchIndex); at most limit of them. diary may be null.
+    static List<Food> rankedSearch(String text, int limit, UserDiary diary) {
+        long start = System.nanoTime();
+        SearchEvent event = new SearchEvent();
+        event.begin();
+        List<Food> results = searchIndex().search(text, limit, diary == null ? null : diary.getLogManager().getFoodLogCounts());
+        RANKED_SEARCH_LATENCY.recordSince(start);
+        if (event.shouldCommit())
+            event.emit("ranked", FoodSearchIndex.countTerms(text), results.size());
+        return results;
+    }
+
+    // The search index for the current catalog, rebuilt when either database has changed.
+    private static FoodSearchIndex searchIndex() {
+        CachedSearchIndex cached = searchIndex;
+        if (cached == null || !cached.isCurrent()) {
+            synchronized (FoodDiaryApp.class) {
+                cached = searchIndex;
+                if (cached == null || !cached.isCurrent()) {
+                    long basicVersion = basicFoodDatabase.getVersion();
+                    long compositeVersion = compositeFoodDatabase.getVersion();
+                    List<Food> catalog = new ArrayList<>(basicFoodDatabase.getAllFoods());
+                    catalog.addAll(compositeFoodDatabase.getAllFoods());
+                    cached = new CachedSearchIndex(new FoodSearchIndex(catalog), basicVersion, compositeVersion);
+                    searchIndex = cached;
+                }
             }
         }
-        
-        if (duplicateIndex != -1) {
-            // Duplicate found: update the existing log entry's servings.
-            LogEntry existingEntry = log.getEntries().get(duplicateIndex);
-            double updatedServings = existingEntry.getServings() + servings;
-            LogCommand updateCmd = new UpdateLogEntryCommand(dailyLogManager, date, duplicateIndex, updatedServings);
-            updateCmd.execute();
-            unsavedLogCommands.addLast(updateCmd);
-            System.out.println("Duplicate entry found. Updated servings from " + existingEntry.getServings() + " to " + updatedServings);
-        } else {
-            // No duplicate: add a new log entry.
-            LogEntry entry = new LogEntry(selectedFood.getId(), servings);
-            LogCommand addLogCmd = new AddLogEntryCommand(dailyLogManager, date, entry);
-            addLogCmd.execute();
-            unsavedLogCommands.addLast(addLogCmd);
+        return cached.index;
+    }
+
+    // In-memory sizes for JMX: the catalog, and the CLI diary plus every loaded user's diary.
+    private static final class AppSizes implements SizesMXBean {
+        @Override
+        public int getBasicFoods() {
+            return basicFoodDatabase.size();
+        }
+
+        @Override
+        public int getCompositeFoods() {
+            return compositeFoodDatabase.size();
+        }
+
+        @Override
+        public int getLogDays() {
+            int days = 0;
+            for (UserDiary d : loadedDiaries())
+                days += d.getLogManager().getAllLogs().size();
+            return days;
+        }
+
+        @Override
+        public long getLogEntries() {
+            long entries = 0;
+            for (UserDiary d : loadedDiaries())
+                entries += d.getLogEntryCount();
+            return entries;
+        }
+
+        @Override
+        public long getUndoDepth() {
+            long depth = 0;
+            for (UserDiary d : loadedDiaries())
+                depth += d.getUndoDepth();
+            return depth;
+        }
+
+        @Override
+        public int getLoadedUsers() {
+            return tenants.getCachedUserCount();
+        }
+
+        private static List<UserDiary> loadedDiaries() {
+            List<UserDiary> diaries = tenants.getCachedDiaries();
+            if (diary != null)
+                diaries.add(diary);
+            return diaries;
+        }
+    }
+
+    private static final class CachedSearchIndex {
+        final FoodSearchIndex index;
+        final long basicVersion;
+        final long compositeVersion;
+
+        CachedSearchIndex(FoodSearchIndex index, long basicVersion, long compositeVersion) {
+            this.index = index;
+            this.basicVersion = basicVersion;
+            this.compositeVersion = compositeVersion;
+        }
+
+        boolean isCurrent() {
+            return basicVersion == basicFoodDatabase.getVersion() && compositeVersion == compositeFoodDatabase.getVersion();
         }
     }
 
-    private static List<Food> searchFoodsByKeywords(String[] keywords, boolean matchAll) {
+    public static List<Food> searchFoodsByKeywords(String[] keywords, boolean matchAll) {
+        long start = System.nanoTime();
+        SearchEvent event = new SearchEvent();
+        event.begin();
+        int[] symbols = new int[keywords.length];
+        for (int i = 0; i < keywords.length; i++) {
+            symbols[i] = Symbols.findFolded(keywords[i].trim());
+        }
         List<Food> results = new ArrayList<>();
         for (Food f : basicFoodDatabase.getAllFoods()) {
-            if (f.isCommitted() && matchesKeywords(f, keywords, matchAll))
+            if (f.isCommitted() && matchesKeywords(f, symbols, matchAll))
                 results.add(f);
         }
         for (Food f : compositeFoodDatabase.getAllFoods()) {
-            if (f.isCommitted() && matchesKeywords(f, keywords, matchAll))
+            if (f.isCommitted() && matchesKeywords(f, symbols, matchAll))
                 results.add(f);
         }
+        KEYWORD_SEARCH_LATENCY.recordSince(start);
+        event.emit(matchAll ? "keywords (all)" : "keywords (any)", keywords.length, results.size());
         return results;
     }
 
-    private static boolean matchesKeywords(Food food, String[] keywords, boolean matchAll) {
-        List<String> foodKeywords = food.getKeywords();
+    // Committed foods matching the query, in ID order (basic foods first).
+    static List<Food> queryFoods(FoodQuery query) {
+        long start = System.nanoTime();
+        SearchEvent event = new SearchEvent();
+        event.begin();
+        List<Food> results = new ArrayList<>();
+        for (Food f : basicFoodDatabase.query(query)) {
+            if (f.isCommitted())
+                results.add(f);
+        }
+        for (Food f : compositeFoodDatabase.query(query)) {
+            if (f.isCommitted())
+                results.add(f);
+        }
+        QUERY_LATENCY.recordSince(start);
+        event.emit("query", query.getConditionCount(), results.size());
+        return results;
+    }
+
+    // keywords are folded symbols (see Symbols), -1 for a keyword no food has.
+    private static boolean matchesKeywords(Food food, int[] keywords, boolean matchAll) {
         if (matchAll) {
-            for (String key : keywords) {
-                boolean found = false;
-                String trimmedKey = key.trim();
-                for (String fKey : foodKeywords) {
-                    if (fKey.equalsIgnoreCase(trimmedKey)) {
-                        found = true;
-                        break;
-                    }
-                }
-                if (!found)
+            for (int key : keywords) {
+                if (key < 0 || !food.hasKeyword(key))
                     return false;
             }
             return true;
         } else {
-            for (String key : keywords) {
-                String trimmedKey = key.trim();
-                for (String fKey : foodKeywords) {
-                    if (fKey.equalsIgnoreCase(trimmedKey))
-                        return true;
-                }
+            for (int key : keywords) {
+                if (key >= 0 && food.hasKeyword(key))
+                    return true;
             }
             return false;
         }
     }
 
-    // Load profiles and the calculation method from profile.txt (called once at startup)
-    private static void loadProfiles() {
-        profileMap.clear();
-        File file = new File("./data/profile.txt");
-        if (!file.exists()) {
-            System.out.println("Profile file not found. Starting with no saved profiles and default calculation method.");
-            calcMethodFromFile = "HARRIS_BENEDICT";
-            return;
-        }
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-            String line;
-            boolean headerRead = false;
-            while ((line = reader.readLine()) != null) {
-                line = line.trim();
-                if (line.isEmpty() || line.startsWith("#"))
-                    continue;
-                if (!headerRead && line.startsWith("CALC_METHOD:")) {
-                    calcMethodFromFile = line.substring("CALC_METHOD:".length()).trim();
-                    headerRead = true;
-                } else {
-                    // Expected format: date;gender;height;age;weight;activityLevel
-                    String[] parts = line.split(";");
-                    if (parts.length < 6)
-                        continue;
-                    LocalDate date = LocalDate.parse(parts[0].trim());
-                    String gender = parts[1].trim();
-                    double height = Double.parseDouble(parts[2].trim());
-                    int age = Integer.parseInt(parts[3].trim());
-                    double weight = Double.parseDouble(parts[4].trim());
-                    String activityLevel = parts[5].trim();
-                    DailyProfile profile = new DailyProfile(date, gender, height, age, weight, activityLevel);
-                    profileMap.put(date, profile);
-                }
-            }
-        } catch (Exception e) {
-            System.err.println("Error loading profiles: " + e.getMessage());
-        }
-    }
-
-    // Save the global profileMap and calcMethodFromFile to profile.txt
-    private static void saveProfiles() {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter("./data/profile.txt"))) {
-            // Write header for calculation method
-            writer.write("CALC_METHOD:" + calcMethodFromFile);
-            writer.newLine();
-            writer.write("# Date;Gender;Height;Age;Weight;ActivityLevel");
-            writer.newLine();
-            List<LocalDate> dates = new ArrayList<>(profileMap.keySet());
-            Collections.sort(dates);
-            for (LocalDate d : dates) {
-                DailyProfile p = profileMap.get(d);
-                writer.write(d.toString() + ";" + p.getGender() + ";" + p.getHeight() + ";" + p.getAge() + ";" + p.getWeight() + ";" + p.getActivityLevel());
-                writer.newLine();
-            }
-        } catch (IOException e) {
-            System.err.println("Error saving profiles: " + e.getMessage());
-        }
-    }
-    
-
     private static void updateDailyProfileCLI(Scanner scanner) {
         // Do not reload profiles here; we use the global cache loaded at startup.
         System.out.print("Enter date for profile update (YYYY-MM-DD) or press ENTER for today: ");
@@ -859,10 +1430,10 @@ public class FoodDiaryApp {
             }
         }
         
-        DailyProfile profile = profileMap.get(date);
+        DailyProfile profile = diary.getProfile(date);
         if (profile == null) {
             // Try to get the most recent profile before this date
-            profile = getMostRecentProfile(date);
+            profile = diary.getMostRecentProfile(date);
             if (profile != null) {
                 // Create a new profile for this date, copying previous details
                 profile = new DailyProfile(date, profile.getGender(), profile.getHeight(), profile.getAge(), profile.getWeight(), profile.getActivityLevel());
@@ -896,14 +1467,14 @@ public class FoodDiaryApp {
             profile.setActivityLevel(actLevel.toLowerCase());
         
         // Update the global cache.
-        profileMap.put(date, profile);
+        diary.putProfile(date, profile);
         System.out.println("Profile updated for " + date + ": " + profile);
-        System.out.println("Note: These changes will be written to profile.txt only when you choose 'Save Data'.");
+        System.out.println("Note: These changes will be autosaved to profile.txt shortly, or when you choose 'Save Data'.");
     }    
     
     // Reads the calculation method from profile.txt header (if present)
     private static String fetchCalcMethodFromFile() {
-        File file = new File("./data/profile.txt");
+        File file = new File(diary.getProfileFilePath());
         if (!file.exists()) {
             return "HARRIS_BENEDICT"; // default if file not found
         }
@@ -924,7 +1495,7 @@ public class FoodDiaryApp {
     // Reads all profiles from profile.txt into a temporary map (without updating global cache)
     private static Map<LocalDate, DailyProfile> fetchProfilesFromFile() {
         Map<LocalDate, DailyProfile> tempProfiles = new HashMap<>();
-        File file = new File("./data/profile.txt");
+        File file = new File(diary.getProfileFilePath());
         if (!file.exists()) {
             return tempProfiles;
         }
@@ -959,44 +1530,106 @@ public class FoodDiaryApp {
     }
 
 
-    private static DailyProfile getMostRecentProfile(LocalDate date) {
-        DailyProfile recent = null;
-        for (LocalDate d : profileMap.keySet()) {
-            if (d.isBefore(date)) {
-                if (recent == null || d.isAfter(recent.getDate())) {
-                    recent = profileMap.get(d);
-                }
-            }
-        }
-        return recent;
-    }
-    
-
     private static void changeCalcMethodCLI(Scanner scanner) {
-        System.out.println("Current calculation method: " + calcMethodFromFile);
+        System.out.println("Current calculation method: " + diary.getCalcMethod());
         System.out.println("Select new Calorie Calculation Method:");
         System.out.println("1. Harris-Benedict");
         System.out.println("2. Mifflin-St Jeor");
         System.out.print("Enter option (or press ENTER to keep current): ");
         String choice = scanner.nextLine().trim();
         if (choice.isEmpty()) {
-            System.out.println("No change made. Calculation method remains: " + calcMethodFromFile);
+            System.out.println("No change made. Calculation method remains: " + diary.getCalcMethod());
             return;
         }
         if (choice.equals("1")) {
-            calcMethodFromFile = "HARRIS_BENEDICT";
+            diary.setCalcMethod("HARRIS_BENEDICT");
             System.out.println("Calorie calculation method set to Harris-Benedict.");
         } else if (choice.equals("2")) {
-            calcMethodFromFile = "MIFFLIN_ST_JEOR";
+            diary.setCalcMethod("MIFFLIN_ST_JEOR");
             System.out.println("Calorie calculation method set to Mifflin-St Jeor.");
         } else {
             System.out.println("Invalid selection. Calculation method unchanged.");
+            return;
         }
-        System.out.println("Note: This change will be saved to profile.txt only when you choose 'Save Data'.");
+        System.out.println("Note: This change will be autosaved to profile.txt shortly, or when you choose 'Save Data'.");
     }
     
 
-    private static double calculateTargetCalories(DailyProfile profile, String calcMethod) {
+    // A planner for what is left of the day's calorie target (target minus what is already
+    // logged), or null if the diary has no profile for the date.
+    static MealPlanner newMealPlanner(UserDiary diary, LocalDate date, double tolerance) {
+        Double target = diary.targetCalories(date);
+        if (target == null)
+            return null;
+        return new MealPlanner(target - diary.totalCaloriesConsumed(date), tolerance);
+    }
+
+    private static void suggestMealsCLI(Scanner scanner) {
+        System.out.print("Enter date (YYYY-MM-DD) or press ENTER for today: ");
+        String dateInput = scanner.nextLine().trim();
+        LocalDate date;
+        try {
+            date = dateInput.isEmpty() ? LocalDate.now() : LocalDate.parse(dateInput);
+        } catch (DateTimeParseException e) {
+            System.out.println("Invalid date format.");
+            return;
+        }
+        System.out.print("Tolerance in calories (ENTER for " + MealPlanner.DEFAULT_TOLERANCE + "): ");
+        String toleranceInput = scanner.nextLine().trim();
+        double tolerance;
+        try {
+            tolerance = toleranceInput.isEmpty() ? MealPlanner.DEFAULT_TOLERANCE : Double.parseDouble(toleranceInput);
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid number.");
+            return;
+        }
+        MealPlanner planner = newMealPlanner(diary, date, tolerance);
+        if (planner == null) {
+            System.out.println("No profile available for " + date + ". Please update your profile.");
+            return;
+        }
+        if (planner.getBudget() <= 0) {
+            System.out.println("No calories left in your target for " + date + ".");
+            return;
+        }
+        FoodQuery query = new FoodQuery();
+        System.out.print("Only foods with these keywords (separated by space, ENTER for any): ");
+        for (String keyword : scanner.nextLine().trim().split("\\s+")) {
+            query.keyword(keyword);
+        }
+        System.out.print("Nutrient limits as name:min:max, e.g. protein:5: (separated by space, ENTER for none): ");
+        for (String limit : scanner.nextLine().trim().split("\\s+")) {
+            if (limit.isEmpty())
+                continue;
+            String[] parts = limit.split(":", -1);
+            try {
+                if (parts.length != 3 || parts[0].isEmpty())
+                    throw new NumberFormatException();
+                query.nutrient(parts[0],
+                        parts[1].isEmpty() ? Double.NEGATIVE_INFINITY : Double.parseDouble(parts[1]),
+                        parts[2].isEmpty() ? Double.POSITIVE_INFINITY : Double.parseDouble(parts[2]));
+            } catch (NumberFormatException e) {
+                System.out.println("Invalid nutrient limit: " + limit);
+                return;
+            }
+        }
+        List<MealPlanner.Plan> plans = planner.plan(queryFoods(query));
+        System.out.printf("Remaining calories for %s: %.2f%n", date, planner.getBudget());
+        if (plans.isEmpty()) {
+            System.out.println("No combination of saved foods fits within " + tolerance + " calories.");
+            return;
+        }
+        for (int i = 0; i < plans.size(); i++) {
+            MealPlanner.Plan plan = plans.get(i);
+            System.out.printf("%d. %.2f calories:%n", i + 1, plan.getCalories());
+            for (MealPlanner.Item item : plan.getItems()) {
+                System.out.printf("   %s x %.1f (ID: %s, %.2f calories)%n", item.getFood().getName(), item.getServings(),
+                        item.getFood().getId(), item.getFood().getCalories() * item.getServings());
+            }
+        }
+    }
+
+    static double calculateTargetCalories(DailyProfile profile, String calcMethod) {
         double bmr = 0;
         if (calcMethod.equalsIgnoreCase("HARRIS_BENEDICT")) {
             if (profile.getGender().equalsIgnoreCase("M")) {
@@ -1078,15 +1711,8 @@ public class FoodDiaryApp {
             return;
         }
         
-        // Use the in-memory dailyLogManager for logs.
-        DailyLog log = dailyLogManager.getLog(date);
-        double totalConsumed = 0;
-        for (LogEntry entry : log.getEntries()) {
-            Food food = getFoodById(entry.getFoodId());
-            if (food != null) {
-                totalConsumed += food.getCalories() * entry.getServings();
-            }
-        }
+        // Use the in-memory diary logs.
+        double totalConsumed = diary.totalCaloriesConsumed(date);
         double target = calculateTargetCalories(profile, fileCalcMethod);
         double difference = totalConsumed - target;
         System.out.println("Calorie Summary for " + date + ":");
@@ -0,0 +1,273 @@
+package app;
+
+import model.Food;
+import java.util.*;
+
+// Suggests foods to fill what is left of a day's calorie budget: combinations of up to
+// maxFoods different foods, each in half-serving steps up to maxServings, whose calories
+// land within tolerance of the budget. The closest plans are returned, fewer foods first
+// among equally close ones; no two plans use the same set of foods.
+//
+// Depth-first branch and bound over the candidates sorted by calories. At each level the
+// last food of a plan is not enumerated: for every serving size the food that brings the
+// total closest to the budget is found by binary search. Earlier levels walk the candidates
+// in ascending order and stop as soon as the running total passes the upper end of the
+// window, and skip prefixes that cannot reach its lower end even with the largest foods.
+// Once maxPlans plans are kept the window narrows to the distance of the worst of them, and
+// the search ends early when all of them are exact (within EXACT calories). Otherwise it
+// stops at the time budget and returns the best plans found so far.
+public class MealPlanner {
+    public static final int DEFAULT_MAX_FOODS = 3;
+    public static final double DEFAULT_MAX_SERVINGS = 3;
+    public static final int DEFAULT_MAX_PLANS = 5;
+    public static final long DEFAULT_TIME_BUDGET_MILLIS = 200;
+    public static final double DEFAULT_TOLERANCE = 50;
+    // Plans this close to the budget count as exact.
+    private static final double EXACT = 0.01;
+
+    public static final class Item {
+        private final Food food;
+        private final double servings;
+
+        Item(Food food, double servings) {
+            this.food = food;
+            this.servings = servings;
+        }
+
+        public Food getFood() {
+            return food;
+        }
+
+        public double getServings() {
+            return servings;
+        }
+    }
+
+    public static final class Plan {
+        private final List<Item> items;
+        private final double calories;
+        // Candidate indexes of the foods, in ascending order; equal for plans with the same foods.
+        private final String foodSet;
+
+        Plan(List<Item> items, double calories, String foodSet) {
+            this.items = Collections.unmodifiableList(items);
+            this.calories = calories;
+            this.foodSet = foodSet;
+        }
+
+        public List<Item> getItems() {
+            return items;
+        }
+
+        public double getCalories() {
+            return calories;
+        }
+    }
+
+    private final double budget;
+    private final double tolerance;
+    private int maxFoods = DEFAULT_MAX_FOODS;
+    private double maxServings = DEFAULT_MAX_SERVINGS;
+    private int maxPlans = DEFAULT_MAX_PLANS;
+    private long timeBudgetMillis = DEFAULT_TIME_BUDGET_MILLIS;
+
+    // Search state for one plan() call.
+    private Food[] foods;
+    private double[] calories;
+    private double[] servingSteps;
+    private double lower;
+    private double upper;
+    private long deadline;
+    private long nodes;
+    private boolean timedOut;
+    // Set when the search should end, at the time budget or once every kept plan is exact.
+    private boolean stopped;
+    // At most maxPlans, best first.
+    private final List<Plan> best = new ArrayList<>();
+
+    public MealPlanner(double budget, double tolerance) {
+        this.budget = budget;
+        this.tolerance = Math.abs(tolerance);
+    }
+
+    public void setMaxFoods(int maxFoods) {
+        this.maxFoods = Math.max(1, maxFoods);
+    }
+
+    public void setMaxServings(double maxServings) {
+        this.maxServings = Math.max(0.5, maxServings);
+    }
+
+    public void setMaxPlans(int maxPlans) {
+        this.maxPlans = Math.max(1, maxPlans);
+    }
+
+    public void setTimeBudgetMillis(long timeBudgetMillis) {
+        this.timeBudgetMillis = timeBudgetMillis;
+    }
+
+    public double getBudget() {
+        return budget;
+    }
+
+    // True if the last plan() call stopped at the time budget rather than finishing the search.
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    // Plans from the candidate foods, closest to the budget first; empty if none fits the
+    // window or the budget is already used up.
+    public List<Plan> plan(Collection<Food> candidates) {
+        best.clear();
+        timedOut = false;
+        stopped = false;
+        nodes = 0;
+        lower = budget - tolerance;
+        upper = budget + tolerance;
+        if (budget <= 0) {
+            return new ArrayList<>();
+        }
+        List<Food> usable = new ArrayList<>(candidates.size());
+        for (Food food : candidates) {
+            if (food.getCalories() > 0 && food.getCalories() * 0.5 <= upper)
+                usable.add(food);
+        }
+        usable.sort(Comparator.comparingDouble(Food::getCalories));
+        foods = usable.toArray(new Food[0]);
+        calories = new double[foods.length];
+        for (int i = 0; i < foods.length; i++) {
+            calories[i] = foods[i].getCalories();
+        }
+        int steps = (int) Math.round(maxServings * 2);
+        servingSteps = new double[steps];
+        for (int i = 0; i < steps; i++) {
+            servingSteps[i] = (i + 1) * 0.5;
+        }
+        deadline = System.nanoTime() + timeBudgetMillis * 1_000_000;
+        search(new int[maxFoods], new double[maxFoods], 0, 0, 0);
+        List<Plan> plans = new ArrayList<>(best);
+        foods = null;
+        calories = null;
+        return plans;
+    }
+
+    // chosen[0..depth) and their servings make up the running total; candidates from start
+    // onwards may still be added.
+    private void search(int[] chosen, double[] servings, int depth, int start, double total) {
+        if (start >= foods.length || outOfTime())
+            return;
+        close(chosen, servings, depth, start, total);
+        if (depth + 1 >= maxFoods)
+            return;
+        double largest = calories[foods.length - 1] * maxServings;
+        // Even adding the largest foods to every remaining slot cannot reach the window.
+        if (total + largest * (maxFoods - depth) < lower)
+            return;
+        double smallestStep = servingSteps[0];
+        for (int i = start; i < foods.length; i++) {
+            if (total + calories[i] * smallestStep > upper)
+                break;
+            chosen[depth] = i;
+            for (double s : servingSteps) {
+                double next = total + calories[i] * s;
+                if (next > upper)
+                    break;
+                servings[depth] = s;
+                search(chosen, servings, depth + 1, i + 1, next);
+                if (stopped)
+                    return;
+            }
+        }
+    }
+
+    // Completes the plan with one more food: for each serving size, the candidate whose
+    // calories bring the total nearest the budget.
+    private void close(int[] chosen, double[] servings, int depth, int start, double total) {
+        for (double s : servingSteps) {
+            double wanted = (budget - total) / s;
+            int at = lowerBound(wanted, start);
+            for (int i = Math.max(start, at - 1); i <= at && i < foods.length; i++) {
+                double planTotal = total + calories[i] * s;
+                if (planTotal >= lower && planTotal <= upper) {
+                    chosen[depth] = i;
+                    servings[depth] = s;
+                    offer(chosen, servings, depth + 1, planTotal);
+                }
+            }
+        }
+    }
+
+    // Narrows the window to plans at least as close as the worst one kept, once there are
+    // maxPlans of them; ends the search when they are all exact.
+    private void tighten() {
+        if (best.size() < maxPlans)
+            return;
+        double worstDistance = Math.abs(best.get(best.size() - 1).getCalories() - budget);
+        lower = Math.max(lower, budget - worstDistance);
+        upper = Math.min(upper, budget + worstDistance);
+        if (worstDistance <= EXACT)
+            stopped = true;
+    }
+
+    private void offer(int[] chosen, double[] servings, int count, double total) {
+        double distance = Math.abs(total - budget);
+        if (best.size() >= maxPlans) {
+            Plan worst = best.get(best.size() - 1);
+            double worstDistance = Math.abs(worst.getCalories() - budget);
+            if (distance > worstDistance || (distance == worstDistance && count >= worst.getItems().size()))
+                return;
+        }
+        StringBuilder key = new StringBuilder();
+        List<Item> items = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            key.append(chosen[i]).append(',');
+            items.add(new Item(foods[chosen[i]], servings[i]));
+        }
+        Plan plan = new Plan(items, total, key.toString());
+        for (int i = 0; i < best.size(); i++) {
+            if (best.get(i).foodSet.equals(plan.foodSet)) {
+                if (compare(best.get(i), plan) <= 0)
+                    return;
+                best.remove(i);
+                break;
+            }
+        }
+        int pos = 0;
+        while (pos < best.size() && compare(best.get(pos), plan) <= 0) {
+            pos++;
+        }
+        best.add(pos, plan);
+        if (best.size() > maxPlans) {
+            best.remove(best.size() - 1);
+        }
+        tighten();
+    }
+
+    private int compare(Plan a, Plan b) {
+        int c = Double.compare(Math.abs(a.getCalories() - budget), Math.abs(b.getCalories() - budget));
+        return c != 0 ? c : Integer.compare(a.getItems().size(), b.getItems().size());
+    }
+
+    // First candidate at or after start with calories >= value.
+    private int lowerBound(double value, int start) {
+        int lo = start;
+        int hi = foods.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (calories[mid] < value)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    // The clock is read every 1024 nodes.
+    private boolean outOfTime() {
+        if (!stopped && (++nodes & 1023) == 0 && System.nanoTime() > deadline) {
+            timedOut = true;
+            stopped = true;
+        }
+        return stopped;
+    }
+}
@@ -0,0 +1,341 @@
+package app;
+
+import app.ReplicationProtocol.Record;
+import database.AutoSaveService;
+import database.DailyLogManager;
+import database.FileWatcher;
+import database.FoodDatabase;
+import database.LogArchive;
+import log.DailyLog;
+import log.LogEntry;
+import log.LogOp;
+import metrics.ReplicationMXBean;
+import model.Food;
+import output.Messages;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+// The standby end of replication: listens on a loopback port for a ReplicationLeader and
+// applies what it ships to this process's diary and catalog as it arrives. Every change goes
+// through the same paths as a local one (log ops through record(), so the journal keeps them;
+// foods and profiles as FileWatcher records) and marks its store dirty, so the standby's own
+// data directory follows the leader's with the usual autosave delay.
+// A snapshot replaces the whole state: what it did not contain is removed when it ends.
+// Records are acknowledged once applied, and close() lets the frame being applied finish, so a
+// promoted standby holds the leader's state as of some record.
+class ReplicationFollower implements ReplicationMXBean {
+    // While a long frame is applied, progress is acknowledged this often, so the leader can
+    // tell a slow follower from a stuck one.
+    static final long PROGRESS_ACK_MILLIS = 500;
+
+    private final UserDiary diary;
+    private final ServerSocket server;
+    private final AtomicLong appliedSeq = new AtomicLong();
+    private final AtomicLong lastSeq = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong records = new AtomicLong();
+    private volatile long lagMillis;
+    private volatile Socket socket;
+    private volatile boolean closed;
+    private volatile boolean synced;
+    private Thread thread;
+    // What the snapshot being received contained; null outside a snapshot.
+    private Set<String> snapshotFoods;
+    private Set<LocalDate> snapshotDays;
+    private Set<String> snapshotProfiles;
+    // Food records of the frame being applied, applied together: each application re-indexes
+    // the catalog, and a snapshot ships it a chunk per record.
+    private final Map<String, String> pendingFoods = new LinkedHashMap<>();
+    // The archived month last compared with shipped days, and its days.
+    private YearMonth archivedMonth;
+    private SortedMap<LocalDate, List<LogEntry>> archivedDays;
+
+    ReplicationFollower(UserDiary diary, int port) throws IOException {
+        this.diary = diary;
+        this.server = new ServerSocket(port, 1, InetAddress.getLoopbackAddress());
+    }
+
+    synchronized void start() {
+        if (thread != null)
+            return;
+        thread = new Thread(this::run, "yada-replication-follower");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Stops following once the frame being applied (if any) is done.
+    void close() {
+        closed = true;
+        try {
+            server.close();
+        } catch (IOException e) {
+        }
+        Socket current = socket;
+        if (current != null) {
+            try {
+                current.shutdownInput();
+            } catch (IOException e) {
+            }
+        }
+        Thread t = thread;
+        if (t != null) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // True once a whole snapshot has been applied.
+    boolean isSynced() {
+        return synced;
+    }
+
+    String describe() {
+        return (isConnected() ? "Connected" : "Not connected") + "; applied record " + appliedSeq.get()
+            + " of " + lastSeq.get() + " (" + getLagRecords() + " behind, last applied " + lagMillis + " ms after it was shipped).";
+    }
+
+    private void run() {
+        while (!closed) {
+            try (Socket s = server.accept()) {
+                socket = s;
+                DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream(), 1 << 16));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+                if (in.readInt() != ReplicationProtocol.MAGIC) {
+                    Messages.warn("replication.invalid", () -> "Ignoring a replication connection that is not from a leader.");
+                    continue;
+                }
+                Messages.info("replication.connected", () -> "Following the leader.");
+                long[] leaderSeq = new long[1];
+                while (true) {
+                    List<Record> frame;
+                    try {
+                        frame = ReplicationProtocol.readFrame(in, leaderSeq);
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    lastSeq.set(leaderSeq[0]);
+                    long ackedAt = System.currentTimeMillis();
+                    for (Record record : frame) {
+                        apply(record);
+                        // Pending foods are not applied yet, so only acknowledge without any.
+                        if (pendingFoods.isEmpty() && System.currentTimeMillis() - ackedAt >= PROGRESS_ACK_MILLIS) {
+                            applied(record, out);
+                            ackedAt = System.currentTimeMillis();
+                        }
+                    }
+                    applyPendingFoods();
+                    applied(frame.get(frame.size() - 1), out);
+                    batches.incrementAndGet();
+                    records.addAndGet(frame.size());
+                }
+            } catch (IOException | RuntimeException e) {
+                // The leader resyncs on its next connection.
+                if (!closed)
+                    Messages.warn("replication.lost", () -> "Lost the replication leader: " + e.getMessage());
+            } finally {
+                socket = null;
+            }
+        }
+    }
+
+    private void applied(Record record, DataOutputStream out) throws IOException {
+        appliedSeq.set(record.seq);
+        lagMillis = Math.max(0, System.currentTimeMillis() - record.timeMillis);
+        out.writeLong(record.seq);
+        out.flush();
+    }
+
+    private void apply(Record record) throws IOException {
+        DailyLogManager logManager = diary.getLogManager();
+        AutoSaveService autoSave = diary.getAutoSave();
+        // Log entries may refer to the foods, so they go in first.
+        if (record.type != ReplicationProtocol.FOODS)
+            applyPendingFoods();
+        switch (record.type) {
+            case ReplicationProtocol.SNAPSHOT_BEGIN:
+                synced = false;
+                snapshotFoods = new HashSet<>();
+                snapshotDays = new HashSet<>();
+                snapshotProfiles = new HashSet<>();
+                break;
+            case ReplicationProtocol.SNAPSHOT_END:
+                endSnapshot();
+                break;
+            case ReplicationProtocol.FOODS: {
+                Map<String, String> foods = ReplicationProtocol.decodeRecords(record.payload);
+                if (snapshotFoods != null)
+                    snapshotFoods.addAll(foods.keySet());
+                // A resync ships every food again; those this side already has as shipped are skipped.
+                for (Map.Entry<String, String> food : foods.entrySet()) {
+                    Food current = FoodDiaryApp.getFoodById(food.getKey());
+                    String line = current == null ? null : FoodDatabase.formatFood(current);
+                    if (!Objects.equals(line, food.getValue()) || pendingFoods.containsKey(food.getKey()))
+                        pendingFoods.put(food.getKey(), food.getValue());
+                }
+                break;
+            }
+            case ReplicationProtocol.PROFILES: {
+                Map<String, String> profiles = ReplicationProtocol.decodeRecords(record.payload);
+                if (snapshotProfiles != null)
+                    snapshotProfiles.addAll(profiles.keySet());
+                diary.reloadProfiles(profiles);
+                autoSave.markDirty(diary.getProfileStore());
+                break;
+            }
+            case ReplicationProtocol.LOG: {
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(record.payload));
+                LocalDate date = LogOp.readDate(in);
+                List<LogOp> ops = LogOp.readAll(in);
+                LogOp failed = logManager.withLog(date, log -> {
+                    // Tried on a copy first, so a change that does not fit this side's day leaves
+                    // the day (and its journal) as it was.
+                    DailyLog copy = new DailyLog(date);
+                    for (LogEntry entry : log.snapshotEntries())
+                        copy.addEntry(new LogEntry(entry.getFoodId(), entry.getServings()));
+                    for (LogOp op : ops) {
+                        if (!op.applyTo(copy))
+                            return op;
+                    }
+                    for (LogOp op : ops)
+                        op.applyTo(log);
+                    logManager.record(date, ops);
+                    return null;
+                });
+                // The day has diverged from the leader's: drop the connection without acknowledging
+                // the record, so the leader resyncs with a snapshot on the next one.
+                if (failed != null) {
+                    Messages.warn("replication.mismatch", () -> "Replicated change to " + date + " did not apply: no entry for " + failed.getFoodId() + ".");
+                    throw new IOException("replicated change to " + date + " does not match this side's log");
+                }
+                for (LogOp op : ops) {
+                    if (op.isInsert())
+                        diary.getFoodUsage().record(op.getFoodId(), date);
+                }
+                autoSave.markDirty(logManager);
+                break;
+            }
+            case ReplicationProtocol.DAY: {
+                List<LogEntry> entries = new ArrayList<>();
+                LocalDate date = ReplicationProtocol.decodeDay(record.payload, entries);
+                if (snapshotDays != null)
+                    snapshotDays.add(date);
+                if (isArchivedAs(date, entries))
+                    break;
+                logManager.replaceDay(date, entries);
+                autoSave.markDirty(logManager);
+                break;
+            }
+            default:
+                throw new IOException("Unknown replication record type " + record.type);
+        }
+    }
+
+    // True if the day is in an archived month and holds the entries there; a snapshot ships
+    // every day, and the ones that did not change stay archived instead of being thawed.
+    private boolean isArchivedAs(LocalDate date, List<LogEntry> entries) {
+        LogArchive archive = diary.getLogManager().getArchive();
+        YearMonth month = YearMonth.from(date);
+        if (archive == null || !archive.contains(month))
+            return false;
+        if (!month.equals(archivedMonth)) {
+            archivedDays = archive.read(month);
+            archivedMonth = month;
+        }
+        List<LogEntry> archived = archivedDays.getOrDefault(date, Collections.emptyList());
+        if (archived.size() != entries.size())
+            return false;
+        for (int i = 0; i < entries.size(); i++) {
+            if (archived.get(i).getFoodSymbol() != entries.get(i).getFoodSymbol() || archived.get(i).getServings() != entries.get(i).getServings())
+                return false;
+        }
+        return true;
+    }
+
+    private void applyPendingFoods() {
+        if (pendingFoods.isEmpty())
+            return;
+        FoodDiaryApp.applyReplicatedFoods(pendingFoods);
+        pendingFoods.clear();
+    }
+
+    // Removes what this side has but the snapshot did not contain.
+    private void endSnapshot() {
+        if (snapshotFoods == null)
+            return;
+        Map<String, String> removedFoods = new LinkedHashMap<>();
+        for (String id : FoodDiaryApp.getAllFoodIds()) {
+            if (!snapshotFoods.contains(id))
+                removedFoods.put(id, null);
+        }
+        if (!removedFoods.isEmpty())
+            FoodDiaryApp.applyReplicatedFoods(removedFoods);
+        Map<String, String> removedProfiles = new LinkedHashMap<>();
+        for (String key : diary.getProfileRecords().keySet()) {
+            if (!key.equals(FileWatcher.CALC_METHOD) && !snapshotProfiles.contains(key))
+                removedProfiles.put(key, null);
+        }
+        if (!removedProfiles.isEmpty()) {
+            diary.reloadProfiles(removedProfiles);
+            diary.getAutoSave().markDirty(diary.getProfileStore());
+        }
+        DailyLogManager logManager = diary.getLogManager();
+        for (LocalDate date : logManager.readLogs(LocalDate.MIN, LocalDate.MAX).keySet()) {
+            if (!snapshotDays.contains(date)) {
+                logManager.replaceDay(date, Collections.emptyList());
+                diary.getAutoSave().markDirty(logManager);
+            }
+        }
+        diary.getFoodUsage().rebuild(logManager.getAllLogs());
+        archivedMonth = null;
+        archivedDays = null;
+        snapshotFoods = null;
+        snapshotDays = null;
+        snapshotProfiles = null;
+        synced = true;
+        Messages.info("replication.synced", () -> "Replication snapshot applied.");
+    }
+
+    @Override
+    public boolean isConnected() {
+        return socket != null;
+    }
+
+    @Override
+    public long getLastSeq() {
+        return lastSeq.get();
+    }
+
+    @Override
+    public long getAppliedSeq() {
+        return appliedSeq.get();
+    }
+
+    @Override
+    public long getLagRecords() {
+        return Math.max(0, lastSeq.get() - appliedSeq.get());
+    }
+
+    @Override
+    public long getLagMillis() {
+        return lagMillis;
+    }
+
+    @Override
+    public long getBatches() {
+        return batches.get();
+    }
+
+    @Override
+    public long getRecords() {
+        return records.get();
+    }
+}
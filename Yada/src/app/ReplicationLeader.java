@@ -0,0 +1,384 @@
+package app;
+
+import app.ReplicationProtocol.Record;
+import database.DailyLogManager;
+import database.FoodCatalog;
+import database.FoodDatabase;
+import database.FoodOrder;
+import database.LogArchive;
+import log.DailyLog;
+import log.LogEntry;
+import log.LogOp;
+import metrics.ReplicationMXBean;
+import model.CompositeFood;
+import model.Food;
+import output.Messages;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Keeps a warm standby of the CLI diary and the food catalog: every change to them (log ops as
+// recorded, food lines, profile records) is queued as it happens and shipped to a
+// ReplicationFollower on a loopback port, in the format of ReplicationProtocol.
+// Each connection starts with a snapshot of the whole state, copied under the diary lock with
+// every day locked and then encoded and queued without them; changes made meanwhile are held
+// back and queued after it, so it sits exactly between the changes before and after the copy.
+// The shipper thread batches what is queued (up to BATCH_RECORDS, waiting up to BATCH_LINGER_MILLIS
+// for a batch to fill) and keeps up to WINDOW batches unacknowledged, so shipping does not wait
+// for the follower to apply. While no follower is connected changes are not queued; if the
+// queue outgrows MAX_QUEUED the connection is dropped, and the next one resyncs with a snapshot.
+class ReplicationLeader implements ReplicationMXBean {
+    static final int BATCH_RECORDS = 512;
+    static final long BATCH_LINGER_MILLIS = 5;
+    static final int WINDOW = 64;
+    static final int MAX_QUEUED = 100_000;
+    static final long RETRY_MILLIS = 1000;
+    // Foods per snapshot record.
+    static final int SNAPSHOT_CHUNK = 256;
+    // How long close() waits for the follower to acknowledge more before disconnecting.
+    static final long CLOSE_WAIT_MILLIS = 30_000;
+
+    private final UserDiary diary;
+    private final List<FoodCatalog> catalogs;
+    private final int port;
+    private final LinkedBlockingQueue<Record> queue = new LinkedBlockingQueue<>();
+    // Last record number given out; taken together with the queue's lock order.
+    private long lastSeq;
+    // While a snapshot is being encoded, the changes made since it was copied, still without
+    // record numbers; null otherwise. Guarded by the queue's lock.
+    private List<Record> held;
+    private final AtomicLong ackedSeq = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong records = new AtomicLong();
+    private volatile Session session;
+    private volatile boolean closed;
+    private Thread thread;
+
+    private static final class Session {
+        final Socket socket;
+        final DataOutputStream out;
+        final DataInputStream in;
+        final Semaphore window = new Semaphore(WINDOW);
+        // {last record number, time the first record was queued} of each unacknowledged batch.
+        final ConcurrentLinkedDeque<long[]> inFlight = new ConcurrentLinkedDeque<>();
+        volatile boolean dropped;
+
+        Session(Socket socket) throws IOException {
+            this.socket = socket;
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        }
+    }
+
+    ReplicationLeader(UserDiary diary, List<FoodCatalog> catalogs, int port) {
+        this.diary = diary;
+        this.catalogs = catalogs;
+        this.port = port;
+    }
+
+    synchronized void start() {
+        if (thread != null)
+            return;
+        diary.getLogManager().setOpListener(this::logChanged);
+        diary.setProfileListener(this::profilesChanged);
+        thread = new Thread(this::run, "yada-replication-leader");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Waits for the follower to apply what was shipped, as long as it keeps making progress,
+    // then disconnects.
+    void close() {
+        long acked = ackedSeq.get();
+        long deadline = System.currentTimeMillis() + CLOSE_WAIT_MILLIS;
+        while (session != null && getLagRecords() > 0 && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (ackedSeq.get() != acked) {
+                acked = ackedSeq.get();
+                deadline = System.currentTimeMillis() + CLOSE_WAIT_MILLIS;
+            }
+        }
+        closed = true;
+        diary.getLogManager().setOpListener(null);
+        diary.setProfileListener(null);
+        Session current = session;
+        if (current != null)
+            drop(current);
+    }
+
+    // Called by DailyLogManager.record, under the day's lock.
+    void logChanged(LocalDate date, List<LogOp> ops) {
+        if (session != null)
+            enqueue(ReplicationProtocol.LOG, ReplicationProtocol.encodeOps(date, ops));
+    }
+
+    // Food records (ID -> line, null for removed) changed under the diary lock.
+    void foodsChanged(Map<String, String> foods) {
+        if (session != null)
+            enqueue(ReplicationProtocol.FOODS, ReplicationProtocol.encodeRecords(foods));
+    }
+
+    // Called by UserDiary under its lock.
+    void profilesChanged(Map<String, String> profiles) {
+        if (session != null)
+            enqueue(ReplicationProtocol.PROFILES, ReplicationProtocol.encodeRecords(profiles));
+    }
+
+    private void enqueue(byte type, byte[] payload) {
+        synchronized (queue) {
+            if (held != null) {
+                held.add(new Record(type, 0, System.currentTimeMillis(), payload));
+                return;
+            }
+            queue.add(new Record(type, ++lastSeq, System.currentTimeMillis(), payload));
+        }
+        Session current = session;
+        if (current != null && queue.size() > MAX_QUEUED) {
+            Messages.warn("replication.overflow", () -> "Replication follower is too far behind; reconnecting to resync it.");
+            drop(current);
+        }
+    }
+
+    private void run() {
+        while (!closed) {
+            Session s;
+            try {
+                s = new Session(new Socket(InetAddress.getLoopbackAddress(), port));
+            } catch (IOException e) {
+                sleep(RETRY_MILLIS);
+                continue;
+            }
+            try {
+                s.out.writeInt(ReplicationProtocol.MAGIC);
+                resync(s);
+                Messages.info("replication.connected", () -> "Replicating to the follower on port " + port + ".");
+                Thread acks = new Thread(() -> readAcks(s), "yada-replication-acks");
+                acks.setDaemon(true);
+                acks.start();
+                ship(s);
+            } catch (IOException | RuntimeException e) {
+                if (!s.dropped && !closed)
+                    Messages.warn("replication.lost", () -> "Lost the replication follower: " + e.getMessage());
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                drop(s);
+            }
+            sleep(RETRY_MILLIS);
+        }
+    }
+
+    // Queues the whole state: foods (components before the composites using them), profiles
+    // and every day, archived ones included. Only copying it holds the diary lock and every day's
+    // lock; changes made after that are held back until the snapshot is queued. The archive is
+    // held throughout, so no month is thawed or archived between the copy and reading it.
+    private void resync(Session s) {
+        DailyLogManager logManager = diary.getLogManager();
+        LogArchive archive = logManager.getArchive();
+        List<Food> foods = new ArrayList<>();
+        Map<String, String> profiles = new LinkedHashMap<>();
+        SortedMap<LocalDate, List<LogEntry>> days = new TreeMap<>();
+        synchronized (archive != null ? archive : new Object()) {
+            synchronized (diary.getLock()) {
+                logManager.withAllLogsLocked(() -> {
+                    foods.addAll(snapshotFoods());
+                    profiles.putAll(diary.getProfileRecords());
+                    for (Map.Entry<LocalDate, DailyLog> day : logManager.getAllLogs().entrySet()) {
+                        List<LogEntry> copy = new ArrayList<>();
+                        for (LogEntry entry : day.getValue().snapshotEntries()) {
+                            copy.add(new LogEntry(entry.getFoodId(), entry.getServings()));
+                        }
+                        if (!copy.isEmpty())
+                            days.put(day.getKey(), copy);
+                    }
+                    synchronized (queue) {
+                        queue.clear();
+                        held = new ArrayList<>();
+                    }
+                    session = s;
+                    return null;
+                });
+            }
+            if (archive != null)
+                days.putAll(archive.read(LocalDate.MIN, LocalDate.MAX));
+        }
+        List<Record> snapshot = new ArrayList<>();
+        snapshot.add(new Record(ReplicationProtocol.SNAPSHOT_BEGIN, 0, 0, new byte[0]));
+        Map<String, String> chunk = new LinkedHashMap<>();
+        for (Food food : foods) {
+            String line = FoodDatabase.formatFood(food);
+            if (line == null)
+                continue;
+            chunk.put(food.getId(), line);
+            if (chunk.size() == SNAPSHOT_CHUNK) {
+                snapshot.add(new Record(ReplicationProtocol.FOODS, 0, 0, ReplicationProtocol.encodeRecords(chunk)));
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty())
+            snapshot.add(new Record(ReplicationProtocol.FOODS, 0, 0, ReplicationProtocol.encodeRecords(chunk)));
+        snapshot.add(new Record(ReplicationProtocol.PROFILES, 0, 0, ReplicationProtocol.encodeRecords(profiles)));
+        for (Map.Entry<LocalDate, List<LogEntry>> day : days.entrySet()) {
+            snapshot.add(new Record(ReplicationProtocol.DAY, 0, 0, ReplicationProtocol.encodeDay(day.getKey(), day.getValue())));
+        }
+        snapshot.add(new Record(ReplicationProtocol.SNAPSHOT_END, 0, 0, new byte[0]));
+        long now = System.currentTimeMillis();
+        synchronized (queue) {
+            for (Record record : snapshot) {
+                queue.add(new Record(record.type, ++lastSeq, now, record.payload));
+            }
+            for (Record record : held) {
+                queue.add(new Record(record.type, ++lastSeq, record.timeMillis, record.payload));
+            }
+            held = null;
+        }
+    }
+
+    private List<Food> snapshotFoods() {
+        Map<String, Food> all = new LinkedHashMap<>();
+        for (FoodCatalog catalog : catalogs) {
+            for (Food food : catalog.getSortedFoods(FoodOrder.ID)) {
+                all.put(food.getId(), food);
+            }
+        }
+        List<Food> foods = new ArrayList<>(all.size());
+        Set<String> added = new HashSet<>();
+        for (Food food : all.values()) {
+            addWithComponents(food, all, foods, added);
+        }
+        return foods;
+    }
+
+    private static void addWithComponents(Food food, Map<String, Food> all, List<Food> foods, Set<String> added) {
+        // Also stops at a cycle.
+        if (!added.add(food.getId()))
+            return;
+        if (food instanceof CompositeFood) {
+            for (Food component : ((CompositeFood) food).getComponents().keySet()) {
+                Food current = all.get(component.getId());
+                if (current != null)
+                    addWithComponents(current, all, foods, added);
+            }
+        }
+        foods.add(food);
+    }
+
+    private void ship(Session s) throws IOException, InterruptedException {
+        List<Record> batch = new ArrayList<>(BATCH_RECORDS);
+        while (!s.dropped && !closed) {
+            Record first = queue.poll(100, TimeUnit.MILLISECONDS);
+            if (first == null)
+                continue;
+            batch.add(first);
+            long lingerUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(BATCH_LINGER_MILLIS);
+            while (batch.size() < BATCH_RECORDS) {
+                if (queue.drainTo(batch, BATCH_RECORDS - batch.size()) > 0)
+                    continue;
+                long wait = lingerUntil - System.nanoTime();
+                Record next = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : null;
+                if (next == null)
+                    break;
+                batch.add(next);
+            }
+            while (!s.window.tryAcquire(100, TimeUnit.MILLISECONDS)) {
+                if (s.dropped || closed)
+                    return;
+            }
+            long last = batch.get(batch.size() - 1).seq;
+            s.inFlight.add(new long[] {last, first.timeMillis});
+            ReplicationProtocol.writeFrame(s.out, batch, getLastSeq());
+            batches.incrementAndGet();
+            records.addAndGet(batch.size());
+            batch.clear();
+        }
+    }
+
+    private void readAcks(Session s) {
+        try {
+            while (!s.dropped) {
+                long acked = s.in.readLong();
+                ackedSeq.set(acked);
+                long[] batch;
+                while ((batch = s.inFlight.peek()) != null && batch[0] <= acked) {
+                    s.inFlight.poll();
+                    s.window.release();
+                }
+            }
+        } catch (IOException e) {
+            drop(s);
+        }
+    }
+
+    private void drop(Session s) {
+        s.dropped = true;
+        if (session == s)
+            session = null;
+        try {
+            s.socket.close();
+        } catch (IOException e) {
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public boolean isConnected() {
+        return session != null;
+    }
+
+    @Override
+    public long getLastSeq() {
+        synchronized (queue) {
+            return lastSeq;
+        }
+    }
+
+    @Override
+    public long getAppliedSeq() {
+        return ackedSeq.get();
+    }
+
+    @Override
+    public long getLagRecords() {
+        return Math.max(0, getLastSeq() - ackedSeq.get());
+    }
+
+    @Override
+    public long getLagMillis() {
+        Session current = session;
+        if (current == null)
+            return 0;
+        long[] oldest = current.inFlight.peek();
+        if (oldest != null)
+            return System.currentTimeMillis() - oldest[1];
+        Record queued = queue.peek();
+        return queued == null ? 0 : System.currentTimeMillis() - queued.timeMillis;
+    }
+
+    @Override
+    public long getBatches() {
+        return batches.get();
+    }
+
+    @Override
+    public long getRecords() {
+        return records.get();
+    }
+}
@@ -0,0 +1,137 @@
+package app;
+
+import log.LogEntry;
+import log.LogOp;
+import java.io.*;
+import java.time.LocalDate;
+import java.util.*;
+
+// Wire format between ReplicationLeader and ReplicationFollower. After a magic number the
+// leader sends frames; each is a record count, the leader's last record number, then the
+// records: type, number, time shipped (epoch millis), payload length and payload. The
+// follower answers every frame with the number of the last record it applied.
+// Payloads:
+//   SNAPSHOT_BEGIN, SNAPSHOT_END  none; between them the leader sends its whole state
+//   FOODS, PROFILES               count, then key, present flag and line (see FileWatcher records)
+//   LOG                           a day's change list (LogOp.writeAll)
+//   DAY                           epoch day, count, then food ID and servings of each entry
+final class ReplicationProtocol {
+    static final int MAGIC = 0x59414452;
+    static final byte SNAPSHOT_BEGIN = 1;
+    static final byte SNAPSHOT_END = 2;
+    static final byte FOODS = 3;
+    static final byte PROFILES = 4;
+    static final byte LOG = 5;
+    static final byte DAY = 6;
+
+    private ReplicationProtocol() {
+    }
+
+    static final class Record {
+        final byte type;
+        final long seq;
+        final long timeMillis;
+        final byte[] payload;
+
+        Record(byte type, long seq, long timeMillis, byte[] payload) {
+            this.type = type;
+            this.seq = seq;
+            this.timeMillis = timeMillis;
+            this.payload = payload;
+        }
+    }
+
+    static void writeFrame(DataOutputStream out, List<Record> records, long lastSeq) throws IOException {
+        out.writeInt(records.size());
+        out.writeLong(lastSeq);
+        for (Record record : records) {
+            out.writeByte(record.type);
+            out.writeLong(record.seq);
+            out.writeLong(record.timeMillis);
+            out.writeInt(record.payload.length);
+            out.write(record.payload);
+        }
+        out.flush();
+    }
+
+    // Reads a frame's records; lastSeq[0] gets the leader's last record number.
+    static List<Record> readFrame(DataInputStream in, long[] lastSeq) throws IOException {
+        int count = in.readInt();
+        lastSeq[0] = in.readLong();
+        List<Record> records = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte type = in.readByte();
+            long seq = in.readLong();
+            long time = in.readLong();
+            byte[] payload = new byte[in.readInt()];
+            in.readFully(payload);
+            records.add(new Record(type, seq, time, payload));
+        }
+        return records;
+    }
+
+    static byte[] encodeRecords(Map<String, String> records) {
+        return encode(out -> {
+            out.writeInt(records.size());
+            for (Map.Entry<String, String> record : records.entrySet()) {
+                out.writeUTF(record.getKey());
+                out.writeBoolean(record.getValue() != null);
+                if (record.getValue() != null)
+                    out.writeUTF(record.getValue());
+            }
+        });
+    }
+
+    static Map<String, String> decodeRecords(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        int count = in.readInt();
+        Map<String, String> records = new LinkedHashMap<>(count * 2);
+        for (int i = 0; i < count; i++) {
+            String key = in.readUTF();
+            records.put(key, in.readBoolean() ? in.readUTF() : null);
+        }
+        return records;
+    }
+
+    static byte[] encodeOps(LocalDate date, List<LogOp> ops) {
+        return encode(out -> LogOp.writeAll(out, date, ops));
+    }
+
+    static byte[] encodeDay(LocalDate date, List<LogEntry> entries) {
+        return encode(out -> {
+            out.writeLong(date.toEpochDay());
+            out.writeInt(entries.size());
+            for (LogEntry entry : entries) {
+                out.writeUTF(entry.getFoodId());
+                out.writeDouble(entry.getServings());
+            }
+        });
+    }
+
+    // Reads a DAY payload into the day's entries; returns its date.
+    static LocalDate decodeDay(byte[] payload, List<LogEntry> entries) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        LocalDate date = LocalDate.ofEpochDay(in.readLong());
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            String foodId = in.readUTF();
+            entries.add(new LogEntry(foodId, in.readDouble()));
+        }
+        return date;
+    }
+
+    private interface Writer {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private static byte[] encode(Writer writer) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writer.write(out);
+        } catch (IOException e) {
+            // Not thrown by an in-memory stream.
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+}
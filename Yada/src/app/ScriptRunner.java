@@ -0,0 +1,219 @@
+package app;
+
+import command.*;
+import database.LogJournal;
+import log.LogEntry;
+import log.VersionConflictException;
+import model.DailyProfile;
+import model.Food;
+import output.BufferedConsoleListener;
+import output.MessageListener;
+import output.Messages;
+import output.NoOpListener;
+import java.io.*;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+// Headless mode: runs line-oriented commands from a file or stdin against a diary, with no
+// menus or prompts. Output (including the commands' messages, see Messages) goes through one
+// buffered stream that is flushed when the script ends; in quiet mode the commands' messages
+// are dropped and only results and errors are printed.
+//
+// One command per line; blank lines and lines starting with # are ignored:
+//   log <date> <foodId> [servings]          add (or add to) a log entry, default 1 serving
+//   update <date> <position> <servings>     change an entry's servings (0 deletes it)
+//   delete <date> <position>                delete an entry
+//   undo                                    undo the most recent log change
+//   profile <date> <gender> <height> <age> <weight> <activity level>
+//   method HARRIS_BENEDICT|MIFFLIN_ST_JEOR
+//   summary <date>[..<date>]                calories consumed vs. target per day
+//   save                                    save everything now
+// Positions are 1-indexed, as in the interactive menus.
+public class ScriptRunner {
+    private final UserDiary diary;
+    private final Runnable save;
+    private final boolean quiet;
+    private PrintStream out;
+    private int lineNumber;
+    private int commandCount;
+    private int errorCount;
+
+    public ScriptRunner(UserDiary diary, Runnable save, boolean quiet) {
+        this.diary = diary;
+        this.save = save;
+        this.quiet = quiet;
+    }
+
+    // Runs every line of the reader; returns the number of lines that failed.
+    public int run(BufferedReader reader) throws IOException {
+        BufferedConsoleListener console = new BufferedConsoleListener(1 << 16);
+        out = console.getOut();
+        MessageListener previous = Messages.setListener(quiet ? new NoOpListener() : console);
+        LogJournal journal = diary.getLogManager().getJournal();
+        if (journal != null)
+            journal.setBuffered(true);
+        long start = System.nanoTime();
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#"))
+                    continue;
+                commandCount++;
+                try {
+                    execute(split(line));
+                } catch (IllegalArgumentException | DateTimeParseException | IndexOutOfBoundsException
+                         | VersionConflictException e) {
+                    error(e.getMessage());
+                }
+            }
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            out.println("Processed " + commandCount + " commands (" + errorCount + " errors) in " + millis + " ms");
+        } finally {
+            if (journal != null)
+                journal.setBuffered(false);
+            console.flush();
+            Messages.setListener(previous);
+        }
+        return errorCount;
+    }
+
+    private void execute(List<String> args) {
+        String name = args.get(0).toLowerCase();
+        switch (name) {
+            case "log": {
+                expectArgs(args, 3, 4);
+                LocalDate date = LocalDate.parse(args.get(1));
+                Food food = FoodDiaryApp.getCommittedFoodById(args.get(2));
+                if (food == null)
+                    throw new IllegalArgumentException("Food not found in database (must be saved): " + args.get(2));
+                double servings = args.size() > 3 ? parseServings(args.get(3), false) : 1;
+                diary.executeLogCommand(new AddLogEntryCommand(diary.getLogManager(), date, new LogEntry(food.getId(), servings)));
+                break;
+            }
+            case "update": {
+                expectArgs(args, 4, 4);
+                LocalDate date = LocalDate.parse(args.get(1));
+                int position = (int) parseNumber(args.get(2));
+                double servings = parseServings(args.get(3), true);
+                diary.executeLogCommand(new UpdateLogEntryCommand(diary.getLogManager(), date, position - 1, servings));
+                break;
+            }
+            case "delete": {
+                expectArgs(args, 3, 3);
+                LocalDate date = LocalDate.parse(args.get(1));
+                int position = (int) parseNumber(args.get(2));
+                diary.executeLogCommand(new DeleteLogEntryCommand(diary.getLogManager(), date, position - 1));
+                break;
+            }
+            case "undo":
+                expectArgs(args, 1, 1);
+                if (!diary.undoMostRecentCommand())
+                    throw new IllegalArgumentException("No commands to undo");
+                break;
+            case "profile": {
+                if (args.size() < 7)
+                    throw new IllegalArgumentException("Usage: profile <date> <gender> <height> <age> <weight> <activity level>");
+                LocalDate date = LocalDate.parse(args.get(1));
+                String gender = args.get(2).toUpperCase();
+                if (!gender.equals("M") && !gender.equals("F"))
+                    throw new IllegalArgumentException("Gender must be M or F");
+                double height = parseNumber(args.get(3));
+                int age = (int) parseNumber(args.get(4));
+                double weight = parseNumber(args.get(5));
+                String activityLevel = String.join(" ", args.subList(6, args.size()));
+                diary.putProfile(date, new DailyProfile(date, gender, height, age, weight, activityLevel));
+                out.println("Profile set for " + date);
+                break;
+            }
+            case "method": {
+                expectArgs(args, 2, 2);
+                String method = args.get(1).toUpperCase();
+                if (!method.equals("HARRIS_BENEDICT") && !method.equals("MIFFLIN_ST_JEOR"))
+                    throw new IllegalArgumentException("Unknown calculation method: " + args.get(1));
+                diary.setCalcMethod(method);
+                out.println("Calorie calculation method set to " + method);
+                break;
+            }
+            case "summary": {
+                expectArgs(args, 2, 2);
+                String range = args.get(1);
+                int dots = range.indexOf("..");
+                LocalDate from = LocalDate.parse(dots < 0 ? range : range.substring(0, dots));
+                LocalDate to = dots < 0 ? from : LocalDate.parse(range.substring(dots + 2));
+                if (to.isBefore(from))
+                    throw new IllegalArgumentException("Summary range ends before it starts: " + range);
+                printSummary(from, to);
+                break;
+            }
+            case "save":
+                expectArgs(args, 1, 1);
+                save.run();
+                out.println("Databases and logs saved.");
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown command: " + args.get(0));
+        }
+    }
+
+    private void printSummary(LocalDate from, LocalDate to) {
+        for (LocalDate date = from; !date.isAfter(to); date = date.plusDays(1)) {
+            double consumed = diary.totalCaloriesConsumed(date);
+            Double target = diary.targetCalories(date);
+            StringBuilder line = new StringBuilder(64);
+            line.append(date).append(" consumed=").append(consumed);
+            if (target == null) {
+                line.append(" target=none");
+            } else {
+                line.append(" target=").append(target).append(" difference=").append(consumed - target);
+            }
+            out.println(line);
+        }
+    }
+
+    private void error(String message) {
+        errorCount++;
+        out.println("Line " + lineNumber + ": " + message);
+    }
+
+    private static void expectArgs(List<String> args, int min, int max) {
+        if (args.size() < min || args.size() > max)
+            throw new IllegalArgumentException("Wrong number of arguments for " + args.get(0));
+    }
+
+    private static double parseNumber(String value) {
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number: " + value);
+        }
+    }
+
+    // Servings as ApiServer accepts them: a finite number above 0, or 0 where it deletes (update).
+    private static double parseServings(String value, boolean zeroDeletes) {
+        double servings = parseNumber(value);
+        if (!Double.isFinite(servings) || servings < 0 || (servings == 0 && !zeroDeletes))
+            throw new IllegalArgumentException("Servings must be a finite number " + (zeroDeletes ? "of at least 0" : "above 0") + ": " + value);
+        return servings;
+    }
+
+    // Splits on runs of spaces and tabs.
+    private static List<String> split(String line) {
+        List<String> parts = new ArrayList<>(4);
+        int i = 0;
+        int n = line.length();
+        while (i < n) {
+            while (i < n && (line.charAt(i) == ' ' || line.charAt(i) == '\t'))
+                i++;
+            int start = i;
+            while (i < n && line.charAt(i) != ' ' && line.charAt(i) != '\t')
+                i++;
+            if (i > start)
+                parts.add(line.substring(start, i));
+        }
+        return parts;
+    }
+}
@@ -0,0 +1,310 @@
+package app;
+
+import database.AutoSaveService;
+import java.io.File;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.Pattern;
+
+// Hosts many diaries in one process. The food catalog is shared; each user's logs,
+// profiles and undo history live in <baseDir>/<userId>/ and are loaded on first use.
+// Loaded diaries are kept in an access-ordered LRU cache bounded both by user count and
+// by total weight (see UserDiary.getWeight()). Diaries that fall out of the cache, or sit
+// idle for too long, are flushed to disk in the background and dropped from memory once no
+// request is using them (see acquire).
+public class TenantManager {
+    private static final Pattern USER_ID = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
+    private final String baseDir;
+    private final int maxUsers;
+    private final long maxWeight;
+    private final long idleMillis;
+    private final long debounceMillis;
+    // Access-ordered: iteration starts at the least recently used diary.
+    private final LinkedHashMap<String, CachedDiary> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalWeight;
+    private final Map<String, CompletableFuture<UserDiary>> loading = new HashMap<>();
+    // Evicted diaries that are still pinned or whose flush may still be running; a new request
+    // resurrects them rather than reading files that are about to be overwritten, so there is
+    // never more than one diary (and one writer of its files) per user. Guarded by the cache lock.
+    private final Map<String, UserDiary> evicting = new HashMap<>();
+    // User ID -> requests using its diary (see acquire); guarded by the cache lock.
+    private final Map<String, Integer> pins = new HashMap<>();
+    // Diaries opened by their owner rather than by acquire (the CLI's --user diary): handed out
+    // as they are, never evicted, flushed or closed here. Guarded by the cache lock.
+    private final Map<String, UserDiary> resident = new HashMap<>();
+    // Shared by all per-user autosave services.
+    private final ScheduledExecutorService scheduler = AutoSaveService.newScheduler(2);
+    private final ExecutorService writerPool = AutoSaveService.newWriterPool(4);
+    private final ExecutorService evictionPool = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "yada-tenant-eviction");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static class CachedDiary {
+        final UserDiary diary;
+        long weight;
+
+        CachedDiary(UserDiary diary, long weight) {
+            this.diary = diary;
+            this.weight = weight;
+        }
+    }
+
+    public TenantManager(String baseDir, int maxUsers, long maxWeight, long idleMillis, long debounceMillis) {
+        this.baseDir = baseDir;
+        this.maxUsers = maxUsers;
+        this.maxWeight = maxWeight;
+        this.idleMillis = idleMillis;
+        this.debounceMillis = debounceMillis;
+        long sweepMillis = Math.max(1000, idleMillis / 2);
+        scheduler.scheduleWithFixedDelay(this::sweepIdle, sweepMillis, sweepMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public static boolean isValidUserId(String userId) {
+        return userId != null && USER_ID.matcher(userId).matches();
+    }
+
+    public String getUserDir(String userId) {
+        return baseDir + "/" + userId;
+    }
+
+    // Makes acquire return the given diary for its user instead of loading a second one on the
+    // same files. The caller keeps it loaded, saves it and closes it itself.
+    public void addResident(UserDiary diary) {
+        synchronized (cache) {
+            String userId = diary.getUserId();
+            if (cache.containsKey(userId) || evicting.containsKey(userId) || loading.containsKey(userId)) {
+                throw new IllegalStateException("Diary of " + userId + " is already loaded");
+            }
+            resident.put(userId, diary);
+        }
+    }
+
+    // Returns the user's diary, loading it from disk if it is not cached, and pins it: it is not
+    // flushed and closed while pinned, even if it falls out of the cache meanwhile. Every
+    // acquire must be followed by release once the caller is done with the diary.
+    public UserDiary acquire(String userId) {
+        if (!isValidUserId(userId)) {
+            throw new IllegalArgumentException("Invalid user name: " + userId);
+        }
+        CompletableFuture<UserDiary> pending;
+        while (true) {
+            CompletableFuture<UserDiary> other;
+            synchronized (cache) {
+                UserDiary owned = resident.get(userId);
+                if (owned != null) {
+                    owned.touch();
+                    pin(userId);
+                    return owned;
+                }
+                CachedDiary cached = cache.get(userId);
+                if (cached != null) {
+                    cached.diary.touch();
+                    pin(userId);
+                    return cached.diary;
+                }
+                UserDiary evicted = evicting.remove(userId);
+                if (evicted != null) {
+                    evicted.touch();
+                    pin(userId);
+                    admit(evicted);
+                    return evicted;
+                }
+                other = loading.get(userId);
+                if (other == null) {
+                    pending = new CompletableFuture<>();
+                    loading.put(userId, pending);
+                    break;
+                }
+            }
+            // Only the first requester reads the files; everyone else for the same user waits on
+            // it, then looks again, since the diary may have been evicted before this one pins it.
+            other.join();
+        }
+        UserDiary diary = null;
+        try {
+            diary = load(userId);
+            return diary;
+        } catch (RuntimeException e) {
+            pending.completeExceptionally(e);
+            throw e;
+        } finally {
+            synchronized (cache) {
+                loading.remove(userId);
+                if (diary != null) {
+                    pin(userId);
+                    admit(diary);
+                }
+            }
+            if (diary != null) {
+                pending.complete(diary);
+            }
+        }
+    }
+
+    // Unpins a diary returned by acquire. An evicted diary is flushed and closed once the last
+    // request using it has released it.
+    public void release(UserDiary diary) {
+        synchronized (cache) {
+            String userId = diary.getUserId();
+            Integer count = pins.get(userId);
+            if (count == null) {
+                throw new IllegalStateException("Diary of " + userId + " is not acquired");
+            }
+            if (count > 1) {
+                pins.put(userId, count - 1);
+                return;
+            }
+            pins.remove(userId);
+            if (evicting.get(userId) == diary) {
+                scheduleClose(diary);
+            }
+        }
+    }
+
+    public int getCachedUserCount() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    public List<UserDiary> getCachedDiaries() {
+        List<UserDiary> diaries = new ArrayList<>();
+        synchronized (cache) {
+            for (CachedDiary cached : cache.values()) {
+                diaries.add(cached.diary);
+            }
+        }
+        return diaries;
+    }
+
+    // Flushes every loaded diary and stops the background threads. Returns false if some
+    // diary's changes could not be written.
+    public boolean shutdown() {
+        List<UserDiary> toFlush = new ArrayList<>();
+        synchronized (cache) {
+            for (CachedDiary cached : cache.values()) {
+                toFlush.add(cached.diary);
+            }
+            cache.clear();
+            totalWeight = 0;
+        }
+        evictionPool.shutdown();
+        try {
+            evictionPool.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (cache) {
+            toFlush.addAll(evicting.values());
+            evicting.clear();
+        }
+        boolean saved = true;
+        for (UserDiary diary : toFlush) {
+            saved &= diary.getAutoSave().flush();
+            diary.close();
+        }
+        scheduler.shutdown();
+        writerPool.shutdown();
+        return saved;
+    }
+
+    private UserDiary load(String userId) {
+        UserDiary diary = new UserDiary(userId, getUserDir(userId));
+        new File(diary.getDataDir()).mkdirs();
+        String manifest = diary.getDataDir() + "/checkpoint.manifest";
+        AutoSaveService.recover(manifest);
+        diary.load();
+        diary.attachAutoSave(new AutoSaveService(diary.getLock(), manifest, debounceMillis, diary::checkpointLogCommands, scheduler, writerPool));
+        diary.archiveOldMonths(LocalDate.now());
+        return diary;
+    }
+
+    // Must be called with the cache lock held.
+    private void admit(UserDiary diary) {
+        CachedDiary cached = new CachedDiary(diary, diary.getWeight());
+        cache.put(diary.getUserId(), cached);
+        totalWeight += cached.weight;
+        Iterator<CachedDiary> it = cache.values().iterator();
+        while ((cache.size() > maxUsers || totalWeight > maxWeight) && cache.size() > 1 && it.hasNext()) {
+            CachedDiary eldest = it.next();
+            if (eldest.diary == diary) {
+                continue;
+            }
+            it.remove();
+            evict(eldest);
+        }
+    }
+
+    // Must be called with the cache lock held.
+    private void evict(CachedDiary cached) {
+        totalWeight -= cached.weight;
+        UserDiary diary = cached.diary;
+        evicting.put(diary.getUserId(), diary);
+        if (!pins.containsKey(diary.getUserId())) {
+            scheduleClose(diary);
+        }
+    }
+
+    private void pin(String userId) {
+        pins.merge(userId, 1, Integer::sum);
+    }
+
+    private void scheduleClose(UserDiary diary) {
+        if (!evictionPool.isShutdown()) {
+            evictionPool.execute(() -> closeEvicted(diary));
+        }
+    }
+
+    // Flushes and closes an evicted diary unless a request took it back meanwhile. If it cannot
+    // be flushed it stays in memory (its autosave retries) and closing is tried again later.
+    private void closeEvicted(UserDiary diary) {
+        String userId = diary.getUserId();
+        synchronized (cache) {
+            if (evicting.get(userId) != diary || pins.containsKey(userId)) {
+                return;
+            }
+        }
+        boolean saved = diary.getAutoSave().flush();
+        synchronized (cache) {
+            // Taken back while it was flushing: it stays open.
+            if (evicting.get(userId) != diary || pins.containsKey(userId)) {
+                return;
+            }
+            if (!saved) {
+                if (!scheduler.isShutdown()) {
+                    scheduler.schedule(() -> {
+                        synchronized (cache) {
+                            scheduleClose(diary);
+                        }
+                    }, AutoSaveService.RETRY_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                return;
+            }
+            evicting.remove(userId);
+            diary.close();
+        }
+    }
+
+    // Drops diaries that have been idle too long and refreshes the weights of the rest.
+    private void sweepIdle() {
+        long cutoff = System.currentTimeMillis() - idleMillis;
+        synchronized (cache) {
+            Iterator<CachedDiary> it = cache.values().iterator();
+            while (it.hasNext()) {
+                CachedDiary cached = it.next();
+                if (cached.diary.getLastAccessMillis() < cutoff) {
+                    it.remove();
+                    evict(cached);
+                } else {
+                    long weight = cached.diary.getWeight();
+                    totalWeight += weight - cached.weight;
+                    cached.weight = weight;
+                }
+            }
+        }
+    }
+}
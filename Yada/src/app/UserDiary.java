@@ -0,0 +1,525 @@
+package app;
+
+import command.AddLogEntryCommand;
+import command.LogCommand;
+import command.UndoHistory;
+import database.AutoSaveService;
+import database.DailyLogManager;
+import database.FileWatcher;
+import database.LogArchive;
+import database.LogJournal;
+import database.PersistentStore;
+import log.DailyLog;
+import log.FoodUsageTracker;
+import log.LogEntry;
+import log.LogOp;
+import log.VersionConflictException;
+import metrics.CommandEvent;
+import metrics.Metrics;
+import metrics.PersistenceEvent;
+import model.DailyProfile;
+import model.Food;
+import output.Messages;
+import java.io.*;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.*;
+import java.util.function.Consumer;
+
+// Everything that belongs to one person's diary: daily logs, profiles, calculation method
+// and undo history. The food catalog is shared and stays in FoodDiaryApp.
+// Log changes run under the lock of the day they touch (see DailyLogManager.withLog), so
+// different days are edited in parallel; getLock() guards the undo stacks and profiles and
+// is the lock the diary's autosave service renders under.
+public class UserDiary {
+    // Saved commands kept in memory for undo; older ones go to <dataDir>/undo.log.
+    public static final int UNDO_MAX_DEPTH = 200;
+    public static final long UNDO_MAX_BYTES = 64 * 1024;
+    // Log changes are journaled in <dataDir>/journal, with a snapshot every this many changes.
+    // The newest LOG_SNAPSHOTS_KEPT snapshots (and the changes since the oldest of them) are kept
+    // for recovery and for looking a day up as it was in the past.
+    public static final int LOG_SNAPSHOT_EVERY = 500;
+    public static final int LOG_SNAPSHOTS_KEPT = 8;
+    // Months of logs kept in dailylogs.txt (the current one included); older months are archived
+    // to compressed segments in <dataDir>/archive by archiveOldMonths.
+    public static final int LOG_HOT_MONTHS = 3;
+    // Quick-pick lists: how many recent foods to remember, how many foods the frequency sketch
+    // counts, and the half-life of a log entry's weight in it.
+    public static final int QUICK_PICK_RECENT = 10;
+    public static final int QUICK_PICK_COUNTERS = 256;
+    public static final double QUICK_PICK_HALF_LIFE_DAYS = 30;
+
+    private final String userId;
+    private final String dataDir;
+    private final Object lock = new Object();
+    private final DailyLogManager logManager;
+    private final Map<LocalDate, DailyProfile> profileMap = new HashMap<>();
+    // Calculation method loaded from file header; default is Harris-Benedict.
+    private volatile String calcMethod = "HARRIS_BENEDICT";
+    // Two separate stacks for log command undo functionality:
+    // unsavedLogCommands holds commands that have not yet been saved (at most UNDO_MAX_DEPTH;
+    // beyond that the oldest move to the saved history early, as they are already in the journal).
+    // savedLogCommands holds commands that have been saved and are available for undo.
+    private final Deque<LogCommand> unsavedLogCommands = new ArrayDeque<>();
+    private final UndoHistory savedLogCommands;
+    private final PersistentStore profileStore;
+    // Updated as AddLogEntryCommands execute; rebuilt from the logs on load.
+    private final FoodUsageTracker foodUsage = new FoodUsageTracker(QUICK_PICK_RECENT, QUICK_PICK_COUNTERS, QUICK_PICK_HALF_LIFE_DAYS);
+    private AutoSaveService autoSave;
+    // Gets profile changes as profile.txt records (see reloadProfiles); called under the lock.
+    private Consumer<Map<String, String>> profileListener;
+    private volatile long lastAccessMillis = System.currentTimeMillis();
+
+    public UserDiary(String userId, String dataDir) {
+        this.userId = userId;
+        this.dataDir = dataDir;
+        this.logManager = new DailyLogManager(dataDir + "/dailylogs.txt");
+        logManager.enableJournal(dataDir + "/journal", LOG_SNAPSHOT_EVERY, LOG_SNAPSHOTS_KEPT);
+        logManager.enableArchive(new LogArchive(dataDir + "/archive", LOG_HOT_MONTHS));
+        this.savedLogCommands = new UndoHistory(dataDir + "/undo.log", logManager, UNDO_MAX_DEPTH, UNDO_MAX_BYTES);
+        String profilePath = dataDir + "/profile.txt";
+        this.profileStore = new PersistentStore() {
+            @Override
+            public String getFilePath() {
+                return profilePath;
+            }
+
+            @Override
+            public void writeTo(BufferedWriter writer) throws IOException {
+                writeProfiles(writer);
+            }
+        };
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public String getDataDir() {
+        return dataDir;
+    }
+
+    public Object getLock() {
+        return lock;
+    }
+
+    public DailyLogManager getLogManager() {
+        return logManager;
+    }
+
+    public FoodUsageTracker getFoodUsage() {
+        return foodUsage;
+    }
+
+    public PersistentStore getProfileStore() {
+        return profileStore;
+    }
+
+    public String getLogFilePath() {
+        return logManager.getFilePath();
+    }
+
+    public String getProfileFilePath() {
+        return profileStore.getFilePath();
+    }
+
+    public AutoSaveService getAutoSave() {
+        return autoSave;
+    }
+
+    // Registers the diary's stores with the given service; its checkpoints make pending commands undoable.
+    public void attachAutoSave(AutoSaveService autoSave) {
+        this.autoSave = autoSave;
+        autoSave.register(logManager);
+        autoSave.register(profileStore);
+    }
+
+    // Moves log months before the hot window as of today into the archive, then has the autosave
+    // write the log file without them. Call once the autosave is attached; returns the months moved.
+    public int archiveOldMonths(LocalDate today) {
+        int months = logManager.archiveOldMonths(today);
+        if (months > 0) {
+            markDirty(logManager);
+        }
+        return months;
+    }
+
+    public void load() {
+        synchronized (lock) {
+            logManager.load();
+            foodUsage.rebuild(logManager.getAllLogs());
+            loadProfiles();
+        }
+    }
+
+    public void touch() {
+        lastAccessMillis = System.currentTimeMillis();
+    }
+
+    public long getLastAccessMillis() {
+        return lastAccessMillis;
+    }
+
+    // Rough in-memory size used to weigh the diary in the tenant cache.
+    public int getWeight() {
+        synchronized (lock) {
+            return 1 + getLogEntryCount() + profileMap.size() + unsavedLogCommands.size() + savedLogCommands.inMemorySize();
+        }
+    }
+
+    public int getLogEntryCount() {
+        int entries = 0;
+        for (DailyLog log : logManager.getAllLogs().values()) {
+            entries += log.getEntries().size();
+        }
+        return entries;
+    }
+
+    // Undo steps available, in memory and spilled to disk.
+    public int getUndoDepth() {
+        synchronized (lock) {
+            return unsavedLogCommands.size() + savedLogCommands.size();
+        }
+    }
+
+    // Executes a log command and schedules an autosave of the logs.
+    public void executeLogCommand(LogCommand cmd) {
+        executeLogCommand(cmd, -1);
+    }
+
+    // Compare-and-swap style execution: the command is applied only if the day is still at
+    // expectedVersion (the version the client read); a negative expectedVersion skips the check.
+    // Returns the day's new version. Throws VersionConflictException if the day has moved on,
+    // or IndexOutOfBoundsException if the command no longer applies to the day.
+    public long executeLogCommand(LogCommand cmd, long expectedVersion) {
+        LocalDate date = cmd.getDate();
+        // Clients see version 0 for an archived day. It cannot have changed while archived, but
+        // bringing it back into the store gives it a new version, so the check is skipped for it.
+        LogArchive archive = logManager.getArchive();
+        long expected = expectedVersion == 0 && archive != null && archive.contains(YearMonth.from(date))
+            ? -1 : expectedVersion;
+        long version = logManager.withLog(date, log -> {
+            if (expected >= 0 && log.getVersion() != expected) {
+                throw new VersionConflictException(date, expected, log.getVersion());
+            }
+            if (!cmd.canExecute(log)) {
+                throw new IndexOutOfBoundsException("Invalid log entry index for " + date);
+            }
+            long start = System.nanoTime();
+            CommandEvent event = new CommandEvent();
+            event.begin();
+            cmd.execute();
+            Metrics.commandExecute(cmd.getClass()).recordSince(start);
+            event.emit(cmd.getClass(), "execute", date);
+            if (!cmd.recordsOwnOps()) {
+                logManager.record(date, cmd.getAppliedOps());
+            }
+            return log.getVersion();
+        });
+        if (cmd instanceof AddLogEntryCommand) {
+            foodUsage.record(((AddLogEntryCommand) cmd).getFoodId(), date);
+        }
+        synchronized (lock) {
+            unsavedLogCommands.addLast(cmd);
+            if (unsavedLogCommands.size() > UNDO_MAX_DEPTH) {
+                LogCommand oldest = unsavedLogCommands.pollFirst();
+                oldest.markSaved();
+                savedLogCommands.push(oldest);
+            }
+        }
+        markDirty(logManager);
+        return version;
+    }
+
+    // Version of a day as seen by clients; 0 for a day without entries or in an archived month.
+    public long getLogVersion(LocalDate date) {
+        DailyLog log = logManager.getAllLogs().get(date);
+        return log == null ? 0 : log.getVersion();
+    }
+
+    // Reverts the last saved log command; returns false if there is none.
+    public boolean undoLastSavedCommand() {
+        synchronized (lock) {
+            if (savedLogCommands.isEmpty()) {
+                return false;
+            }
+            LogCommand last = savedLogCommands.pop();
+            if (last == null) {
+                return false;
+            }
+            undo(last);
+        }
+        markDirty(logManager);
+        return true;
+    }
+
+    // Undo for API clients: reverts the most recent log command, saved or not.
+    public boolean undoMostRecentCommand() {
+        synchronized (lock) {
+            LogCommand last = unsavedLogCommands.pollLast();
+            if (last == null) {
+                last = savedLogCommands.pop();
+            }
+            if (last == null) {
+                return false;
+            }
+            undo(last);
+        }
+        markDirty(logManager);
+        return true;
+    }
+
+    // Undoes a command under its day's lock and journals what the undo changed.
+    private void undo(LogCommand cmd) {
+        LocalDate date = cmd.getDate();
+        logManager.withLog(date, log -> {
+            List<LogOp> ops = cmd.getUndoOps();
+            long start = System.nanoTime();
+            CommandEvent event = new CommandEvent();
+            event.begin();
+            cmd.undo();
+            Metrics.commandUndo(cmd.getClass()).recordSince(start);
+            event.emit(cmd.getClass(), "undo", date);
+            logManager.record(date, ops);
+            return null;
+        });
+    }
+
+    // Closes open journal files; the diary stays usable and reopens them when needed.
+    public void close() {
+        LogJournal journal = logManager.getJournal();
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    // The day's entries as they were at the given time, rebuilt from the log journal. Once a month
+    // is archived the journal no longer has it; its days are read from the archive, which holds
+    // them as they were when archived.
+    public List<LogEntry> getEntriesAt(LocalDate date, long timeMillis) {
+        LogJournal journal = logManager.getJournal();
+        if (journal == null) {
+            return Collections.emptyList();
+        }
+        DailyLog log = journal.rebuildAt(timeMillis).get(date);
+        if (log == null) {
+            LogArchive archive = logManager.getArchive();
+            if (archive != null && archive.contains(YearMonth.from(date))) {
+                return archive.read(date, date).getOrDefault(date, Collections.emptyList());
+            }
+        }
+        return log == null ? Collections.emptyList() : log.getEntries();
+    }
+
+    // Called under the lock as a checkpoint is taken. Returns what moves the unsaved log commands
+    // it includes to the saved stack, in FIFO order, once it is on disk (see AutoSaveService);
+    // commands undone meanwhile are no longer there, and later ones stay unsaved.
+    public Runnable checkpointLogCommands() {
+        if (unsavedLogCommands.isEmpty()) {
+            return null;
+        }
+        Set<LogCommand> included = Collections.newSetFromMap(new IdentityHashMap<>());
+        included.addAll(unsavedLogCommands);
+        return () -> {
+            while (!unsavedLogCommands.isEmpty() && included.contains(unsavedLogCommands.peekFirst())) {
+                LogCommand cmd = unsavedLogCommands.pollFirst();
+                cmd.markSaved();
+                savedLogCommands.push(cmd);
+            }
+        };
+    }
+
+    public DailyProfile getProfile(LocalDate date) {
+        synchronized (lock) {
+            return profileMap.get(date);
+        }
+    }
+
+    public void putProfile(LocalDate date, DailyProfile profile) {
+        synchronized (lock) {
+            profileMap.put(date, profile);
+            notifyProfiles(Collections.singletonMap(date.toString(), formatProfile(profile)));
+        }
+        markDirty(profileStore);
+    }
+
+    public DailyProfile getMostRecentProfile(LocalDate date) {
+        synchronized (lock) {
+            DailyProfile recent = null;
+            for (LocalDate d : profileMap.keySet()) {
+                if (d.isBefore(date)) {
+                    if (recent == null || d.isAfter(recent.getDate())) {
+                        recent = profileMap.get(d);
+                    }
+                }
+            }
+            return recent;
+        }
+    }
+
+    public String getCalcMethod() {
+        return calcMethod;
+    }
+
+    public void setCalcMethod(String calcMethod) {
+        synchronized (lock) {
+            this.calcMethod = calcMethod;
+            notifyProfiles(Collections.singletonMap(FileWatcher.CALC_METHOD, FileWatcher.CALC_METHOD + ":" + calcMethod));
+        }
+        markDirty(profileStore);
+    }
+
+    public void setProfileListener(Consumer<Map<String, String>> listener) {
+        synchronized (lock) {
+            this.profileListener = listener;
+        }
+    }
+
+    private void notifyProfiles(Map<String, String> records) {
+        if (profileListener != null) {
+            profileListener.accept(records);
+        }
+    }
+
+    // Every profile as a profile.txt record, date -> line, and the CALC_METHOD line.
+    public Map<String, String> getProfileRecords() {
+        synchronized (lock) {
+            Map<String, String> records = new LinkedHashMap<>();
+            records.put(FileWatcher.CALC_METHOD, FileWatcher.CALC_METHOD + ":" + calcMethod);
+            for (DailyProfile profile : profileMap.values()) {
+                records.put(profile.getDate().toString(), formatProfile(profile));
+            }
+            return records;
+        }
+    }
+
+    // Calories logged for a date in the in-memory log manager, or the archived day's total.
+    public double totalCaloriesConsumed(LocalDate date) {
+        DailyLog log = logManager.getAllLogs().get(date);
+        if (log == null) {
+            LogArchive archive = logManager.getArchive();
+            Double archived = archive == null ? null : archive.getDayCalories(date);
+            return archived == null ? 0 : archived;
+        }
+        synchronized (log) {
+            double totalConsumed = 0;
+            for (LogEntry entry : log.getEntries()) {
+                Food food = FoodDiaryApp.getFoodById(entry.getFoodId());
+                if (food != null) {
+                    totalConsumed += food.getCalories() * entry.getServings();
+                }
+            }
+            return totalConsumed;
+        }
+    }
+
+    // Target calories for a date from the in-memory profiles, or null if no profile is set for it.
+    public Double targetCalories(LocalDate date) {
+        DailyProfile profile = getProfile(date);
+        return profile == null ? null : FoodDiaryApp.calculateTargetCalories(profile, calcMethod);
+    }
+
+    private void markDirty(PersistentStore store) {
+        touch();
+        if (autoSave != null) {
+            autoSave.markDirty(store);
+        }
+    }
+
+    // Load profiles and the calculation method from profile.txt
+    private void loadProfiles() {
+        profileMap.clear();
+        File file = new File(getProfileFilePath());
+        if (!file.exists()) {
+            Messages.info("profile.load", () -> "Profile file not found. Starting with no saved profiles and default calculation method.");
+            calcMethod = "HARRIS_BENEDICT";
+            return;
+        }
+        PersistenceEvent event = new PersistenceEvent();
+        event.begin();
+        long lines = 0;
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            boolean headerRead = false;
+            while ((line = reader.readLine()) != null) {
+                lines++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#"))
+                    continue;
+                if (!headerRead && line.startsWith("CALC_METHOD:")) {
+                    calcMethod = line.substring("CALC_METHOD:".length()).trim();
+                    headerRead = true;
+                } else {
+                    DailyProfile profile = parseProfile(line);
+                    if (profile != null)
+                        profileMap.put(profile.getDate(), profile);
+                }
+            }
+        } catch (Exception e) {
+            Messages.warn("profile.load.failed", () -> "Error loading profiles: " + e.getMessage());
+        }
+        String store = Metrics.storeName(file.getPath());
+        Metrics.store(store).recordRead(file.length());
+        event.emit(store, "load", file.getPath(), lines, file.length());
+    }
+
+    // Expected format: date;gender;height;age;weight;activityLevel. Returns null for a short line.
+    private static DailyProfile parseProfile(String line) {
+        String[] parts = line.split(";");
+        if (parts.length < 6)
+            return null;
+        LocalDate date = LocalDate.parse(parts[0].trim());
+        String gender = parts[1].trim();
+        double height = Double.parseDouble(parts[2].trim());
+        int age = Integer.parseInt(parts[3].trim());
+        double weight = Double.parseDouble(parts[4].trim());
+        String activityLevel = parts[5].trim();
+        return new DailyProfile(date, gender, height, age, weight, activityLevel);
+    }
+
+    // Applies records of profile.txt that another program changed (see FileWatcher): date ->
+    // profile line, or null for a removed profile, and the CALC_METHOD line. They are not marked
+    // dirty, since the file already has them.
+    public void reloadProfiles(Map<String, String> records) {
+        synchronized (lock) {
+            for (Map.Entry<String, String> record : records.entrySet()) {
+                String line = record.getValue();
+                if (record.getKey().equals(FileWatcher.CALC_METHOD)) {
+                    calcMethod = line == null ? "HARRIS_BENEDICT" : line.substring(FileWatcher.CALC_METHOD.length() + 1).trim();
+                    continue;
+                }
+                try {
+                    if (line == null) {
+                        profileMap.remove(LocalDate.parse(record.getKey()));
+                    } else {
+                        DailyProfile profile = parseProfile(line);
+                        if (profile != null)
+                            profileMap.put(profile.getDate(), profile);
+                    }
+                } catch (RuntimeException e) {
+                    Messages.warn("profile.load.failed", () -> "Error loading profile " + line + ": " + e.getMessage());
+                }
+            }
+            notifyProfiles(records);
+        }
+    }
+
+    // Write the profileMap and calcMethod in profile.txt format
+    private void writeProfiles(BufferedWriter writer) throws IOException {
+        // Write header for calculation method
+        writer.write("CALC_METHOD:" + calcMethod);
+        writer.newLine();
+        writer.write("# Date;Gender;Height;Age;Weight;ActivityLevel");
+        writer.newLine();
+        List<LocalDate> dates = new ArrayList<>(profileMap.keySet());
+        Collections.sort(dates);
+        for (LocalDate d : dates) {
+            writer.write(formatProfile(profileMap.get(d)));
+            writer.newLine();
+        }
+    }
+
+    private static String formatProfile(DailyProfile p) {
+        return p.getDate().toString() + ";" + p.getGender() + ";" + p.getHeight() + ";" + p.getAge() + ";" + p.getWeight() + ";" + p.getActivityLevel();
+    }
+}
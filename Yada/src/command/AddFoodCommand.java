@@ -1,13 +1,14 @@
 package command;
 
-import database.FoodDatabase;
+import database.FoodCatalog;
 import model.Food;
+import output.Messages;
 
 public class AddFoodCommand implements Command {
-    private FoodDatabase database;
+    private FoodCatalog database;
     private Food food;
 
-    public AddFoodCommand(FoodDatabase database, Food food) {
+    public AddFoodCommand(FoodCatalog database, Food food) {
         this.database = database;
         this.food = food;
     }
@@ -15,12 +16,12 @@ public class AddFoodCommand implements Command {
     @Override
     public void execute() {
         database.addFood(food);
-        System.out.println("Added food: " + food.getName() + " (ID: " + food.getId() + ")");
+        Messages.info("food.added", () -> "Added food: " + food.getName() + " (ID: " + food.getId() + ")");
     }
 
     @Override
     public void undo() {
         database.removeFood(food.getId());
-        System.out.println("Undid add food: " + food.getName() + " (ID: " + food.getId() + ")");
+        Messages.info("food.undo", () -> "Undid add food: " + food.getName() + " (ID: " + food.getId() + ")");
     }
 }
\ No newline at end of file
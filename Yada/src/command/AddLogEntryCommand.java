@@ -3,7 +3,11 @@ package command;
 import database.DailyLogManager;
 import log.LogEntry;
 import log.DailyLog;
+import log.LogOp;
+import output.Messages;
 import java.time.LocalDate;
+import java.util.Collections;
+import java.util.List;
 
 public class AddLogEntryCommand extends LogCommand {
     private DailyLogManager logManager;
@@ -14,6 +18,7 @@ public class AddLogEntryCommand extends LogCommand {
     // Reference to the existing entry (if duplicate) and its original servings.
     private LogEntry existingEntry = null;
     private double originalServings = 0;
+    private int existingIndex = -1;
 
     public AddLogEntryCommand(DailyLogManager logManager, LocalDate date, LogEntry entry) {
         this.logManager = logManager;
@@ -21,40 +26,90 @@ public class AddLogEntryCommand extends LogCommand {
         this.newEntry = entry;
     }
 
+    @Override
+    public LocalDate getDate() {
+        return date;
+    }
+
+    public String getFoodId() {
+        return newEntry.getFoodId();
+    }
+
+    @Override
+    public List<LogOp> getAppliedOps() {
+        if (isDuplicate && existingEntry != null) {
+            return Collections.singletonList(LogOp.setServings(existingIndex, existingEntry.getFoodId(), existingEntry.getServings()));
+        }
+        return Collections.singletonList(LogOp.insert(-1, newEntry.getFoodId(), newEntry.getServings()));
+    }
+
+    @Override
+    public List<LogOp> getUndoOps() {
+        if (isDuplicate && existingEntry != null) {
+            return Collections.singletonList(LogOp.setServings(existingIndex, existingEntry.getFoodId(), originalServings));
+        }
+        return Collections.singletonList(LogOp.remove(-1, newEntry.getFoodId()));
+    }
+
     @Override
     public void execute() {
-        DailyLog log = logManager.getLog(date);
+        logManager.withLog(date, log -> {
+            apply(log);
+            return null;
+        });
+    }
+
+    private void apply(DailyLog log) {
         // Check for duplicate entry by foodId.
-        for (LogEntry entry : log.getEntries()) {
-            if (entry.getFoodId().equalsIgnoreCase(newEntry.getFoodId())) {
+        List<LogEntry> entries = log.getEntries();
+        for (int i = 0; i < entries.size(); i++) {
+            LogEntry entry = entries.get(i);
+            if (entry.isFood(newEntry.getFoodSymbol())) {
                 // Duplicate found: update the servings.
                 isDuplicate = true;
                 existingEntry = entry;
-                originalServings = entry.getServings();
-                entry.setServings(originalServings + newEntry.getServings());
-                System.out.println("Updated log entry for " + date + ": " + entry.getFoodId() + " servings: " + originalServings + " -> " + entry.getServings());
+                existingIndex = i;
+                double before = entry.getServings();
+                double after = before + newEntry.getServings();
+                originalServings = before;
+                entry.setServings(after);
+                log.markModified();
+                String foodId = entry.getFoodId();
+                Messages.info("log.updated", () -> "Updated log entry for " + date + ": " + foodId + " servings: " + before + " -> " + after);
                 return;
             }
         }
         // If not a duplicate, add as new entry.
         log.addEntry(newEntry);
-        System.out.println("Added log entry for " + date + ": " + newEntry.getFoodId() + ", servings: " + newEntry.getServings());
+        String foodId = newEntry.getFoodId();
+        double servings = newEntry.getServings();
+        Messages.info("log.added", () -> "Added log entry for " + date + ": " + foodId + ", servings: " + servings);
     }
 
     @Override
     public void undo() {
-        DailyLog log = logManager.getLog(date);
+        logManager.withLog(date, log -> {
+            revert(log);
+            return null;
+        });
+    }
+
+    private void revert(DailyLog log) {
         if (isDuplicate && existingEntry != null) {
             // Revert the update by restoring the original servings.
-            existingEntry.setServings(originalServings);
-            System.out.println("Undid update of log entry for " + date + ": " + existingEntry.getFoodId() + " servings restored to " + originalServings);
+            double restored = originalServings;
+            existingEntry.setServings(restored);
+            log.markModified();
+            String foodId = existingEntry.getFoodId();
+            Messages.info("log.undo", () -> "Undid update of log entry for " + date + ": " + foodId + " servings restored to " + restored);
         } else {
             // Remove the newly added entry.
-            if (log.getEntries().remove(newEntry)) {
+            if (log.removeEntry(newEntry)) {
                 logManager.cleanupEmptyLog(date);
-                System.out.println("Undid log entry addition for " + date + ": " + newEntry.getFoodId());
+                String foodId = newEntry.getFoodId();
+                Messages.info("log.undo", () -> "Undid log entry addition for " + date + ": " + foodId);
             } else {
-                System.err.println("Undo failed: log entry not found.");
+                Messages.warn("log.undo.failed", () -> "Undo failed: log entry not found.");
             }
         }
     }
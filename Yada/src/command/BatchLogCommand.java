@@ -0,0 +1,217 @@
+package command;
+
+import database.DailyLogManager;
+import log.DailyLog;
+import log.LogEntry;
+import log.LogOp;
+import model.Symbols;
+import output.Messages;
+import java.time.LocalDate;
+import java.util.*;
+
+// Groups many changes to one day's log into a single command: they are applied together
+// under the day's lock, undone together in one step, and reported with one message.
+// Indices refer to the day's entries as they are before the batch runs. Updates are applied
+// first, then removals, then additions (which merge into an existing entry for the same food,
+// like AddLogEntryCommand).
+public class BatchLogCommand extends LogCommand {
+    private DailyLogManager logManager;
+    private LocalDate date;
+    private List<LogEntry> additions = new ArrayList<>();
+    private Map<Integer, Double> updates = new LinkedHashMap<>();
+    private Set<Integer> removals = new TreeSet<>();
+    // Undo information, recorded by execute()
+    private List<LogEntry> appendedEntries = new ArrayList<>();
+    private Map<LogEntry, Double> originalServings = new IdentityHashMap<>();
+    private List<Integer> removedIndices = new ArrayList<>();
+    private List<LogEntry> removedEntries = new ArrayList<>();
+    private List<LogOp> appliedOps = new ArrayList<>();
+    private boolean executed = false;
+
+    public BatchLogCommand(DailyLogManager logManager, LocalDate date) {
+        this.logManager = logManager;
+        this.date = date;
+    }
+
+    public BatchLogCommand addEntry(LogEntry entry) {
+        additions.add(entry);
+        return this;
+    }
+
+    // Setting servings to 0 removes the entry, as with UpdateLogEntryCommand.
+    public BatchLogCommand updateEntry(int index, double servings) {
+        if (servings == 0) {
+            removals.add(index);
+            updates.remove(index);
+        } else {
+            updates.put(index, servings);
+        }
+        return this;
+    }
+
+    public BatchLogCommand removeEntry(int index) {
+        removals.add(index);
+        updates.remove(index);
+        return this;
+    }
+
+    public int size() {
+        return additions.size() + updates.size() + removals.size();
+    }
+
+    @Override
+    public LocalDate getDate() {
+        return date;
+    }
+
+    @Override
+    public boolean canExecute(DailyLog log) {
+        int count = log.getEntries().size();
+        for (int index : updates.keySet()) {
+            if (index < 0 || index >= count)
+                return false;
+        }
+        for (int index : removals) {
+            if (index < 0 || index >= count)
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public List<LogOp> getAppliedOps() {
+        return appliedOps;
+    }
+
+    // Same order as undo(): drop appended entries, restore servings, re-insert removed entries.
+    @Override
+    public List<LogOp> getUndoOps() {
+        List<LogOp> ops = new ArrayList<>();
+        if (!executed) {
+            return ops;
+        }
+        for (LogEntry entry : appendedEntries) {
+            ops.add(LogOp.remove(-1, entry.getFoodId()));
+        }
+        for (Map.Entry<LogEntry, Double> original : originalServings.entrySet()) {
+            if (appendedEntries.contains(original.getKey()))
+                continue;
+            ops.add(LogOp.setServings(-1, original.getKey().getFoodId(), original.getValue()));
+        }
+        for (int i = 0; i < removedIndices.size(); i++) {
+            LogEntry entry = removedEntries.get(i);
+            ops.add(LogOp.insert(removedIndices.get(i), entry.getFoodId(), entry.getServings()));
+        }
+        return ops;
+    }
+
+    @Override
+    public boolean recordsOwnOps() {
+        return true;
+    }
+
+    @Override
+    public int estimatedSize() {
+        return 160 + 64 * size();
+    }
+
+    @Override
+    public void execute() {
+        logManager.withLog(date, log -> {
+            if (!canExecute(log)) {
+                Messages.warn("log.batch.failed", () -> "Batch failed: invalid log entry index for " + date);
+                return null;
+            }
+            apply(log);
+            return null;
+        });
+    }
+
+    // Runs under the day's lock. Each step goes through DailyLogManager.record as it is made
+    // (removals and appends through the manager's bulk methods), so the journal sees the steps
+    // in the order they happened.
+    private void apply(DailyLog log) {
+        List<LogEntry> entries = log.getEntries();
+        List<LogOp> updateOps = new ArrayList<>(updates.size());
+        for (Map.Entry<Integer, Double> update : updates.entrySet()) {
+            LogEntry entry = entries.get(update.getKey());
+            originalServings.putIfAbsent(entry, entry.getServings());
+            entry.setServings(update.getValue());
+            updateOps.add(LogOp.setServings(update.getKey(), entry.getFoodId(), update.getValue()));
+        }
+        logManager.record(date, updateOps);
+        appliedOps.addAll(updateOps);
+        if (!removals.isEmpty()) {
+            removedIndices.addAll(removals);
+            removedEntries.addAll(logManager.removeLogEntries(date, removals));
+            // Highest index first, as removeLogEntries records them.
+            for (int i = removedIndices.size() - 1; i >= 0; i--) {
+                appliedOps.add(LogOp.remove(removedIndices.get(i), removedEntries.get(i).getFoodId()));
+            }
+        }
+        // One pass to index the remaining entries by food, then merge or append each addition.
+        // Keyed by the case-folded symbol, as LogEntry.isFood matches.
+        entries = log.getEntries();
+        Map<Integer, LogEntry> byFood = new HashMap<>();
+        for (LogEntry entry : entries) {
+            byFood.putIfAbsent(Symbols.folded(entry.getFoodSymbol()), entry);
+        }
+        List<LogOp> mergeOps = new ArrayList<>();
+        for (LogEntry addition : additions) {
+            int key = Symbols.folded(addition.getFoodSymbol());
+            LogEntry existing = byFood.get(key);
+            if (existing != null) {
+                originalServings.putIfAbsent(existing, existing.getServings());
+                existing.setServings(existing.getServings() + addition.getServings());
+                mergeOps.add(LogOp.setServings(-1, existing.getFoodId(), existing.getServings()));
+            } else {
+                appendedEntries.add(addition);
+                byFood.put(key, addition);
+            }
+        }
+        logManager.record(date, mergeOps);
+        appliedOps.addAll(mergeOps);
+        if (!appendedEntries.isEmpty()) {
+            logManager.addLogEntries(date, appendedEntries);
+            for (LogEntry entry : appendedEntries) {
+                appliedOps.add(LogOp.insert(-1, entry.getFoodId(), entry.getServings()));
+            }
+        }
+        log.markModified();
+        logManager.cleanupEmptyLog(date);
+        executed = true;
+        int added = additions.size(), updated = updates.size(), removed = removals.size();
+        Messages.info("log.batch", () -> "Applied " + (added + updated + removed) + " log changes for " + date
+                + " (" + added + " added, " + updated + " updated, " + removed + " removed)");
+    }
+
+    @Override
+    public void undo() {
+        if (!executed) {
+            Messages.warn("log.undo.failed", () -> "Undo failed: batch was not applied.");
+            return;
+        }
+        logManager.withLog(date, log -> {
+            log.removeEntries(appendedEntries);
+            for (Map.Entry<LogEntry, Double> original : originalServings.entrySet()) {
+                original.getKey().setServings(original.getValue());
+            }
+            // Re-insert in ascending order so every entry lands back at its original position.
+            for (int i = 0; i < removedIndices.size(); i++) {
+                int index = Math.min(removedIndices.get(i), log.getEntries().size());
+                log.insertEntry(index, removedEntries.get(i));
+            }
+            log.markModified();
+            logManager.cleanupEmptyLog(date);
+            int count = size();
+            Messages.info("log.undo", () -> "Undid batch of " + count + " log changes for " + date);
+            return null;
+        });
+        executed = false;
+        appendedEntries.clear();
+        originalServings.clear();
+        removedIndices.clear();
+        removedEntries.clear();
+        appliedOps.clear();
+    }
+}
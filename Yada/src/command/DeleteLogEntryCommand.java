@@ -3,7 +3,11 @@ package command;
 import database.DailyLogManager;
 import log.DailyLog;
 import log.LogEntry;
+import log.LogOp;
+import output.Messages;
 import java.time.LocalDate;
+import java.util.Collections;
+import java.util.List;
 
 public class DeleteLogEntryCommand extends LogCommand {
     private DailyLogManager logManager;
@@ -18,30 +22,66 @@ public class DeleteLogEntryCommand extends LogCommand {
     }
 
     @Override
-    public void execute() {
-        try {
-            removedEntry = logManager.deleteLogEntry(date, index);
-            System.out.println("Deleted log entry at position " + (index + 1) + " for " + date);
-            logManager.cleanupEmptyLog(date);
-        } catch (IndexOutOfBoundsException e) {
-            System.err.println("Delete failed: " + e.getMessage());
+    public LocalDate getDate() {
+        return date;
+    }
+
+    @Override
+    public boolean canExecute(DailyLog log) {
+        return index >= 0 && index < log.getEntries().size();
+    }
+
+    @Override
+    public List<LogOp> getAppliedOps() {
+        if (removedEntry == null) {
+            return Collections.emptyList();
+        }
+        return Collections.singletonList(LogOp.remove(index, removedEntry.getFoodId()));
+    }
+
+    @Override
+    public List<LogOp> getUndoOps() {
+        if (removedEntry == null) {
+            return Collections.emptyList();
         }
+        return Collections.singletonList(LogOp.insert(index, removedEntry.getFoodId(), removedEntry.getServings()));
+    }
+
+    @Override
+    public void execute() {
+        logManager.withLog(date, log -> {
+            try {
+                removedEntry = logManager.deleteLogEntry(date, index);
+                Messages.info("log.deleted", () -> "Deleted log entry at position " + (index + 1) + " for " + date);
+                logManager.cleanupEmptyLog(date);
+            } catch (IndexOutOfBoundsException e) {
+                String reason = e.getMessage();
+                Messages.warn("log.delete.failed", () -> "Delete failed: " + reason);
+            }
+            return null;
+        });
     }
 
     @Override
     public void undo() {
-        DailyLog log = logManager.getLog(date);
+        logManager.withLog(date, log -> {
+            revert(log);
+            return null;
+        });
+    }
+
+    private void revert(DailyLog log) {
         // If stored index is invalid, insert at the end.
         if (index < 0 || index > log.getEntries().size()) {
             log.addEntry(removedEntry);
-            System.out.println("Undid deletion (appended) of log entry for " + date);
+            Messages.info("log.undo", () -> "Undid deletion (appended) of log entry for " + date);
         } else {
             try {
                 log.insertEntry(index, removedEntry);
-                System.out.println("Undid deletion of log entry at position " + (index + 1) + " for " + date);
+                Messages.info("log.undo", () -> "Undid deletion of log entry at position " + (index + 1) + " for " + date);
             } catch (IndexOutOfBoundsException e) {
                 log.addEntry(removedEntry);
-                System.out.println("Undid deletion (appended) of log entry for " + date);
+                Messages.info("log.undo", () -> "Undid deletion (appended) of log entry for " + date);
             }
         }
     }
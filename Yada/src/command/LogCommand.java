@@ -1,5 +1,10 @@
 package command;
 
+import log.DailyLog;
+import log.LogOp;
+import java.time.LocalDate;
+import java.util.List;
+
 public abstract class LogCommand implements Command {
     protected boolean saved = false;
 
@@ -10,4 +15,32 @@ public abstract class LogCommand implements Command {
     public boolean isSaved() {
         return saved;
     }
-}
\ No newline at end of file
+
+    // The day this command changes; commands run under that day's lock.
+    public abstract LocalDate getDate();
+
+    // Whether the command still applies to the day as it is now (e.g. its entry index exists).
+    public boolean canExecute(DailyLog log) {
+        return true;
+    }
+
+    // What execute() changed, as logical steps; recorded in the day's event journal. Empty if
+    // the command has not run or changed nothing.
+    public abstract List<LogOp> getAppliedOps();
+
+    // True if execute() passes its changes to DailyLogManager.record itself (through the
+    // manager's bulk methods), so getAppliedOps() must not be recorded a second time.
+    public boolean recordsOwnOps() {
+        return false;
+    }
+
+    // The undo of an executed command as logical steps, so it can be journaled and moved to the
+    // on-disk undo log (see SpilledLogCommand) without holding on to LogEntry objects. Empty if
+    // there is nothing to undo.
+    public abstract List<LogOp> getUndoOps();
+
+    // Rough in-memory footprint in bytes, used to cap the undo history.
+    public int estimatedSize() {
+        return 160;
+    }
+}
@@ -0,0 +1,81 @@
+package command;
+
+import database.DailyLogManager;
+import log.LogOp;
+import output.Messages;
+import java.io.*;
+import java.time.LocalDate;
+import java.util.List;
+
+// A log command read back from the on-disk undo log (see UndoHistory).
+// Live commands undo through references to the LogEntry objects they touched; once spilled
+// those references are gone, so a spilled command stores its undo (and what it changed, so
+// it can be executed again) as LogOps, which find entries by position and food ID.
+public class SpilledLogCommand extends LogCommand {
+    private DailyLogManager logManager;
+    private LocalDate date;
+    private List<LogOp> undoOps;
+    private List<LogOp> appliedOps;
+
+    public SpilledLogCommand(DailyLogManager logManager, LocalDate date, List<LogOp> undoOps, List<LogOp> appliedOps) {
+        this.logManager = logManager;
+        this.date = date;
+        this.undoOps = undoOps;
+        this.appliedOps = appliedOps;
+        this.saved = true;
+    }
+
+    @Override
+    public LocalDate getDate() {
+        return date;
+    }
+
+    @Override
+    public List<LogOp> getAppliedOps() {
+        return appliedOps;
+    }
+
+    @Override
+    public List<LogOp> getUndoOps() {
+        return undoOps;
+    }
+
+    @Override
+    public void execute() {
+        logManager.withLog(date, log -> {
+            for (LogOp op : appliedOps) {
+                if (!op.applyTo(log)) {
+                    Messages.warn("log.redo.failed", () -> "Redo: log entry " + op.getFoodId() + " not found for " + date);
+                }
+            }
+            logManager.cleanupEmptyLog(date);
+            return null;
+        });
+        Messages.info("log.redo", () -> "Redid log change for " + date);
+    }
+
+    @Override
+    public void undo() {
+        logManager.withLog(date, log -> {
+            for (LogOp op : undoOps) {
+                if (!op.applyTo(log)) {
+                    Messages.warn("log.undo.failed", () -> "Undo: log entry " + op.getFoodId() + " not found for " + date);
+                }
+            }
+            logManager.cleanupEmptyLog(date);
+            return null;
+        });
+        Messages.info("log.undo", () -> "Undid log change for " + date);
+    }
+
+    public static void write(DataOutput out, LocalDate date, List<LogOp> undoOps, List<LogOp> appliedOps) throws IOException {
+        LogOp.writeAll(out, date, undoOps);
+        LogOp.writeOps(out, appliedOps);
+    }
+
+    public static SpilledLogCommand read(DataInput in, DailyLogManager logManager) throws IOException {
+        LocalDate date = LogOp.readDate(in);
+        List<LogOp> undoOps = LogOp.readAll(in);
+        return new SpilledLogCommand(logManager, date, undoOps, LogOp.readAll(in));
+    }
+}
@@ -0,0 +1,145 @@
+package command;
+
+import database.DailyLogManager;
+import metrics.Metrics;
+import metrics.StoreIO;
+import output.Messages;
+import java.io.*;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+
+// Undo stack for saved log commands with bounded memory use.
+// The newest commands stay in memory, up to maxDepth commands and maxBytes of estimated size
+// (LogCommand.estimatedSize()). Older ones are written to an append-only undo log on disk as
+// SpilledLogCommand records and are read back a page at a time only when undo reaches them.
+// Spilling goes down to half the limits at once, so the file is opened once per batch of
+// commands rather than once per command. Each record is followed by its length, so the log
+// is read from the end and truncated as it is paged in; no index of the file is kept in memory.
+public class UndoHistory {
+    private static final StoreIO IO = Metrics.store("undo");
+    private final String spillPath;
+    private final DailyLogManager logManager;
+    private final int maxDepth;
+    private final long maxBytes;
+    private final int pageSize;
+    // Newest command first.
+    private final Deque<LogCommand> commands = new ArrayDeque<>();
+    private long bytesInMemory;
+    private int spilledCount;
+
+    public UndoHistory(String spillPath, DailyLogManager logManager, int maxDepth, long maxBytes) {
+        this.spillPath = spillPath;
+        this.logManager = logManager;
+        this.maxDepth = Math.max(1, maxDepth);
+        this.maxBytes = maxBytes;
+        this.pageSize = Math.max(1, this.maxDepth / 2);
+        // Undo history does not outlive the process; drop a log left behind by an earlier run.
+        new File(spillPath).delete();
+    }
+
+    public synchronized void push(LogCommand cmd) {
+        commands.addFirst(cmd);
+        bytesInMemory += cmd.estimatedSize();
+        if (commands.size() > maxDepth || bytesInMemory > maxBytes) {
+            spillOldest();
+        }
+    }
+
+    // Removes and returns the most recent command, paging older ones in from disk if needed; null if empty.
+    public synchronized LogCommand pop() {
+        if (commands.isEmpty() && spilledCount > 0) {
+            pageIn();
+        }
+        LogCommand cmd = commands.pollFirst();
+        if (cmd != null) {
+            bytesInMemory -= cmd.estimatedSize();
+        }
+        return cmd;
+    }
+
+    public synchronized boolean isEmpty() {
+        return commands.isEmpty() && spilledCount == 0;
+    }
+
+    // Total undo depth, in memory and on disk.
+    public synchronized int size() {
+        return commands.size() + spilledCount;
+    }
+
+    public synchronized int inMemorySize() {
+        return commands.size();
+    }
+
+    public synchronized void clear() {
+        commands.clear();
+        bytesInMemory = 0;
+        spilledCount = 0;
+        new File(spillPath).delete();
+    }
+
+    // Moves the oldest in-memory commands to disk until the history is down to half its limits
+    // (keeping at least one). The whole batch is written with a single call.
+    private void spillOldest() {
+        ByteArrayOutputStream batch = new ByteArrayOutputStream();
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        int count = 0;
+        long freed = 0;
+        Iterator<LogCommand> oldestFirst = commands.descendingIterator();
+        try {
+            DataOutputStream batchOut = new DataOutputStream(batch);
+            while (oldestFirst.hasNext() && commands.size() - count > 1
+                    && (commands.size() - count > maxDepth / 2 || bytesInMemory - freed > maxBytes / 2)) {
+                LogCommand cmd = oldestFirst.next();
+                record.reset();
+                SpilledLogCommand.write(new DataOutputStream(record), cmd.getDate(), cmd.getUndoOps(), cmd.getAppliedOps());
+                record.writeTo(batchOut);
+                batchOut.writeInt(record.size());
+                freed += cmd.estimatedSize();
+                count++;
+            }
+            try (RandomAccessFile file = new RandomAccessFile(spillPath, "rw")) {
+                file.seek(file.length());
+                file.write(batch.toByteArray());
+            }
+            IO.recordWrite(batch.size());
+            spilledCount += count;
+        } catch (IOException e) {
+            // Keep memory bounded even if the disk log is unusable: the oldest steps are lost.
+            Messages.warn("undo.spill.failed", () -> "Error writing undo log " + spillPath + ": " + e.getMessage());
+        }
+        for (int i = 0; i < count; i++) {
+            commands.pollLast();
+        }
+        bytesInMemory -= freed;
+    }
+
+    // Reads the newest page of records back from the end of the disk log and truncates it.
+    private void pageIn() {
+        try (RandomAccessFile file = new RandomAccessFile(spillPath, "rw")) {
+            long fileLength = file.length();
+            long end = fileLength;
+            int read = 0;
+            while (read < pageSize && end >= 4) {
+                file.seek(end - 4);
+                int length = file.readInt();
+                long start = end - 4 - length;
+                byte[] record = new byte[length];
+                file.seek(start);
+                file.readFully(record);
+                LogCommand cmd = SpilledLogCommand.read(new DataInputStream(new ByteArrayInputStream(record)), logManager);
+                commands.addLast(cmd);
+                bytesInMemory += cmd.estimatedSize();
+                end = start;
+                read++;
+            }
+            file.setLength(end);
+            IO.recordRead(fileLength - end);
+            spilledCount = end == 0 ? 0 : spilledCount - read;
+        } catch (IOException | RuntimeException e) {
+            Messages.warn("undo.spill.failed", () -> "Error reading undo log " + spillPath + ": " + e.getMessage());
+            spilledCount = 0;
+            new File(spillPath).delete();
+        }
+    }
+}
@@ -3,7 +3,11 @@ package command;
 import database.DailyLogManager;
 import log.DailyLog;
 import log.LogEntry;
+import log.LogOp;
+import output.Messages;
 import java.time.LocalDate;
+import java.util.Collections;
+import java.util.List;
 
 public class UpdateLogEntryCommand extends LogCommand {
     private DailyLogManager logManager;
@@ -23,11 +27,49 @@ public class UpdateLogEntryCommand extends LogCommand {
         this.newServings = newServings;
     }
 
+    @Override
+    public LocalDate getDate() {
+        return date;
+    }
+
+    @Override
+    public boolean canExecute(DailyLog log) {
+        return index >= 0 && index < log.getEntries().size();
+    }
+
+    @Override
+    public List<LogOp> getAppliedOps() {
+        if (deleted) {
+            return Collections.singletonList(LogOp.remove(index, removedEntry.getFoodId()));
+        }
+        if (targetEntry == null) {
+            return Collections.emptyList();
+        }
+        return Collections.singletonList(LogOp.setServings(index, targetEntry.getFoodId(), newServings));
+    }
+
+    @Override
+    public List<LogOp> getUndoOps() {
+        if (deleted) {
+            return Collections.singletonList(LogOp.insert(index, removedEntry.getFoodId(), removedEntry.getServings()));
+        }
+        if (targetEntry == null) {
+            return Collections.emptyList();
+        }
+        return Collections.singletonList(LogOp.setServings(index, targetEntry.getFoodId(), oldServings));
+    }
+
     @Override
     public void execute() {
-        DailyLog log = logManager.getLog(date);
+        logManager.withLog(date, log -> {
+            apply(log);
+            return null;
+        });
+    }
+
+    private void apply(DailyLog log) {
         if (index < 0 || index >= log.getEntries().size()) {
-            System.err.println("Invalid log entry index: " + (index + 1));
+            Messages.warn("log.update.failed", () -> "Invalid log entry index: " + (index + 1));
             return;
         }
         targetEntry = log.getEntries().get(index);
@@ -35,38 +77,48 @@ public class UpdateLogEntryCommand extends LogCommand {
         if (newServings == 0) {
             removedEntry = logManager.deleteLogEntry(date, index);
             deleted = true;
-            System.out.println("Deleted log entry at position " + (index + 1) + " for " + date + " (servings set to 0)");
+            Messages.info("log.deleted", () -> "Deleted log entry at position " + (index + 1) + " for " + date + " (servings set to 0)");
         } else {
             targetEntry.setServings(newServings);
+            log.markModified();
             deleted = false;
-            System.out.println("Updated log entry at position " + (index + 1) + " for " + date + " from " + oldServings + " to " + newServings);
+            double before = oldServings;
+            Messages.info("log.updated", () -> "Updated log entry at position " + (index + 1) + " for " + date + " from " + before + " to " + newServings);
         }
     }
 
     @Override
     public void undo() {
-        DailyLog log = logManager.getLog(date);
+        logManager.withLog(date, log -> {
+            revert(log);
+            return null;
+        });
+    }
+
+    private void revert(DailyLog log) {
         if (deleted) {
             // Try to insert removed entry at stored index; if invalid, append at end.
             if (index < 0 || index > log.getEntries().size()) {
                 log.addEntry(removedEntry);
-                System.out.println("Undid deletion (appended) of log entry at position " + (index + 1) + " for " + date);
+                Messages.info("log.undo", () -> "Undid deletion (appended) of log entry at position " + (index + 1) + " for " + date);
             } else {
                 try {
                     log.insertEntry(index, removedEntry);
-                    System.out.println("Undid deletion of log entry at position " + (index + 1) + " for " + date);
+                    Messages.info("log.undo", () -> "Undid deletion of log entry at position " + (index + 1) + " for " + date);
                 } catch (IndexOutOfBoundsException e) {
                     log.addEntry(removedEntry);
-                    System.out.println("Undid deletion (appended) of log entry for " + date);
+                    Messages.info("log.undo", () -> "Undid deletion (appended) of log entry for " + date);
                 }
             }
         } else {
             // Restore old servings using the stored targetEntry reference.
             if (targetEntry != null) {
-                targetEntry.setServings(oldServings);
-                System.out.println("Undid update of log entry at position " + (index + 1) + " for " + date + " back to " + oldServings);
+                double restored = oldServings;
+                targetEntry.setServings(restored);
+                log.markModified();
+                Messages.info("log.undo", () -> "Undid update of log entry at position " + (index + 1) + " for " + date + " back to " + restored);
             } else {
-                System.err.println("Undo failed: target log entry not found.");
+                Messages.warn("log.undo.failed", () -> "Undo failed: target log entry not found.");
             }
         }
     }
@@ -0,0 +1,394 @@
+package database;
+
+import metrics.Metrics;
+import metrics.PersistenceEvent;
+import output.Messages;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+// Background persistence for the data stores.
+// Mutations only mark stores dirty; a checkpoint is taken once the stores have been
+// quiet for the debounce delay, so a burst of edits results in a single save.
+// A checkpoint renders every dirty store into memory while holding the shared state
+// lock, then writes all of them concurrently into temp files and only swaps them in
+// once every file of the checkpoint has been written successfully. A checkpoint of more
+// than one file is swapped in as one unit: the list of its files is first committed to a
+// manifest (atomic rename), and a checkpoint interrupted while its files are renamed is
+// finished from the manifest by recover() before the stores load again.
+// If a checkpoint cannot be written, its stores are marked dirty again and retried after
+// RETRY_MILLIS; what onCheckpoint asked to run once it is on disk waits for that.
+public class AutoSaveService {
+    public static final long RETRY_MILLIS = 5000;
+
+    private final Object stateLock;
+    private final String manifestPath;
+    private final long debounceMillis;
+    private final Supplier<Runnable> onCheckpoint;
+    private final List<PersistentStore> stores = new ArrayList<>();
+    private final Set<PersistentStore> dirtyStores = new HashSet<>();
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService writerPool;
+    private final boolean ownsExecutors;
+    // Serializes checkpoints of this service when the scheduler is shared between services.
+    private final Object writeLock = new Object();
+    private ScheduledFuture<?> pendingCheckpoint;
+    // Time of the last mutation; the pending checkpoint re-arms itself until the stores have
+    // been quiet for the debounce delay, so a mutation costs no scheduler work.
+    private long lastDirtyMillis;
+    // Rendered contents waiting to be written; a newer checkpoint replaces older content
+    // for the same file before it hits the disk.
+    private final Map<PersistentStore, String> pendingWrites = new LinkedHashMap<>();
+    // What onCheckpoint returned for the checkpoints in pendingWrites; guarded by pendingWrites.
+    private final List<Runnable> pendingCompletions = new ArrayList<>();
+    // Whether the last checkpoint written failed; its stores are dirty again until a retry succeeds.
+    private volatile boolean writeFailed;
+    private volatile boolean closed;
+
+    // onCheckpoint is called under the state lock as each checkpoint is rendered; the Runnable it
+    // returns (or null) runs under the state lock once that checkpoint is on disk. The manifest
+    // is where multi-file checkpoints are committed; pass the same path to recover() on startup.
+    public AutoSaveService(Object stateLock, String manifestPath, long debounceMillis, Supplier<Runnable> onCheckpoint) {
+        this(stateLock, manifestPath, debounceMillis, onCheckpoint, newScheduler(1), newWriterPool(4), true);
+    }
+
+    // For many small services (one per user diary) sharing the same threads.
+    public AutoSaveService(Object stateLock, String manifestPath, long debounceMillis, Supplier<Runnable> onCheckpoint,
+                           ScheduledExecutorService scheduler, ExecutorService writerPool) {
+        this(stateLock, manifestPath, debounceMillis, onCheckpoint, scheduler, writerPool, false);
+    }
+
+    private AutoSaveService(Object stateLock, String manifestPath, long debounceMillis, Supplier<Runnable> onCheckpoint,
+                            ScheduledExecutorService scheduler, ExecutorService writerPool, boolean ownsExecutors) {
+        this.stateLock = stateLock;
+        this.manifestPath = manifestPath;
+        this.debounceMillis = debounceMillis;
+        this.onCheckpoint = onCheckpoint;
+        this.scheduler = scheduler;
+        this.writerPool = writerPool;
+        this.ownsExecutors = ownsExecutors;
+    }
+
+    public static ScheduledExecutorService newScheduler(int threads) {
+        return Executors.newScheduledThreadPool(threads, r -> {
+            Thread t = new Thread(r, "yada-autosave");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public static ExecutorService newWriterPool(int threads) {
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "yada-autosave-writer");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // Stores are rendered in registration order, so register foods before logs
+    // (log rendering depends on which foods are committed).
+    public void register(PersistentStore store) {
+        synchronized (stateLock) {
+            stores.add(store);
+        }
+    }
+
+    // Called after every mutation; (re)starts the debounce timer.
+    public void markDirty(PersistentStore store) {
+        synchronized (stateLock) {
+            dirtyStores.add(store);
+            lastDirtyMillis = System.currentTimeMillis();
+            if (pendingCheckpoint == null) {
+                pendingCheckpoint = scheduler.schedule(this::checkpointDirty, debounceMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    // Explicit save: snapshots every store immediately (memory only) and writes in the background.
+    public void requestCheckpoint() {
+        synchronized (stateLock) {
+            if (pendingCheckpoint != null) {
+                pendingCheckpoint.cancel(false);
+                pendingCheckpoint = null;
+            }
+            snapshot(stores);
+        }
+    }
+
+    public boolean isDirty() {
+        synchronized (stateLock) {
+            return !dirtyStores.isEmpty();
+        }
+    }
+
+    // Writes anything still dirty on the calling thread and returns once it is on disk, or
+    // false if it could not be written (the stores stay dirty and are retried).
+    // Meant for background callers (shutdown, cache eviction), never the interactive thread.
+    public boolean flush() {
+        synchronized (stateLock) {
+            if (pendingCheckpoint != null) {
+                pendingCheckpoint.cancel(false);
+                pendingCheckpoint = null;
+            }
+            if (!dirtyStores.isEmpty()) {
+                snapshot(new ArrayList<>(stores));
+            }
+        }
+        writePending();
+        return !writeFailed;
+    }
+
+    // Flushes anything still dirty and waits for all writes to reach the disk. Returns false if
+    // some of it could not be written; nothing is retried after shutdown.
+    public boolean shutdown() {
+        closed = true;
+        boolean saved = flush();
+        if (ownsExecutors) {
+            scheduler.shutdown();
+            try {
+                scheduler.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            writerPool.shutdown();
+        }
+        return saved;
+    }
+
+    // Finishes a checkpoint that stopped while its files were being swapped in: every file the
+    // manifest lists that still has its temp file is renamed into place, then the manifest is
+    // dropped. Call with the service's manifest path before loading its stores.
+    public static boolean recover(String manifestPath) {
+        Path manifest = Paths.get(manifestPath);
+        try {
+            // Not committed: the checkpoint it was for never started swapping.
+            Files.deleteIfExists(Paths.get(manifestPath + ".tmp"));
+            if (!Files.exists(manifest))
+                return true;
+            List<String> targets = Files.readAllLines(manifest, StandardCharsets.UTF_8);
+            for (String target : targets) {
+                Path tmp = Paths.get(target + ".tmp");
+                if (!target.isEmpty() && Files.exists(tmp)) {
+                    replace(tmp, Paths.get(target));
+                    FileWatcher.noteWrite(target);
+                }
+            }
+            Files.delete(manifest);
+            Messages.info("autosave.recovered", () -> "Autosave: finished an interrupted checkpoint of " + targets.size() + " file(s).");
+            return true;
+        } catch (IOException e) {
+            Messages.warn("autosave.failed", () -> "Autosave: error finishing the checkpoint in " + manifestPath + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    private void checkpointDirty() {
+        synchronized (stateLock) {
+            long quietFor = System.currentTimeMillis() - lastDirtyMillis;
+            if (quietFor < debounceMillis) {
+                pendingCheckpoint = scheduler.schedule(this::checkpointDirty, debounceMillis - quietFor, TimeUnit.MILLISECONDS);
+                return;
+            }
+            pendingCheckpoint = null;
+            List<PersistentStore> toSave = new ArrayList<>();
+            for (PersistentStore store : stores) {
+                if (dirtyStores.contains(store)) {
+                    toSave.add(store);
+                }
+            }
+            if (!toSave.isEmpty()) {
+                snapshot(toSave);
+            }
+        }
+    }
+
+    // Must be called with stateLock held.
+    private void snapshot(List<PersistentStore> toSave) {
+        Map<PersistentStore, String> rendered = new LinkedHashMap<>();
+        for (PersistentStore store : toSave) {
+            long start = System.nanoTime();
+            PersistenceEvent event = new PersistenceEvent();
+            event.begin();
+            StringWriter buffer = new StringWriter();
+            try (BufferedWriter writer = new BufferedWriter(buffer)) {
+                store.writeTo(writer);
+            } catch (IOException e) {
+                Messages.warn("autosave.failed", () -> "Autosave: error rendering " + store.getFilePath() + ": " + e.getMessage());
+                return;
+            }
+            String content = buffer.toString();
+            rendered.put(store, content);
+            // The part of a checkpoint that holds the state lock.
+            String name = Metrics.storeName(store.getFilePath());
+            Metrics.latency("store." + name + ".render").recordSince(start);
+            if (event.shouldCommit())
+                event.emit(name, "render", store.getFilePath(), countLines(content), content.length());
+        }
+        dirtyStores.removeAll(toSave);
+        Runnable completion = onCheckpoint == null ? null : onCheckpoint.get();
+        synchronized (pendingWrites) {
+            pendingWrites.putAll(rendered);
+            if (completion != null) {
+                pendingCompletions.add(completion);
+            }
+        }
+        // All disk work happens on the scheduler, one checkpoint of this service at a time.
+        scheduler.execute(this::writePending);
+    }
+
+    private void writePending() {
+        synchronized (writeLock) {
+            writeBatch();
+        }
+    }
+
+    private void writeBatch() {
+        Map<PersistentStore, String> batch;
+        List<Runnable> completions;
+        synchronized (pendingWrites) {
+            if (pendingWrites.isEmpty()) {
+                return;
+            }
+            batch = new LinkedHashMap<>(pendingWrites);
+            completions = new ArrayList<>(pendingCompletions);
+            pendingWrites.clear();
+            pendingCompletions.clear();
+        }
+        // A checkpoint left half swapped in is finished before new temp files overwrite its own.
+        if (!recover(manifestPath)) {
+            retryLater(batch.keySet(), completions);
+            return;
+        }
+        List<Future<Path>> writes = new ArrayList<>();
+        for (Map.Entry<PersistentStore, String> entry : batch.entrySet()) {
+            String filePath = entry.getKey().getFilePath();
+            String content = entry.getValue();
+            writes.add(writerPool.submit(() -> {
+                long start = System.nanoTime();
+                PersistenceEvent event = new PersistenceEvent();
+                event.begin();
+                Path tmp = Paths.get(filePath + ".tmp");
+                writeDurably(tmp, content);
+                String store = Metrics.storeName(filePath);
+                long bytes = Files.size(tmp);
+                Metrics.store(store).recordWrite(bytes);
+                Metrics.latency("store." + store + ".save").recordSince(start);
+                if (event.shouldCommit())
+                    event.emit(store, "save", filePath, countLines(content), bytes);
+                return tmp;
+            }));
+        }
+        List<Path> written = new ArrayList<>();
+        boolean failed = false;
+        for (Future<Path> write : writes) {
+            try {
+                written.add(write.get());
+            } catch (ExecutionException e) {
+                Messages.warn("autosave.failed", () -> "Autosave: error writing checkpoint: " + e.getCause().getMessage());
+                failed = true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failed = true;
+            }
+        }
+        if (failed) {
+            // Leave the previous checkpoint in place.
+            for (Path tmp : written) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException ignored) {
+                }
+            }
+            retryLater(batch.keySet(), completions);
+            return;
+        }
+        if (!swapIn(batch)) {
+            retryLater(batch.keySet(), completions);
+            return;
+        }
+        writeFailed = false;
+        synchronized (stateLock) {
+            for (Runnable completion : completions) {
+                completion.run();
+            }
+        }
+    }
+
+    // Renames the checkpoint's temp files into place. With more than one file, their names are
+    // committed to the manifest first, so a crash part way through is finished by recover().
+    // The watcher is told what each file will hold before it is renamed, so it never sees the
+    // new content as someone else's.
+    private boolean swapIn(Map<PersistentStore, String> batch) {
+        Path manifest = Paths.get(manifestPath);
+        String current = null;
+        try {
+            if (batch.size() > 1) {
+                StringBuilder names = new StringBuilder();
+                for (PersistentStore store : batch.keySet()) {
+                    names.append(store.getFilePath()).append('\n');
+                }
+                Path tmp = Paths.get(manifestPath + ".tmp");
+                writeDurably(tmp, names.toString());
+                replace(tmp, manifest);
+            }
+            for (Map.Entry<PersistentStore, String> entry : batch.entrySet()) {
+                current = entry.getKey().getFilePath();
+                FileWatcher.noteWrite(current, entry.getValue());
+                entry.getKey().aboutToReplace(entry.getValue());
+                replace(Paths.get(current + ".tmp"), Paths.get(current));
+            }
+            Files.deleteIfExists(manifest);
+            return true;
+        } catch (IOException e) {
+            if (current != null && Files.exists(Paths.get(current + ".tmp")))
+                FileWatcher.forgetWrite(current);
+            // A committed manifest is finished before the next checkpoint writes anything.
+            Messages.warn("autosave.failed", () -> "Autosave: error swapping in checkpoint: " + e.getMessage());
+            return false;
+        }
+    }
+
+    // Marks the stores of a checkpoint that could not be written dirty again and retries them
+    // after RETRY_MILLIS (unless the service is shutting down); its completions wait for that.
+    private void retryLater(Collection<PersistentStore> failed, List<Runnable> completions) {
+        writeFailed = true;
+        synchronized (stateLock) {
+            dirtyStores.addAll(failed);
+            synchronized (pendingWrites) {
+                pendingCompletions.addAll(0, completions);
+            }
+            if (pendingCheckpoint == null && !closed) {
+                pendingCheckpoint = scheduler.schedule(this::checkpointDirty, RETRY_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private static void writeDurably(Path path, String content) throws IOException {
+        try (FileOutputStream stream = new FileOutputStream(path.toFile());
+             BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8))) {
+            writer.write(content);
+            writer.flush();
+            stream.getFD().sync();
+        }
+    }
+
+    private static void replace(Path tmp, Path target) throws IOException {
+        try {
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static long countLines(String content) {
+        long lines = 0;
+        for (int i = 0; i < content.length(); i++) {
+            if (content.charAt(i) == '\n')
+                lines++;
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,66 @@
+package database;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Set membership with false positives but no false negatives: mightContain is false only for
+// strings that were never added. Sized for an expected number of strings at about 1% false
+// positives. Strings are hashed case-insensitively when asked, without copying them, and the
+// bits are an AtomicLongArray so a string added by one thread is seen by every later lookup.
+// Strings cannot be removed; ShardedFoodDatabase rebuilds its filters instead.
+class BloomFilter {
+    private static final int BITS_PER_ITEM = 10;
+    private static final int HASHES = 7;
+
+    private final AtomicLongArray bits;
+    private final long bitCount;
+
+    BloomFilter(int expectedItems) {
+        long wanted = Math.max(64, (long) Math.max(1, expectedItems) * BITS_PER_ITEM);
+        int words = (int) Math.min(Integer.MAX_VALUE, (wanted + 63) / 64);
+        this.bits = new AtomicLongArray(words);
+        this.bitCount = (long) words * 64;
+    }
+
+    void add(String value, boolean ignoreCase) {
+        long hash = hash(value, ignoreCase);
+        long h1 = hash;
+        long h2 = (hash >>> 32) | 1;
+        for (int i = 0; i < HASHES; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bitCount);
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long current = bits.get(word);
+            while ((current & mask) == 0 && !bits.compareAndSet(word, current, current | mask)) {
+                current = bits.get(word);
+            }
+        }
+    }
+
+    boolean mightContain(String value, boolean ignoreCase) {
+        long hash = hash(value, ignoreCase);
+        long h1 = hash;
+        long h2 = (hash >>> 32) | 1;
+        for (int i = 0; i < HASHES; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bitCount);
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    // FNV-1a over the chars, then a final mix so both halves are usable as hashes.
+    // Also used by OffHeapFoodDatabase to hash names for its name index.
+    static long hash(String value, boolean ignoreCase) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (ignoreCase)
+                c = Character.toLowerCase(Character.toUpperCase(c));
+            h = (h ^ c) * 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+}
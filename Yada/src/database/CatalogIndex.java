@@ -0,0 +1,225 @@
+package database;
+
+import model.Food;
+import model.Symbols;
+import java.util.*;
+
+// Secondary indexes for one FoodDatabase snapshot: foods by keyword and, for every nutrient
+// named in some food's extraInfo, foods sorted by the amount of it. Like the snapshot it
+// belongs to, an index never changes; with/without return a new one that shares every
+// entry the food does not appear in, so a catalog write copies only the map and the few
+// arrays it touches.
+final class CatalogIndex {
+    static final CatalogIndex EMPTY = new CatalogIndex(Collections.emptyMap(), Collections.emptyMap());
+
+    private static final Comparator<Food> BY_ID = FoodOrder.ID.comparator();
+    private static final Food[] NO_FOODS = new Food[0];
+
+    // Lower-case keyword -> foods listing it, sorted by ID
+    private final Map<String, Food[]> byKeyword;
+    // Lower-case nutrient name -> foods listing it, by amount
+    private final Map<String, NutrientIndex> byNutrient;
+
+    private CatalogIndex(Map<String, Food[]> byKeyword, Map<String, NutrientIndex> byNutrient) {
+        this.byKeyword = byKeyword;
+        this.byNutrient = byNutrient;
+    }
+
+    static CatalogIndex build(Collection<Food> foods) {
+        Map<String, List<Food>> keywordLists = new HashMap<>();
+        Map<String, List<Food>> nutrientLists = new HashMap<>();
+        for (Food food : foods) {
+            for (String k : keywordsOf(food))
+                keywordLists.computeIfAbsent(k, x -> new ArrayList<>()).add(food);
+            for (String n : food.getNutrients().keySet())
+                nutrientLists.computeIfAbsent(n, x -> new ArrayList<>()).add(food);
+        }
+        Map<String, Food[]> byKeyword = new HashMap<>();
+        for (Map.Entry<String, List<Food>> e : keywordLists.entrySet()) {
+            Food[] sorted = e.getValue().toArray(NO_FOODS);
+            Arrays.sort(sorted, BY_ID);
+            byKeyword.put(e.getKey(), sorted);
+        }
+        Map<String, NutrientIndex> byNutrient = new HashMap<>();
+        for (Map.Entry<String, List<Food>> e : nutrientLists.entrySet())
+            byNutrient.put(e.getKey(), NutrientIndex.build(e.getKey(), e.getValue()));
+        return new CatalogIndex(byKeyword, byNutrient);
+    }
+
+    CatalogIndex with(Food food) {
+        Map<String, Food[]> keywords = new HashMap<>(byKeyword);
+        for (String k : keywordsOf(food))
+            keywords.put(k, insert(keywords.getOrDefault(k, NO_FOODS), food));
+        Map<String, NutrientIndex> nutrients = new HashMap<>(byNutrient);
+        for (Map.Entry<String, Double> e : food.getNutrients().entrySet()) {
+            NutrientIndex index = nutrients.getOrDefault(e.getKey(), NutrientIndex.EMPTY);
+            nutrients.put(e.getKey(), index.with(food, e.getValue()));
+        }
+        return new CatalogIndex(keywords, nutrients);
+    }
+
+    CatalogIndex without(Food food) {
+        Map<String, Food[]> keywords = new HashMap<>(byKeyword);
+        for (String k : keywordsOf(food)) {
+            Food[] remaining = remove(keywords.getOrDefault(k, NO_FOODS), food);
+            if (remaining.length == 0)
+                keywords.remove(k);
+            else
+                keywords.put(k, remaining);
+        }
+        Map<String, NutrientIndex> nutrients = new HashMap<>(byNutrient);
+        for (Map.Entry<String, Double> e : food.getNutrients().entrySet()) {
+            NutrientIndex index = nutrients.get(e.getKey());
+            if (index == null)
+                continue;
+            NutrientIndex remaining = index.without(food, e.getValue());
+            if (remaining.size() == 0)
+                nutrients.remove(e.getKey());
+            else
+                nutrients.put(e.getKey(), remaining);
+        }
+        return new CatalogIndex(keywords, nutrients);
+    }
+
+    // Foods listing the keyword, sorted by ID.
+    List<Food> withKeyword(String keyword) {
+        return Arrays.asList(byKeyword.getOrDefault(keyword, NO_FOODS));
+    }
+
+    // Foods whose amount of the nutrient is within [min, max], sorted by amount.
+    List<Food> withNutrient(String nutrient, double min, double max) {
+        NutrientIndex index = byNutrient.get(nutrient);
+        return index == null ? Collections.emptyList() : index.range(min, max);
+    }
+
+    // Distinct keywords, without repeats within one food; the lower-case forms are the
+    // canonical instances of the keywords' folded symbols, so nothing is allocated per food.
+    private static Set<String> keywordsOf(Food food) {
+        Set<String> keywords = new HashSet<>();
+        for (int i = 0; i < food.getKeywordCount(); i++) {
+            String k = Symbols.name(Symbols.folded(food.getKeywordSymbol(i)));
+            if (!k.isEmpty())
+                keywords.add(k);
+        }
+        return keywords;
+    }
+
+    private static Food[] insert(Food[] foods, Food food) {
+        int index = Arrays.binarySearch(foods, food, BY_ID);
+        if (index >= 0) {
+            Food[] copy = foods.clone();
+            copy[index] = food;
+            return copy;
+        }
+        int at = -index - 1;
+        Food[] copy = new Food[foods.length + 1];
+        System.arraycopy(foods, 0, copy, 0, at);
+        copy[at] = food;
+        System.arraycopy(foods, at, copy, at + 1, foods.length - at);
+        return copy;
+    }
+
+    private static Food[] remove(Food[] foods, Food food) {
+        int index = Arrays.binarySearch(foods, food, BY_ID);
+        if (index < 0)
+            return foods;
+        Food[] copy = new Food[foods.length - 1];
+        System.arraycopy(foods, 0, copy, 0, index);
+        System.arraycopy(foods, index + 1, copy, index, copy.length - index);
+        return copy;
+    }
+
+    // Amounts of one nutrient in ascending order (ties by ID), with the foods alongside, so
+    // a range is found by binary search over a primitive array.
+    private static final class NutrientIndex {
+        static final NutrientIndex EMPTY = new NutrientIndex(new double[0], NO_FOODS);
+
+        final double[] amounts;
+        final Food[] foods;
+
+        NutrientIndex(double[] amounts, Food[] foods) {
+            this.amounts = amounts;
+            this.foods = foods;
+        }
+
+        static NutrientIndex build(String nutrient, List<Food> foods) {
+            Food[] sorted = foods.toArray(NO_FOODS);
+            Arrays.sort(sorted, Comparator.comparingDouble((Food f) -> f.getNutrients().get(nutrient)).thenComparing(BY_ID));
+            double[] amounts = new double[sorted.length];
+            for (int i = 0; i < sorted.length; i++)
+                amounts[i] = sorted[i].getNutrients().get(nutrient);
+            return new NutrientIndex(amounts, sorted);
+        }
+
+        int size() {
+            return foods.length;
+        }
+
+        NutrientIndex with(Food food, double amount) {
+            int index = find(food, amount);
+            int at = index >= 0 ? index : -index - 1;
+            int keep = index >= 0 ? 1 : 0;
+            double[] a = new double[amounts.length + 1 - keep];
+            Food[] f = new Food[a.length];
+            System.arraycopy(amounts, 0, a, 0, at);
+            System.arraycopy(foods, 0, f, 0, at);
+            a[at] = amount;
+            f[at] = food;
+            System.arraycopy(amounts, at + keep, a, at + 1, amounts.length - at - keep);
+            System.arraycopy(foods, at + keep, f, at + 1, foods.length - at - keep);
+            return new NutrientIndex(a, f);
+        }
+
+        NutrientIndex without(Food food, double amount) {
+            int index = find(food, amount);
+            if (index < 0)
+                return this;
+            double[] a = new double[amounts.length - 1];
+            Food[] f = new Food[a.length];
+            System.arraycopy(amounts, 0, a, 0, index);
+            System.arraycopy(foods, 0, f, 0, index);
+            System.arraycopy(amounts, index + 1, a, index, a.length - index);
+            System.arraycopy(foods, index + 1, f, index, f.length - index);
+            return new NutrientIndex(a, f);
+        }
+
+        List<Food> range(double min, double max) {
+            int from = lowerBound(min, false);
+            int to = lowerBound(max, true);
+            return from >= to ? Collections.emptyList() : Arrays.asList(foods).subList(from, to);
+        }
+
+        // First position whose amount is >= value (or > value when after is set).
+        private int lowerBound(double value, boolean after) {
+            int lo = 0;
+            int hi = amounts.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (amounts[mid] < value || (after && amounts[mid] == value))
+                    lo = mid + 1;
+                else
+                    hi = mid;
+            }
+            return lo;
+        }
+
+        // Binary search by (amount, ID), with Arrays.binarySearch's return convention.
+        private int find(Food food, double amount) {
+            int lo = 0;
+            int hi = amounts.length - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int c = Double.compare(amounts[mid], amount);
+                if (c == 0)
+                    c = BY_ID.compare(foods[mid], food);
+                if (c < 0)
+                    lo = mid + 1;
+                else if (c > 0)
+                    hi = mid - 1;
+                else
+                    return mid;
+            }
+            return -(lo + 1);
+        }
+    }
+}
@@ -2,63 +2,394 @@ package database;
 
 import log.DailyLog;
 import log.LogEntry;
+import log.LogOp;
 import app.*;
 import model.*; // Ensure this matches the actual package of the Food class
+import metrics.LatencyHistogram;
+import metrics.LineCountingWriter;
+import metrics.Metrics;
+import metrics.PersistenceEvent;
+import metrics.StoreIO;
+import output.Messages;
 import java.time.LocalDate;
+import java.time.YearMonth;
 import java.time.format.DateTimeFormatter;
 import java.util.Map;
-import java.util.HashMap;
 import java.util.List;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
-public class DailyLogManager {
+// Days are locked individually (on their DailyLog), so edits to different days run in parallel.
+// With a journal enabled, every change is also recorded as an event (see LogJournal) and the
+// logs are recovered from the journal's snapshot and events rather than from the log file.
+// With an archive enabled, months before the hot window live in its compressed segments instead
+// of the log file (see LogArchive); archiveOldMonths moves them there, and they are moved back
+// before any change.
+public class DailyLogManager implements PersistentStore {
     private Map<LocalDate, DailyLog> logs;
     private final String filePath;
     private final DateTimeFormatter dtf = DateTimeFormatter.ofPattern("dd-MM-yyyy");
+    // Shared by every withLog call; taken exclusively only to cut a consistent journal snapshot.
+    private final ReentrantReadWriteLock snapshotLock = new ReentrantReadWriteLock();
+    private LogJournal journal;
+    private LogArchive archive;
+    // Food ID -> number of entries for it across all days; kept up to date by record().
+    private final Map<String, Integer> foodLogCounts = new ConcurrentHashMap<>();
+    private volatile BiConsumer<LocalDate, List<LogOp>> opListener;
+    private final LatencyHistogram loadLatency;
+    private final LatencyHistogram saveLatency;
+    private final StoreIO io;
+    private final String store;
 
     public DailyLogManager(String filePath) {
         this.filePath = filePath;
-        logs = new HashMap<>();
+        logs = new ConcurrentHashMap<>();
+        store = Metrics.storeName(filePath);
+        loadLatency = Metrics.latency("store." + store + ".load");
+        saveLatency = Metrics.latency("store." + store + ".save");
+        io = Metrics.store(store);
     }
 
     public DailyLog getLog(LocalDate date) {
         return logs.computeIfAbsent(date, d -> new DailyLog(d));
     }
 
+    // Runs action while holding the day's lock. If the day was dropped as empty between the
+    // lookup and acquiring its lock, the lookup is retried so the change is never lost.
+    // A day in an archived month is brought back into the store first.
+    public <T> T withLog(LocalDate date, Function<DailyLog, T> action) {
+        YearMonth month = YearMonth.from(date);
+        while (true) {
+            if (archive != null && archive.contains(month)) {
+                thaw(month);
+            }
+            snapshotLock.readLock().lock();
+            try {
+                // Archived between the check and taking the lock (see archiveOldMonths): thaw it again.
+                if (archive == null || !archive.contains(month)) {
+                    return applyToLog(date, action);
+                }
+            } finally {
+                snapshotLock.readLock().unlock();
+            }
+        }
+    }
+
+    private <T> T withHotLog(LocalDate date, Function<DailyLog, T> action) {
+        snapshotLock.readLock().lock();
+        try {
+            return applyToLog(date, action);
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+    }
+
+    // Must be called with the snapshot lock held.
+    private <T> T applyToLog(LocalDate date, Function<DailyLog, T> action) {
+        while (true) {
+            DailyLog log = getLog(date);
+            synchronized (log) {
+                if (logs.get(date) == log) {
+                    return action.apply(log);
+                }
+            }
+        }
+    }
+
+    // Runs action while no withLog call is in progress on any day.
+    public <T> T withAllLogsLocked(Supplier<T> action) {
+        snapshotLock.writeLock().lock();
+        try {
+            return action.get();
+        } finally {
+            snapshotLock.writeLock().unlock();
+        }
+    }
+
+    // Records changes to the day in the event journal and the per-food log counts. Call from
+    // inside withLog, right after making them, so the journal sees each day's changes in the
+    // order they happened.
+    public void record(LocalDate date, List<LogOp> ops) {
+        record(date, ops, true);
+    }
+
+    // Thawing a month does not change what the days hold, so it is not passed to the op listener.
+    private void record(LocalDate date, List<LogOp> ops, boolean notify) {
+        if (ops.isEmpty())
+            return;
+        for (LogOp op : ops) {
+            if (op.isInsert()) {
+                foodLogCounts.merge(op.getFoodId(), 1, Integer::sum);
+            } else if (op.isRemove()) {
+                foodLogCounts.computeIfPresent(op.getFoodId(), (id, n) -> n > 1 ? n - 1 : null);
+            }
+        }
+        if (journal != null) {
+            journal.append(date, ops);
+        }
+        BiConsumer<LocalDate, List<LogOp>> listener = opListener;
+        if (notify && listener != null) {
+            listener.accept(date, ops);
+        }
+    }
+
+    // Gets every change passed to record(), in the order each day saw them (see ReplicationLeader).
+    public void setOpListener(BiConsumer<LocalDate, List<LogOp>> listener) {
+        this.opListener = listener;
+    }
+
+    // How many log entries each food has across all days (foods never logged are absent).
+    // A live view: it follows changes passed to record().
+    public Map<String, Integer> getFoodLogCounts() {
+        return Collections.unmodifiableMap(foodLogCounts);
+    }
+
+    private void countFoodLogs() {
+        foodLogCounts.clear();
+        for (DailyLog log : logs.values()) {
+            synchronized (log) {
+                for (LogEntry entry : log.getEntries()) {
+                    foodLogCounts.merge(entry.getFoodId(), 1, Integer::sum);
+                }
+            }
+        }
+        if (archive != null) {
+            archive.getFoodCounts().forEach((id, n) -> foodLogCounts.merge(id, n, Integer::sum));
+        }
+    }
+
+    // Journals every change in dirPath, snapshotting every snapshotEvery events and keeping the
+    // newest keepSnapshots snapshots. Call before load().
+    public void enableJournal(String dirPath, int snapshotEvery, int keepSnapshots) {
+        journal = new LogJournal(dirPath, this, snapshotEvery, keepSnapshots);
+    }
+
+    public LogJournal getJournal() {
+        return journal;
+    }
+
+    // Keeps months before the archive's hot window in it (see archiveOldMonths). Call before load().
+    public void enableArchive(LogArchive archive) {
+        this.archive = archive;
+    }
+
+    public LogArchive getArchive() {
+        return archive;
+    }
+
+    // Moves an archived month back into the store so it can be edited: its entries are added
+    // (and journaled) as inserts, and the segment is deleted only after that, so a crash in
+    // between leaves the segment, which wins over the same days from the journal on the next load.
+    private void thaw(YearMonth month) {
+        synchronized (archive) {
+            if (!archive.contains(month))
+                return;
+            SortedMap<LocalDate, List<LogEntry>> days = archive.read(month);
+            // The segment's entries were counted from its header; record() counts them again.
+            archive.getFoodCounts(month).forEach((id, n) ->
+                foodLogCounts.computeIfPresent(id, (key, count) -> count > n ? count - n : null));
+            for (Map.Entry<LocalDate, List<LogEntry>> day : days.entrySet()) {
+                withHotLog(day.getKey(), log -> {
+                    List<LogOp> ops = new ArrayList<>();
+                    for (LogEntry entry : day.getValue()) {
+                        log.addEntry(entry);
+                        ops.add(LogOp.insert(-1, entry.getFoodId(), entry.getServings()));
+                    }
+                    record(day.getKey(), ops, false);
+                    return null;
+                });
+            }
+            archive.delete(month);
+            Messages.info("archive.thawed", () -> "Moved archived logs for " + month + " back into " + filePath + ".");
+        }
+    }
+
     public void addLogEntry(LocalDate date, LogEntry entry) {
-        getLog(date).addEntry(entry);
+        withLog(date, log -> {
+            log.addEntry(entry);
+            return null;
+        });
+    }
+
+    // Bulk API: adds many entries to the end of a day in one step (no duplicate merging) and
+    // records them.
+    public void addLogEntries(LocalDate date, List<LogEntry> entries) {
+        withLog(date, log -> {
+            log.addEntries(entries);
+            List<LogOp> ops = new ArrayList<>(entries.size());
+            for (LogEntry entry : entries) {
+                ops.add(LogOp.insert(-1, entry.getFoodId(), entry.getServings()));
+            }
+            record(date, ops);
+            return null;
+        });
+    }
+
+    // Bulk API: removes the entries at the given indices in one pass, records the removals and
+    // returns the entries in index order. Like deleteLogEntry, it leaves an emptied day in place;
+    // call cleanupEmptyLog when done with the day.
+    public List<LogEntry> removeLogEntries(LocalDate date, Collection<Integer> entryIndices) {
+        return withLog(date, log -> {
+            List<Integer> indices = new ArrayList<>(new TreeSet<>(entryIndices));
+            List<LogEntry> removed = log.removeEntriesAt(indices);
+            // Highest index first, so every position is still valid when the ops are replayed.
+            List<LogOp> ops = new ArrayList<>(removed.size());
+            for (int i = indices.size() - 1; i >= 0; i--) {
+                ops.add(LogOp.remove(indices.get(i), removed.get(i).getFoodId()));
+            }
+            record(date, ops);
+            return removed;
+        });
     }
 
     public LogEntry deleteLogEntry(LocalDate date, int entryIndex) {
-        DailyLog log = getLog(date);
-        if (entryIndex < 0 || entryIndex >= log.getEntries().size()) {
-            throw new IndexOutOfBoundsException("Invalid log entry index: " + entryIndex);
-        }
-        LogEntry removed = log.getEntries().get(entryIndex);
-        log.removeEntry(entryIndex);
-        return removed;
+        return withLog(date, log -> {
+            if (entryIndex < 0 || entryIndex >= log.getEntries().size()) {
+                throw new IndexOutOfBoundsException("Invalid log entry index: " + entryIndex);
+            }
+            LogEntry removed = log.getEntries().get(entryIndex);
+            log.removeEntry(entryIndex);
+            return removed;
+        });
     }
 
     public void cleanupEmptyLog(LocalDate date) {
         DailyLog log = logs.get(date);
-        if (log != null && log.getEntries().isEmpty()) {
-            logs.remove(date);
+        if (log != null) {
+            synchronized (log) {
+                if (log.getEntries().isEmpty()) {
+                    logs.remove(date, log);
+                }
+            }
         }
     }
 
     public void load() {
+        long start = System.nanoTime();
+        Long fileHash = journal != null ? hashFile() : null;
+        boolean recovered = false;
+        if (journal != null) {
+            if (fileHash != null && !journal.matchesLogFile(fileHash)) {
+                // Its history ends before the edit, so it is started again from the file.
+                Messages.warn("journal.stale", () -> filePath + " was changed since it was last saved; loading it instead of the log journal, which is started again from it.");
+                journal.reset();
+            } else {
+                recovered = journal.recover(logs);
+            }
+        }
+        if (!recovered) {
+            loadFile();
+            if (journal != null && fileHash != null) {
+                journal.noteLogFile(fileHash);
+            }
+        }
+        boolean dropped = archive != null && dropArchivedDays();
+        // A fresh base snapshot, so that the journal no longer holds the archived days.
+        if (journal != null && (!recovered || dropped)) {
+            journal.start();
+        }
+        countFoodLogs();
+        loadLatency.recordSince(start);
+    }
+
+    // Reads the archive and drops the days whose month it holds: the log file still has them if
+    // the process stopped after archiving them but before the file was saved without them.
+    private boolean dropArchivedDays() {
+        archive.load();
+        return logs.keySet().removeIf(date -> archive.contains(YearMonth.from(date)));
+    }
+
+    // Moves the months before the archive's hot window as of today into new segments and takes
+    // their days out of the store; returns how many months were archived. Each segment is in
+    // place before its days leave the store, and the caller saves the log file afterwards (see
+    // UserDiary.archiveOldMonths); until then load() drops the days the file still has.
+    // Edits wait while a month is moved, and an edit to it afterwards thaws it again.
+    public int archiveOldMonths(LocalDate today) {
+        if (archive == null)
+            return 0;
+        YearMonth cutoff = archive.hotCutoff(today);
+        int months;
+        // Taken in the same order as thaw(), which holds the archive while it edits the days.
+        synchronized (archive) {
+            months = withAllLogsLocked(() -> {
+                Map<YearMonth, Map<LocalDate, List<LogEntry>>> cold = new TreeMap<>();
+                for (Map.Entry<LocalDate, DailyLog> day : logs.entrySet()) {
+                    YearMonth month = YearMonth.from(day.getKey());
+                    if (month.isBefore(cutoff)) {
+                        cold.computeIfAbsent(month, m -> new TreeMap<>()).put(day.getKey(), day.getValue().snapshotEntries());
+                    }
+                }
+                int written = 0;
+                for (Map.Entry<YearMonth, Map<LocalDate, List<LogEntry>>> month : cold.entrySet()) {
+                    if (archive.write(month.getKey(), month.getValue())) {
+                        logs.keySet().removeAll(month.getValue().keySet());
+                        written++;
+                    }
+                }
+                if (written > 0) {
+                    countFoodLogs();
+                }
+                return written;
+            });
+        }
+        if (months > 0) {
+            // A fresh base snapshot, so that the journal no longer holds the archived days.
+            if (journal != null) {
+                journal.start();
+            }
+            int count = months;
+            Messages.info("archive.archived", () -> "Archived " + count + " month(s) of daily logs to " + archive.getDirPath() + ".");
+        }
+        return months;
+    }
+
+    // Hash of the log file's content (see LogJournal.matchesLogFile), or null if it cannot be read.
+    private Long hashFile() {
+        try {
+            return LogJournal.hashLogFile(new String(Files.readAllBytes(Paths.get(filePath)), StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // The autosave is about to replace the log file with this content.
+    @Override
+    public void aboutToReplace(String content) {
+        if (journal != null) {
+            journal.noteLogFile(LogJournal.hashLogFile(content));
+        }
+    }
+
+    private void loadFile() {
         File file = new File(filePath);
         if (!file.exists()) {
-            System.out.println("Daily log file " + filePath + " not found. Starting with empty logs.");
+            Messages.info("log.load", () -> "Daily log file " + filePath + " not found. Starting with empty logs.");
             return;
         }
+        PersistenceEvent event = new PersistenceEvent();
+        event.begin();
+        long lines = 0;
         try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-            String line;
+            String rawLine;
             LocalDate currentDate = null;
-            while ((line = reader.readLine()) != null) {
-                line = line.trim();
+            while ((rawLine = reader.readLine()) != null) {
+                lines++;
+                String line = rawLine.trim();
                 if (line.isEmpty() || line.startsWith("#"))
                     continue;
                 if (line.startsWith("Date:")) {
@@ -66,71 +397,199 @@ public class DailyLogManager {
                     try {
                         currentDate = LocalDate.parse(dateStr, dtf);
                     } catch (Exception e) {
-                        System.err.println("Invalid date format in log file: " + line);
+                        Messages.warn("log.load.invalid", () -> "Invalid date format in log file: " + line);
                         currentDate = null;
                     }
                 } else if (currentDate != null) {
                     try {
-                        String[] parts = line.split(",");
-                        if (parts.length < 3)
-                            continue;
-                        String foodIdPart = parts[0].trim();
-                        String servingsPart = parts[2].trim();
-                        int idx = foodIdPart.indexOf("FoodID:");
-                        if (idx == -1)
-                            continue;
-                        String foodId = foodIdPart.substring(idx + 7).trim();
-                        int sIdx = servingsPart.indexOf("Servings:");
-                        if (sIdx == -1)
+                        LogEntry entry = parseEntry(line);
+                        if (entry == null)
                             continue;
-                        String servingsStr = servingsPart.substring(sIdx + 9).trim();
-                        double servings = Double.parseDouble(servingsStr);
                         DailyLog log = logs.computeIfAbsent(currentDate, d -> new DailyLog(d));
-                        log.addEntry(new LogEntry(foodId, servings));
+                        log.addEntry(entry);
                     } catch (Exception e) {
-                        System.err.println("Error parsing log entry: " + line + " - " + e.getMessage());
+                        Messages.warn("log.load.invalid", () -> "Error parsing log entry: " + line + " - " + e.getMessage());
                     }
                 }
             }
         } catch (IOException e) {
-            System.err.println("Error reading daily log file: " + e.getMessage());
+            Messages.warn("log.load.failed", () -> "Error reading daily log file: " + e.getMessage());
         }
+        io.recordRead(file.length());
+        event.emit(store, "load", filePath, lines, file.length());
     }
 
-    public void save() {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(filePath))) {
-            writer.write("# Daily Log Database");
-            writer.newLine();
-            List<LocalDate> dates = new ArrayList<>(logs.keySet());
-            dates.sort(Comparator.naturalOrder());
-            for (LocalDate date : dates) {
-                DailyLog log = logs.get(date);
-                List<LogEntry> filtered = new ArrayList<>();
-                for (LogEntry entry : log.getEntries()) {
-                    if (FoodDiaryApp.getCommittedFoodById(entry.getFoodId()) != null) {
-                        filtered.add(entry);
+    // One numbered entry line of the log file ("1) FoodID: B1, Name: Apple, Servings: 2.0"), or
+    // null if it is not one. Throws NumberFormatException for unreadable servings.
+    private static LogEntry parseEntry(String line) {
+        String[] parts = line.split(",");
+        if (parts.length < 3)
+            return null;
+        String foodIdPart = parts[0].trim();
+        String servingsPart = parts[2].trim();
+        int idx = foodIdPart.indexOf("FoodID:");
+        if (idx == -1)
+            return null;
+        String foodId = foodIdPart.substring(idx + 7).trim();
+        int sIdx = servingsPart.indexOf("Servings:");
+        if (sIdx == -1)
+            return null;
+        String servingsStr = servingsPart.substring(sIdx + 9).trim();
+        double servings = Double.parseDouble(servingsStr);
+        return new LogEntry(foodId, servings);
+    }
+
+    // Applies days of the log file that another program changed (see FileWatcher), as date as
+    // written in the file -> its entry lines, or null for a day taken out. Only the day's saved
+    // entries (those whose food is committed, as writeTo keeps) are replaced, and only if they
+    // differ from the file; the change goes through record(), so the journal keeps it.
+    public void reloadDays(Map<String, String> days) {
+        for (Map.Entry<String, String> day : days.entrySet()) {
+            LocalDate date;
+            try {
+                date = LocalDate.parse(day.getKey(), dtf);
+            } catch (Exception e) {
+                Messages.warn("log.load.invalid", () -> "Invalid date format in log file: " + day.getKey());
+                continue;
+            }
+            List<LogEntry> entries = new ArrayList<>();
+            if (day.getValue() != null) {
+                for (String line : day.getValue().split("\n")) {
+                    try {
+                        LogEntry entry = parseEntry(line);
+                        if (entry != null)
+                            entries.add(entry);
+                    } catch (NumberFormatException e) {
+                        Messages.warn("log.load.invalid", () -> "Error parsing log entry: " + line + " - " + e.getMessage());
                     }
                 }
-                if (filtered.isEmpty())
-                    continue;
-                writer.write("Date: " + date.format(dtf));
-                writer.newLine();
-                int count = 1;
-                for (LogEntry entry : filtered) {
-                    Food food = FoodDiaryApp.getFoodById(entry.getFoodId());
-                    String foodName = (food != null) ? food.getName() : "Unknown";
-                    writer.write(count + ") FoodID: " + entry.getFoodId() + ", Name: " + foodName + ", Servings: " + entry.getServings());
-                    writer.newLine();
-                    count++;
+            }
+            // Entries of foods not yet committed are not in the file, so they stay.
+            replaceDay(date, entries, entry -> FoodDiaryApp.getCommittedFoodById(entry.getFoodId()) != null);
+        }
+    }
+
+    // Makes the day hold exactly the given entries (none takes it out), through record() as
+    // reloadDays does; nothing is recorded if it already does.
+    public void replaceDay(LocalDate date, List<LogEntry> entries) {
+        replaceDay(date, entries, entry -> true);
+    }
+
+    // Replaces the day's entries that match replaced with the given ones, which go after the
+    // entries kept; nothing is recorded if the replaced entries already are the given ones.
+    private void replaceDay(LocalDate date, List<LogEntry> entries, Predicate<LogEntry> replaced) {
+        withLog(date, log -> {
+            List<LogEntry> current = log.getEntries();
+            List<Integer> indices = new ArrayList<>();
+            for (int i = 0; i < current.size(); i++) {
+                if (replaced.test(current.get(i)))
+                    indices.add(i);
+            }
+            if (sameEntries(current, indices, entries))
+                return null;
+            List<LogOp> ops = new ArrayList<>();
+            for (int j = indices.size() - 1; j >= 0; j--) {
+                int index = indices.get(j);
+                ops.add(LogOp.remove(index, current.get(index).getFoodId()));
+            }
+            log.removeEntriesAt(indices);
+            for (LogEntry entry : entries) {
+                ops.add(LogOp.insert(-1, entry.getFoodId(), entry.getServings()));
+            }
+            log.addEntries(entries);
+            record(date, ops);
+            return null;
+        });
+        cleanupEmptyLog(date);
+    }
+
+    private static boolean sameEntries(List<LogEntry> current, List<Integer> indices, List<LogEntry> entries) {
+        if (indices.size() != entries.size())
+            return false;
+        for (int j = 0; j < entries.size(); j++) {
+            LogEntry a = current.get(indices.get(j));
+            LogEntry b = entries.get(j);
+            if (a.getFoodSymbol() != b.getFoodSymbol() || a.getServings() != b.getServings())
+                return false;
+        }
+        return true;
+    }
+
+    public String getFilePath() {
+        return filePath;
+    }
+
+    public void save() {
+        long start = System.nanoTime();
+        PersistenceEvent event = new PersistenceEvent();
+        event.begin();
+        LineCountingWriter counter = null;
+        try (Writer file = new FileWriter(filePath)) {
+            counter = event.isEnabled() ? new LineCountingWriter(file) : null;
+            BufferedWriter writer = new BufferedWriter(counter != null ? counter : file);
+            writeTo(writer);
+            writer.flush();
+        } catch (IOException e) {
+            Messages.warn("log.save.failed", () -> "Error writing daily log file: " + e.getMessage());
+            return;
+        }
+        FileWatcher.noteWrite(filePath);
+        Long written = journal != null ? hashFile() : null;
+        if (written != null) {
+            journal.noteLogFile(written);
+        }
+        long bytes = new File(filePath).length();
+        io.recordWrite(bytes);
+        saveLatency.recordSince(start);
+        event.emit(store, "save", filePath, counter == null ? 0 : counter.getLines(), bytes);
+    }
+
+    public void writeTo(BufferedWriter writer) throws IOException {
+        writer.write("# Daily Log Database");
+        writer.newLine();
+        List<LocalDate> dates = new ArrayList<>(logs.keySet());
+        dates.sort(Comparator.naturalOrder());
+        for (LocalDate date : dates) {
+            DailyLog log = logs.get(date);
+            if (log == null)
+                continue;
+            List<LogEntry> filtered = new ArrayList<>();
+            for (LogEntry entry : log.snapshotEntries()) {
+                if (FoodDiaryApp.getCommittedFoodById(entry.getFoodId()) != null) {
+                    filtered.add(entry);
                 }
+            }
+            if (filtered.isEmpty())
+                continue;
+            writer.write("Date: " + date.format(dtf));
+            writer.newLine();
+            int count = 1;
+            for (LogEntry entry : filtered) {
+                Food food = FoodDiaryApp.getFoodById(entry.getFoodId());
+                String foodName = (food != null) ? food.getName() : "Unknown";
+                writer.write(count + ") FoodID: " + entry.getFoodId() + ", Name: " + foodName + ", Servings: " + entry.getServings());
                 writer.newLine();
+                count++;
             }
-        } catch (IOException e) {
-            System.err.println("Error writing daily log file: " + e.getMessage());
+            writer.newLine();
         }
     }
 
+    // The days in the store, without the archived ones; see readLogs.
     public Map<LocalDate, DailyLog> getAllLogs() {
         return logs;
     }
+
+    // Copies of the entries of every day from..to that has any, archived days included, in date order.
+    public SortedMap<LocalDate, List<LogEntry>> readLogs(LocalDate from, LocalDate to) {
+        SortedMap<LocalDate, List<LogEntry>> days = archive != null ? archive.read(from, to) : new TreeMap<>();
+        for (Map.Entry<LocalDate, DailyLog> day : logs.entrySet()) {
+            if (day.getKey().isBefore(from) || day.getKey().isAfter(to))
+                continue;
+            List<LogEntry> entries = day.getValue().snapshotEntries();
+            if (!entries.isEmpty())
+                days.put(day.getKey(), entries);
+        }
+        return days;
+    }
 }
@@ -0,0 +1,270 @@
+package database;
+
+import metrics.LatencyHistogram;
+import metrics.Metrics;
+import output.Messages;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Watches data files for changes made by other programs (an editor, ops tooling) and reports
+// only the records that changed. Each file is split into records (see Format) and the hash of
+// every record from the last scan is kept, so after a change the file is read once and compared
+// record by record; the listener gets the changed records and nothing else is reloaded.
+// Writes made by this process are recognised by content: their writer hands the records it is
+// putting in place to noteWrite, and a record whose hash matches what this process wrote
+// refreshes the hashes without being reported. An edit by another program is reported even if it
+// leaves the file's size and modification time as this process's write left them.
+// One daemon thread per watcher. Events for a file are gathered until the directory has been
+// quiet for the debounce delay, since a save can arrive as several modifications.
+public class FileWatcher {
+    // How a file splits into records, and what identifies each one:
+    //   FOODS     one line per food, keyed by ID
+    //   PROFILES  one line per date, keyed by date, plus the CALC_METHOD line
+    //   DAYS      a "Date:" line and the entries under it, keyed by the date as written
+    public enum Format {
+        FOODS, PROFILES, DAYS
+    }
+
+    public static final String CALC_METHOD = "CALC_METHOD";
+
+    // Record hashes of what this process last wrote to each watched file, by absolute path; kept
+    // until a check sees the file exactly as written, or the next write replaces them.
+    private static final Map<Path, Map<String, Long>> OWN_WRITES = new ConcurrentHashMap<>();
+    // How each watched file splits into records, so noteWrite can hash what a writer wrote.
+    private static final Map<Path, Format> FORMATS = new ConcurrentHashMap<>();
+
+    private final WatchService service;
+    private final long debounceMillis;
+    private final Map<Path, Watched> watched = new ConcurrentHashMap<>();
+    private final Set<Path> dirs = new HashSet<>();
+    private Thread thread;
+    private volatile boolean closed;
+
+    private static class Watched {
+        final Format format;
+        final Consumer<Map<String, String>> listener;
+        final LatencyHistogram latency;
+        Map<String, Long> hashes;
+
+        Watched(Format format, Consumer<Map<String, String>> listener, LatencyHistogram latency) {
+            this.format = format;
+            this.listener = listener;
+            this.latency = latency;
+        }
+    }
+
+    public FileWatcher(long debounceMillis) throws IOException {
+        this.service = FileSystems.getDefault().newWatchService();
+        this.debounceMillis = debounceMillis;
+    }
+
+    // Called by every writer of a data file with the content it is about to rename into place.
+    public static void noteWrite(String filePath, String content) {
+        Path path = key(new File(filePath));
+        Format format = FORMATS.get(path);
+        if (format == null)
+            return;
+        try {
+            OWN_WRITES.put(path, hash(records(new BufferedReader(new StringReader(content)), format)));
+        } catch (IOException e) {
+            // Not thrown by a StringReader.
+        }
+    }
+
+    // For writers that write the file in place: called right after, reads back what it holds.
+    public static void noteWrite(String filePath) {
+        File file = new File(filePath);
+        Path path = key(file);
+        Format format = FORMATS.get(path);
+        if (format == null)
+            return;
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            OWN_WRITES.put(path, hash(records(reader, format)));
+        } catch (IOException e) {
+            OWN_WRITES.remove(path);
+        }
+    }
+
+    // Withdraws a noteWrite whose content did not get into place after all.
+    public static void forgetWrite(String filePath) {
+        OWN_WRITES.remove(key(new File(filePath)));
+    }
+
+    // Reports changes to the file's records to listener, as record key -> new text (null for a
+    // removed record). The file is read now, as the base for later comparisons.
+    public synchronized void watch(String filePath, Format format, Consumer<Map<String, String>> listener) throws IOException {
+        File file = new File(filePath);
+        Path path = key(file);
+        Path dir = path.getParent();
+        if (dirs.add(dir)) {
+            dir.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        }
+        Watched w = new Watched(format, listener, Metrics.latency("store." + Metrics.storeName(filePath) + ".reload"));
+        Map<String, String> records = read(file, format);
+        w.hashes = records != null ? hash(records) : Collections.emptyMap();
+        FORMATS.put(path, format);
+        watched.put(path, w);
+    }
+
+    public synchronized void start() {
+        if (thread != null)
+            return;
+        thread = new Thread(this::run, "yada-file-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void close() {
+        closed = true;
+        try {
+            service.close();
+        } catch (IOException e) {
+        }
+    }
+
+    private void run() {
+        while (!closed) {
+            Set<Path> changed = new LinkedHashSet<>();
+            try {
+                collect(service.take(), changed);
+                WatchKey next;
+                while ((next = service.poll(debounceMillis, TimeUnit.MILLISECONDS)) != null) {
+                    collect(next, changed);
+                }
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            for (Path path : changed) {
+                check(path);
+            }
+        }
+    }
+
+    private void collect(WatchKey key, Set<Path> changed) {
+        Path dir = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                for (Path path : watched.keySet()) {
+                    if (path.getParent().equals(dir))
+                        changed.add(path);
+                }
+            } else {
+                Path path = dir.resolve((Path) event.context());
+                if (watched.containsKey(path))
+                    changed.add(path);
+            }
+        }
+        key.reset();
+    }
+
+    // Compares the file with the last scan and hands the changed records to the listener,
+    // leaving out those that are as this process last wrote them.
+    private void check(Path path) {
+        Watched w = watched.get(path);
+        File file = path.toFile();
+        // Missing while a writer swaps it in; the swap raises another event.
+        if (w == null || !file.exists())
+            return;
+        long start = System.nanoTime();
+        Map<String, String> records = read(file, w.format);
+        if (records == null)
+            return;
+        Map<String, Long> hashes = hash(records);
+        Map<String, Long> own = OWN_WRITES.get(path);
+        Map<String, String> changes = new LinkedHashMap<>();
+        for (Map.Entry<String, String> record : records.entrySet()) {
+            Long hash = hashes.get(record.getKey());
+            if (!hash.equals(w.hashes.get(record.getKey())) && (own == null || !hash.equals(own.get(record.getKey()))))
+                changes.put(record.getKey(), record.getValue());
+        }
+        for (String key : w.hashes.keySet()) {
+            // Gone from the file; not reported if this process's own write left it out.
+            if (!hashes.containsKey(key) && (own == null || own.containsKey(key)))
+                changes.put(key, null);
+        }
+        if (own != null && own.equals(hashes))
+            OWN_WRITES.remove(path, own);
+        w.hashes = hashes;
+        if (changes.isEmpty())
+            return;
+        Messages.info("watch.reload", () -> "Reloading " + changes.size() + " changed record(s) from " + file.getPath() + ".");
+        try {
+            w.listener.accept(changes);
+        } catch (RuntimeException e) {
+            Messages.warn("watch.failed", () -> "Error applying changes from " + file.getPath() + ": " + e.getMessage());
+        }
+        w.latency.recordSince(start);
+    }
+
+    // The file's records by key, or null if it could not be read.
+    private static Map<String, String> read(File file, Format format) {
+        Map<String, String> records;
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            records = records(reader, format);
+        } catch (IOException e) {
+            Messages.warn("watch.failed", () -> "Error reading " + file.getPath() + ": " + e.getMessage());
+            return null;
+        }
+        Metrics.store(Metrics.storeName(file.getPath())).recordRead(file.length());
+        return records;
+    }
+
+    // Splits the text into records, by key.
+    private static Map<String, String> records(BufferedReader reader, Format format) throws IOException {
+        Map<String, String> records = new LinkedHashMap<>();
+        String line;
+        String day = null;
+        while ((line = reader.readLine()) != null) {
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#"))
+                continue;
+            switch (format) {
+                case FOODS: {
+                    if (!line.startsWith("B;") && !line.startsWith("C;"))
+                        break;
+                    String[] parts = line.split(";", 3);
+                    if (parts.length == 3)
+                        records.put(parts[1], line);
+                    break;
+                }
+                case PROFILES: {
+                    if (trimmed.startsWith(CALC_METHOD + ":")) {
+                        records.put(CALC_METHOD, trimmed);
+                    } else {
+                        int sep = trimmed.indexOf(';');
+                        if (sep > 0)
+                            records.put(trimmed.substring(0, sep).trim(), trimmed);
+                    }
+                    break;
+                }
+                case DAYS: {
+                    if (trimmed.startsWith("Date:")) {
+                        day = trimmed.substring(5).trim();
+                        records.putIfAbsent(day, "");
+                    } else if (day != null) {
+                        String text = records.get(day);
+                        records.put(day, text.isEmpty() ? trimmed : text + "\n" + trimmed);
+                    }
+                    break;
+                }
+            }
+        }
+        return records;
+    }
+
+    private static Map<String, Long> hash(Map<String, String> records) {
+        Map<String, Long> hashes = new HashMap<>(records.size() * 2);
+        for (Map.Entry<String, String> record : records.entrySet()) {
+            hashes.put(record.getKey(), BloomFilter.hash(record.getValue(), false));
+        }
+        return hashes;
+    }
+
+    private static Path key(File file) {
+        return file.toPath().toAbsolutePath().normalize();
+    }
+}
@@ -0,0 +1,52 @@
+package database;
+
+import model.Food;
+import java.util.Collection;
+import java.util.List;
+
+// One type of food (basic or composite) in the catalog. FoodDatabase keeps it in one file;
+// ShardedFoodDatabase spreads it over several FoodDatabases.
+public interface FoodCatalog {
+    void addFood(Food food);
+
+    void removeFood(String id);
+
+    // Adds (replacing foods with the same IDs) and removes many foods in one step, for changes
+    // that arrive in bulk (see FileWatcher and replication).
+    default void update(Collection<Food> added, Collection<String> removed) {
+        for (String id : removed) {
+            removeFood(id);
+        }
+        for (Food food : added) {
+            addFood(food);
+        }
+    }
+
+    Food getFood(String id);
+
+    // The food with the name (ignoring case) and the lowest ID, or null.
+    Food getFoodByName(String name);
+
+    // The current foods; the collection does not change if foods are added or removed afterwards.
+    Collection<Food> getAllFoods();
+
+    List<Food> getSortedFoods(FoodOrder order);
+
+    int size();
+
+    // Increases every time the catalog changes.
+    long getVersion();
+
+    // Foods matching the query, in ID order.
+    List<Food> query(FoodQuery query);
+
+    void load();
+
+    void save();
+
+    // The files the catalog is saved in, for the autosave service.
+    List<PersistentStore> getStores();
+
+    // The file a food with this ID is saved in, to mark dirty when it changes.
+    PersistentStore getStoreFor(String id);
+}
@@ -4,160 +4,472 @@ import model.Food;
 import model.BasicFood;
 import app.*;
 import model.CompositeFood;
+import metrics.LatencyHistogram;
+import metrics.LineCountingWriter;
+import metrics.Metrics;
+import metrics.PersistenceEvent;
+import metrics.StoreIO;
+import output.Messages;
 import java.util.*;
+import java.util.function.Function;
 import java.io.*;
 
-public class FoodDatabase {
-    private Map<String, Food> foodMap = new HashMap<>();
+// Safe for many concurrent readers and occasional writers: readers see an immutable,
+// published snapshot of the catalog without locking, while writers (serialized on this
+// instance) copy the current map, apply their change and publish the new version.
+// Each snapshot also holds the foods sorted in every FoodOrder; writers keep those arrays
+// sorted by inserting and removing in place of a full sort, so listings never sort.
+// Likewise each snapshot has a CatalogIndex (keywords and nutrients) for query.
+public class FoodDatabase implements FoodCatalog, PersistentStore {
+    private volatile Snapshot snapshot = new Snapshot(Collections.emptyMap(), emptyOrderings(), CatalogIndex.EMPTY, 0);
     private final String filePath;
     private final char typeIndicator; // 'B' for basic, 'C' for composite
+    private final LatencyHistogram loadLatency;
+    private final LatencyHistogram saveLatency;
+    private final StoreIO io;
+    private final String store;
 
     public FoodDatabase(String filePath, char typeIndicator) {
         this.filePath = filePath;
         this.typeIndicator = typeIndicator;
+        this.store = Metrics.storeName(filePath);
+        this.loadLatency = Metrics.latency("store." + store + ".load");
+        this.saveLatency = Metrics.latency("store." + store + ".save");
+        this.io = Metrics.store(store);
     }
 
-    public void addFood(Food food) {
-        foodMap.put(food.getId(), food);
+    public synchronized void addFood(Food food) {
+        Snapshot current = snapshot;
+        Map<String, Food> next = new HashMap<>(current.foods);
+        Food replaced = next.put(food.getId(), food);
+        Food[][] sorted = new Food[ORDERS.length][];
+        for (FoodOrder order : ORDERS) {
+            Food[] foods = current.sorted[order.ordinal()];
+            if (replaced != null)
+                foods = without(foods, replaced, order);
+            sorted[order.ordinal()] = with(foods, food, order);
+        }
+        CatalogIndex index = replaced != null ? current.index.without(replaced) : current.index;
+        publish(next, sorted, index.with(food));
     }
 
     public void removeFood(String id) {
-        Food food = foodMap.remove(id);
+        Food food;
+        synchronized (this) {
+            Snapshot current = snapshot;
+            Map<String, Food> next = new HashMap<>(current.foods);
+            food = next.remove(id);
+            if (food != null) {
+                Food[][] sorted = new Food[ORDERS.length][];
+                for (FoodOrder order : ORDERS) {
+                    sorted[order.ordinal()] = without(current.sorted[order.ordinal()], food, order);
+                }
+                publish(next, sorted, current.index.without(food));
+            }
+        }
         if (food != null) {
             FoodDiaryApp.recycleId(id);
         }
     }
 
+    // Each addFood copies the catalog, so past a few foods one copy is changed and sorted and
+    // indexed again as a whole instead.
+    @Override
+    public void update(Collection<Food> added, Collection<String> removed) {
+        if (added.size() + removed.size() <= BULK_UPDATE) {
+            FoodCatalog.super.update(added, removed);
+            return;
+        }
+        List<String> recycled = new ArrayList<>();
+        synchronized (this) {
+            Map<String, Food> next = new HashMap<>(snapshot.foods);
+            for (String id : removed) {
+                if (next.remove(id) != null)
+                    recycled.add(id);
+            }
+            for (Food food : added) {
+                next.put(food.getId(), food);
+            }
+            publish(next);
+        }
+        for (String id : recycled) {
+            FoodDiaryApp.recycleId(id);
+        }
+    }
+
     public Food getFood(String id) {
-        return foodMap.get(id);
+        return snapshot.foods.get(id);
     }
 
+    // Binary search of the foods sorted by name.
+    public Food getFoodByName(String name) {
+        Food[] byName = snapshot.sorted[FoodOrder.NAME.ordinal()];
+        int lo = 0;
+        int hi = byName.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (String.CASE_INSENSITIVE_ORDER.compare(byName[mid].getName(), name) < 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo < byName.length && byName[lo].getName().equalsIgnoreCase(name) ? byName[lo] : null;
+    }
+
+    // Returns the current snapshot; it never changes, even if foods are added or removed afterwards.
     public Collection<Food> getAllFoods() {
-        return foodMap.values();
+        return snapshot.foods.values();
+    }
+
+    // Returns the current snapshot in the given order, like getAllFoods.
+    public List<Food> getSortedFoods(FoodOrder order) {
+        return Collections.unmodifiableList(Arrays.asList(snapshot.sorted[order.ordinal()]));
+    }
+
+    public int size() {
+        return snapshot.foods.size();
+    }
+
+    // Increases every time a new version of the catalog is published.
+    public long getVersion() {
+        return snapshot.version;
+    }
+
+    // Foods matching the query, in ID order, from the current snapshot.
+    // Every indexed predicate narrows the catalog to a range of an index: the foods with one
+    // keyword, or a calorie or nutrient range found by binary search. The smallest of those
+    // ranges is scanned and each food in it checked against the whole query, so the cost
+    // depends on the most selective predicate rather than on the size of the catalog.
+    public List<Food> query(FoodQuery query) {
+        Snapshot current = snapshot;
+        List<Food> candidates = null;
+        for (String keyword : query.getKeywords()) {
+            candidates = smaller(candidates, current.index.withKeyword(keyword));
+        }
+        if (query.hasCalorieRange()) {
+            candidates = smaller(candidates, calorieRange(current, query.getMinCalories(), query.getMaxCalories()));
+        }
+        for (Map.Entry<String, double[]> e : query.getNutrientRanges().entrySet()) {
+            double[] range = e.getValue();
+            candidates = smaller(candidates, current.index.withNutrient(e.getKey(), range[0], range[1]));
+        }
+        if (candidates == null) {
+            candidates = Arrays.asList(current.sorted[FoodOrder.ID.ordinal()]);
+        }
+        List<Food> results = new ArrayList<>();
+        for (Food food : candidates) {
+            if (query.matches(food))
+                results.add(food);
+        }
+        results.sort(FoodOrder.ID.comparator());
+        return results;
+    }
+
+    private static List<Food> smaller(List<Food> current, List<Food> next) {
+        return current == null || next.size() < current.size() ? next : current;
+    }
+
+    // Foods with calories in [min, max], found by binary search over the CALORIES ordering.
+    private static List<Food> calorieRange(Snapshot current, double min, double max) {
+        Food[] foods = current.sorted[FoodOrder.CALORIES.ordinal()];
+        int from = firstCaloriesAbove(foods, min, false);
+        int to = firstCaloriesAbove(foods, max, true);
+        return from >= to ? Collections.emptyList() : Arrays.asList(foods).subList(from, to);
+    }
+
+    // First position with calories >= value (or > value when after is set).
+    private static int firstCaloriesAbove(Food[] foods, double value, boolean after) {
+        int lo = 0;
+        int hi = foods.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            double calories = foods[mid].getCalories();
+            if (calories < value || (after && calories == value))
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    private void publish(Map<String, Food> next, Food[][] sorted, CatalogIndex index) {
+        snapshot = new Snapshot(Collections.unmodifiableMap(next), sorted, index, snapshot.version + 1);
+    }
+
+    // Used by load and bulk updates, which replace much of the catalog at once.
+    private void publish(Map<String, Food> next) {
+        Food[][] sorted = new Food[ORDERS.length][];
+        for (FoodOrder order : ORDERS) {
+            Food[] foods = next.values().toArray(new Food[0]);
+            Arrays.sort(foods, order.comparator());
+            sorted[order.ordinal()] = foods;
+        }
+        publish(next, sorted, CatalogIndex.build(next.values()));
     }
 
     // Load from file; skip header lines (starting with "#" or "Date")
-    public void load() {
+    // The whole file is parsed into a private map and published as one new version.
+    public synchronized void load() {
         File file = new File(filePath);
         if (!file.exists()) {
-            System.out.println("Database file " + filePath + " not found. Starting with an empty database.");
+            Messages.info("food.load", () -> "Database file " + filePath + " not found. Starting with an empty database.");
             return;
         }
+        long start = System.nanoTime();
+        Map<String, Food> loaded = new HashMap<>(snapshot.foods);
+        Map<CompositeFood, String> components = new LinkedHashMap<>();
+        parse(loaded, components);
+        link(components, id -> {
+            Food food = loaded.get(id);
+            return food != null ? food : FoodDiaryApp.getCommittedFoodById(id);
+        });
+        publish(loaded);
+        loadLatency.recordSince(start);
+    }
+
+    // Reads the file into foods. Composites are added without their components: each one's
+    // "id:servings|..." field is put in components for link(), because a component may be
+    // defined further down the file (or, for a sharded catalog, in another file).
+    void parse(Map<String, Food> foods, Map<CompositeFood, String> components) {
+        File file = new File(filePath);
+        if (!file.exists())
+            return;
+        PersistenceEvent event = new PersistenceEvent();
+        event.begin();
+        long lines = 0;
         try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
+            String rawLine;
+            while ((rawLine = reader.readLine()) != null) {
+                lines++;
+                String line = rawLine;
                 if (line.startsWith("#") || line.startsWith("Date") || line.trim().isEmpty()) {
                     continue;
                 }
-                int expectedParts = (typeIndicator == 'C' ? 7 : 6);
-                String[] parts = line.split(";", expectedParts);
-                if (parts.length < expectedParts) {
-                    System.err.println("Skipping invalid line: " + line);
-                    continue;
-                }
-                String type = parts[0];
-                if (type.charAt(0) != typeIndicator) {
-                    continue;
-                }
-                String id = parts[1];
-                String name = parts[2];
-                List<String> keywords = Arrays.asList(parts[3].split("\\|"));
-                if (type.equals("B")) {
-                    try {
-                        double calories = Double.parseDouble(parts[4]);
-                        String extraInfo = parts[5];
-                        BasicFood bf = new BasicFood(id, name, keywords, calories,extraInfo);
-                        bf.setCommitted(true);
-                        foodMap.put(id, bf);
-                    } catch (NumberFormatException e) {
-                        System.err.println("Invalid calorie value for food " + id + " in line: " + line);
-                    }
-                } else if (type.equals("C")) {
-                    try {
-                        // double calories = Double.parseDouble(parts[4]);
-                        String extraInfo = parts[6];
-                        CompositeFood cf = new CompositeFood(id, name, keywords,extraInfo);
-                        String componentsStr = parts[5];
-                        String[] componentsArr = componentsStr.split("\\|");
-                        for (String comp : componentsArr) {
-                            String[] compParts = comp.split(":");
-                            if (compParts.length != 2)
-                                continue;
-                            String compId = compParts[0];
-                            try {
-                                double servings = Double.parseDouble(compParts[1]);
-                                Food compFood = FoodDiaryApp.getCommittedFoodById(compId);
-                                if (compFood != null) {
-                                    cf.addComponent(compFood, servings);
-                                } else {
-                                    System.err.println("Component food " + compId + " not found for composite " + id);
-                                }
-                            } catch (NumberFormatException e) {
-                                System.err.println("Invalid serving count for component " + comp + " in composite " + id);
-                            }
-                        }
-                        cf.setCommitted(true);
-                        cf.finalizeCalories();
-                        foodMap.put(id, cf);
-                    } catch (NumberFormatException e) {
-                        System.err.println("Invalid calorie value for composite food " + id + " in line: " + line);
-                    }
-                } else {
-                    System.err.println("Unknown food type: " + type);
+                Food food = parseFood(line, typeIndicator, components);
+                if (food != null) {
+                    foods.put(food.getId(), food);
                 }
             }
         } catch (IOException e) {
-            System.err.println("Error reading file " + filePath + ": " + e.getMessage());
+            Messages.warn("food.load.failed", () -> "Error reading file " + filePath + ": " + e.getMessage());
         }
+        io.recordRead(file.length());
+        event.emit(store, "load", filePath, lines, file.length());
     }
 
-    // Save to file with header and sorted in ascending order by numeric ID.
-    public void save() {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(filePath))) {
-            if (typeIndicator == 'B') {
-                writer.write("# Basic Foods Database");
-                writer.newLine();
-                writer.write("TYPE;ID;Name;Keywords;Calories;ExtraInfo");
-                writer.newLine();
-            } else if (typeIndicator == 'C') {
-                writer.write("# Composite Foods Database");
-                writer.newLine();
-                writer.write("TYPE;ID;Name;Keywords;Calories;Components;ExtraInfo");
-                writer.newLine();
+    // One line of a food file of the given type, as a committed food; a composite's components
+    // field is put in components for link(). Returns null for lines of the other type or that
+    // do not parse.
+    public static Food parseFood(String line, char typeIndicator, Map<CompositeFood, String> components) {
+        int expectedParts = (typeIndicator == 'C' ? 7 : 6);
+        String[] parts = line.split(";", expectedParts);
+        if (parts.length < expectedParts) {
+            Messages.warn("food.load.invalid", () -> "Skipping invalid line: " + line);
+            return null;
+        }
+        String type = parts[0];
+        if (type.charAt(0) != typeIndicator) {
+            return null;
+        }
+        String id = parts[1];
+        String name = parts[2];
+        List<String> keywords = Arrays.asList(parts[3].split("\\|"));
+        if (type.equals("B")) {
+            try {
+                double calories = Double.parseDouble(parts[4]);
+                String extraInfo = parts[5];
+                BasicFood bf = new BasicFood(id, name, keywords, calories,extraInfo);
+                bf.setCommitted(true);
+                return bf;
+            } catch (NumberFormatException e) {
+                Messages.warn("food.load.invalid", () -> "Invalid calorie value for food " + id + " in line: " + line);
             }
-            List<Food> foods = new ArrayList<>(foodMap.values());
-            foods.sort((f1, f2) -> {
-                int id1 = Integer.parseInt(f1.getId().substring(1));
-                int id2 = Integer.parseInt(f2.getId().substring(1));
-                return Integer.compare(id1, id2);
-            });
-            for (Food food : foods) {
-                if (food instanceof BasicFood) {
-                    BasicFood bf = (BasicFood) food;
-                    String keywordsStr = String.join("|", bf.getKeywords());
-                    writer.write("B;" + bf.getId() + ";" + bf.getName() + ";" + keywordsStr + ";" + bf.getCalories() + ";" + bf.getExtraInfo());
-                    writer.newLine();
-                    bf.setCommitted(true);
-                } else if (food instanceof CompositeFood) {
-                    CompositeFood cf = (CompositeFood) food;
-                    String keywordsStr = String.join("|", cf.getKeywords());
-                    StringBuilder compBuilder = new StringBuilder();
-                    for (Map.Entry<Food, Double> entry : cf.getComponents().entrySet()) {
-                        compBuilder.append(entry.getKey().getId())
-                                .append(":")
-                                .append(entry.getValue())
-                                .append("|");
+        } else if (type.equals("C")) {
+            // double calories = Double.parseDouble(parts[4]);
+            String extraInfo = parts[6];
+            CompositeFood cf = new CompositeFood(id, name, keywords,extraInfo);
+            cf.setCommitted(true);
+            components.put(cf, parts[5]);
+            return cf;
+        } else {
+            Messages.warn("food.load.invalid", () -> "Unknown food type: " + type);
+        }
+        return null;
+    }
+
+    // Adds the parsed components (see parse) to their composites, finding them with lookup,
+    // then totals the calories; composites made of other composites are totalled after those.
+    public static void link(Map<CompositeFood, String> components, Function<String, Food> lookup) {
+        for (Map.Entry<CompositeFood, String> entry : components.entrySet()) {
+            CompositeFood cf = entry.getKey();
+            String id = cf.getId();
+            for (String comp : entry.getValue().split("\\|")) {
+                String[] compParts = comp.split(":");
+                if (compParts.length != 2)
+                    continue;
+                String compId = compParts[0];
+                try {
+                    double servings = Double.parseDouble(compParts[1]);
+                    Food compFood = lookup.apply(compId);
+                    if (compFood != null) {
+                        cf.addComponent(compFood, servings);
+                    } else {
+                        Messages.warn("food.load.invalid", () -> "Component food " + compId + " not found for composite " + id);
                     }
-                    if (compBuilder.length() > 0)
-                        compBuilder.setLength(compBuilder.length() - 1);
-                    writer.write("C;" + cf.getId() + ";" + cf.getName() + ";" + keywordsStr + ";" + cf.getCalories()
-                            + ";" + compBuilder.toString() + ";" + cf.getExtraInfo());  
-                    writer.newLine();
-                    cf.setCommitted(true);
+                } catch (NumberFormatException e) {
+                    Messages.warn("food.load.invalid", () -> "Invalid serving count for component " + comp + " in composite " + id);
                 }
             }
+        }
+        Set<CompositeFood> totalled = new HashSet<>();
+        for (CompositeFood cf : components.keySet()) {
+            finalizeCalories(cf, components, totalled);
+        }
+    }
+
+    private static void finalizeCalories(CompositeFood cf, Map<CompositeFood, String> loading, Set<CompositeFood> totalled) {
+        // Also stops at a cycle, which leaves the composite in it with a partial total.
+        if (!totalled.add(cf))
+            return;
+        for (Food component : cf.getComponents().keySet()) {
+            if (component instanceof CompositeFood && loading.containsKey(component))
+                finalizeCalories((CompositeFood) component, loading, totalled);
+        }
+        cf.finalizeCalories();
+    }
+
+    // Replaces the catalog with foods that were loaded elsewhere (see ShardedFoodDatabase).
+    synchronized void replaceAll(Map<String, Food> foods) {
+        publish(new HashMap<>(foods));
+    }
+
+    public List<PersistentStore> getStores() {
+        return Collections.singletonList(this);
+    }
+
+    public PersistentStore getStoreFor(String id) {
+        return this;
+    }
+
+    public String getFilePath() {
+        return filePath;
+    }
+
+    // Save to file with header and sorted in ascending order by numeric ID.
+    public void save() {
+        long start = System.nanoTime();
+        PersistenceEvent event = new PersistenceEvent();
+        event.begin();
+        LineCountingWriter counter = null;
+        try (Writer file = new FileWriter(filePath)) {
+            counter = event.isEnabled() ? new LineCountingWriter(file) : null;
+            BufferedWriter writer = new BufferedWriter(counter != null ? counter : file);
+            writeTo(writer);
+            writer.flush();
         } catch (IOException e) {
-            System.err.println("Error writing file " + filePath + ": " + e.getMessage());
+            Messages.warn("food.save.failed", () -> "Error writing file " + filePath + ": " + e.getMessage());
+            return;
+        }
+        FileWatcher.noteWrite(filePath);
+        long bytes = new File(filePath).length();
+        io.recordWrite(bytes);
+        saveLatency.recordSince(start);
+        event.emit(store, "save", filePath, counter == null ? 0 : counter.getLines(), bytes);
+    }
+
+    public void writeTo(BufferedWriter writer) throws IOException {
+        if (typeIndicator == 'B') {
+            writer.write("# Basic Foods Database");
+            writer.newLine();
+            writer.write("TYPE;ID;Name;Keywords;Calories;ExtraInfo");
+            writer.newLine();
+        } else if (typeIndicator == 'C') {
+            writer.write("# Composite Foods Database");
+            writer.newLine();
+            writer.write("TYPE;ID;Name;Keywords;Calories;Components;ExtraInfo");
+            writer.newLine();
+        }
+        for (Food food : getSortedFoods(FoodOrder.ID)) {
+            String line = formatFood(food);
+            if (line == null)
+                continue;
+            writer.write(line);
+            writer.newLine();
+            food.setCommitted(true);
+        }
+    }
+
+    // The food's line in a food file (the form parseFood reads), or null for an unknown kind of food.
+    public static String formatFood(Food food) {
+        if (food instanceof BasicFood) {
+            BasicFood bf = (BasicFood) food;
+            String keywordsStr = String.join("|", bf.getKeywords());
+            return "B;" + bf.getId() + ";" + bf.getName() + ";" + keywordsStr + ";" + bf.getCalories() + ";" + bf.getExtraInfo();
+        } else if (food instanceof CompositeFood) {
+            CompositeFood cf = (CompositeFood) food;
+            String keywordsStr = String.join("|", cf.getKeywords());
+            StringBuilder compBuilder = new StringBuilder();
+            for (Map.Entry<Food, Double> entry : cf.getComponents().entrySet()) {
+                compBuilder.append(entry.getKey().getId())
+                        .append(":")
+                        .append(entry.getValue())
+                        .append("|");
+            }
+            if (compBuilder.length() > 0)
+                compBuilder.setLength(compBuilder.length() - 1);
+            return "C;" + cf.getId() + ";" + cf.getName() + ";" + keywordsStr + ";" + cf.getCalories()
+                    + ";" + compBuilder.toString() + ";" + cf.getExtraInfo();
+        }
+        return null;
+    }
+
+    private static final FoodOrder[] ORDERS = FoodOrder.values();
+    // Changes up to this many foods are applied one at a time by update.
+    private static final int BULK_UPDATE = 16;
+
+    private static Food[][] emptyOrderings() {
+        Food[][] sorted = new Food[ORDERS.length][];
+        Arrays.fill(sorted, new Food[0]);
+        return sorted;
+    }
+
+    private static Food[] with(Food[] foods, Food food, FoodOrder order) {
+        int index = Arrays.binarySearch(foods, food, order.comparator());
+        if (index >= 0) {
+            Food[] copy = foods.clone();
+            copy[index] = food;
+            return copy;
+        }
+        int insertAt = -index - 1;
+        Food[] copy = new Food[foods.length + 1];
+        System.arraycopy(foods, 0, copy, 0, insertAt);
+        copy[insertAt] = food;
+        System.arraycopy(foods, insertAt, copy, insertAt + 1, foods.length - insertAt);
+        return copy;
+    }
+
+    private static Food[] without(Food[] foods, Food food, FoodOrder order) {
+        int index = Arrays.binarySearch(foods, food, order.comparator());
+        if (index < 0)
+            return foods;
+        Food[] copy = new Food[foods.length - 1];
+        System.arraycopy(foods, 0, copy, 0, index);
+        System.arraycopy(foods, index + 1, copy, index, copy.length - index);
+        return copy;
+    }
+
+    // One published version of the catalog; sorted is indexed by FoodOrder.ordinal().
+    private static final class Snapshot {
+        final Map<String, Food> foods;
+        final Food[][] sorted;
+        final CatalogIndex index;
+        final long version;
+
+        Snapshot(Map<String, Food> foods, Food[][] sorted, CatalogIndex index, long version) {
+            this.foods = foods;
+            this.sorted = sorted;
+            this.index = index;
+            this.version = version;
         }
     }
 }
@@ -0,0 +1,43 @@
+package database;
+
+import model.Food;
+import java.util.Comparator;
+
+// Orderings that FoodDatabase keeps its foods sorted in (see FoodDatabase.getSortedFoods).
+// Each one breaks ties by ID, so no two foods compare equal.
+public enum FoodOrder {
+    ID("ID", FoodOrder::compareIds),
+    NAME("name", Comparator.comparing(Food::getName, String.CASE_INSENSITIVE_ORDER)
+            .thenComparing(Food::getId, FoodOrder::compareIds)),
+    CALORIES("calories", Comparator.comparingDouble(Food::getCalories)
+            .thenComparing(Food::getId, FoodOrder::compareIds));
+
+    private final String label;
+    private final Comparator<Food> comparator;
+
+    FoodOrder(String label, Comparator<Food> comparator) {
+        this.label = label;
+        this.comparator = comparator;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public Comparator<Food> comparator() {
+        return comparator;
+    }
+
+    private static int compareIds(Food f1, Food f2) {
+        return compareIds(f1.getId(), f2.getId());
+    }
+
+    // IDs are a type letter followed by a number without leading zeros ("B7", "C12"), so
+    // within one letter a shorter ID is the smaller number; this avoids parsing them.
+    private static int compareIds(String id1, String id2) {
+        int c = Character.compare(id1.charAt(0), id2.charAt(0));
+        if (c == 0)
+            c = Integer.compare(id1.length(), id2.length());
+        return c != 0 ? c : id1.compareTo(id2);
+    }
+}
@@ -0,0 +1,82 @@
+package database;
+
+import model.Food;
+import model.Symbols;
+import java.util.*;
+
+// Filter over the catalog: every keyword must be present (ignoring case), and calories and
+// each named nutrient (see Food.getNutrients) must fall within their inclusive ranges.
+// A food without a constrained nutrient does not match. Run with FoodDatabase.query.
+public class FoodQuery {
+    private final List<String> keywords = new ArrayList<>();
+    private double minCalories = Double.NEGATIVE_INFINITY;
+    private double maxCalories = Double.POSITIVE_INFINITY;
+    // Lower-case nutrient name -> {min, max}
+    private final Map<String, double[]> nutrientRanges = new LinkedHashMap<>();
+
+    public FoodQuery keyword(String keyword) {
+        String k = keyword.trim().toLowerCase(Locale.ROOT);
+        if (!k.isEmpty())
+            keywords.add(k);
+        return this;
+    }
+
+    // Use Double.NEGATIVE_INFINITY / POSITIVE_INFINITY for an open end.
+    public FoodQuery calories(double min, double max) {
+        minCalories = Math.max(minCalories, min);
+        maxCalories = Math.min(maxCalories, max);
+        return this;
+    }
+
+    public FoodQuery nutrient(String name, double min, double max) {
+        double[] range = nutrientRanges.computeIfAbsent(name.trim().toLowerCase(Locale.ROOT),
+                k -> new double[] {Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY});
+        range[0] = Math.max(range[0], min);
+        range[1] = Math.min(range[1], max);
+        return this;
+    }
+
+    public boolean matches(Food food) {
+        double calories = food.getCalories();
+        if (calories < minCalories || calories > maxCalories)
+            return false;
+        for (String k : keywords) {
+            // Already lower case, so its symbol is a folded one; none means no food has it.
+            int symbol = Symbols.find(k);
+            if (symbol < 0 || !food.hasKeyword(symbol))
+                return false;
+        }
+        Map<String, Double> nutrients = food.getNutrients();
+        for (Map.Entry<String, double[]> e : nutrientRanges.entrySet()) {
+            Double amount = nutrients.get(e.getKey());
+            if (amount == null || amount < e.getValue()[0] || amount > e.getValue()[1])
+                return false;
+        }
+        return true;
+    }
+
+    // Number of conditions: keywords, the calorie range and nutrient ranges.
+    public int getConditionCount() {
+        return keywords.size() + (hasCalorieRange() ? 1 : 0) + nutrientRanges.size();
+    }
+
+    List<String> getKeywords() {
+        return keywords;
+    }
+
+    boolean hasCalorieRange() {
+        return minCalories != Double.NEGATIVE_INFINITY || maxCalories != Double.POSITIVE_INFINITY;
+    }
+
+    double getMinCalories() {
+        return minCalories;
+    }
+
+    double getMaxCalories() {
+        return maxCalories;
+    }
+
+    Map<String, double[]> getNutrientRanges() {
+        return nutrientRanges;
+    }
+}
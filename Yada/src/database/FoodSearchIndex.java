@@ -0,0 +1,175 @@
+package database;
+
+import model.Food;
+import java.util.*;
+
+// Relevance-ranked text search over food names and keywords.
+// Every food is a bag of terms (its name and keywords, split on anything but letters and
+// digits, lower-cased), scored with BM25. The term weights depend on statistics of the whole
+// catalog (document frequencies, average length), so they are all computed when the index is
+// built and stored in the postings; a query only adds up weights. The index describes one
+// version of the catalog and is rebuilt, not updated, when the catalog changes.
+public class FoodSearchIndex {
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    // A food with n log entries scores (1 + LOG_BOOST * ln(1 + n)) times its text relevance.
+    private static final double LOG_BOOST = 0.5;
+
+    private final Food[] foods;
+    // Sorted, for prefix lookups; postings[i] belongs to terms[i].
+    private final String[] terms;
+    private final Postings[] postings;
+
+    private static final class Postings {
+        final int[] docs;
+        final float[] weights;
+
+        Postings(int[] docs, float[] weights) {
+            this.docs = docs;
+            this.weights = weights;
+        }
+    }
+
+    public FoodSearchIndex(Collection<Food> catalog) {
+        foods = catalog.toArray(new Food[0]);
+        Map<String, List<int[]>> termDocs = new HashMap<>(); // term -> {doc, tf} pairs
+        int[] lengths = new int[foods.length];
+        long totalLength = 0;
+        Map<String, Integer> tf = new HashMap<>();
+        for (int d = 0; d < foods.length; d++) {
+            tf.clear();
+            int length = addTerms(foods[d].getName(), tf);
+            for (String keyword : foods[d].getKeywords()) {
+                length += addTerms(keyword, tf);
+            }
+            lengths[d] = length;
+            totalLength += length;
+            for (Map.Entry<String, Integer> e : tf.entrySet()) {
+                termDocs.computeIfAbsent(e.getKey(), k -> new ArrayList<>()).add(new int[] {d, e.getValue()});
+            }
+        }
+        double avgLength = foods.length == 0 ? 1 : Math.max(1, (double) totalLength / foods.length);
+        terms = termDocs.keySet().toArray(new String[0]);
+        Arrays.sort(terms);
+        postings = new Postings[terms.length];
+        for (int t = 0; t < terms.length; t++) {
+            List<int[]> docs = termDocs.get(terms[t]);
+            double idf = Math.log(1 + (foods.length - docs.size() + 0.5) / (docs.size() + 0.5));
+            int[] ids = new int[docs.size()];
+            float[] weights = new float[docs.size()];
+            for (int i = 0; i < ids.length; i++) {
+                int d = docs.get(i)[0];
+                int f = docs.get(i)[1];
+                ids[i] = d;
+                weights[i] = (float) (idf * f * (K1 + 1) / (f + K1 * (1 - B + B * lengths[d] / avgLength)));
+            }
+            postings[t] = new Postings(ids, weights);
+        }
+    }
+
+    // The best matches for the text, best first, at most limit of them. A query term that is
+    // not a whole term of any food matches the terms it is a prefix of ("chick" finds
+    // "chicken"). Foods the user logs often rank higher: logCounts maps food IDs to their
+    // number of log entries (see DailyLogManager.getFoodLogCounts), and may be null.
+    // Only committed foods are returned. Scores are summed in an array over the catalog and
+    // the best limit kept in a bounded heap, so only the results are materialized.
+    public List<Food> search(String text, int limit, Map<String, Integer> logCounts) {
+        Set<String> queryTerms = new LinkedHashSet<>();
+        addTerms(text, queryTerms);
+        if (queryTerms.isEmpty() || limit <= 0)
+            return new ArrayList<>();
+        float[] scores = new float[foods.length];
+        int[] touched = new int[Math.min(foods.length, 1024)];
+        int touchedCount = 0;
+        for (String term : queryTerms) {
+            int exact = Arrays.binarySearch(terms, term);
+            int from = exact >= 0 ? exact : -exact - 1;
+            int to = exact >= 0 ? exact + 1 : prefixEnd(term, from);
+            for (int t = from; t < to; t++) {
+                Postings p = postings[t];
+                for (int i = 0; i < p.docs.length; i++) {
+                    int d = p.docs[i];
+                    if (scores[d] == 0) {
+                        if (touchedCount == touched.length)
+                            touched = Arrays.copyOf(touched, Math.min(foods.length, touched.length * 2));
+                        touched[touchedCount++] = d;
+                    }
+                    scores[d] += p.weights[i];
+                }
+            }
+        }
+        // Ranks by score, then by position in the catalog, so equal scores come out in a stable order.
+        Comparator<Integer> rank = (x, y) -> {
+            int c = Float.compare(scores[x], scores[y]);
+            return c != 0 ? c : Integer.compare(y, x);
+        };
+        // Min-heap on rank: the root is the weakest of the best so far.
+        PriorityQueue<Integer> heap = new PriorityQueue<>(limit + 1, rank);
+        for (int i = 0; i < touchedCount; i++) {
+            int d = touched[i];
+            if (!foods[d].isCommitted())
+                continue;
+            if (logCounts != null) {
+                Integer entries = logCounts.get(foods[d].getId());
+                if (entries != null && entries > 0)
+                    scores[d] *= (float) (1 + LOG_BOOST * Math.log1p(entries));
+            }
+            if (heap.size() < limit) {
+                heap.add(d);
+            } else if (rank.compare(d, heap.peek()) > 0) {
+                heap.poll();
+                heap.add(d);
+            }
+        }
+        Food[] results = new Food[heap.size()];
+        for (int i = results.length - 1; i >= 0; i--) {
+            results[i] = foods[heap.poll()];
+        }
+        return new ArrayList<>(Arrays.asList(results));
+    }
+
+    // Number of distinct query terms search() would look up for the text.
+    public static int countTerms(String text) {
+        return new HashSet<>(split(text)).size();
+    }
+
+    // End of the run of terms, from the given position, that start with prefix.
+    private int prefixEnd(String prefix, int from) {
+        int end = from;
+        while (end < terms.length && terms[end].startsWith(prefix)) {
+            end++;
+        }
+        return end;
+    }
+
+    private static int addTerms(String text, Map<String, Integer> tf) {
+        int count = 0;
+        for (String term : split(text)) {
+            tf.merge(term, 1, Integer::sum);
+            count++;
+        }
+        return count;
+    }
+
+    private static void addTerms(String text, Set<String> terms) {
+        terms.addAll(split(text));
+    }
+
+    private static List<String> split(String text) {
+        List<String> parts = new ArrayList<>();
+        if (text == null)
+            return parts;
+        int n = text.length();
+        int i = 0;
+        while (i < n) {
+            while (i < n && !Character.isLetterOrDigit(text.charAt(i)))
+                i++;
+            int start = i;
+            while (i < n && Character.isLetterOrDigit(text.charAt(i)))
+                i++;
+            if (i > start)
+                parts.add(text.substring(start, i).toLowerCase());
+        }
+        return parts;
+    }
+}
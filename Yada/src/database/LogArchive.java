@@ -0,0 +1,328 @@
+package database;
+
+import app.FoodDiaryApp;
+import log.LogEntry;
+import metrics.LatencyHistogram;
+import metrics.Metrics;
+import metrics.PersistenceEvent;
+import metrics.StoreIO;
+import model.Food;
+import output.Messages;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// Cold log history: one immutable, GZIP-compressed segment per closed month (YYYY-MM.log.gz).
+// A segment starts with a header holding each day's calorie total and how often each food was
+// logged that month, then the entries. Only the headers are kept in memory, so day totals and
+// food counts never touch the entries; reading entries streams through the segments that
+// overlap the range and stops as soon as it is past the end.
+// DailyLogManager moves months older than its hot window here on load and brings a month back
+// (see DailyLogManager.withLog) before anything in it is changed.
+//
+// Segment format, after decompression:
+//   # Daily Log Archive 2021-03
+//   Total: 2021-03-01;2150.0
+//   Food: B12;31
+//   Entries:
+//   Date: 2021-03-01
+//   B12;1.5
+public class LogArchive {
+    private static final String SUFFIX = ".log.gz";
+    private static final String ENTRIES = "Entries:";
+    private static final StoreIO IO = Metrics.store("archive");
+    private static final LatencyHistogram READ_LATENCY = Metrics.latency("store.archive.read");
+    private static final LatencyHistogram WRITE_LATENCY = Metrics.latency("store.archive.write");
+
+    private final File dir;
+    private final int hotMonths;
+    private final ConcurrentSkipListMap<YearMonth, Segment> segments = new ConcurrentSkipListMap<>();
+
+    // What the header of one segment says; never changes once read.
+    private static class Segment {
+        final Map<LocalDate, Double> dayCalories = new TreeMap<>();
+        final Map<String, Integer> foodCounts = new HashMap<>();
+    }
+
+    // Keeps the current month and the hotMonths - 1 before it out of the archive.
+    public LogArchive(String dirPath, int hotMonths) {
+        this.dir = new File(dirPath);
+        this.hotMonths = Math.max(1, hotMonths);
+    }
+
+    public String getDirPath() {
+        return dir.getPath();
+    }
+
+    // The first month that stays in the editable log file; everything before it is archived.
+    public YearMonth hotCutoff(LocalDate today) {
+        return YearMonth.from(today).minusMonths(hotMonths - 1);
+    }
+
+    // Reads the header of every segment in the directory.
+    public void load() {
+        segments.clear();
+        File[] files = dir.listFiles((d, name) -> name.endsWith(SUFFIX));
+        if (files == null)
+            return;
+        for (File file : files) {
+            YearMonth month;
+            try {
+                month = YearMonth.parse(file.getName().substring(0, file.getName().length() - SUFFIX.length()));
+            } catch (RuntimeException e) {
+                continue;
+            }
+            Segment segment = readHeader(file);
+            if (segment != null)
+                segments.put(month, segment);
+        }
+    }
+
+    public boolean contains(YearMonth month) {
+        return segments.containsKey(month);
+    }
+
+    public Set<YearMonth> getMonths() {
+        return Collections.unmodifiableSet(segments.keySet());
+    }
+
+    public boolean isEmpty() {
+        return segments.isEmpty();
+    }
+
+    // The day's calories as totalled when its month was archived, or null if the month is not archived.
+    // Days of an archived month without entries total 0.
+    public Double getDayCalories(LocalDate date) {
+        Segment segment = segments.get(YearMonth.from(date));
+        if (segment == null)
+            return null;
+        return segment.dayCalories.getOrDefault(date, 0.0);
+    }
+
+    // The archived days (with entries) from..to, in order, without reading any entries.
+    public SortedMap<LocalDate, Double> getDayCalories(LocalDate from, LocalDate to) {
+        SortedMap<LocalDate, Double> totals = new TreeMap<>();
+        for (Segment segment : segments.subMap(YearMonth.from(from), true, YearMonth.from(to), true).values()) {
+            for (Map.Entry<LocalDate, Double> day : segment.dayCalories.entrySet()) {
+                if (!day.getKey().isBefore(from) && !day.getKey().isAfter(to))
+                    totals.put(day.getKey(), day.getValue());
+            }
+        }
+        return totals;
+    }
+
+    // How many entries each food has in the month's segment (empty if the month is not archived).
+    public Map<String, Integer> getFoodCounts(YearMonth month) {
+        Segment segment = segments.get(month);
+        return segment == null ? Collections.emptyMap() : Collections.unmodifiableMap(segment.foodCounts);
+    }
+
+    // Entries per food across every segment.
+    public Map<String, Integer> getFoodCounts() {
+        Map<String, Integer> counts = new HashMap<>();
+        for (Segment segment : segments.values()) {
+            segment.foodCounts.forEach((id, n) -> counts.merge(id, n, Integer::sum));
+        }
+        return counts;
+    }
+
+    // Writes the month's days as a new segment and returns true once it is in place. As in the log
+    // file, entries whose food is not committed are left out; the day totals use the foods' current calories.
+    public boolean write(YearMonth month, Map<LocalDate, List<LogEntry>> days) {
+        long start = System.nanoTime();
+        Segment segment = new Segment();
+        Map<LocalDate, List<LogEntry>> kept = new TreeMap<>();
+        for (Map.Entry<LocalDate, List<LogEntry>> day : days.entrySet()) {
+            List<LogEntry> entries = new ArrayList<>();
+            double total = 0;
+            for (LogEntry entry : day.getValue()) {
+                if (FoodDiaryApp.getCommittedFoodById(entry.getFoodId()) == null)
+                    continue;
+                Food food = FoodDiaryApp.getFoodById(entry.getFoodId());
+                if (food != null)
+                    total += food.getCalories() * entry.getServings();
+                segment.foodCounts.merge(entry.getFoodId(), 1, Integer::sum);
+                entries.add(entry);
+            }
+            if (!entries.isEmpty()) {
+                kept.put(day.getKey(), entries);
+                segment.dayCalories.put(day.getKey(), total);
+            }
+        }
+        dir.mkdirs();
+        Path target = segmentFile(month).toPath();
+        Path tmp = Paths.get(target + ".tmp");
+        PersistenceEvent event = new PersistenceEvent();
+        event.begin();
+        long lines = 2;
+        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
+                new GZIPOutputStream(Files.newOutputStream(tmp), 8192), StandardCharsets.UTF_8))) {
+            writer.write("# Daily Log Archive " + month);
+            writer.newLine();
+            for (Map.Entry<LocalDate, Double> day : segment.dayCalories.entrySet()) {
+                writer.write("Total: " + day.getKey() + ";" + day.getValue());
+                writer.newLine();
+            }
+            for (Map.Entry<String, Integer> food : segment.foodCounts.entrySet()) {
+                writer.write("Food: " + food.getKey() + ";" + food.getValue());
+                writer.newLine();
+            }
+            writer.write(ENTRIES);
+            writer.newLine();
+            for (Map.Entry<LocalDate, List<LogEntry>> day : kept.entrySet()) {
+                writer.write("Date: " + day.getKey());
+                writer.newLine();
+                for (LogEntry entry : day.getValue()) {
+                    writer.write(entry.getFoodId() + ";" + entry.getServings());
+                    writer.newLine();
+                }
+                lines += 1 + day.getValue().size();
+            }
+            lines += segment.dayCalories.size() + segment.foodCounts.size();
+        } catch (IOException e) {
+            Messages.warn("archive.failed", () -> "Error writing log archive " + target + ": " + e.getMessage());
+            tmp.toFile().delete();
+            return false;
+        }
+        long bytes = tmp.toFile().length();
+        try {
+            try {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            Messages.warn("archive.failed", () -> "Error writing log archive " + target + ": " + e.getMessage());
+            tmp.toFile().delete();
+            return false;
+        }
+        segments.put(month, segment);
+        IO.recordWrite(bytes);
+        WRITE_LATENCY.recordSince(start);
+        event.emit("archive", "write", target.toString(), lines, bytes);
+        return true;
+    }
+
+    // The archived entries from..to, by day. Decompresses only the segments of the months in the
+    // range, and each only as far as the last day asked for.
+    public SortedMap<LocalDate, List<LogEntry>> read(LocalDate from, LocalDate to) {
+        SortedMap<LocalDate, List<LogEntry>> days = new TreeMap<>();
+        for (YearMonth month : segments.subMap(YearMonth.from(from), true, YearMonth.from(to), true).keySet()) {
+            readEntries(month, from, to, days);
+        }
+        return days;
+    }
+
+    // Every entry of the month's segment, by day.
+    public SortedMap<LocalDate, List<LogEntry>> read(YearMonth month) {
+        return read(month.atDay(1), month.atEndOfMonth());
+    }
+
+    // Drops the month's segment, once its days are back in the log file's store.
+    public void delete(YearMonth month) {
+        segments.remove(month);
+        File file = segmentFile(month);
+        if (file.exists() && !file.delete())
+            Messages.warn("archive.failed", () -> "Could not delete log archive " + file);
+    }
+
+    private Segment readHeader(File file) {
+        long start = System.nanoTime();
+        Segment segment = new Segment();
+        CountingInputStream in = null;
+        try (BufferedReader reader = openSegment(in = new CountingInputStream(new FileInputStream(file)))) {
+            String line;
+            while ((line = reader.readLine()) != null && !line.equals(ENTRIES)) {
+                if (line.startsWith("Total: ")) {
+                    String[] parts = line.substring(7).split(";");
+                    segment.dayCalories.put(LocalDate.parse(parts[0]), Double.parseDouble(parts[1]));
+                } else if (line.startsWith("Food: ")) {
+                    int sep = line.lastIndexOf(';');
+                    segment.foodCounts.put(line.substring(6, sep), Integer.parseInt(line.substring(sep + 1)));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            Messages.warn("archive.load.failed", () -> "Error reading log archive " + file + ": " + e.getMessage());
+            return null;
+        }
+        IO.recordRead(in.count);
+        READ_LATENCY.recordSince(start);
+        return segment;
+    }
+
+    private void readEntries(YearMonth month, LocalDate from, LocalDate to, Map<LocalDate, List<LogEntry>> days) {
+        File file = segmentFile(month);
+        long start = System.nanoTime();
+        PersistenceEvent event = new PersistenceEvent();
+        event.begin();
+        long lines = 0;
+        CountingInputStream in = null;
+        try (BufferedReader reader = openSegment(in = new CountingInputStream(new FileInputStream(file)))) {
+            String line;
+            boolean inEntries = false;
+            List<LogEntry> current = null;
+            while ((line = reader.readLine()) != null) {
+                lines++;
+                if (!inEntries) {
+                    inEntries = line.equals(ENTRIES);
+                } else if (line.startsWith("Date: ")) {
+                    LocalDate date = LocalDate.parse(line.substring(6));
+                    if (date.isAfter(to))
+                        break;
+                    current = date.isBefore(from) ? null : days.computeIfAbsent(date, d -> new ArrayList<>());
+                } else if (current != null && !line.isEmpty()) {
+                    int sep = line.lastIndexOf(';');
+                    current.add(new LogEntry(line.substring(0, sep), Double.parseDouble(line.substring(sep + 1))));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            Messages.warn("archive.load.failed", () -> "Error reading log archive " + file + ": " + e.getMessage());
+        }
+        long bytes = in == null ? 0 : in.count;
+        IO.recordRead(bytes);
+        READ_LATENCY.recordSince(start);
+        event.emit("archive", "read", file.getPath(), lines, bytes);
+    }
+
+    private static BufferedReader openSegment(InputStream in) throws IOException {
+        return new BufferedReader(new InputStreamReader(new GZIPInputStream(in, 8192), StandardCharsets.UTF_8));
+    }
+
+    // Counts the compressed bytes read, which is what the disk sees of a segment read that stops early.
+    private static class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0)
+                count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0)
+                count += n;
+            return n;
+        }
+    }
+
+    private File segmentFile(YearMonth month) {
+        return new File(dir, month + SUFFIX);
+    }
+}
@@ -0,0 +1,540 @@
+package database;
+
+import log.DailyLog;
+import log.LogEntry;
+import log.LogOp;
+import metrics.Metrics;
+import metrics.PersistenceEvent;
+import metrics.StoreIO;
+import output.Messages;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Event journal for a DailyLogManager. Every change to a day is appended as an event
+// (sequence number, time, date and the LogOps that were applied), and every snapshotEvery
+// events (or, for large logs, every as many events as the last snapshot had entries, so
+// snapshot cost per event stays constant) a snapshot of all days is written in the
+// background. Recovery reads the newest snapshot and replays only the events after it, so it
+// costs at most one snapshot interval of replay however long the history is. The newest
+// keepSnapshots snapshots and the event segments from the oldest of them on are kept, so the
+// logs can be rebuilt as they were at any time since then (see rebuildAt); older files are
+// deleted once a new snapshot is written.
+//
+// Files in the journal directory:
+//   snapshot-<seq>.txt  all days as of event <seq>
+//   events-<seq>.log    events after <seq>; a new segment is started with each snapshot
+//   logfile.hash        hashes of the last two versions of the log file this process loaded or
+//                       wrote; if the file matches neither, another program changed it since,
+//                       and the manager loads it instead of recovering (see matchesLogFile)
+// Each event is written as its length followed by its bytes, so a torn last event left by a
+// crash is detected and cut off on recovery.
+public class LogJournal {
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String EVENTS_PREFIX = "events-";
+    private static final String LOG_FILE_HASH = "logfile.hash";
+    // Event segments and snapshots of every journal.
+    private static final StoreIO IO = Metrics.store("journal");
+    // Snapshots of every journal in the process are written by one background thread.
+    private static final ExecutorService SNAPSHOT_WRITER = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "yada-log-snapshot");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final File dir;
+    private final DailyLogManager logManager;
+    private final int snapshotEvery;
+    private final int keepSnapshots;
+    private long lastSeq;
+    private long lastTime;
+    private int eventsSinceSnapshot;
+    private int lastSnapshotEntries;
+    // Buffered mode: events are flushed when the buffer fills rather than one by one.
+    private boolean buffered;
+    private boolean snapshotPending;
+    private File segment;
+    private DataOutputStream out;
+
+    private static class Event {
+        final long seq;
+        final long time;
+        final LocalDate date;
+        final List<LogOp> ops;
+
+        Event(long seq, long time, LocalDate date, List<LogOp> ops) {
+            this.seq = seq;
+            this.time = time;
+            this.date = date;
+            this.ops = ops;
+        }
+    }
+
+    private static class Snapshot {
+        final long seq;
+        final long time;
+        final Map<LocalDate, List<LogEntry>> days;
+
+        Snapshot(long seq, long time, Map<LocalDate, List<LogEntry>> days) {
+            this.seq = seq;
+            this.time = time;
+            this.days = days;
+        }
+    }
+
+    public LogJournal(String dirPath, DailyLogManager logManager, int snapshotEvery, int keepSnapshots) {
+        this.dir = new File(dirPath);
+        this.logManager = logManager;
+        this.snapshotEvery = Math.max(1, snapshotEvery);
+        this.keepSnapshots = Math.max(1, keepSnapshots);
+    }
+
+    public String getDirPath() {
+        return dir.getPath();
+    }
+
+    public synchronized long getLastSeq() {
+        return lastSeq;
+    }
+
+    // Rebuilds the manager's logs from the newest snapshot and the events after it.
+    // Returns false if the journal has no snapshot yet (the caller loads the log file and calls start()).
+    public boolean recover(Map<LocalDate, DailyLog> logs) {
+        long[] snapshots = listSeqs(SNAPSHOT_PREFIX, ".txt");
+        if (snapshots.length == 0) {
+            return false;
+        }
+        Snapshot snapshot = null;
+        for (int i = snapshots.length - 1; i >= 0 && snapshot == null; i--) {
+            snapshot = readSnapshot(snapshots[i]);
+        }
+        if (snapshot == null) {
+            return false;
+        }
+        logs.clear();
+        for (Map.Entry<LocalDate, List<LogEntry>> day : snapshot.days.entrySet()) {
+            DailyLog log = new DailyLog(day.getKey());
+            log.addEntries(day.getValue());
+            logs.put(day.getKey(), log);
+        }
+        long seq = snapshot.seq;
+        long time = snapshot.time;
+        int replayed = 0;
+        File last = null;
+        for (long start : listSeqs(EVENTS_PREFIX, ".log")) {
+            if (start < snapshot.seq)
+                continue;
+            File file = segmentFile(start);
+            last = file;
+            for (Event event : readEvents(file, true)) {
+                if (event.seq <= seq)
+                    continue;
+                apply(logs, event);
+                seq = event.seq;
+                time = Math.max(time, event.time);
+                replayed++;
+            }
+        }
+        synchronized (this) {
+            lastSeq = seq;
+            lastTime = time;
+            eventsSinceSnapshot = replayed;
+            lastSnapshotEntries = countEntries(snapshot.days);
+            segment = last != null ? last : segmentFile(snapshot.seq);
+        }
+        long base = snapshot.seq;
+        int events = replayed;
+        Messages.info("journal.recovered", () -> "Recovered daily logs from snapshot " + base + " and " + events + " journal events.");
+        if (replayed >= Math.max(snapshotEvery, lastSnapshotEntries)) {
+            requestSnapshot();
+        }
+        return true;
+    }
+
+    // Hash of a log file's content, as noteLogFile and matchesLogFile take it.
+    public static long hashLogFile(String content) {
+        return BloomFilter.hash(content, false);
+    }
+
+    // Records that the log file holds (or is about to hold) content with the given hash. The
+    // previous hash is kept too, so a file whose replacement a crash cut short still matches.
+    public synchronized void noteLogFile(long hash) {
+        Path target = new File(dir, LOG_FILE_HASH).toPath();
+        Path tmp = Paths.get(target + ".tmp");
+        try {
+            dir.mkdirs();
+            List<String> hashes = Files.exists(target) ? Files.readAllLines(target) : new ArrayList<>();
+            String last = hashes.isEmpty() ? null : hashes.get(hashes.size() - 1);
+            String current = Long.toString(hash);
+            if (current.equals(last))
+                return;
+            Files.write(tmp, (last == null ? current : last + "\n" + current).getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Messages.warn("journal.failed", () -> "Error writing " + target + ": " + e.getMessage());
+        }
+    }
+
+    // True unless the journal knows which log file it goes with and the file (by hash) is not
+    // it: then the file was changed by another program since this process last saved it.
+    public synchronized boolean matchesLogFile(long hash) {
+        Path path = new File(dir, LOG_FILE_HASH).toPath();
+        try {
+            if (!Files.exists(path))
+                return true;
+            List<String> hashes = Files.readAllLines(path);
+            return hashes.isEmpty() || hashes.contains(Long.toString(hash));
+        } catch (IOException e) {
+            Messages.warn("journal.failed", () -> "Error reading " + path + ": " + e.getMessage());
+            return true;
+        }
+    }
+
+    // Deletes every snapshot and event segment, for logs that will be loaded some other way
+    // and start() the journal again.
+    public synchronized void reset() {
+        close();
+        for (long seq : listSeqs(SNAPSHOT_PREFIX, ".txt"))
+            snapshotFile(seq).delete();
+        for (long seq : listSeqs(EVENTS_PREFIX, ".log"))
+            segmentFile(seq).delete();
+        lastSeq = 0;
+        eventsSinceSnapshot = 0;
+        lastSnapshotEntries = 0;
+        segment = null;
+    }
+
+    // Starts a journal for logs that were loaded some other way, with a snapshot of them as its base.
+    public void start() {
+        dir.mkdirs();
+        takeSnapshot();
+    }
+
+    // Appends an event for a change just made to a day. Called with the day's lock held, so
+    // events for one day are journaled in the order they were applied.
+    public synchronized void append(LocalDate date, List<LogOp> ops) {
+        long seq = ++lastSeq;
+        lastTime = Math.max(lastTime, System.currentTimeMillis());
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            DataOutputStream record = new DataOutputStream(buffer);
+            record.writeLong(seq);
+            record.writeLong(lastTime);
+            LogOp.writeAll(record, date, ops);
+            byte[] bytes = buffer.toByteArray();
+            DataOutputStream stream = openSegment();
+            stream.writeInt(bytes.length);
+            stream.write(bytes);
+            if (!buffered)
+                stream.flush();
+            IO.recordWrite(4 + bytes.length);
+        } catch (IOException e) {
+            Messages.warn("journal.failed", () -> "Error writing log journal " + segment + ": " + e.getMessage());
+        }
+        if (++eventsSinceSnapshot >= Math.max(snapshotEvery, lastSnapshotEntries)) {
+            requestSnapshot();
+        }
+    }
+
+    // For bulk loads: buffer events instead of writing each one out as it is appended. A crash
+    // loses the buffered events, so turn it off (which flushes) when the bulk work is done.
+    public synchronized void setBuffered(boolean buffered) {
+        this.buffered = buffered;
+        if (!buffered && out != null) {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                Messages.warn("journal.failed", () -> "Error writing log journal " + segment + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // Closes the open segment; the next append reopens it.
+    public synchronized void close() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                Messages.warn("journal.failed", () -> "Error closing log journal " + segment + ": " + e.getMessage());
+            }
+            out = null;
+        }
+    }
+
+    // The logs as they were at the given time (epoch milliseconds), rebuilt from the newest
+    // snapshot taken by then and the events up to that time. Does not touch the live logs.
+    public Map<LocalDate, DailyLog> rebuildAt(long timeMillis) {
+        Map<LocalDate, DailyLog> logs = new TreeMap<>();
+        long[] snapshots = listSeqs(SNAPSHOT_PREFIX, ".txt");
+        Snapshot base = null;
+        for (int i = snapshots.length - 1; i >= 0; i--) {
+            Snapshot snapshot = readSnapshot(snapshots[i]);
+            if (snapshot != null && snapshot.time <= timeMillis) {
+                base = snapshot;
+                break;
+            }
+        }
+        if (base == null) {
+            return logs;
+        }
+        for (Map.Entry<LocalDate, List<LogEntry>> day : base.days.entrySet()) {
+            DailyLog log = new DailyLog(day.getKey());
+            log.addEntries(day.getValue());
+            logs.put(day.getKey(), log);
+        }
+        for (long start : listSeqs(EVENTS_PREFIX, ".log")) {
+            if (start < base.seq)
+                continue;
+            for (Event event : readEvents(segmentFile(start), false)) {
+                if (event.time > timeMillis)
+                    return logs;
+                if (event.seq > base.seq)
+                    apply(logs, event);
+            }
+        }
+        return logs;
+    }
+
+    private void requestSnapshot() {
+        synchronized (this) {
+            if (snapshotPending)
+                return;
+            snapshotPending = true;
+        }
+        SNAPSHOT_WRITER.execute(() -> {
+            try {
+                takeSnapshot();
+            } finally {
+                synchronized (this) {
+                    snapshotPending = false;
+                }
+            }
+        });
+    }
+
+    // Copies every day while no change is in progress and starts a new event segment at the same
+    // point, then writes the copy out without holding any lock.
+    private void takeSnapshot() {
+        Snapshot snapshot = logManager.withAllLogsLocked(() -> {
+            Map<LocalDate, List<LogEntry>> days = new TreeMap<>();
+            int entries = 0;
+            for (Map.Entry<LocalDate, DailyLog> day : logManager.getAllLogs().entrySet()) {
+                List<LogEntry> copy = new ArrayList<>();
+                for (LogEntry entry : day.getValue().snapshotEntries()) {
+                    copy.add(new LogEntry(entry.getFoodId(), entry.getServings()));
+                }
+                if (!copy.isEmpty())
+                    days.put(day.getKey(), copy);
+                entries += copy.size();
+            }
+            synchronized (this) {
+                close();
+                segment = segmentFile(lastSeq);
+                eventsSinceSnapshot = 0;
+                lastSnapshotEntries = entries;
+                lastTime = Math.max(lastTime, System.currentTimeMillis());
+                return new Snapshot(lastSeq, lastTime, days);
+            }
+        });
+        writeSnapshot(snapshot);
+    }
+
+    private void writeSnapshot(Snapshot snapshot) {
+        Path target = snapshotFile(snapshot.seq).toPath();
+        Path tmp = Paths.get(target + ".tmp");
+        PersistenceEvent ioEvent = new PersistenceEvent();
+        ioEvent.begin();
+        long lines = 3;
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp)) {
+            writer.write("# Daily Log Snapshot");
+            writer.newLine();
+            writer.write("Seq: " + snapshot.seq);
+            writer.newLine();
+            writer.write("Time: " + snapshot.time);
+            writer.newLine();
+            for (Map.Entry<LocalDate, List<LogEntry>> day : snapshot.days.entrySet()) {
+                writer.write("Date: " + day.getKey());
+                writer.newLine();
+                for (LogEntry entry : day.getValue()) {
+                    writer.write(entry.getFoodId() + ";" + entry.getServings());
+                    writer.newLine();
+                }
+                lines += 1 + day.getValue().size();
+            }
+        } catch (IOException e) {
+            Messages.warn("journal.failed", () -> "Error writing log snapshot " + target + ": " + e.getMessage());
+            return;
+        }
+        long bytes = tmp.toFile().length();
+        IO.recordWrite(bytes);
+        ioEvent.emit("journal", "snapshot", target.toString(), lines, bytes);
+        try {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            try {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e2) {
+                Messages.warn("journal.failed", () -> "Error writing log snapshot " + target + ": " + e2.getMessage());
+                return;
+            }
+        }
+        prune();
+    }
+
+    // Deletes the snapshots older than the newest keepSnapshots, and the event segments that
+    // start before the oldest snapshot kept: nothing recovery or rebuildAt reads from it on.
+    // Every segment starts at a snapshot's seq, so the segment being appended to is never older.
+    private void prune() {
+        long[] snapshots = listSeqs(SNAPSHOT_PREFIX, ".txt");
+        if (snapshots.length <= keepSnapshots)
+            return;
+        long oldestKept = snapshots[snapshots.length - keepSnapshots];
+        int deleted = 0;
+        for (long seq : snapshots) {
+            if (seq < oldestKept && snapshotFile(seq).delete())
+                deleted++;
+        }
+        for (long seq : listSeqs(EVENTS_PREFIX, ".log")) {
+            if (seq < oldestKept && segmentFile(seq).delete())
+                deleted++;
+        }
+        int count = deleted;
+        Messages.info("journal.pruned", () -> "Deleted " + count + " old log journal file(s) before event " + oldestKept + ".");
+    }
+
+    private Snapshot readSnapshot(long seq) {
+        File file = snapshotFile(seq);
+        long time = 0;
+        Map<LocalDate, List<LogEntry>> days = new TreeMap<>();
+        PersistenceEvent ioEvent = new PersistenceEvent();
+        ioEvent.begin();
+        long lines = 0;
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            List<LogEntry> current = null;
+            while ((line = reader.readLine()) != null) {
+                lines++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#"))
+                    continue;
+                if (line.startsWith("Seq:")) {
+                    continue;
+                } else if (line.startsWith("Time:")) {
+                    time = Long.parseLong(line.substring(5).trim());
+                } else if (line.startsWith("Date:")) {
+                    current = new ArrayList<>();
+                    days.put(LocalDate.parse(line.substring(5).trim()), current);
+                } else if (current != null) {
+                    String[] parts = line.split(";");
+                    current.add(new LogEntry(parts[0], Double.parseDouble(parts[1])));
+                }
+            }
+        } catch (Exception e) {
+            Messages.warn("journal.failed", () -> "Error reading log snapshot " + file + ": " + e.getMessage());
+            return null;
+        }
+        IO.recordRead(file.length());
+        ioEvent.emit("journal", "load snapshot", file.getPath(), lines, file.length());
+        return new Snapshot(seq, time, days);
+    }
+
+    // Reads a segment's events in order. A partial event at the end is dropped, and if repair
+    // is set the file is cut back to the last complete event so appends can continue after it.
+    private List<Event> readEvents(File file, boolean repair) {
+        List<Event> events = new ArrayList<>();
+        long good = 0;
+        PersistenceEvent ioEvent = new PersistenceEvent();
+        ioEvent.begin();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                DataInputStream record = new DataInputStream(new ByteArrayInputStream(bytes));
+                long seq = record.readLong();
+                long time = record.readLong();
+                LocalDate date = LogOp.readDate(record);
+                events.add(new Event(seq, time, date, LogOp.readAll(record)));
+                good += 4 + length;
+            }
+        } catch (IOException | RuntimeException e) {
+            Messages.warn("journal.failed", () -> "Log journal " + file + " ends with an incomplete event; ignoring it.");
+            if (repair) {
+                try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                    raf.setLength(good);
+                } catch (IOException e2) {
+                    Messages.warn("journal.failed", () -> "Error repairing log journal " + file + ": " + e2.getMessage());
+                }
+            }
+        }
+        IO.recordRead(good);
+        // One line per journaled change.
+        ioEvent.emit("journal", "replay", file.getPath(), events.size(), good);
+        return events;
+    }
+
+    private static int countEntries(Map<LocalDate, List<LogEntry>> days) {
+        int count = 0;
+        for (List<LogEntry> entries : days.values())
+            count += entries.size();
+        return count;
+    }
+
+    private static void apply(Map<LocalDate, DailyLog> logs, Event event) {
+        DailyLog log = logs.computeIfAbsent(event.date, d -> new DailyLog(d));
+        for (LogOp op : event.ops) {
+            if (!op.applyTo(log)) {
+                Messages.warn("journal.failed", () -> "Log journal event " + event.seq + ": entry " + op.getFoodId() + " not found for " + event.date);
+            }
+        }
+        if (log.getEntries().isEmpty()) {
+            logs.remove(event.date);
+        }
+    }
+
+    private DataOutputStream openSegment() throws IOException {
+        if (out == null) {
+            dir.mkdirs();
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(segment, true)));
+        }
+        return out;
+    }
+
+    private File snapshotFile(long seq) {
+        return new File(dir, SNAPSHOT_PREFIX + seq + ".txt");
+    }
+
+    private File segmentFile(long seq) {
+        return new File(dir, EVENTS_PREFIX + seq + ".log");
+    }
+
+    // Sequence numbers in the names of files with the given prefix and suffix, ascending.
+    private long[] listSeqs(String prefix, String suffix) {
+        String[] names = dir.list();
+        if (names == null)
+            return new long[0];
+        List<Long> seqs = new ArrayList<>();
+        for (String name : names) {
+            if (name.startsWith(prefix) && name.endsWith(suffix)) {
+                try {
+                    seqs.add(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())));
+                } catch (NumberFormatException e) {
+                }
+            }
+        }
+        Collections.sort(seqs);
+        long[] result = new long[seqs.size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = seqs.get(i);
+        return result;
+    }
+}
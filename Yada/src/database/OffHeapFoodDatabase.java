@@ -0,0 +1,733 @@
+package database;
+
+import app.FoodDiaryApp;
+import metrics.CompositeRecalculationEvent;
+import metrics.LatencyHistogram;
+import metrics.LineCountingWriter;
+import metrics.Metrics;
+import metrics.PersistenceEvent;
+import metrics.StoreIO;
+import model.BasicFood;
+import model.CompositeFood;
+import model.Food;
+import output.Messages;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// A FoodCatalog that keeps its foods off the Java heap, for catalogs of millions of foods.
+// Each food is one record in a direct ByteBuffer (the arena), found through OffsetIndex tables
+// of ID and name hashes. Food objects are only made when asked for, as views of a record that
+// the caller drops again; a small LRU cache keeps the foods looked up most recently (and the
+// foods just added), so repeated lookups of the same food return the same object.
+// Records do not change once written, apart from the committed flag: replacing or removing a
+// food leaves its old record behind as garbage, and the live records are copied to a new arena
+// once garbage is more than half of it. Growing or compacting makes a new arena, so lists
+// returned earlier keep reading the arena they were made from and never change, like
+// FoodDatabase snapshots. An arena holds at most 2 GB of records.
+// Readers share a read lock and writers take the write lock. The keyword and nutrient index
+// of FoodDatabase is not kept here, so queries without a calorie range scan every record.
+// Record layout: a flags byte, the calories (a double), then the ID, name, keywords
+// ("|"-joined), extra info and components (a composite's "id:servings|..." as in the file),
+// each as an int length and UTF-8 bytes.
+public class OffHeapFoodDatabase implements FoodCatalog, PersistentStore {
+    private static final byte COMMITTED = 1;
+    private static final byte COMPOSITE = 2;
+    // Positions in a record: the calories, then the first string field.
+    private static final int CALORIES = 1;
+    private static final int FIELDS = 9;
+    private static final int ID = 0;
+    private static final int NAME = 1;
+    private static final int KEYWORDS = 2;
+    private static final int EXTRA_INFO = 3;
+    private static final int COMPONENTS = 4;
+    private static final int FIELD_COUNT = 5;
+    private static final int INITIAL_ARENA = 1 << 16;
+    private static final int MAX_ARENA = Integer.MAX_VALUE - 8;
+    private static final int HOT_FOODS = 4096;
+    private static final FoodOrder[] ORDERS = FoodOrder.values();
+
+    private final String filePath;
+    private final char typeIndicator; // 'B' for basic, 'C' for composite
+    private final LatencyHistogram loadLatency;
+    private final LatencyHistogram saveLatency;
+    private final StoreIO io;
+    private final String store;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private ByteBuffer arena = ByteBuffer.allocateDirect(INITIAL_ARENA);
+    // Bytes of the arena in use, and how many of those are old records.
+    private int end;
+    private int garbage;
+    private OffsetIndex ids = new OffsetIndex(0);
+    private OffsetIndex names = new OffsetIndex(0);
+    private volatile long version;
+    // By ID, least recently used first. Changed only while holding the lock (either side),
+    // so a reader cannot put back a food that a writer has just replaced.
+    private final Map<String, Food> hot = new LinkedHashMap<String, Food>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Food> eldest) {
+            return size() > HOT_FOODS;
+        }
+    };
+    // Foods sorted in each FoodOrder, for the version they were sorted at.
+    private final AtomicReferenceArray<Ordering> orderings = new AtomicReferenceArray<>(ORDERS.length);
+
+    public OffHeapFoodDatabase(String filePath, char typeIndicator) {
+        this.filePath = filePath;
+        this.typeIndicator = typeIndicator;
+        this.store = Metrics.storeName(filePath);
+        this.loadLatency = Metrics.latency("store." + store + ".load");
+        this.saveLatency = Metrics.latency("store." + store + ".save");
+        this.io = Metrics.store(store);
+    }
+
+    public void addFood(Food food) {
+        byte[] record = encode(food);
+        lock.writeLock().lock();
+        try {
+            put(record, food.getId(), food.getName());
+            synchronized (hot) {
+                hot.put(food.getId(), food);
+            }
+            version++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void removeFood(String id) {
+        boolean removed;
+        lock.writeLock().lock();
+        try {
+            int offset = findId(id);
+            removed = offset >= 0;
+            if (removed) {
+                discard(offset);
+                version++;
+                if (garbage > end / 2 && garbage > INITIAL_ARENA)
+                    compact();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (removed) {
+            FoodDiaryApp.recycleId(id);
+        }
+    }
+
+    public Food getFood(String id) {
+        lock.readLock().lock();
+        try {
+            synchronized (hot) {
+                Food food = hot.get(id);
+                if (food != null)
+                    return food;
+            }
+            int offset = findId(id);
+            return offset < 0 ? null : remember(view(arena, offset));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Food getFoodByName(String name) {
+        lock.readLock().lock();
+        try {
+            ByteBuffer a = arena;
+            List<Food> matches = new ArrayList<>(1);
+            names.forEach(nameHash(name), offset -> {
+                if (readString(a, offset, NAME).equalsIgnoreCase(name))
+                    matches.add(view(a, offset));
+            });
+            if (matches.isEmpty())
+                return null;
+            Food best = Collections.min(matches, FoodOrder.ID.comparator());
+            synchronized (hot) {
+                Food food = hot.get(best.getId());
+                if (food != null)
+                    return food;
+            }
+            return remember(best);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Views of the current records, in no particular order.
+    public Collection<Food> getAllFoods() {
+        lock.readLock().lock();
+        try {
+            return new RecordList(arena, ids.offsets());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Views of the current records in the order; the order is kept until the catalog changes.
+    public List<Food> getSortedFoods(FoodOrder order) {
+        return ordering(order).foods;
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return ids.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Increases every time the catalog changes.
+    public long getVersion() {
+        return version;
+    }
+
+    // A calorie range is found by binary search over the CALORIES ordering, reading the
+    // calories straight from the records; anything else is checked food by food.
+    public List<Food> query(FoodQuery query) {
+        List<Food> candidates;
+        if (query.hasCalorieRange()) {
+            RecordList byCalories = ordering(FoodOrder.CALORIES).foods;
+            int from = firstCaloriesAbove(byCalories, query.getMinCalories(), false);
+            int to = firstCaloriesAbove(byCalories, query.getMaxCalories(), true);
+            candidates = from >= to ? Collections.emptyList() : byCalories.subList(from, to);
+        } else {
+            candidates = (List<Food>) getAllFoods();
+        }
+        List<Food> results = new ArrayList<>();
+        for (Food food : candidates) {
+            if (query.matches(food))
+                results.add(food);
+        }
+        results.sort(FoodOrder.ID.comparator());
+        return results;
+    }
+
+    // First position with calories >= value (or > value when after is set).
+    private static int firstCaloriesAbove(RecordList foods, double value, boolean after) {
+        int lo = 0;
+        int hi = foods.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            double calories = foods.arena.getDouble(foods.offsets[mid] + CALORIES);
+            if (calories < value || (after && calories == value))
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    // Load from file; skip header lines (starting with "#" or "Date")
+    // Records are written straight from the lines, without making Food objects; composites'
+    // calories are totalled once the whole file is in, since components may come later.
+    public void load() {
+        File file = new File(filePath);
+        if (!file.exists()) {
+            Messages.info("food.load", () -> "Database file " + filePath + " not found. Starting with an empty database.");
+            return;
+        }
+        long start = System.nanoTime();
+        PersistenceEvent event = new PersistenceEvent();
+        event.begin();
+        long lines = 0;
+        lock.writeLock().lock();
+        try {
+            int[] composites = new int[16];
+            int compositeCount = 0;
+            try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+                String rawLine;
+                while ((rawLine = reader.readLine()) != null) {
+                    lines++;
+                    String line = rawLine;
+                    if (line.startsWith("#") || line.startsWith("Date") || line.trim().isEmpty()) {
+                        continue;
+                    }
+                    int expectedParts = (typeIndicator == 'C' ? 7 : 6);
+                    String[] parts = line.split(";", expectedParts);
+                    if (parts.length < expectedParts) {
+                        Messages.warn("food.load.invalid", () -> "Skipping invalid line: " + line);
+                        continue;
+                    }
+                    String type = parts[0];
+                    if (type.charAt(0) != typeIndicator) {
+                        continue;
+                    }
+                    String id = parts[1];
+                    String name = parts[2];
+                    String keywords = trimKeywords(parts[3]);
+                    if (type.equals("B")) {
+                        try {
+                            double calories = Double.parseDouble(parts[4]);
+                            put(encode(COMMITTED, calories, id, name, keywords, parts[5], ""), id, name);
+                        } catch (NumberFormatException e) {
+                            Messages.warn("food.load.invalid", () -> "Invalid calorie value for food " + id + " in line: " + line);
+                        }
+                    } else if (type.equals("C")) {
+                        // NaN until totalled below.
+                        int offset = put(encode((byte) (COMMITTED | COMPOSITE), Double.NaN, id, name, keywords, parts[6], parts[5]), id, name);
+                        if (compositeCount == composites.length)
+                            composites = Arrays.copyOf(composites, compositeCount * 2);
+                        composites[compositeCount++] = offset;
+                    } else {
+                        Messages.warn("food.load.invalid", () -> "Unknown food type: " + type);
+                    }
+                }
+            } catch (IOException e) {
+                Messages.warn("food.load.failed", () -> "Error reading file " + filePath + ": " + e.getMessage());
+            }
+            Set<Integer> totalling = new HashSet<>();
+            for (int i = 0; i < compositeCount; i++) {
+                total(composites[i], totalling);
+            }
+            synchronized (hot) {
+                hot.clear();
+            }
+            if (garbage > end / 2 && garbage > INITIAL_ARENA)
+                compact();
+            version++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        io.recordRead(file.length());
+        loadLatency.recordSince(start);
+        event.emit(store, "load", filePath, lines, file.length());
+    }
+
+    // The calories of the composite record at the offset, totalled from its components and
+    // stored in the record the first time. A composite met again while totalling itself (a
+    // cycle) counts as 0.
+    private double total(int offset, Set<Integer> totalling) {
+        ByteBuffer a = arena;
+        double stored = a.getDouble(offset + CALORIES);
+        if (!Double.isNaN(stored) || !totalling.add(offset))
+            return Double.isNaN(stored) ? 0 : stored;
+        CompositeRecalculationEvent event = new CompositeRecalculationEvent();
+        event.begin();
+        String id = readString(a, offset, ID);
+        double total = 0;
+        int components = 0;
+        for (String comp : readString(a, offset, COMPONENTS).split("\\|")) {
+            String[] compParts = comp.split(":");
+            if (compParts.length != 2)
+                continue;
+            String compId = compParts[0];
+            try {
+                double servings = Double.parseDouble(compParts[1]);
+                int compOffset = findId(compId);
+                double calories;
+                if (compOffset >= 0) {
+                    calories = (a.get(compOffset) & COMPOSITE) != 0 ? total(compOffset, totalling) : a.getDouble(compOffset + CALORIES);
+                } else {
+                    Food compFood = FoodDiaryApp.getCommittedFoodById(compId);
+                    if (compFood == null) {
+                        Messages.warn("food.load.invalid", () -> "Component food " + compId + " not found for composite " + id);
+                        continue;
+                    }
+                    calories = compFood.getCalories();
+                }
+                total += calories * servings;
+                components++;
+            } catch (NumberFormatException e) {
+                Messages.warn("food.load.invalid", () -> "Invalid serving count for component " + comp + " in composite " + id);
+            }
+        }
+        a.putDouble(offset + CALORIES, total);
+        event.emit(id, components, total);
+        return total;
+    }
+
+    public List<PersistentStore> getStores() {
+        return Collections.singletonList(this);
+    }
+
+    public PersistentStore getStoreFor(String id) {
+        return this;
+    }
+
+    public String getFilePath() {
+        return filePath;
+    }
+
+    // Save to file with header and sorted in ascending order by numeric ID.
+    public void save() {
+        long start = System.nanoTime();
+        PersistenceEvent event = new PersistenceEvent();
+        event.begin();
+        LineCountingWriter counter = null;
+        try (Writer file = new FileWriter(filePath)) {
+            counter = event.isEnabled() ? new LineCountingWriter(file) : null;
+            BufferedWriter writer = new BufferedWriter(counter != null ? counter : file);
+            writeTo(writer);
+            writer.flush();
+        } catch (IOException e) {
+            Messages.warn("food.save.failed", () -> "Error writing file " + filePath + ": " + e.getMessage());
+            return;
+        }
+        FileWatcher.noteWrite(filePath);
+        long bytes = new File(filePath).length();
+        io.recordWrite(bytes);
+        saveLatency.recordSince(start);
+        event.emit(store, "save", filePath, counter == null ? 0 : counter.getLines(), bytes);
+    }
+
+    // Lines are written from the records without making Food objects, and without the lock:
+    // the ID ordering's arena and offsets do not change.
+    public void writeTo(BufferedWriter writer) throws IOException {
+        if (typeIndicator == 'B') {
+            writer.write("# Basic Foods Database");
+            writer.newLine();
+            writer.write("TYPE;ID;Name;Keywords;Calories;ExtraInfo");
+            writer.newLine();
+        } else if (typeIndicator == 'C') {
+            writer.write("# Composite Foods Database");
+            writer.newLine();
+            writer.write("TYPE;ID;Name;Keywords;Calories;Components;ExtraInfo");
+            writer.newLine();
+        }
+        RecordList foods = ordering(FoodOrder.ID).foods;
+        ByteBuffer a = foods.arena;
+        List<String> written = new ArrayList<>();
+        for (int offset : foods.offsets) {
+            byte flags = a.get(offset);
+            String[] fields = readFields(a, offset);
+            double calories = a.getDouble(offset + CALORIES);
+            if ((flags & COMPOSITE) != 0) {
+                writer.write("C;" + fields[ID] + ";" + fields[NAME] + ";" + fields[KEYWORDS] + ";" + calories
+                        + ";" + fields[COMPONENTS] + ";" + fields[EXTRA_INFO]);
+            } else {
+                writer.write("B;" + fields[ID] + ";" + fields[NAME] + ";" + fields[KEYWORDS] + ";" + calories + ";" + fields[EXTRA_INFO]);
+            }
+            writer.newLine();
+            if ((flags & COMMITTED) == 0)
+                written.add(fields[ID]);
+        }
+        markCommitted(written);
+    }
+
+    // Sets the committed flag of the foods, in the current arena and in the cache.
+    private void markCommitted(List<String> foodIds) {
+        if (foodIds.isEmpty())
+            return;
+        lock.readLock().lock();
+        try {
+            for (String id : foodIds) {
+                int offset = findId(id);
+                if (offset >= 0)
+                    arena.put(offset, (byte) (arena.get(offset) | COMMITTED));
+                synchronized (hot) {
+                    Food food = hot.get(id);
+                    if (food != null)
+                        food.setCommitted(true);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private Ordering ordering(FoodOrder order) {
+        lock.readLock().lock();
+        try {
+            Ordering current = orderings.get(order.ordinal());
+            if (current != null && current.version == version)
+                return current;
+            ByteBuffer a = arena;
+            int[] offsets = ids.offsets();
+            Food[] foods = new Food[offsets.length];
+            for (int i = 0; i < offsets.length; i++) {
+                foods[i] = view(a, offsets[i]);
+            }
+            Arrays.sort(foods, order.comparator());
+            for (int i = 0; i < foods.length; i++) {
+                offsets[i] = ((RecordView) foods[i]).offset();
+            }
+            Ordering sorted = new Ordering(version, new RecordList(a, offsets));
+            orderings.set(order.ordinal(), sorted);
+            return sorted;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private Food remember(Food food) {
+        synchronized (hot) {
+            hot.put(food.getId(), food);
+        }
+        return food;
+    }
+
+    // The following run under the lock.
+
+    private int findId(String id) {
+        byte[] key = id.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer a = arena;
+        return ids.find(id.hashCode(), offset -> fieldEquals(a, offset, ID, key));
+    }
+
+    // Appends the record, replacing any food with the same ID, and returns its offset.
+    private int put(byte[] record, String id, String name) {
+        int replaced = findId(id);
+        if (replaced >= 0)
+            discard(replaced);
+        ensureCapacity(record.length);
+        int offset = end;
+        arena.put(offset, record);
+        end += record.length;
+        ids.add(id.hashCode(), offset);
+        names.add(nameHash(name), offset);
+        return offset;
+    }
+
+    private void discard(int offset) {
+        String id = readString(arena, offset, ID);
+        ids.remove(id.hashCode(), offset);
+        names.remove(nameHash(readString(arena, offset, NAME)), offset);
+        garbage += recordLength(arena, offset);
+        synchronized (hot) {
+            hot.remove(id);
+        }
+    }
+
+    private void ensureCapacity(int extra) {
+        long needed = (long) end + extra;
+        if (needed <= arena.capacity())
+            return;
+        if (needed > MAX_ARENA)
+            throw new IllegalStateException("Off-heap food catalog " + filePath + " is full");
+        ByteBuffer next = ByteBuffer.allocateDirect((int) Math.min(MAX_ARENA, Math.max(needed, 2L * arena.capacity())));
+        next.put(0, arena, 0, end);
+        arena = next;
+    }
+
+    // Copies the live records to a new arena, in the order they were written.
+    private void compact() {
+        ByteBuffer old = arena;
+        int[] live = ids.offsets();
+        int liveBytes = end - garbage;
+        ByteBuffer next = ByteBuffer.allocateDirect((int) Math.min(MAX_ARENA, Math.max(INITIAL_ARENA, 2L * liveBytes)));
+        OffsetIndex nextIds = new OffsetIndex(live.length);
+        OffsetIndex nextNames = new OffsetIndex(live.length);
+        int position = 0;
+        for (int offset : live) {
+            int length = recordLength(old, offset);
+            next.put(position, old, offset, length);
+            nextIds.add(readString(old, offset, ID).hashCode(), position);
+            nextNames.add(nameHash(readString(old, offset, NAME)), position);
+            position += length;
+        }
+        arena = next;
+        end = position;
+        garbage = 0;
+        ids = nextIds;
+        names = nextNames;
+    }
+
+    private Food view(ByteBuffer a, int offset) {
+        byte flags = a.get(offset);
+        double calories = a.getDouble(offset + CALORIES);
+        String[] fields = readFields(a, offset);
+        List<String> keywords = Arrays.asList(fields[KEYWORDS].split("\\|"));
+        Food food;
+        if ((flags & COMPOSITE) != 0) {
+            food = new CompositeView(offset, fields[ID], fields[NAME], keywords, fields[EXTRA_INFO], calories, fields[COMPONENTS]);
+        } else {
+            food = new BasicView(offset, fields[ID], fields[NAME], keywords, calories, fields[EXTRA_INFO]);
+        }
+        food.setCommitted((flags & COMMITTED) != 0);
+        return food;
+    }
+
+    // Record encoding.
+
+    private static byte[] encode(Food food) {
+        byte flags = food.isCommitted() ? COMMITTED : 0;
+        String components = "";
+        if (food instanceof CompositeFood) {
+            flags |= COMPOSITE;
+            StringBuilder compBuilder = new StringBuilder();
+            for (Map.Entry<Food, Double> entry : ((CompositeFood) food).getComponents().entrySet()) {
+                compBuilder.append(entry.getKey().getId())
+                        .append(":")
+                        .append(entry.getValue())
+                        .append("|");
+            }
+            if (compBuilder.length() > 0)
+                compBuilder.setLength(compBuilder.length() - 1);
+            components = compBuilder.toString();
+        }
+        return encode(flags, food.getCalories(), food.getId(), food.getName(), String.join("|", food.getKeywords()),
+                food.getExtraInfo(), components);
+    }
+
+    private static byte[] encode(byte flags, double calories, String id, String name, String keywords, String extraInfo, String components) {
+        byte[][] fields = new byte[FIELD_COUNT][];
+        fields[ID] = id.getBytes(StandardCharsets.UTF_8);
+        fields[NAME] = name.getBytes(StandardCharsets.UTF_8);
+        fields[KEYWORDS] = keywords.getBytes(StandardCharsets.UTF_8);
+        fields[EXTRA_INFO] = (extraInfo == null ? "" : extraInfo).getBytes(StandardCharsets.UTF_8);
+        fields[COMPONENTS] = components.getBytes(StandardCharsets.UTF_8);
+        int length = FIELDS;
+        for (byte[] field : fields) {
+            length += 4 + field.length;
+        }
+        ByteBuffer record = ByteBuffer.allocate(length);
+        record.put(flags).putDouble(calories);
+        for (byte[] field : fields) {
+            record.putInt(field.length).put(field);
+        }
+        return record.array();
+    }
+
+    // Food trims its keywords; the record stores them trimmed.
+    private static String trimKeywords(String keywords) {
+        String[] parts = keywords.split("\\|");
+        for (int i = 0; i < parts.length; i++) {
+            parts[i] = parts[i].trim();
+        }
+        return String.join("|", parts);
+    }
+
+    private static int fieldPosition(ByteBuffer a, int offset, int field) {
+        int position = offset + FIELDS;
+        for (int i = 0; i < field; i++) {
+            position += 4 + a.getInt(position);
+        }
+        return position;
+    }
+
+    private static String readString(ByteBuffer a, int offset, int field) {
+        int position = fieldPosition(a, offset, field);
+        byte[] bytes = new byte[a.getInt(position)];
+        a.get(position + 4, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static String[] readFields(ByteBuffer a, int offset) {
+        String[] fields = new String[FIELD_COUNT];
+        int position = offset + FIELDS;
+        for (int i = 0; i < FIELD_COUNT; i++) {
+            byte[] bytes = new byte[a.getInt(position)];
+            a.get(position + 4, bytes);
+            fields[i] = new String(bytes, StandardCharsets.UTF_8);
+            position += 4 + bytes.length;
+        }
+        return fields;
+    }
+
+    private static boolean fieldEquals(ByteBuffer a, int offset, int field, byte[] value) {
+        int position = fieldPosition(a, offset, field);
+        if (a.getInt(position) != value.length)
+            return false;
+        for (int i = 0; i < value.length; i++) {
+            if (a.get(position + 4 + i) != value[i])
+                return false;
+        }
+        return true;
+    }
+
+    private static int recordLength(ByteBuffer a, int offset) {
+        return fieldPosition(a, offset, FIELD_COUNT) - offset;
+    }
+
+    private static int nameHash(String name) {
+        return (int) BloomFilter.hash(name, true);
+    }
+
+    // Views.
+
+    private interface RecordView {
+        int offset();
+    }
+
+    private static final class BasicView extends BasicFood implements RecordView {
+        private final int offset;
+
+        BasicView(int offset, String id, String name, List<String> keywords, double calories, String extraInfo) {
+            super(id, name, keywords, calories, extraInfo);
+            this.offset = offset;
+        }
+
+        public int offset() {
+            return offset;
+        }
+    }
+
+    // Its calories are the total stored in the record; its components are looked up the first
+    // time they are asked for.
+    private static final class CompositeView extends CompositeFood implements RecordView {
+        private final int offset;
+        private final double calories;
+        private final String componentIds;
+        private boolean linked;
+
+        CompositeView(int offset, String id, String name, List<String> keywords, String extraInfo, double calories, String componentIds) {
+            super(id, name, keywords, extraInfo);
+            this.offset = offset;
+            this.calories = calories;
+            this.componentIds = componentIds;
+        }
+
+        public int offset() {
+            return offset;
+        }
+
+        @Override
+        public synchronized Map<Food, Double> getComponents() {
+            if (!linked) {
+                linked = true;
+                for (String comp : componentIds.split("\\|")) {
+                    String[] compParts = comp.split(":");
+                    if (compParts.length != 2)
+                        continue;
+                    Food compFood = FoodDiaryApp.getFoodById(compParts[0]);
+                    try {
+                        if (compFood != null)
+                            addComponent(compFood, Double.parseDouble(compParts[1]));
+                    } catch (NumberFormatException e) {
+                    }
+                }
+            }
+            return super.getComponents();
+        }
+
+        @Override
+        public double getCalories() {
+            return calories;
+        }
+    }
+
+    // Views of the records at the offsets of one arena.
+    private final class RecordList extends AbstractList<Food> implements RandomAccess {
+        final ByteBuffer arena;
+        final int[] offsets;
+
+        RecordList(ByteBuffer arena, int[] offsets) {
+            this.arena = arena;
+            this.offsets = offsets;
+        }
+
+        @Override
+        public Food get(int index) {
+            return view(arena, offsets[index]);
+        }
+
+        @Override
+        public int size() {
+            return offsets.length;
+        }
+    }
+
+    private static final class Ordering {
+        final long version;
+        final RecordList foods;
+
+        Ordering(long version, RecordList foods) {
+            this.version = version;
+            this.foods = foods;
+        }
+    }
+}
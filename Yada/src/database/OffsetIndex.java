@@ -0,0 +1,119 @@
+package database;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+
+// Open-addressing hash table from the hash of a key to the offsets of records in an arena
+// (see OffHeapFoodDatabase). It keeps only the hashes and offsets, in two int arrays, so a
+// million entries are two allocations with nothing in them for the collector to trace; the
+// keys stay in the records and the caller compares them. Several entries may have the same
+// key, since food names are not unique.
+// Linear probing at most half full; a removed entry leaves a marker that lookups step over
+// until the table is rebuilt by a later add.
+// Not thread-safe: OffHeapFoodDatabase only uses it under its lock.
+final class OffsetIndex {
+    private static final int EMPTY = -1;
+    private static final int REMOVED = -2;
+
+    private int[] hashes;
+    private int[] offsets;
+    // Slots that are not EMPTY (entries and REMOVED markers), and entries alone.
+    private int used;
+    private int size;
+
+    OffsetIndex(int expected) {
+        allocate(capacityFor(expected));
+    }
+
+    int size() {
+        return size;
+    }
+
+    // The first offset with the hash that matches, or -1.
+    int find(int hash, IntPredicate matches) {
+        int mask = offsets.length - 1;
+        for (int i = slot(hash, mask); offsets[i] != EMPTY; i = (i + 1) & mask) {
+            if (offsets[i] >= 0 && hashes[i] == hash && matches.test(offsets[i]))
+                return offsets[i];
+        }
+        return -1;
+    }
+
+    // Calls action with every offset that has the hash.
+    void forEach(int hash, IntConsumer action) {
+        int mask = offsets.length - 1;
+        for (int i = slot(hash, mask); offsets[i] != EMPTY; i = (i + 1) & mask) {
+            if (offsets[i] >= 0 && hashes[i] == hash)
+                action.accept(offsets[i]);
+        }
+    }
+
+    void add(int hash, int offset) {
+        if (2 * (used + 1) > offsets.length)
+            rebuild(capacityFor(size + 1));
+        int mask = offsets.length - 1;
+        int i = slot(hash, mask);
+        while (offsets[i] >= 0) {
+            i = (i + 1) & mask;
+        }
+        if (offsets[i] == EMPTY)
+            used++;
+        hashes[i] = hash;
+        offsets[i] = offset;
+        size++;
+    }
+
+    boolean remove(int hash, int offset) {
+        int mask = offsets.length - 1;
+        for (int i = slot(hash, mask); offsets[i] != EMPTY; i = (i + 1) & mask) {
+            if (offsets[i] == offset) {
+                offsets[i] = REMOVED;
+                size--;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Every offset in the table, in ascending order.
+    int[] offsets() {
+        int[] all = new int[size];
+        int n = 0;
+        for (int offset : offsets) {
+            if (offset >= 0)
+                all[n++] = offset;
+        }
+        Arrays.sort(all);
+        return all;
+    }
+
+    private void rebuild(int capacity) {
+        int[] oldHashes = hashes;
+        int[] oldOffsets = offsets;
+        allocate(capacity);
+        for (int i = 0; i < oldOffsets.length; i++) {
+            if (oldOffsets[i] >= 0)
+                add(oldHashes[i], oldOffsets[i]);
+        }
+    }
+
+    private void allocate(int capacity) {
+        hashes = new int[capacity];
+        offsets = new int[capacity];
+        Arrays.fill(offsets, EMPTY);
+        used = 0;
+        size = 0;
+    }
+
+    // A power of two at least four times the entries, so the table is at most half full
+    // until it has doubled in size.
+    private static int capacityFor(int entries) {
+        return Integer.highestOneBit(Math.max(16, 4 * entries - 1)) << 1;
+    }
+
+    private static int slot(int hash, int mask) {
+        int h = hash * 0x9E3779B1;
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
@@ -0,0 +1,16 @@
+package database;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+
+// A data file that can be rendered into any writer, so callers other than save()
+// (e.g. the autosave service) can write it to a temporary location first.
+public interface PersistentStore {
+    String getFilePath();
+
+    void writeTo(BufferedWriter writer) throws IOException;
+
+    // Called by such a caller with the rendered content just before it replaces the file.
+    default void aboutToReplace(String content) {
+    }
+}
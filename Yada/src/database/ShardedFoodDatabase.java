@@ -0,0 +1,414 @@
+package database;
+
+import app.FoodDiaryApp;
+import metrics.LatencyHistogram;
+import metrics.Metrics;
+import model.CompositeFood;
+import model.Food;
+import output.Messages;
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// A FoodCatalog hash-partitioned by food ID over a number of FoodDatabase shards, each with
+// its own file next to the unsharded one (data/simpleFoods.txt -> data/simpleFoods.shard0.txt,
+// ...). Every shard is a PersistentStore of its own, so the autosave service rewrites only the
+// shards that changed, and writes those concurrently; load and save also run shard by shard in
+// parallel.
+// An ID belongs to exactly one shard, whose Bloom filter answers most lookups of absent IDs
+// without reading the shard. Names are not partitioned, so a name lookup asks every shard's
+// filter and searches only the shards that might have the name.
+// Composites may have components in other shards, so all shards are parsed before any
+// composite is linked (see FoodDatabase.link). If there are no shard files yet, or they were
+// written with a different number of shards, load moves every food to its shard and rewrites
+// the shard files; the unsharded file is left as it was.
+public class ShardedFoodDatabase implements FoodCatalog {
+    private final String filePath;
+    private final char typeIndicator;
+    private final Shard[] shards;
+    private final Pattern shardFileName;
+    private final LatencyHistogram loadLatency;
+    private final LatencyHistogram saveLatency;
+    // Merged getSortedFoods lists, per FoodOrder, for the version they were merged at.
+    private final AtomicReferenceArray<Merged> merged = new AtomicReferenceArray<>(FoodOrder.values().length);
+
+    public ShardedFoodDatabase(String filePath, char typeIndicator, int shardCount) {
+        if (shardCount < 1)
+            throw new IllegalArgumentException("At least one shard is needed: " + shardCount);
+        this.filePath = filePath;
+        this.typeIndicator = typeIndicator;
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(new FoodDatabase(shardPath(i), typeIndicator));
+        }
+        String name = new File(filePath).getName();
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        String extension = dot > 0 ? name.substring(dot) : "";
+        this.shardFileName = Pattern.compile(Pattern.quote(base) + "\\.shard(\\d+)" + Pattern.quote(extension));
+        String store = Metrics.storeName(filePath);
+        this.loadLatency = Metrics.latency("store." + store + ".load");
+        this.saveLatency = Metrics.latency("store." + store + ".save");
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    public void addFood(Food food) {
+        Shard shard = shardFor(food.getId());
+        synchronized (shard) {
+            if (shard.database.size() >= shard.capacity)
+                shard.rebuildFilter();
+            // Into the filter first, so a lookup that finds the food in the shard passed the filter.
+            shard.filter.add(food.getId(), false);
+            shard.filter.add(food.getName(), true);
+            shard.database.addFood(food);
+        }
+    }
+
+    public void removeFood(String id) {
+        Shard shard = shardFor(id);
+        synchronized (shard) {
+            int before = shard.database.size();
+            shard.database.removeFood(id);
+            // Removed foods stay in the filter as false positives until it is rebuilt.
+            if (shard.database.size() < before && ++shard.removals > shard.capacity / 4)
+                shard.rebuildFilter();
+        }
+    }
+
+    @Override
+    public void update(Collection<Food> added, Collection<String> removed) {
+        Map<Shard, List<Food>> addedByShard = new LinkedHashMap<>();
+        Map<Shard, List<String>> removedByShard = new LinkedHashMap<>();
+        for (Food food : added) {
+            addedByShard.computeIfAbsent(shardFor(food.getId()), s -> new ArrayList<>()).add(food);
+        }
+        for (String id : removed) {
+            removedByShard.computeIfAbsent(shardFor(id), s -> new ArrayList<>()).add(id);
+        }
+        for (Shard shard : shards) {
+            List<Food> foods = addedByShard.getOrDefault(shard, Collections.emptyList());
+            List<String> ids = removedByShard.getOrDefault(shard, Collections.emptyList());
+            if (foods.isEmpty() && ids.isEmpty())
+                continue;
+            synchronized (shard) {
+                for (Food food : foods) {
+                    shard.filter.add(food.getId(), false);
+                    shard.filter.add(food.getName(), true);
+                }
+                shard.database.update(foods, ids);
+                // Counts every removed ID, found or not; at worst the filter is rebuilt early.
+                shard.removals += ids.size();
+                if (shard.database.size() >= shard.capacity || shard.removals > shard.capacity / 4)
+                    shard.rebuildFilter();
+            }
+        }
+    }
+
+    public Food getFood(String id) {
+        Shard shard = shardFor(id);
+        return shard.filter.mightContain(id, false) ? shard.database.getFood(id) : null;
+    }
+
+    public Food getFoodByName(String name) {
+        Comparator<Food> byId = FoodOrder.ID.comparator();
+        Food best = null;
+        for (Shard shard : shards) {
+            if (!shard.filter.mightContain(name, true))
+                continue;
+            Food food = shard.database.getFoodByName(name);
+            if (food != null && (best == null || byId.compare(food, best) < 0))
+                best = food;
+        }
+        return best;
+    }
+
+    public Collection<Food> getAllFoods() {
+        List<Food> foods = new ArrayList<>(size());
+        for (Shard shard : shards) {
+            foods.addAll(shard.database.getAllFoods());
+        }
+        return foods;
+    }
+
+    // The shards' sorted arrays merged; the result is kept until the catalog changes.
+    public List<Food> getSortedFoods(FoodOrder order) {
+        long version = getVersion();
+        Merged cached = merged.get(order.ordinal());
+        if (cached != null && cached.version == version)
+            return cached.foods;
+        List<List<Food>> lists = new ArrayList<>(shards.length);
+        for (Shard shard : shards) {
+            lists.add(shard.database.getSortedFoods(order));
+        }
+        List<Food> foods = Collections.unmodifiableList(merge(lists, order.comparator()));
+        merged.set(order.ordinal(), new Merged(version, foods));
+        return foods;
+    }
+
+    public int size() {
+        int size = 0;
+        for (Shard shard : shards) {
+            size += shard.database.size();
+        }
+        return size;
+    }
+
+    // The sum of the shards' versions, which only grows.
+    public long getVersion() {
+        long version = 0;
+        for (Shard shard : shards) {
+            version += shard.database.getVersion();
+        }
+        return version;
+    }
+
+    public List<Food> query(FoodQuery query) {
+        List<List<Food>> results = new ArrayList<>(shards.length);
+        for (Shard shard : shards) {
+            results.add(shard.database.query(query));
+        }
+        return merge(results, FoodOrder.ID.comparator());
+    }
+
+    public synchronized void load() {
+        long start = System.nanoTime();
+        File dir = new File(filePath).getAbsoluteFile().getParentFile();
+        SortedMap<Integer, File> shardFiles = new TreeMap<>();
+        File[] files = dir == null ? null : dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Matcher m = shardFileName.matcher(file.getName());
+                if (m.matches())
+                    shardFiles.put(Integer.parseInt(m.group(1)), file);
+            }
+        }
+        // Where each file's foods are parsed from, and the shard they were in (-1 for none).
+        List<FoodDatabase> sources = new ArrayList<>();
+        List<Integer> sourceShards = new ArrayList<>();
+        boolean reshard = false;
+        if (shardFiles.isEmpty()) {
+            if (!new File(filePath).exists()) {
+                Messages.info("food.load", () -> "Database file " + filePath + " not found. Starting with an empty database.");
+                return;
+            }
+            Messages.info("food.load.shard", () -> "Splitting " + filePath + " into " + shards.length + " shards.");
+            sources.add(new FoodDatabase(filePath, typeIndicator));
+            sourceShards.add(-1);
+            reshard = true;
+        } else {
+            for (Map.Entry<Integer, File> e : shardFiles.entrySet()) {
+                int index = e.getKey();
+                boolean current = index < shards.length;
+                sources.add(current ? shards[index].database : new FoodDatabase(e.getValue().getPath(), typeIndicator));
+                sourceShards.add(current ? index : -1);
+                reshard |= !current;
+            }
+        }
+
+        List<Callable<Parsed>> parses = new ArrayList<>();
+        for (FoodDatabase source : sources) {
+            parses.add(() -> {
+                Parsed parsed = new Parsed();
+                source.parse(parsed.foods, parsed.components);
+                return parsed;
+            });
+        }
+        List<Parsed> parsed = inParallel(parses);
+
+        List<Map<String, Food>> byShard = new ArrayList<>(shards.length);
+        for (Shard shard : shards) {
+            Map<String, Food> foods = new HashMap<>();
+            for (Food food : shard.database.getAllFoods()) {
+                foods.put(food.getId(), food);
+            }
+            byShard.add(foods);
+        }
+        Map<CompositeFood, String> components = new LinkedHashMap<>();
+        for (int i = 0; i < parsed.size(); i++) {
+            for (Food food : parsed.get(i).foods.values()) {
+                int index = shardIndex(food.getId());
+                byShard.get(index).put(food.getId(), food);
+                reshard |= index != sourceShards.get(i);
+            }
+            components.putAll(parsed.get(i).components);
+        }
+        FoodDatabase.link(components, id -> {
+            Food food = byShard.get(shardIndex(id)).get(id);
+            return food != null ? food : FoodDiaryApp.getCommittedFoodById(id);
+        });
+        for (int i = 0; i < shards.length; i++) {
+            synchronized (shards[i]) {
+                shards[i].database.replaceAll(byShard.get(i));
+                shards[i].rebuildFilter();
+            }
+        }
+        loadLatency.recordSince(start);
+
+        if (reshard) {
+            save();
+            // Their foods are in the current shards now.
+            for (Map.Entry<Integer, File> e : shardFiles.entrySet()) {
+                if (e.getKey() >= shards.length && !e.getValue().delete())
+                    Messages.warn("food.load.shard", () -> "Could not delete old shard file " + e.getValue());
+            }
+        }
+    }
+
+    public void save() {
+        long start = System.nanoTime();
+        List<Callable<Void>> saves = new ArrayList<>();
+        for (Shard shard : shards) {
+            saves.add(() -> {
+                shard.database.save();
+                return null;
+            });
+        }
+        inParallel(saves);
+        saveLatency.recordSince(start);
+    }
+
+    public List<PersistentStore> getStores() {
+        List<PersistentStore> stores = new ArrayList<>(shards.length);
+        for (Shard shard : shards) {
+            stores.add(shard.database);
+        }
+        return stores;
+    }
+
+    public PersistentStore getStoreFor(String id) {
+        return shardFor(id).database;
+    }
+
+    private String shardPath(int index) {
+        int dot = filePath.lastIndexOf('.');
+        int slash = Math.max(filePath.lastIndexOf('/'), filePath.lastIndexOf(File.separatorChar));
+        if (dot <= slash + 1)
+            return filePath + ".shard" + index;
+        return filePath.substring(0, dot) + ".shard" + index + filePath.substring(dot);
+    }
+
+    private Shard shardFor(String id) {
+        return shards[shardIndex(id)];
+    }
+
+    private int shardIndex(String id) {
+        int h = id.hashCode() * 0x9E3779B1;
+        return Math.floorMod(h ^ (h >>> 16), shards.length);
+    }
+
+    // Merges lists that are each sorted by the comparator.
+    private static List<Food> merge(List<List<Food>> lists, Comparator<Food> comparator) {
+        int total = 0;
+        for (List<Food> list : lists) {
+            total += list.size();
+        }
+        List<Food> result = new ArrayList<>(total);
+        // Entries are {list, position}, ordered by the food at that position.
+        PriorityQueue<int[]> heads = new PriorityQueue<>(Math.max(1, lists.size()),
+                (a, b) -> comparator.compare(lists.get(a[0]).get(a[1]), lists.get(b[0]).get(b[1])));
+        for (int i = 0; i < lists.size(); i++) {
+            if (!lists.get(i).isEmpty())
+                heads.add(new int[] {i, 0});
+        }
+        while (!heads.isEmpty()) {
+            int[] head = heads.poll();
+            List<Food> list = lists.get(head[0]);
+            result.add(list.get(head[1]));
+            if (++head[1] < list.size())
+                heads.add(head);
+        }
+        return result;
+    }
+
+    private static <T> List<T> inParallel(List<Callable<T>> tasks) {
+        int threads = Math.min(tasks.size(), Runtime.getRuntime().availableProcessors());
+        if (threads <= 1) {
+            List<T> results = new ArrayList<>();
+            for (Callable<T> task : tasks) {
+                results.add(call(task));
+            }
+            return results;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "yada-food-shards");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<T> results = new ArrayList<>();
+            for (Future<T> future : pool.invokeAll(tasks)) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new RuntimeException(e.getCause());
+                }
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while loading or saving food shards", e);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static <T> T call(Callable<T> task) {
+        try {
+            return task.call();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // A shard and its Bloom filter of IDs and (case-insensitive) names. The filter is sized for
+    // twice the shard's foods when built, and rebuilt (under the shard's lock) once the shard
+    // outgrows it or a quarter of that has been removed.
+    private static final class Shard {
+        final FoodDatabase database;
+        volatile BloomFilter filter;
+        int capacity;
+        int removals;
+
+        Shard(FoodDatabase database) {
+            this.database = database;
+            rebuildFilter();
+        }
+
+        void rebuildFilter() {
+            Collection<Food> foods = database.getAllFoods();
+            int size = Math.max(64, 2 * foods.size());
+            // IDs and names both go in, so two strings per food.
+            BloomFilter next = new BloomFilter(2 * size);
+            for (Food food : foods) {
+                next.add(food.getId(), false);
+                next.add(food.getName(), true);
+            }
+            capacity = size;
+            removals = 0;
+            filter = next;
+        }
+    }
+
+    private static final class Parsed {
+        final Map<String, Food> foods = new HashMap<>();
+        final Map<CompositeFood, String> components = new LinkedHashMap<>();
+    }
+
+    private static final class Merged {
+        final long version;
+        final List<Food> foods;
+
+        Merged(long version, List<Food> foods) {
+            this.version = version;
+            this.foods = foods;
+        }
+    }
+}
@@ -1,12 +1,24 @@
 package log;
 
 import java.time.LocalDate;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
+// The DailyLog's own monitor is the per-day lock: changes to one day are serialized
+// on it, while different days never contend (see DailyLogManager.withLog).
 public class DailyLog {
+    // Version stamps come from one clock so a day that is removed and re-created
+    // never reuses a stamp a client may still hold.
+    private static final AtomicLong VERSION_CLOCK = new AtomicLong();
+
     private LocalDate date;
     private List<LogEntry> entries;
+    private long version;
 
     public DailyLog(LocalDate date) {
         this.date = date;
@@ -21,21 +33,93 @@ public class DailyLog {
         return entries;
     }
 
-    public void addEntry(LogEntry entry) {
+    // Changes whenever this day's entries change; 0 for a day that was never modified.
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    // Call after changing an entry in place (e.g. its servings).
+    public synchronized void markModified() {
+        version = VERSION_CLOCK.incrementAndGet();
+    }
+
+    public synchronized void addEntry(LogEntry entry) {
         entries.add(entry);
+        markModified();
     }
 
-    public void removeEntry(int index) {
+    public synchronized void removeEntry(int index) {
         if (index >= 0 && index < entries.size()) {
             entries.remove(index);
+            markModified();
         } else {
             throw new IndexOutOfBoundsException("Invalid log entry index: " + index);
         }
     }
 
-    public void insertEntry(int index, LogEntry entry) {
+    public synchronized boolean removeEntry(LogEntry entry) {
+        boolean removed = entries.remove(entry);
+        if (removed)
+            markModified();
+        return removed;
+    }
+
+    public synchronized void insertEntry(int index, LogEntry entry) {
         if (index < 0 || index > entries.size())
             throw new IndexOutOfBoundsException("Invalid index to insert: " + index);
         entries.add(index, entry);
+        markModified();
+    }
+
+    // Bulk variants: one pass over the entries and a single version bump, however many entries change.
+    public synchronized void addEntries(Collection<LogEntry> added) {
+        if (added.isEmpty())
+            return;
+        entries.addAll(added);
+        markModified();
+    }
+
+    // Removes the given entry objects (matched by identity); returns how many were removed.
+    public synchronized int removeEntries(Collection<LogEntry> removed) {
+        if (removed.isEmpty())
+            return 0;
+        Set<LogEntry> toRemove = Collections.newSetFromMap(new IdentityHashMap<>());
+        toRemove.addAll(removed);
+        int before = entries.size();
+        entries.removeIf(toRemove::contains);
+        int count = before - entries.size();
+        if (count > 0)
+            markModified();
+        return count;
+    }
+
+    // Removes the entries at the given indices (all checked before anything is removed);
+    // returns the removed entries in ascending index order.
+    public synchronized List<LogEntry> removeEntriesAt(Collection<Integer> indices) {
+        boolean[] remove = new boolean[entries.size()];
+        for (int index : indices) {
+            if (index < 0 || index >= entries.size())
+                throw new IndexOutOfBoundsException("Invalid log entry index: " + index);
+            remove[index] = true;
+        }
+        List<LogEntry> kept = new ArrayList<>(entries.size());
+        List<LogEntry> removed = new ArrayList<>();
+        for (int i = 0; i < entries.size(); i++) {
+            if (remove[i])
+                removed.add(entries.get(i));
+            else
+                kept.add(entries.get(i));
+        }
+        if (!removed.isEmpty()) {
+            entries.clear();
+            entries.addAll(kept);
+            markModified();
+        }
+        return removed;
+    }
+
+    // Copy of the entries taken under the day lock, safe to iterate while others edit the day.
+    public synchronized List<LogEntry> snapshotEntries() {
+        return new ArrayList<>(entries);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,112 @@
+package log;
+
+import java.time.LocalDate;
+import java.util.*;
+
+// The foods one diary logs recently and most often, for quick picking.
+// Recent: the last recentSize distinct foods logged, newest first.
+// Frequent: a Space-Saving heavy-hitters sketch of fixed size: at most capacity foods are
+// counted, and a food not being counted takes over the smallest counter (inheriting its
+// count), so memory stays the same however many foods are logged and the heaviest foods are
+// kept. Counts decay with a half-life in days of the log date, using forward decay: an entry
+// for day d adds 2^((d - landmark) / halfLife), so older counts never need touching and
+// ranking by these counts is ranking by counts decayed to any common day. When the weights
+// grow large every count is scaled down and the landmark moved up.
+public class FoodUsageTracker {
+    // Rescale once a weight would exceed 2^RESCALE_EXPONENT.
+    private static final double RESCALE_EXPONENT = 64;
+
+    private final int recentSize;
+    private final int capacity;
+    private final double halfLifeDays;
+    // Access-ordered: the eldest entry is the least recently logged food.
+    private final LinkedHashMap<String, Boolean> recent;
+    private final Map<String, double[]> counters = new HashMap<>(); // food ID -> {count, overestimate}
+    private long landmarkDay = Long.MIN_VALUE;
+
+    public FoodUsageTracker(int recentSize, int capacity, double halfLifeDays) {
+        this.recentSize = recentSize;
+        this.capacity = capacity;
+        this.halfLifeDays = halfLifeDays;
+        this.recent = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > FoodUsageTracker.this.recentSize;
+            }
+        };
+    }
+
+    // Counts one log entry of the food on the date.
+    public synchronized void record(String foodId, LocalDate date) {
+        recent.put(foodId, Boolean.TRUE);
+        long day = date.toEpochDay();
+        if (landmarkDay == Long.MIN_VALUE) {
+            landmarkDay = day;
+        } else if ((day - landmarkDay) / halfLifeDays > RESCALE_EXPONENT) {
+            double scale = Math.pow(2, -(day - landmarkDay) / halfLifeDays);
+            for (double[] c : counters.values()) {
+                c[0] *= scale;
+                c[1] *= scale;
+            }
+            landmarkDay = day;
+        }
+        double weight = Math.pow(2, (day - landmarkDay) / halfLifeDays);
+        double[] counter = counters.get(foodId);
+        if (counter != null) {
+            counter[0] += weight;
+        } else if (counters.size() < capacity) {
+            counters.put(foodId, new double[] {weight, 0});
+        } else {
+            String smallest = null;
+            double min = Double.MAX_VALUE;
+            for (Map.Entry<String, double[]> e : counters.entrySet()) {
+                if (e.getValue()[0] < min) {
+                    min = e.getValue()[0];
+                    smallest = e.getKey();
+                }
+            }
+            counters.remove(smallest);
+            counters.put(foodId, new double[] {min + weight, min});
+        }
+    }
+
+    // Up to n food IDs, most recently logged first.
+    public synchronized List<String> getRecent(int n) {
+        List<String> ids = new ArrayList<>(recent.keySet());
+        Collections.reverse(ids);
+        return new ArrayList<>(ids.subList(0, Math.min(n, ids.size())));
+    }
+
+    // Up to n food IDs, most often logged first (recent entries weighing more).
+    // Ranked by guaranteed count (count minus what the counter inherited), so a food that just
+    // took over a large counter does not outrank foods that earned their counts.
+    public synchronized List<String> getFrequent(int n) {
+        List<Map.Entry<String, double[]>> entries = new ArrayList<>(counters.entrySet());
+        entries.sort((a, b) -> {
+            int c = Double.compare(b.getValue()[0] - b.getValue()[1], a.getValue()[0] - a.getValue()[1]);
+            return c != 0 ? c : Double.compare(b.getValue()[0], a.getValue()[0]);
+        });
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < Math.min(n, entries.size()); i++) {
+            ids.add(entries.get(i).getKey());
+        }
+        return ids;
+    }
+
+    // Replaces the tracked history with every entry of the logs, oldest day first.
+    public synchronized void rebuild(Map<LocalDate, DailyLog> logs) {
+        recent.clear();
+        counters.clear();
+        landmarkDay = Long.MIN_VALUE;
+        for (LocalDate date : new TreeSet<>(logs.keySet())) {
+            DailyLog log = logs.get(date);
+            if (log == null)
+                continue;
+            synchronized (log) {
+                for (LogEntry entry : log.getEntries()) {
+                    record(entry.getFoodId(), date);
+                }
+            }
+        }
+    }
+}
@@ -1,18 +1,30 @@
 package log;
 
+import model.Symbols;
+
 public class LogEntry {
-    private String foodId;
-    private double servings;
+    // The food ID as a symbol: logs repeat the same few IDs many times (see Symbols).
+    private final int foodId;
+    private volatile double servings;
 
     public LogEntry(String foodId, double servings) {
-        this.foodId = foodId;
+        this.foodId = Symbols.of(foodId);
         this.servings = servings;
     }
 
     public String getFoodId() {
+        return Symbols.name(foodId);
+    }
+
+    public int getFoodSymbol() {
         return foodId;
     }
 
+    // Whether the entry is for the food with the ID symbol, ignoring case.
+    public boolean isFood(int foodSymbol) {
+        return Symbols.equalsIgnoreCase(foodId, foodSymbol);
+    }
+
     public double getServings() {
         return servings;
     }
@@ -20,4 +32,4 @@ public class LogEntry {
     public void setServings(double servings) {
         this.servings = servings;
     }
-}
\ No newline at end of file
+}
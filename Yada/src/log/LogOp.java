@@ -0,0 +1,140 @@
+package log;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.time.LocalDate;
+import model.Symbols;
+import java.util.ArrayList;
+import java.util.List;
+
+// One logical change to a day's entries. Log commands describe what they did (and how to
+// undo it) as lists of these, which can be written out and replayed without the LogEntry
+// objects the command touched: entries are found by position, checked against the food ID,
+// falling back to the first entry for that food.
+public class LogOp {
+    private static final byte REMOVE = 1;
+    private static final byte SET_SERVINGS = 2;
+    private static final byte INSERT = 3;
+
+    private final byte type;
+    // Position hint; -1 if none (for INSERT, -1 appends).
+    private final int index;
+    private final String foodId;
+    private final double servings;
+
+    private LogOp(byte type, int index, String foodId, double servings) {
+        this.type = type;
+        this.index = index;
+        this.foodId = foodId;
+        this.servings = servings;
+    }
+
+    public static LogOp remove(int index, String foodId) {
+        return new LogOp(REMOVE, index, foodId, 0);
+    }
+
+    public static LogOp setServings(int index, String foodId, double servings) {
+        return new LogOp(SET_SERVINGS, index, foodId, servings);
+    }
+
+    public static LogOp insert(int index, String foodId, double servings) {
+        return new LogOp(INSERT, index, foodId, servings);
+    }
+
+    public String getFoodId() {
+        return foodId;
+    }
+
+    // True if the op adds an entry to the day.
+    public boolean isInsert() {
+        return type == INSERT;
+    }
+
+    // True if the op takes an entry off the day.
+    public boolean isRemove() {
+        return type == REMOVE;
+    }
+
+    // Applies the change to the day; returns false if the entry it refers to is not there.
+    public boolean applyTo(DailyLog log) {
+        List<LogEntry> entries = log.getEntries();
+        switch (type) {
+            case REMOVE: {
+                int i = find(entries);
+                if (i < 0)
+                    return false;
+                log.removeEntry(i);
+                return true;
+            }
+            case SET_SERVINGS: {
+                int i = find(entries);
+                if (i < 0)
+                    return false;
+                entries.get(i).setServings(servings);
+                log.markModified();
+                return true;
+            }
+            case INSERT: {
+                LogEntry entry = new LogEntry(foodId, servings);
+                if (index >= 0 && index <= entries.size()) {
+                    log.insertEntry(index, entry);
+                } else {
+                    log.addEntry(entry);
+                }
+                return true;
+            }
+            default:
+                return false;
+        }
+    }
+
+    // Prefers the hinted position if it still holds the food, otherwise the first entry for it.
+    private int find(List<LogEntry> entries) {
+        int food = Symbols.of(foodId);
+        if (index >= 0 && index < entries.size() && entries.get(index).isFood(food)) {
+            return index;
+        }
+        for (int i = 0; i < entries.size(); i++) {
+            if (entries.get(i).isFood(food)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Binary form of a day's change list: epoch day, count, then each op.
+    public static void writeAll(DataOutput out, LocalDate date, List<LogOp> ops) throws IOException {
+        out.writeLong(date.toEpochDay());
+        writeOps(out, ops);
+    }
+
+    // An op list without a date, read back with readAll (e.g. a second list for the same day).
+    public static void writeOps(DataOutput out, List<LogOp> ops) throws IOException {
+        out.writeInt(ops.size());
+        for (LogOp op : ops) {
+            out.writeByte(op.type);
+            out.writeInt(op.index);
+            out.writeUTF(op.foodId);
+            out.writeDouble(op.servings);
+        }
+    }
+
+    public static LocalDate readDate(DataInput in) throws IOException {
+        return LocalDate.ofEpochDay(in.readLong());
+    }
+
+    // Reads the op list that follows readDate().
+    public static List<LogOp> readAll(DataInput in) throws IOException {
+        int count = in.readInt();
+        List<LogOp> ops = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte type = in.readByte();
+            int index = in.readInt();
+            String foodId = in.readUTF();
+            double servings = in.readDouble();
+            ops.add(new LogOp(type, index, foodId, servings));
+        }
+        return ops;
+    }
+}
@@ -0,0 +1,19 @@
+package log;
+
+import java.time.LocalDate;
+
+// Thrown when a conditional log change was based on an outdated version of the day.
+public class VersionConflictException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final long currentVersion;
+
+    public VersionConflictException(LocalDate date, long expectedVersion, long currentVersion) {
+        super("Log for " + date + " has changed (expected version " + expectedVersion + ", current " + currentVersion + ")");
+        this.currentVersion = currentVersion;
+    }
+
+    public long getCurrentVersion() {
+        return currentVersion;
+    }
+}
@@ -0,0 +1,30 @@
+package metrics;
+
+import jdk.jfr.*;
+
+// JFR event for one command execute or undo.
+@Name("yada.Command")
+@Label("Command")
+@Category({"YADA", "Commands"})
+@Description("Execute or undo of a food or log command")
+@StackTrace(false)
+public class CommandEvent extends Event {
+    @Label("Command")
+    public String command;
+
+    @Label("Operation")
+    public String operation;
+
+    // The day a log command changes; empty for food commands.
+    @Label("Date")
+    public String date;
+
+    public void emit(Class<?> command, String operation, Object date) {
+        if (shouldCommit()) {
+            this.command = command.getSimpleName();
+            this.operation = operation;
+            this.date = date == null ? "" : date.toString();
+            commit();
+        }
+    }
+}
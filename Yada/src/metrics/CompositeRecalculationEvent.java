@@ -0,0 +1,29 @@
+package metrics;
+
+import jdk.jfr.*;
+
+// JFR event for a composite food's calorie total being recomputed from its components.
+@Name("yada.CompositeRecalculation")
+@Label("Composite Recalculation")
+@Category({"YADA", "Catalog"})
+@Description("Recalculation of a composite food's calories")
+@StackTrace(false)
+public class CompositeRecalculationEvent extends Event {
+    @Label("Food ID")
+    public String foodId;
+
+    @Label("Components")
+    public int components;
+
+    @Label("Calories")
+    public double calories;
+
+    public void emit(String foodId, int components, double calories) {
+        if (shouldCommit()) {
+            this.foodId = foodId;
+            this.components = components;
+            this.calories = calories;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Count and latency distribution of one operation, in fixed power-of-two buckets of
+// microseconds. Recording only adds to striped LongAdder cells and CASes the maximum, so it
+// allocates nothing and threads timing the same operation rarely contend on one cache line.
+// Totals and percentiles are computed from the buckets when read, e.g. by a JMX console.
+public class LatencyHistogram implements LatencyHistogramMXBean {
+    // The last bucket also takes everything longer than 2^30 microseconds (about 18 minutes).
+    static final int BUCKETS = 32;
+
+    private final String name;
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    public LatencyHistogram(String name) {
+        this.name = name;
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+        buckets[bucketOf(nanos)].increment();
+        totalNanos.add(nanos);
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+    }
+
+    // Records the time since start, a System.nanoTime() value.
+    public void recordSince(long start) {
+        record(System.nanoTime() - start);
+    }
+
+    static int bucketOf(long nanos) {
+        return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos / 1000));
+    }
+
+    @Override
+    public long getCount() {
+        long count = 0;
+        for (LongAdder bucket : buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    @Override
+    public double getMeanMicros() {
+        long count = getCount();
+        return count == 0 ? 0 : totalNanos.sum() / 1000.0 / count;
+    }
+
+    @Override
+    public double getMaxMicros() {
+        return maxNanos.get() / 1000.0;
+    }
+
+    @Override
+    public long getP50Micros() {
+        return percentileMicros(0.5);
+    }
+
+    @Override
+    public long getP90Micros() {
+        return percentileMicros(0.9);
+    }
+
+    @Override
+    public long getP99Micros() {
+        return percentileMicros(0.99);
+    }
+
+    @Override
+    public long[] getBucketCounts() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+        }
+        return counts;
+    }
+
+    // Not atomic with concurrent recording; a few in-flight samples may land on either side.
+    @Override
+    public void reset() {
+        for (LongAdder bucket : buckets) {
+            bucket.reset();
+        }
+        totalNanos.reset();
+        maxNanos.set(0);
+    }
+
+    private long percentileMicros(double fraction) {
+        long[] counts = getBucketCounts();
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        if (total == 0)
+            return 0;
+        long rank = (long) Math.ceil(fraction * total);
+        long seen = 0;
+        long maxMicros = (maxNanos.get() + 999) / 1000;
+        for (int i = 0; i < BUCKETS - 1; i++) {
+            seen += counts[i];
+            if (seen >= rank)
+                return Math.min(1L << i, maxMicros);
+        }
+        return maxMicros;
+    }
+}
@@ -0,0 +1,22 @@
+package metrics;
+
+// Timings of one operation, in microseconds (see LatencyHistogram).
+public interface LatencyHistogramMXBean {
+    long getCount();
+
+    double getMeanMicros();
+
+    double getMaxMicros();
+
+    // Percentiles are the upper bound of the bucket they fall in, so they overestimate by up to 2x.
+    long getP50Micros();
+
+    long getP90Micros();
+
+    long getP99Micros();
+
+    // Count per bucket, in microseconds: bucket 0 is under 1, bucket i is [2^(i-1), 2^i).
+    long[] getBucketCounts();
+
+    void reset();
+}
@@ -0,0 +1,44 @@
+package metrics;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+// Counts the lines passed through to a writer, for PersistenceEvent. Only put in the write
+// path while the event is being recorded.
+public class LineCountingWriter extends FilterWriter {
+    private long lines;
+
+    public LineCountingWriter(Writer out) {
+        super(out);
+    }
+
+    public long getLines() {
+        return lines;
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        if (c == '\n')
+            lines++;
+        out.write(c);
+    }
+
+    @Override
+    public void write(char[] buffer, int offset, int length) throws IOException {
+        for (int i = offset; i < offset + length; i++) {
+            if (buffer[i] == '\n')
+                lines++;
+        }
+        out.write(buffer, offset, length);
+    }
+
+    @Override
+    public void write(String text, int offset, int length) throws IOException {
+        for (int i = offset; i < offset + length; i++) {
+            if (text.charAt(i) == '\n')
+                lines++;
+        }
+        out.write(text, offset, length);
+    }
+}
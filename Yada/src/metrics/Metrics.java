@@ -0,0 +1,69 @@
+package metrics;
+
+import output.Messages;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// Process-wide registry of the operation metrics, each registered as an MXBean in the platform
+// MBean server under the "yada" domain so any JMX console (e.g. jconsole) can show it:
+//   yada:type=Latency,name=<operation>   e.g. command.AddLogEntryCommand.execute, store.dailylogs.save
+//   yada:type=Store,name=<store>         bytes read and written
+//   yada:type=Sizes,name=<name>          in-memory sizes (registered by the application)
+//   yada:type=Replication,name=<role>    replication progress and lag (leader or follower)
+// Lookups go through a map, so hot paths look their histograms up once and keep them in fields.
+public final class Metrics {
+    public static final String DOMAIN = "yada";
+
+    private static final Map<String, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+    private static final Map<String, StoreIO> stores = new ConcurrentHashMap<>();
+    // [execute, undo] per command class.
+    private static final ClassValue<LatencyHistogram[]> commands = new ClassValue<LatencyHistogram[]>() {
+        @Override
+        protected LatencyHistogram[] computeValue(Class<?> type) {
+            String prefix = "command." + type.getSimpleName();
+            return new LatencyHistogram[] {latency(prefix + ".execute"), latency(prefix + ".undo")};
+        }
+    };
+
+    private Metrics() {
+    }
+
+    public static LatencyHistogram latency(String name) {
+        return latencies.computeIfAbsent(name, n -> register("Latency", n, new LatencyHistogram(n)));
+    }
+
+    public static StoreIO store(String name) {
+        return stores.computeIfAbsent(name, n -> register("Store", n, new StoreIO()));
+    }
+
+    public static LatencyHistogram commandExecute(Class<?> type) {
+        return commands.get(type)[0];
+    }
+
+    public static LatencyHistogram commandUndo(Class<?> type) {
+        return commands.get(type)[1];
+    }
+
+    // Latency and I/O metrics of a store are named after its file, without the extension.
+    public static String storeName(String filePath) {
+        String name = new java.io.File(filePath).getName();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    // Registers an MXBean; a failure only costs the metric its JMX visibility.
+    public static <T> T register(String type, String name, T bean) {
+        try {
+            ObjectName objectName = new ObjectName(DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(objectName)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(bean, objectName);
+            }
+        } catch (JMException e) {
+            Messages.warn("metrics.register.failed", () -> "Could not register metric " + name + ": " + e.getMessage());
+        }
+        return bean;
+    }
+}
@@ -0,0 +1,40 @@
+package metrics;
+
+import jdk.jfr.*;
+
+// JFR event for one parse or write of a data file (load, save, autosave render/write, log
+// journal snapshot and replay). Like the other YADA events it is recorded only while a JFR
+// recording has it enabled; otherwise begin/commit are no-ops the JIT removes.
+@Name("yada.Persistence")
+@Label("Persistence")
+@Category({"YADA", "Persistence"})
+@Description("Parse or write of a YADA data file")
+@StackTrace(false)
+public class PersistenceEvent extends Event {
+    @Label("Store")
+    public String store;
+
+    @Label("Operation")
+    public String operation;
+
+    @Label("Path")
+    public String path;
+
+    @Label("Lines")
+    public long lines;
+
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+
+    public void emit(String store, String operation, String path, long lines, long bytes) {
+        if (shouldCommit()) {
+            this.store = store;
+            this.operation = operation;
+            this.path = path;
+            this.lines = lines;
+            this.bytes = bytes;
+            commit();
+        }
+    }
+}
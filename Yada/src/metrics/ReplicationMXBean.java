@@ -0,0 +1,24 @@
+package metrics;
+
+// State of one end of diary replication (see ReplicationLeader and ReplicationFollower).
+// Records are numbered by the leader in the order it ships them.
+public interface ReplicationMXBean {
+    boolean isConnected();
+
+    // Number of the last record the leader shipped (on the follower: the last it announced).
+    long getLastSeq();
+
+    // Number of the last record the follower applied (on the leader: the last it acknowledged).
+    long getAppliedSeq();
+
+    // Records shipped but not yet applied.
+    long getLagRecords();
+
+    // Leader: age of the oldest record not yet applied. Follower: how long after it was
+    // shipped the last applied record was applied.
+    long getLagMillis();
+
+    long getBatches();
+
+    long getRecords();
+}
@@ -0,0 +1,29 @@
+package metrics;
+
+import jdk.jfr.*;
+
+// JFR event for one catalog search (keywords, ranked or query).
+@Name("yada.Search")
+@Label("Search")
+@Category({"YADA", "Catalog"})
+@Description("A food catalog search")
+@StackTrace(false)
+public class SearchEvent extends Event {
+    @Label("Kind")
+    public String kind;
+
+    @Label("Terms")
+    public int terms;
+
+    @Label("Results")
+    public int results;
+
+    public void emit(String kind, int terms, int results) {
+        if (shouldCommit()) {
+            this.kind = kind;
+            this.terms = terms;
+            this.results = results;
+            commit();
+        }
+    }
+}
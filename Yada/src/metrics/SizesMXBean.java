@@ -0,0 +1,18 @@
+package metrics;
+
+// Sizes of the in-memory state, computed when read.
+public interface SizesMXBean {
+    int getBasicFoods();
+
+    int getCompositeFoods();
+
+    // Days and log entries of every loaded diary.
+    int getLogDays();
+
+    long getLogEntries();
+
+    // Undo steps of every loaded diary, in memory and spilled to disk.
+    long getUndoDepth();
+
+    int getLoadedUsers();
+}
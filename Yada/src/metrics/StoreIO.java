@@ -0,0 +1,42 @@
+package metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// Bytes read and written by the files of one store, summed over every instance of it (e.g. the
+// daily logs of all users), in striped counters.
+public class StoreIO implements StoreIOMXBean {
+    private final LongAdder reads = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+
+    public void recordRead(long bytes) {
+        reads.increment();
+        bytesRead.add(bytes);
+    }
+
+    public void recordWrite(long bytes) {
+        writes.increment();
+        bytesWritten.add(bytes);
+    }
+
+    @Override
+    public long getReads() {
+        return reads.sum();
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    @Override
+    public long getWrites() {
+        return writes.sum();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+}
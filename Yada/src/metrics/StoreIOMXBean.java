@@ -0,0 +1,12 @@
+package metrics;
+
+// Disk traffic of one kind of store (see StoreIO).
+public interface StoreIOMXBean {
+    long getReads();
+
+    long getBytesRead();
+
+    long getWrites();
+
+    long getBytesWritten();
+}
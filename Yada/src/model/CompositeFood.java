@@ -1,5 +1,6 @@
 package model;
 
+import metrics.CompositeRecalculationEvent;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
@@ -21,11 +22,14 @@ public class CompositeFood extends Food {
 
     // Once all components are added, compute and store calories
     public void finalizeCalories() {
+        CompositeRecalculationEvent event = new CompositeRecalculationEvent();
+        event.begin();
         double total = 0;
         for (Map.Entry<Food, Double> entry : components.entrySet()) {
             total += entry.getKey().getCalories() * entry.getValue();
         }
         totalCalories = total;
+        event.emit(getId(), components.size(), total);
     }
 
     public Map<Food, Double> getComponents() {
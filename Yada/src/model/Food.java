@@ -5,19 +5,22 @@ import java.util.*;
 public abstract class Food {
     protected String id; // e.g., B1, C1
     protected String name; // unique identifying name
-    protected List<String> keywords; // keywords for search
-    protected boolean committed; // true if saved to file (persistent)
+    private final int[] keywords; // keywords for search, as symbols (see Symbols)
+    protected volatile boolean committed; // true if saved to file (persistent)
     protected String extraInfo;
+    // Parsed from extraInfo on first use; see getNutrients.
+    private volatile Map<String, Double> nutrients;
 
     public Food(String id, String name, List<String> keywords,String extraInfo) {
         this.id = id;
         this.name = name;
         // Trim keywords to remove extra spaces
-        List<String> trimmed = new ArrayList<>();
+        int[] symbols = new int[keywords.size()];
+        int i = 0;
         for (String k : keywords) {
-            trimmed.add(k.trim());
+            symbols[i++] = Symbols.of(k.trim());
         }
-        this.keywords = trimmed;
+        this.keywords = symbols;
         this.committed = false; // default for new items
         this.extraInfo = extraInfo;
     }
@@ -28,6 +31,37 @@ public abstract class Food {
 
     public void setExtraInfo(String extraInfo) {
         this.extraInfo = extraInfo;
+        this.nutrients = null;
+    }
+
+    // Nutrient amounts from extraInfo ("fiber=4:g|vitaminC=5:mg"), keyed by lower-case
+    // nutrient name (the canonical instance, see Symbols); units are dropped. Unparseable
+    // fields are skipped.
+    public Map<String, Double> getNutrients() {
+        Map<String, Double> parsed = nutrients;
+        if (parsed == null) {
+            parsed = parseNutrients(extraInfo);
+            nutrients = parsed;
+        }
+        return parsed;
+    }
+
+    private static Map<String, Double> parseNutrients(String info) {
+        if (info == null || info.isEmpty())
+            return Collections.emptyMap();
+        Map<String, Double> parsed = new HashMap<>();
+        for (String part : info.split("\\|")) {
+            int eq = part.indexOf('=');
+            if (eq <= 0)
+                continue;
+            int colon = part.indexOf(':', eq);
+            String amount = colon < 0 ? part.substring(eq + 1) : part.substring(eq + 1, colon);
+            try {
+                parsed.merge(Symbols.canonical(part.substring(0, eq).trim().toLowerCase(Locale.ROOT)), Double.parseDouble(amount.trim()), Double::sum);
+            } catch (NumberFormatException e) {
+            }
+        }
+        return Collections.unmodifiableMap(parsed);
     }
 
     public String getId() {
@@ -38,8 +72,44 @@ public abstract class Food {
         return name;
     }
 
+    // The keywords as strings, read-only.
     public List<String> getKeywords() {
-        return keywords;
+        return new AbstractList<String>() {
+            @Override
+            public String get(int index) {
+                return Symbols.name(keywords[index]);
+            }
+
+            @Override
+            public int size() {
+                return keywords.length;
+            }
+        };
+    }
+
+    // Whether one of the keywords is the symbol's string, ignoring case: foldedSymbol is a
+    // folded symbol (see Symbols.folded).
+    public boolean hasKeyword(int foldedSymbol) {
+        for (int k : keywords) {
+            if (Symbols.folded(k) == foldedSymbol)
+                return true;
+        }
+        return false;
+    }
+
+    // Whether one of the keywords equals the string, ignoring case.
+    public boolean hasKeyword(String keyword) {
+        int symbol = Symbols.findFolded(keyword);
+        return symbol >= 0 && hasKeyword(symbol);
+    }
+
+    public int getKeywordCount() {
+        return keywords.length;
+    }
+
+    // The i-th keyword's symbol.
+    public int getKeywordSymbol(int i) {
+        return keywords[i];
     }
 
     public boolean isCommitted() {
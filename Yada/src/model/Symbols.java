@@ -0,0 +1,86 @@
+package model;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Global symbol table for the strings that repeat across the data: food keywords, nutrient
+// names and the food IDs in log entries. Each distinct string gets a symbol, a small int,
+// and one canonical String instance that everything holding the symbol shares, so a keyword
+// used by a hundred thousand foods is stored once and two symbols are equal exactly when
+// their strings are. Every symbol also has a folded symbol (its lower-case string's), so
+// case-insensitive checks are int comparisons too.
+// Symbols are never removed; food names and catalog IDs are unique per food and are not
+// interned, since sharing them would save nothing.
+// Lookups are lock-free; adding a symbol takes the class lock.
+public final class Symbols {
+    private static final ConcurrentHashMap<String, Integer> symbols = new ConcurrentHashMap<>();
+    // Indexed by symbol. Entries are written before their symbol is put in the map, and a
+    // grown array is published after its entries are copied, so whoever got a symbol from
+    // the map finds it in the arrays.
+    private static volatile String[] names = new String[256];
+    private static volatile int[] folded = new int[256];
+    private static int count;
+
+    private Symbols() {
+    }
+
+    // The symbol for the string, adding it if it is new.
+    public static int of(String s) {
+        Integer symbol = symbols.get(s);
+        return symbol != null ? symbol : add(s);
+    }
+
+    // The symbol for the string, or -1 if it was never added; for lookups that should not grow the table.
+    public static int find(String s) {
+        Integer symbol = symbols.get(s);
+        return symbol != null ? symbol : -1;
+    }
+
+    public static String name(int symbol) {
+        return names[symbol];
+    }
+
+    // The canonical instance of the string.
+    public static String canonical(String s) {
+        return names[of(s)];
+    }
+
+    // The symbol of the lower-case form of the symbol's string.
+    public static int folded(int symbol) {
+        return folded[symbol];
+    }
+
+    // The folded symbol of the string (see folded), or -1 if no added string folds to it.
+    public static int findFolded(String s) {
+        return find(s.toLowerCase(Locale.ROOT));
+    }
+
+    public static boolean equalsIgnoreCase(int symbol1, int symbol2) {
+        return symbol1 == symbol2 || folded[symbol1] == folded[symbol2];
+    }
+
+    public static int size() {
+        return symbols.size();
+    }
+
+    private static synchronized int add(String s) {
+        Integer existing = symbols.get(s);
+        if (existing != null)
+            return existing;
+        String lower = s.toLowerCase(Locale.ROOT);
+        // Added first, so that its folded symbol (itself) is in place before this one's.
+        int lowerSymbol = lower.equals(s) ? -1 : of(lower);
+        int symbol = count++;
+        if (symbol == names.length) {
+            String[] grownNames = Arrays.copyOf(names, symbol * 2);
+            int[] grownFolded = Arrays.copyOf(folded, symbol * 2);
+            names = grownNames;
+            folded = grownFolded;
+        }
+        names[symbol] = s;
+        folded[symbol] = lowerSymbol < 0 ? symbol : lowerSymbol;
+        symbols.put(s, symbol);
+        return symbol;
+    }
+}
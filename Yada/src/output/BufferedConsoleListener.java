@@ -0,0 +1,36 @@
+package output;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Supplier;
+
+// Writes messages to the console through large buffers that are only flushed when full or on
+// flush(), instead of one synchronized write per message. For bulk work such as script mode;
+// callers that print results of their own should use getOut() so everything stays in order.
+public class BufferedConsoleListener implements MessageListener {
+    private final PrintStream out;
+    private final PrintStream err;
+
+    public BufferedConsoleListener(int bufferSize) {
+        out = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), bufferSize), false, StandardCharsets.UTF_8);
+        err = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.err), bufferSize), false, StandardCharsets.UTF_8);
+    }
+
+    public PrintStream getOut() {
+        return out;
+    }
+
+    @Override
+    public void onMessage(Level level, String event, Supplier<String> text) {
+        if (level == Level.WARNING) {
+            err.println(text.get());
+        } else {
+            out.println(text.get());
+        }
+    }
+
+    public void flush() {
+        out.flush();
+        err.flush();
+    }
+}
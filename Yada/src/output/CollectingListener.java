@@ -0,0 +1,68 @@
+package output;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.Supplier;
+
+// Keeps the most recent messages as objects (level, event name, text) for embedding programs
+// and tooling. The text of a collected message is only built if getText() is called.
+public class CollectingListener implements MessageListener {
+    private final int capacity;
+    private final Deque<Message> messages = new ArrayDeque<>();
+
+    public static class Message {
+        private final Level level;
+        private final String event;
+        private Supplier<String> supplier;
+        private String text;
+
+        Message(Level level, String event, Supplier<String> supplier) {
+            this.level = level;
+            this.event = event;
+            this.supplier = supplier;
+        }
+
+        public Level getLevel() {
+            return level;
+        }
+
+        public String getEvent() {
+            return event;
+        }
+
+        public synchronized String getText() {
+            if (text == null) {
+                text = supplier.get();
+                supplier = null;
+            }
+            return text;
+        }
+
+        @Override
+        public String toString() {
+            return level + " " + event + ": " + getText();
+        }
+    }
+
+    public CollectingListener(int capacity) {
+        this.capacity = Math.max(1, capacity);
+    }
+
+    @Override
+    public synchronized void onMessage(Level level, String event, Supplier<String> text) {
+        if (messages.size() == capacity) {
+            messages.pollFirst();
+        }
+        messages.addLast(new Message(level, event, text));
+    }
+
+    public synchronized List<Message> getMessages() {
+        return new ArrayList<>(messages);
+    }
+
+    public synchronized void clear() {
+        messages.clear();
+    }
+}
@@ -0,0 +1,33 @@
+package output;
+
+import java.util.function.Supplier;
+
+// Prints messages as they happen: information to System.out, warnings to System.err.
+// Used by the interactive menus, where messages must appear before the next prompt. With
+// warningsOnly, information is dropped without building its text (server mode, where every
+// request would otherwise print a line).
+public class ConsoleListener implements MessageListener {
+    private final boolean warningsOnly;
+
+    public ConsoleListener() {
+        this(false);
+    }
+
+    public ConsoleListener(boolean warningsOnly) {
+        this.warningsOnly = warningsOnly;
+    }
+
+    @Override
+    public void onMessage(Level level, String event, Supplier<String> text) {
+        if (level == Level.WARNING) {
+            System.err.println(text.get());
+        } else {
+            System.out.println(text.get());
+        }
+    }
+
+    @Override
+    public boolean isEnabled(Level level) {
+        return level == Level.WARNING || !warningsOnly;
+    }
+}
@@ -0,0 +1,18 @@
+package output;
+
+import java.util.function.Supplier;
+
+// Receives the user-facing messages and warnings of the commands and stores (see Messages).
+// The text is passed as a supplier so it is only built if the listener actually uses it.
+public interface MessageListener {
+    enum Level { INFO, WARNING }
+
+    // event is a short, stable name for what happened (e.g. "log.added"), for listeners that
+    // filter or count messages without reading their text.
+    void onMessage(Level level, String event, Supplier<String> text);
+
+    // Lets callers skip work for messages nobody will read.
+    default boolean isEnabled(Level level) {
+        return true;
+    }
+}
@@ -0,0 +1,38 @@
+package output;
+
+import java.util.function.Supplier;
+
+// Process-wide route for user-facing messages. Commands and stores report through here
+// instead of writing to System.out/System.err, so an embedding program (or the script mode)
+// can print them differently, collect them or drop them. Defaults to a ConsoleListener.
+public final class Messages {
+    private static volatile MessageListener listener = new ConsoleListener();
+
+    private Messages() {
+    }
+
+    public static MessageListener getListener() {
+        return listener;
+    }
+
+    // Returns the previous listener so callers can restore it.
+    public static MessageListener setListener(MessageListener newListener) {
+        MessageListener previous = listener;
+        listener = newListener;
+        return previous;
+    }
+
+    public static void info(String event, Supplier<String> text) {
+        MessageListener current = listener;
+        if (current.isEnabled(MessageListener.Level.INFO)) {
+            current.onMessage(MessageListener.Level.INFO, event, text);
+        }
+    }
+
+    public static void warn(String event, Supplier<String> text) {
+        MessageListener current = listener;
+        if (current.isEnabled(MessageListener.Level.WARNING)) {
+            current.onMessage(MessageListener.Level.WARNING, event, text);
+        }
+    }
+}
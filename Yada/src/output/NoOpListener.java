@@ -0,0 +1,15 @@
+package output;
+
+import java.util.function.Supplier;
+
+// Drops every message without building its text.
+public class NoOpListener implements MessageListener {
+    @Override
+    public void onMessage(Level level, String event, Supplier<String> text) {
+    }
+
+    @Override
+    public boolean isEnabled(Level level) {
+        return false;
+    }
+}